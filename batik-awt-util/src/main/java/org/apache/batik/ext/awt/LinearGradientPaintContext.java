@@ -486,6 +486,27 @@ final class LinearGradientPaintContext extends MultipleGradientPaintContext {
         }
     }
 
+    /**
+     * Fills rows along which the gradient does not change (the gradient
+     * vector is vertical in device space), looking up a single color
+     * per row and filling the whole span with it.
+     */
+    private void fillConstantRows(int[] pixels, int off, int adjust,
+                                  int y, int w, int h, boolean antiAlias) {
+        for (int i=0; i<h; i++) { //for every row
+            float g = gc + dgdY*(y+i);
+            final int val;
+            if (antiAlias) val = indexGradientAntiAlias(g, pixSz);
+            else           val = indexIntoGradientsArrays(g);
+
+            final int rowLimit = off+w;  // end of row iteration
+            while (off < rowLimit) {
+                pixels[off++] = val;
+            }
+            off += adjust; //change in off from row to row
+        }
+    }
+
     /**
      * Return a Raster containing the colors generated for the graphics
      * operation.  This is where the area is filled with colors distributed
@@ -507,6 +528,10 @@ final class LinearGradientPaintContext extends MultipleGradientPaintContext {
         final float initConst = (dgdX*x) + gc;
 
         if (fillMethod == ANTI_ALIAS_IMPL) {
+            if (dgdX == 0) {
+                fillConstantRows(pixels, off, adjust, y, w, h, true);
+                return;
+            }
             //initialize current value to be start.
             for(int i=0; i<h; i++){ //for every row
                 float g = initConst + dgdY*(y+i);
@@ -524,6 +549,9 @@ final class LinearGradientPaintContext extends MultipleGradientPaintContext {
             if (cycleMethod == MultipleGradientPaint.NO_CYCLE) {
                 fillHardNoCycle(pixels, off, adjust, x, y, w, h);
             }
+            else if (dgdX == 0) {
+                fillConstantRows(pixels, off, adjust, y, w, h, false);
+            }
             else {
                 //initialize current value to be start.
                 for(int i=0; i<h; i++){ //for every row
@@ -34,6 +34,9 @@ import java.awt.image.Raster;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 
@@ -123,12 +126,13 @@ abstract class MultipleGradientPaintContext implements PaintContext {
     /**
      * Array which contains the interpolated color values for each interval,
      * used by calculateSingleArrayGradient().  It is protected for possible
-     * direct access by subclasses.
+     * direct access by subclasses.  It may be shared with other contexts
+     * for the same gradient so it must not be modified.
      */
     protected int[] gradient;
 
     /** Array of gradient arrays, one array for each interval.  Used by
-     *  calculateMultipleArrayGradient().
+     *  calculateMultipleArrayGradient().  Shared like gradient[].
      */
     protected int[][] gradients;
 
@@ -183,6 +187,27 @@ abstract class MultipleGradientPaintContext implements PaintContext {
      */
     private static final int MAX_GRADIENT_ARRAY_SIZE = 5000;
 
+    /**
+     * Maximum number of gradients kept in the shared table cache.
+     */
+    private static final int MAX_CACHED_GRADIENTS = 64;
+
+    /**
+     * Color lookup tables shared between contexts, keyed by the stops,
+     * colors, cycle method and color spaces they were built for.  The
+     * arrays are never modified once built so they can be used
+     * concurrently.
+     */
+    private static final Map gradientTables =
+        new LinkedHashMap(MAX_CACHED_GRADIENTS, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_CACHED_GRADIENTS;
+            }
+        };
+
+    /** The shared tables this context uses. */
+    private GradientTables tables;
+
    /** Constructor for superclass. Does some initialization, but leaves most
     * of the heavy-duty math for calculateGradient(), so the subclass may do
     * some other manipulation beforehand if necessary.  This is not possible
@@ -202,6 +227,58 @@ abstract class MultipleGradientPaintContext implements PaintContext {
                                         colorSpace)
         throws NoninvertibleTransformException
     {
+        // The inverse transform is needed to from device to user space.
+        // Get all the components of the inverse transform matrix.
+        AffineTransform tInv = t.createInverse();
+
+        double[] m = new double[6];
+        tInv.getMatrix(m);
+        a00 = (float)m[0];
+        a10 = (float)m[1];
+        a01 = (float)m[2];
+        a11 = (float)m[3];
+        a02 = (float)m[4];
+        a12 = (float)m[5];
+
+        //copy some flags
+        this.cycleMethod = cycleMethod;
+        this.colorSpace = colorSpace;
+
+        // Setup an example Model, we may refine it later.
+        if (cm.getColorSpace() == lrgbmodel_A.getColorSpace())
+            dataModel = lrgbmodel_A;
+        else if (cm.getColorSpace() == srgbmodel_A.getColorSpace())
+            dataModel = srgbmodel_A;
+        else
+            throw new IllegalArgumentException
+                ("Unsupported ColorSpace for interpolation");
+
+        GradientKey key = new GradientKey(fractions, colors, cycleMethod,
+                                          colorSpace, dataModel);
+        GradientTables tables;
+        synchronized (gradientTables) {
+            tables = (GradientTables)gradientTables.get(key);
+        }
+        if (tables == null) {
+            calculateGradient(fractions, colors);
+            tables = new GradientTables(this);
+            synchronized (gradientTables) {
+                gradientTables.put(key, tables);
+            }
+        } else {
+            tables.apply(this);
+        }
+        this.tables = tables;
+
+        model = GraphicsUtil.coerceColorModel(dataModel,
+                                              cm.isAlphaPremultiplied());
+    }
+
+    /**
+     * Normalizes the gradient stops so the first is at 0 and the last
+     * at 1, then builds the color lookup arrays for them.
+     */
+    private void calculateGradient(float[] fractions, Color[] colors) {
         //We have to deal with the cases where the 1st gradient stop is not
         //equal to 0 and/or the last gradient stop is not equal to 1.
         //In both cases, create a new point and replicate the previous
@@ -268,36 +345,7 @@ abstract class MultipleGradientPaintContext implements PaintContext {
             this.fractions[idx] = 1;
         }
 
-        // The inverse transform is needed to from device to user space.
-        // Get all the components of the inverse transform matrix.
-        AffineTransform tInv = t.createInverse();
-
-        double[] m = new double[6];
-        tInv.getMatrix(m);
-        a00 = (float)m[0];
-        a10 = (float)m[1];
-        a01 = (float)m[2];
-        a11 = (float)m[3];
-        a02 = (float)m[4];
-        a12 = (float)m[5];
-
-        //copy some flags
-        this.cycleMethod = cycleMethod;
-        this.colorSpace = colorSpace;
-
-        // Setup an example Model, we may refine it later.
-        if (cm.getColorSpace() == lrgbmodel_A.getColorSpace())
-            dataModel = lrgbmodel_A;
-        else if (cm.getColorSpace() == srgbmodel_A.getColorSpace())
-            dataModel = srgbmodel_A;
-        else
-            throw new IllegalArgumentException
-                ("Unsupported ColorSpace for interpolation");
-
         calculateGradientFractions(loColors, hiColors);
-
-        model = GraphicsUtil.coerceColorModel(dataModel,
-                                              cm.isAlphaPremultiplied());
     }
 
 
@@ -773,6 +821,11 @@ abstract class MultipleGradientPaintContext implements PaintContext {
                 position = position + 1; //force it to be in the range 0-1
             }
 
+            // a position just below 0 may round to 1, which is 0 again.
+            if (position >= 1) {
+                position = 0;
+            }
+
             int w=0, c1=0, c2=0;
             if (isSimpleLookup) {
               position *= gradient.length;
@@ -988,6 +1041,10 @@ abstract class MultipleGradientPaintContext implements PaintContext {
             // force to be in rage 0-1.
             if (p1 <0) p1 += 1;
             if (p2 <0) p2 += 1;
+
+            // p1 just below 0 may round to 1, and going up from 1 is
+            // going up from 0.
+            if (p1 >= 1) p1 = 0;
         }
 
         else {  //cycleMethod == MultipleGradientPaint.REFLECT
@@ -1471,5 +1528,119 @@ abstract class MultipleGradientPaintContext implements PaintContext {
     public final ColorModel getColorModel() {
         return model;
     }
+
+    /**
+     * Returns the square root lookup table stored with this gradient's
+     * shared tables by a subclass, or null if none was stored yet.
+     */
+    protected final int[] getSharedSqrtLookupTable() {
+        return tables.sqrtLookupTable;
+    }
+
+    /**
+     * Stores a square root lookup table with this gradient's shared
+     * tables so other contexts for the same gradient can reuse it.  The
+     * table only depends on the gradient array size.
+     */
+    protected final void setSharedSqrtLookupTable(int[] table) {
+        tables.sqrtLookupTable = table;
+    }
+
+    /**
+     * Key for the shared gradient table cache.
+     */
+    private static final class GradientKey {
+        private final float[] fractions;
+        private final int[] colors;
+        private final MultipleGradientPaint.CycleMethodEnum cycleMethod;
+        private final MultipleGradientPaint.ColorSpaceEnum colorSpace;
+        private final ColorModel dataModel;
+        private final int hash;
+
+        GradientKey(float[] fractions, Color[] colors,
+                    MultipleGradientPaint.CycleMethodEnum cycleMethod,
+                    MultipleGradientPaint.ColorSpaceEnum colorSpace,
+                    ColorModel dataModel) {
+            this.fractions = (float[])fractions.clone();
+            this.colors = new int[colors.length];
+            for (int i = 0; i < colors.length; i++)
+                this.colors[i] = colors[i].getRGB();
+            this.cycleMethod = cycleMethod;
+            this.colorSpace = colorSpace;
+            this.dataModel = dataModel;
+
+            int h = Arrays.hashCode(this.fractions);
+            h = h * 31 + Arrays.hashCode(this.colors);
+            h = h * 31 + cycleMethod.hashCode();
+            h = h * 31 + colorSpace.hashCode();
+            this.hash = h * 31 + dataModel.hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof GradientKey))
+                return false;
+            GradientKey k = (GradientKey)o;
+            return (hash == k.hash)
+                && (cycleMethod == k.cycleMethod)
+                && (colorSpace == k.colorSpace)
+                && (dataModel == k.dataModel)
+                && Arrays.equals(fractions, k.fractions)
+                && Arrays.equals(colors, k.colors);
+        }
+    }
+
+    /**
+     * The color lookup tables and derived values computed for one
+     * gradient.
+     */
+    private static final class GradientTables {
+        final ColorModel dataModel;
+        final boolean isSimpleLookup;
+        final boolean hasDiscontinuity;
+        final int fastGradientArraySize;
+        final int[] gradient;
+        final int[][] gradients;
+        final int gradientAverage;
+        final int gradientUnderflow;
+        final int gradientOverflow;
+        final int gradientsLength;
+        final float[] normalizedIntervals;
+        final float[] fractions;
+        volatile int[] sqrtLookupTable;
+
+        GradientTables(MultipleGradientPaintContext ctx) {
+            dataModel             = ctx.dataModel;
+            isSimpleLookup        = ctx.isSimpleLookup;
+            hasDiscontinuity      = ctx.hasDiscontinuity;
+            fastGradientArraySize = ctx.fastGradientArraySize;
+            gradient              = ctx.gradient;
+            gradients             = ctx.gradients;
+            gradientAverage       = ctx.gradientAverage;
+            gradientUnderflow     = ctx.gradientUnderflow;
+            gradientOverflow      = ctx.gradientOverflow;
+            gradientsLength       = ctx.gradientsLength;
+            normalizedIntervals   = ctx.normalizedIntervals;
+            fractions             = ctx.fractions;
+        }
+
+        void apply(MultipleGradientPaintContext ctx) {
+            ctx.dataModel             = dataModel;
+            ctx.isSimpleLookup        = isSimpleLookup;
+            ctx.hasDiscontinuity      = hasDiscontinuity;
+            ctx.fastGradientArraySize = fastGradientArraySize;
+            ctx.gradient              = gradient;
+            ctx.gradients             = gradients;
+            ctx.gradientAverage       = gradientAverage;
+            ctx.gradientUnderflow     = gradientUnderflow;
+            ctx.gradientOverflow      = gradientOverflow;
+            ctx.gradientsLength       = gradientsLength;
+            ctx.normalizedIntervals   = normalizedIntervals;
+            ctx.fractions             = fractions;
+        }
+    }
 }
 
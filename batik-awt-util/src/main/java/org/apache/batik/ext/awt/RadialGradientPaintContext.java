@@ -58,11 +58,6 @@ final class RadialGradientPaintContext extends MultipleGradientPaintContext {
     /** Constant part of X, Y user space coordinates. */
     private float constA, constB;
 
-    /** This value represents the solution when focusX == X.  It is called
-     * trivial because it is easier to calculate than the general case.
-     */
-    private float trivial;
-
     private static final int FIXED_POINT_IMPL = 1;
     private static final int DEFAULT_IMPL     = 2;
     private static final int ANTI_ALIAS_IMPL  = 3;
@@ -165,11 +160,6 @@ final class RadialGradientPaintContext extends MultipleGradientPaintContext {
           focusY = (float)(SCALEBACK * radius * Math.sin(angle)) + centerY;
         }
 
-        //calculate the solution to be used in the case where X == focusX
-        //in cyclicCircularGradientFillRaster
-        dX = focusX - centerX;
-        trivial = (float)Math.sqrt(radiusSq - (dX * dX));
-
         // constant parts of X, Y user space coordinates
         constA = a02 - centerX;
         constB = a12 - centerY;
@@ -295,6 +285,10 @@ final class RadialGradientPaintContext extends MultipleGradientPaintContext {
             return;
         }
 
+        // Square distance past which a row is entirely outside the
+        // circle, with some slack for the incremental error in g.
+        final float outsideSq = fixedArraySizeSq * 1.01f + 1;
+
         // For every point in the raster, calculate the color at that point
         for(j = 0; j < h; j++){ //for every row
             //x and y (in user space) of the first pixel of this row
@@ -304,6 +298,21 @@ final class RadialGradientPaintContext extends MultipleGradientPaintContext {
             // these values below here allow for an incremental calculation
             // of dX^2 + dY^2
 
+            // Rows that stay well outside the gradient circle are a
+            // single span of the end stop color.
+            float iMin = -(deltaX * dX + deltaY * dY) / temp;
+            if (iMin < 0)     iMin = 0;
+            if (iMin > w - 1) iMin = w - 1;
+            float minX = dX + iMin * deltaX;
+            float minY = dY + iMin * deltaY;
+            if ((minX * minX + minY * minY) > outsideSq) {
+                final int val = gradientOverflow;
+                for (end = indexer+w; indexer < end; indexer++)
+                    pixels[indexer] = val;
+                indexer += adjust;
+                continue;
+            }
+
             //initialize to be equal to distance squared
             g = (((dY * dY) + (dX * dX)) );
             gDelta = (deltaY * dY + deltaX * dX) * 2 + temp;
@@ -348,8 +357,8 @@ final class RadialGradientPaintContext extends MultipleGradientPaintContext {
     /** Used to limit the size of the square root lookup table */
     private static final int MAX_PRECISION = 256;
 
-    /** Square root lookup table */
-    private int[] sqrtLutFixed = new int[MAX_PRECISION];
+    /** Square root lookup table, shared by contexts for the same gradient */
+    private int[] sqrtLutFixed;
 
     /**
      * Build square root lookup table
@@ -358,147 +367,113 @@ final class RadialGradientPaintContext extends MultipleGradientPaintContext {
         float sqStepFloat;
         sqStepFloat = (fastGradientArraySize * fastGradientArraySize)
                        / (MAX_PRECISION - 2.0f);
+        invSqStepFloat = 1.0f/sqStepFloat;
 
-        // The last two values are the same so that linear square root
-        // interpolation can happen on the maximum reachable element in the
-        // lookup table (precision-2)
-        int[] workTbl = sqrtLutFixed;      // local is cheaper
-        int i;
-        for (i = 0; i < MAX_PRECISION - 1; i++) {
-            workTbl[i] = (int)Math.sqrt(i*sqStepFloat);
+        int[] workTbl = getSharedSqrtLookupTable();
+        if (workTbl == null) {
+            // The last two values are the same so that linear square root
+            // interpolation can happen on the maximum reachable element in
+            // the lookup table (precision-2)
+            workTbl = new int[MAX_PRECISION];
+            int i;
+            for (i = 0; i < MAX_PRECISION - 1; i++) {
+                workTbl[i] = (int)Math.sqrt(i*sqStepFloat);
+            }
+            workTbl[i] = workTbl[i-1];
+            setSharedSqrtLookupTable(workTbl);
         }
-        workTbl[i] = workTbl[i-1];
-        invSqStepFloat = 1.0f/sqStepFloat;
+        sqrtLutFixed = workTbl;
     }
 
-    /** Fill the raster, cycling the gradient colors when a point falls outside
-     *  of the perimeter of the 100% stop circle.
+    /**
+     * Computes the gradient position of <code>n</code> points spaced one
+     * device pixel apart along a scanline, starting at the user space
+     * point (X, Y).
      *
-     *  This calculation first computes the intersection point of the line
-     *  from the focus through the current point in the raster, and the
-     *  perimeter of the gradient circle.
+     * The position g of a point P is |P-F| / |S-F|, where F is the focus
+     * and S is the point where the ray from F through P meets the
+     * gradient circle.  With d = P-F, e = F-C and c = r^2 - e.e this
+     * works out to
      *
-     *  Then it determines the percentage distance of the current point along
-     *  that line (focus is 0%, perimeter is 100%).
+     *   g = (e.d + sqrt((e.d)^2 + c (d.d))) / c
      *
-     *  Equation of a circle centered at (a,b) with radius r:
-     *  (x-a)^2 + (y-b)^2 = r^2
-     *  Equation of a line with slope m and y-intercept b
-     *  y = mx + b
-     *  replacing y in the cirlce equation and solving using the quadratic
-     *  formula produces the following set of equations.  Constant factors have
-     *  been extracted out of the inner loop.
+     * Along a scanline d changes linearly, so e.d is linear and the
+     * discriminant is quadratic in the pixel index.  Both are stepped
+     * with forward differences, leaving a single square root per point.
+     * c is always positive since the focus is kept inside the circle.
+     */
+    private void calculateRow(double X, double Y, int n, double[] gs) {
+        final double eX = focusX - centerX;
+        final double eY = focusY - centerY;
+        final double c = radiusSq - (eX * eX + eY * eY);
+        final double invC = 1 / c;
+
+        final double dX = X - focusX;
+        final double dY = Y - focusY;
+
+        // e.d and its change per pixel.
+        double b = eX * dX + eY * dY;
+        final double bStep = eX * a00 + eY * a10;
+
+        // discriminant and its first and second differences.
+        final double stepSq = a00 * a00 + a10 * a10;
+        final double d2 = bStep * bStep + c * stepSq;
+        double disc = b * b + c * (dX * dX + dY * dY);
+        double discStep = 2 * (b * bStep + c * (dX * a00 + dY * a10)) + d2;
+        final double discStep2 = 2 * d2;
+
+        for (int i = 0; i < n; i++) {
+            // rounding in the differences can push it just below zero.
+            double root = (disc > 0) ? Math.sqrt(disc) : 0;
+            gs[i] = (b + root) * invC;
+
+            b += bStep;
+            disc += discStep;
+            discStep += discStep2;
+        }
+    }
+
+    /** Fill the raster, cycling the gradient colors when a point falls outside
+     *  of the perimeter of the 100% stop circle.
      *
+     *  The gradient position of each scanline is computed incrementally
+     *  by calculateRow, then mapped to a color.
      */
     private void cyclicCircularGradientFillRaster(int[] pixels, int off,
                                                   int adjust,
                                                   int x, int y,
                                                   int w, int h) {
-        // Constant part of the C factor of the quadratic equation
-        final double constC =
-            -(radiusSq) + (centerX * centerX) + (centerY * centerY);
-        double A; //coefficient of the quadratic equation (Ax^2 + Bx + C = 0)
-        double B; //coefficient of the quadratic equation
-        double C; //coefficient of the quadratic equation
-        double slope; //slope of the focus-perimeter line
-        double yintcpt; //y-intercept of the focus-perimeter line
-        double solutionX;//intersection with circle X coordinate
-        double solutionY;//intersection with circle Y coordinate
-               final float constX = (a00*x) + (a01*y) + a02;//const part of X coord
-        final float constY = (a10*x) + (a11*y) + a12; //const part of Y coord
-               final float precalc2 = 2 * centerY;//const in inner loop quad. formula
-        final float precalc3 =-2 * centerX;//const in inner loop quad. formula
-        float X; // User space point X coordinate
-        float Y; // User space point Y coordinate
-        float g;//value between 0 and 1 specifying position in the gradient
-        float det; //determinant of quadratic formula (should always be >0)
-        float currentToFocusSq;//sq distance from the current pt. to focus
-        float intersectToFocusSq;//sq distance from the intersect pt. to focus
-        float deltaXSq; //temp variable for a change in X squared.
-        float deltaYSq; //temp variable for a change in Y squared.
-        int indexer = off; //index variable for pixels array
-        int i, j; //indexing variables for FOR loops
-        int pixInc = w+adjust;//incremental index change for pixels array
-
-        for (j = 0; j < h; j++) { //for every row
-
-            X = (a01*j) + constX; //constants from column to column
-            Y = (a11*j) + constY;
+        final double constX = (a00*x) + (a01*y) + a02;//const part of X coord
+        final double constY = (a10*x) + (a11*y) + a12;//const part of Y coord
+        final double[] gs = new double[w];
 
-            //for every column (inner loop begins here)
-            for (i = 0; i < w; i++) {
-
-                // special case to avoid divide by zero or very near zero
-                if (((X-focusX)>-0.000001f) &&
-                    ((X-focusX)< 0.000001f)) {
-                    solutionX = focusX;
+        final boolean simple = isNonCyclic && isSimpleLookup;
+        final int[] grad = gradient;
+        final int under = gradientUnderflow;
+        final int over  = gradientOverflow;
+        final float size = fastGradientArraySize;
 
-                    solutionY = centerY;
-
-                    solutionY += (Y > focusY)?trivial:-trivial;
+        int indexer = off; //index variable for pixels array
+        for (int j = 0; j < h; j++) { //for every row
+            calculateRow((a01*j) + constX, (a11*j) + constY, w, gs);
+
+            if (simple) {
+                for (int i = 0; i < w; i++) {
+                    float g = (float)gs[i];
+                    final int val;
+                    if      (g >= 1) val = over;
+                    else if (g <= 0) val = under;
+                    else             val = grad[(int)(g * size)];
+                    pixels[indexer + i] = val;
                 }
-
-                else {
-
-                    //slope of the focus-current line
-                    slope =   (Y - focusY) / (X - focusX);
-
-                    yintcpt = Y - (slope * X); //y-intercept of that same line
-
-                    //use the quadratic formula to calculate the intersection
-                    //point
-                    A = (slope * slope) + 1;
-
-                    B =  precalc3 + (-2 * slope * (centerY - yintcpt));
-
-                    C =  constC + (yintcpt* (yintcpt - precalc2));
-
-                    det = (float)Math.sqrt((B * B) - ( 4 * A * C));
-
-                    solutionX = -B;
-
-                    //choose the positive or negative root depending
-                    //on where the X coord lies with respect to the focus.
-                    solutionX += (X < focusX)?-det:det;
-
-                    solutionX = solutionX / (2 * A);//divisor
-
-                    solutionY = (slope * solutionX) + yintcpt;
+            } else {
+                for (int i = 0; i < w; i++) {
+                    pixels[indexer + i] = indexIntoGradientsArrays
+                        ((float)gs[i]);
                 }
-
-                //calculate the square of the distance from the current point
-                //to the focus and the square of the distance from the
-                //intersection point to the focus. Want the squares so we can
-                //do 1 square root after division instead of 2 before.
-
-                deltaXSq = (float)solutionX - focusX;
-                deltaXSq = deltaXSq * deltaXSq;
-
-                deltaYSq = (float)solutionY - focusY;
-                deltaYSq = deltaYSq * deltaYSq;
-
-                intersectToFocusSq = deltaXSq + deltaYSq;
-
-                deltaXSq = X - focusX;
-                deltaXSq = deltaXSq * deltaXSq;
-
-                deltaYSq = Y - focusY;
-                deltaYSq = deltaYSq * deltaYSq;
-
-                currentToFocusSq = deltaXSq + deltaYSq;
-
-                //want the percentage (0-1) of the current point along the
-                //focus-circumference line
-                g = (float)Math.sqrt(currentToFocusSq / intersectToFocusSq);
-
-                //Get the color at this point
-                pixels[indexer + i] = indexIntoGradientsArrays(g);
-
-                X += a00; //incremental change in X, Y
-                Y += a10;
-            } //end inner loop
-            indexer += pixInc;
-        } //end outer loop
+            }
+            indexer += w + adjust;
+        }
     }
 
 
@@ -506,279 +481,47 @@ final class RadialGradientPaintContext extends MultipleGradientPaintContext {
      *  falls outside of the perimeter of the 100% stop circle. Use
      *  the anti-aliased gradient lookup.
      *
-     *  This calculation first computes the intersection point of the line
-     *  from the focus through the current point in the raster, and the
-     *  perimeter of the gradient circle.
-     *
-     *  Then it determines the percentage distance of the current point along
-     *  that line (focus is 0%, perimeter is 100%).
-     *
-     *  Equation of a circle centered at (a,b) with radius r:
-     *  (x-a)^2 + (y-b)^2 = r^2
-     *  Equation of a line with slope m and y-intercept b
-     *  y = mx + b
-     *  replacing y in the cirlce equation and solving using the quadratic
-     *  formula produces the following set of equations.  Constant factors have
-     *  been extracted out of the inner loop.
-     * */
+     *  The gradient position is computed at the corners of every pixel
+     *  with calculateRow; the color is the gradient averaged over the
+     *  range of positions the pixel covers.
+     */
     private void antiAliasFillRaster(int[] pixels, int off,
                                      int adjust,
                                      int x, int y,
                                      int w, int h) {
-        // Constant part of the C factor of the quadratic equation
-        final double constC =
-            -(radiusSq) + (centerX * centerX) + (centerY * centerY);
-        //coefficients of the quadratic equation (Ax^2 + Bx + C = 0)
-               final float precalc2 = 2 * centerY;//const in inner loop quad. formula
-        final float precalc3 =-2 * centerX;//const in inner loop quad. formula
-
         //const part of X,Y coord (shifted to bottom left corner of pixel.
-               final float constX = (a00*(x-.5f)) + (a01*(y+.5f)) + a02;
-        final float constY = (a10*(x-.5f)) + (a11*(y+.5f)) + a12;
-        float X; // User space point X coordinate
-        float Y; // User space point Y coordinate
-        int i, j; //indexing variables for FOR loops
+        final double constX = (a00*(x-.5f)) + (a01*(y+.5f)) + a02;
+        final double constY = (a10*(x-.5f)) + (a11*(y+.5f)) + a12;
         int indexer = off-1; //index variable for pixels array
 
-        double [] prevGs = new double[w+1];
-        double deltaXSq, deltaYSq;
-        double solutionX, solutionY;
-        double slope, yintcpt, A, B, C, det;
-        double intersectToFocusSq, currentToFocusSq;
+        double[] prevGs = new double[w+1];
+        double[] currGs = new double[w+1];
         double g00, g01, g10, g11;
 
-        // Set X,Y to top left corner of first pixel of first row.
-        X = constX - a01;
-        Y = constY - a11;
-
         // Calc top row of g's.
-        for (i=0; i <= w; i++) {
-            final float dx = X - focusX;
-
-            // special case to avoid divide by zero or very near zero
-            if ( ( dx >-0.000001f ) &&
-                 ( dx < 0.000001f ))  {
-                solutionX = focusX;
-                solutionY = centerY;
-                solutionY += (Y > focusY)?trivial:-trivial;
-            }
-            else {
-                // Formula for Circle: (X-Xc)^2 + (Y-Yc)^2 - R^2 = 0
-                // Formula line:        Y = Slope*x + Y0;
-                //
-                // So you substitue line into Circle and apply
-                // Quadradic formula.
-
-
-                //slope of the focus-current line
-                slope =   (Y - focusY) / (X - focusX);
-
-                yintcpt = Y - (slope * X); //y-intercept of that same line
-
-                //use the quadratic formula to calculate the intersection
-                //point
-                A = (slope * slope) + 1;
-
-                B =  precalc3 + (-2 * slope * (centerY - yintcpt));
+        calculateRow(constX - a01, constY - a11, w+1, prevGs);
 
-                C =  constC + (yintcpt* (yintcpt - precalc2));
+        for (int j = 0; j < h; j++) { //for every row
+            // Bottom edge of pixel row.
+            calculateRow((a01*j) + constX, (a11*j) + constY, w+1, currGs);
 
-                det = Math.sqrt((B * B) - ( 4 * A * C));
-
-                solutionX = -B;
-
-                //choose the positive or negative root depending
-                //on where the X coord lies with respect to the focus.
-                solutionX += (X < focusX)?-det:det;
-
-                solutionX = solutionX / (2 * A);//divisor
-
-                solutionY = (slope * solutionX) + yintcpt;
-            }
-
-            //calculate the square of the distance from the current point
-            //to the focus and the square of the distance from the
-            //intersection point to the focus. Want the squares so we can
-            //do 1 square root after division instead of 2 before.
-            deltaXSq = solutionX - focusX;
-            deltaXSq = deltaXSq * deltaXSq;
-
-            deltaYSq = solutionY - focusY;
-            deltaYSq = deltaYSq * deltaYSq;
-
-            intersectToFocusSq = deltaXSq + deltaYSq;
-
-            deltaXSq = X - focusX;
-            deltaXSq = deltaXSq * deltaXSq;
-
-            deltaYSq = Y - focusY;
-            deltaYSq = deltaYSq * deltaYSq;
-
-            currentToFocusSq = deltaXSq + deltaYSq;
-
-            //want the percentage (0-1) of the current point along the
-            //focus-circumference line
-            prevGs[i] = Math.sqrt(currentToFocusSq / intersectToFocusSq);
-
-            X += a00; //incremental change in X, Y
-            Y += a10;
-        }
-
-        for (j = 0; j < h; j++) { //for every row
-
-            // Set X,Y to bottom edge of pixel row.
-            X = (a01*j) + constX; //constants from row to row
-            Y = (a11*j) + constY;
-
-            g10 = prevGs[0];
-
-            float dx = X - focusX;
-            // special case to avoid divide by zero or very near zero
-            if ( ( dx >-0.000001f ) &&
-                 ( dx < 0.000001f ))  {
-                solutionX = focusX;
-                solutionY = centerY;
-                solutionY += (Y > focusY)?trivial:-trivial;
-            }
-            else {
-                // Formula for Circle: (X-Xc)^2 + (Y-Yc)^2 - R^2 = 0
-                // Formula line:        Y = Slope*x + Y0;
-                //
-                // So you substitue line into Circle and apply
-                // Quadradic formula.
-
-
-                //slope of the focus-current line
-                slope =   (Y - focusY) / (X - focusX);
-
-                yintcpt = Y - (slope * X); //y-intercept of that same line
-
-                //use the quadratic formula to calculate the intersection
-                //point
-                A = (slope * slope) + 1;
-
-                B =  precalc3 + (-2 * slope * (centerY - yintcpt));
-
-                C =  constC + (yintcpt* (yintcpt - precalc2));
-
-                det = Math.sqrt((B * B) - ( 4 * A * C));
-
-                solutionX = -B;
-
-                //choose the positive or negative root depending
-                //on where the X coord lies with respect to the focus.
-                solutionX += (X < focusX)?-det:det;
-
-                solutionX = solutionX / (2 * A);//divisor
-
-                solutionY = (slope * solutionX) + yintcpt;
-            }
-
-            //calculate the square of the distance from the current point
-            //to the focus and the square of the distance from the
-            //intersection point to the focus. Want the squares so we can
-            //do 1 square root after division instead of 2 before.
-            deltaXSq = solutionX - focusX;
-            deltaXSq = deltaXSq * deltaXSq;
-
-            deltaYSq = solutionY - focusY;
-            deltaYSq = deltaYSq * deltaYSq;
-
-            intersectToFocusSq = deltaXSq + deltaYSq;
-
-            deltaXSq = X - focusX;
-            deltaXSq = deltaXSq * deltaXSq;
-
-            deltaYSq = Y - focusY;
-            deltaYSq = deltaYSq * deltaYSq;
-
-            currentToFocusSq = deltaXSq + deltaYSq;
-            g11 = Math.sqrt(currentToFocusSq / intersectToFocusSq);
-            prevGs[0] = g11;
-
-            X += a00; //incremental change in X, Y
-            Y += a10;
-
-            //for every column (inner loop begins here)
-            for (i=1; i <= w; i++) {
-                g00 = g10;
-                g01 = g11;
+            for (int i = 1; i <= w; i++) {
+                g00 = prevGs[i-1];
+                g01 = currGs[i-1];
                 g10 = prevGs[i];
-
-                dx = X - focusX;
-                // special case to avoid divide by zero or very near zero
-                if ( ( dx >-0.000001f ) &&
-                     ( dx < 0.000001f ))  {
-                    solutionX = focusX;
-                    solutionY = centerY;
-                    solutionY += (Y > focusY)?trivial:-trivial;
-                }
-                else {
-                    // Formula for Circle: (X-Xc)^2 + (Y-Yc)^2 - R^2 = 0
-                    // Formula line:        Y = Slope*x + Y0;
-                    //
-                    // So you substitue line into Circle and apply
-                    // Quadradic formula.
-
-
-                    //slope of the focus-current line
-                    slope =   (Y - focusY) / (X - focusX);
-
-                    yintcpt = Y - (slope * X); //y-intercept of that same line
-
-                    //use the quadratic formula to calculate the intersection
-                    //point
-                    A = (slope * slope) + 1;
-
-                    B =  precalc3 + (-2 * slope * (centerY - yintcpt));
-
-                    C =  constC + (yintcpt* (yintcpt - precalc2));
-
-                    det = Math.sqrt((B * B) - ( 4 * A * C));
-
-                    solutionX = -B;
-
-                    //choose the positive or negative root depending
-                    //on where the X coord lies with respect to the focus.
-                    solutionX += (X < focusX)?-det:det;
-
-                    solutionX = solutionX / (2 * A);//divisor
-
-                    solutionY = (slope * solutionX) + yintcpt;
-                }
-
-                //calculate the square of the distance from the current point
-                //to the focus and the square of the distance from the
-                //intersection point to the focus. Want the squares so we can
-                //do 1 square root after division instead of 2 before.
-                deltaXSq = solutionX - focusX;
-                deltaXSq = deltaXSq * deltaXSq;
-
-                deltaYSq = solutionY - focusY;
-                deltaYSq = deltaYSq * deltaYSq;
-
-                intersectToFocusSq = deltaXSq + deltaYSq;
-
-                deltaXSq = X - focusX;
-                deltaXSq = deltaXSq * deltaXSq;
-
-                deltaYSq = Y - focusY;
-                deltaYSq = deltaYSq * deltaYSq;
-
-                currentToFocusSq = deltaXSq + deltaYSq;
-                g11 = Math.sqrt(currentToFocusSq / intersectToFocusSq);
-                prevGs[i] = g11;
+                g11 = currGs[i];
 
                 //Get the color at this point
                 pixels[indexer+i] = indexGradientAntiAlias
                     ((float)((g00+g01+g10+g11)/4),
                      (float)Math.max(Math.abs(g11-g00),
                                      Math.abs(g10-g01)));
+            }
 
-                X += a00; //incremental change in X, Y
-                Y += a10;
-            } //end inner loop
+            double[] t = prevGs;
+            prevGs = currGs;
+            currGs = t;
             indexer += (w+adjust);
-        } //end outer loop
+        }
     }
 }
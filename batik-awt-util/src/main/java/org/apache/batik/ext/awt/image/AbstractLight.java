@@ -20,6 +20,8 @@ package org.apache.batik.ext.awt.image;
 
 import java.awt.Color;
 
+import org.apache.batik.ext.awt.image.rendered.BumpMap;
+
 /**
  * An abstract implementation of the Light interface.
  *
@@ -141,6 +143,74 @@ public abstract class AbstractLight implements Light {
 
         return ret;
     }
-}
 
+    /**
+     * Returns a row of the light map into a flat array, starting at
+     * (x, y) with dx increments and a given width. The z elevations are
+     * read from a normal buffer laid out as returned by
+     * {@link BumpMap#getNormalBuffer}. This default implementation
+     * uses {@link #getLight} and a constant intensity of one.
+     *
+     * @param x x-axis coordinate where the light should be computed
+     * @param y y-axis coordinate where the light should be computed
+     * @param dx delta x for computing light vectors in user space
+     * @param width number of samples to compute on the x axis
+     * @param z normal buffer containing the z elevation for all the points
+     * @param zOff offset of the first point's entry in <code>z</code>
+     * @param lightRow array to store the light info to, if null or too
+     *                 short it will be allocated for you and returned.
+     *
+     * @return an array holding four values per sample: the x, y and z
+     *         components of the light vector followed by the light
+     *         intensity at that point.
+     */
+    public double[] getLightRow4(double x, double y,
+                                 final double dx, final int width,
+                                 final float[] z, final int zOff,
+                                 final double[] lightRow) {
+        return computeLightRow4(this, x, y, dx, width, z, zOff, lightRow);
+    }
+
+    /**
+     * Returns a row of the light map of any light into a flat array,
+     * as {@link #getLightRow4(double,double,double,int,float[],int,double[])}
+     * does.  Lights that do not extend <code>AbstractLight</code> get
+     * their light vectors from {@link Light#getLight} and a constant
+     * intensity of one.
+     */
+    public static double[] getLightRow4(Light light, double x, double y,
+                                        final double dx, final int width,
+                                        final float[] z, final int zOff,
+                                        final double[] lightRow) {
+        if (light instanceof AbstractLight)
+            return ((AbstractLight)light).getLightRow4
+                (x, y, dx, width, z, zOff, lightRow);
+        return computeLightRow4(light, x, y, dx, width, z, zOff, lightRow);
+    }
+
+    private static double[] computeLightRow4(Light light,
+                                             double x, double y,
+                                             final double dx,
+                                             final int width,
+                                             final float[] z,
+                                             final int zOff,
+                                             final double[] lightRow) {
+        double [] ret = lightRow;
+        if ((ret == null) || (ret.length < 4*width))
+            ret = new double[4*width];
+
+        final double [] L = new double[3];
+        int zp = zOff + 3;
+        for(int i=0, o=0; i<width; i++, o+=4){
+            light.getLight(x, y, z[zp], L);
+            ret[o]   = L[0];
+            ret[o+1] = L[1];
+            ret[o+2] = L[2];
+            ret[o+3] = 1;
+            zp += BumpMap.NORMAL_STRIDE;
+            x  += dx;
+        }
 
+        return ret;
+    }
+}
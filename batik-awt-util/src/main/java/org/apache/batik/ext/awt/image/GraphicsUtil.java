@@ -56,6 +56,7 @@ import org.apache.batik.ext.awt.image.rendered.Any2sRGBRed;
 import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
 import org.apache.batik.ext.awt.image.rendered.CachableRed;
 import org.apache.batik.ext.awt.image.rendered.FormatRed;
+import org.apache.batik.ext.awt.image.rendered.RasterPool;
 import org.apache.batik.ext.awt.image.rendered.RenderedImageCachableRed;
 import org.apache.batik.ext.awt.image.rendered.TranslateRed;
 
@@ -182,10 +183,13 @@ public class GraphicsUtil {
             // System.out.println("LsRGB: " +
             //                    ColorSpace.getInstance
             //                    (ColorSpace.CS_LINEAR_RGB));
+            // Ask for the destination's alpha state so the colour
+            // conversion and the reformat below happen in one pass.
+            boolean premult = drawCM.isAlphaPremultiplied();
             if      (g2dCS == ColorSpace.getInstance(ColorSpace.CS_sRGB))
-                cr = convertTosRGB(cr);
+                cr = convertTosRGB(cr, premult);
             else if (g2dCS == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB))
-                cr = convertToLsRGB(cr);
+                cr = convertToLsRGB(cr, premult);
         }
         srcCM = cr.getColorModel();
         if (!drawCM.equals(srcCM))
@@ -211,6 +215,7 @@ public class GraphicsUtil {
         }
         Rectangle crR  = cr.getBounds();
         Shape     clip = g2d.getClip();
+        WritableRaster tileRaster = null;
 
         try {
             Rectangle clipR;
@@ -276,7 +281,12 @@ public class GraphicsUtil {
                 g2d.drawImage(bi, clipR.x, clipR.y, null);
             } else {
                 // Use tiles to draw image...
-                wr = Raster.createWritableRaster(srcSM, new Point(0,0));
+                // The tile buffer is only needed for the duration
+                // of this call, so take it from the pool.
+                wr = RasterPool.getRaster(srcSM, 0, 0,
+                                          srcSM.getWidth(),
+                                          srcSM.getHeight());
+                tileRaster = wr;
                 BufferedImage bi = new BufferedImage
                     (srcCM, wr, srcCM.isAlphaPremultiplied(), null);
 
@@ -378,6 +388,7 @@ public class GraphicsUtil {
         } finally {
             g2d.setTransform(g2dAt);
             g2d.setComposite(g2dComposite);
+            RasterPool.releaseRaster(tileRaster);
         }
 
         // System.out.println("Finished Draw");
@@ -678,12 +689,40 @@ public class GraphicsUtil {
      *            linear sRGB.
      */
     public static CachableRed convertToLsRGB(CachableRed src) {
+        return convertToLsRGB(src, false);
+    }
+
+    /**
+     * Like <code>convertToLsRGB(CachableRed)</code> but lets the caller
+     * say which alpha state it would like the result to be in.  When
+     * the conversion can produce that state in the same pass it does
+     * so, otherwise the result is unpremultiplied.  Converting the
+     * output of <code>convertTosRGB</code> back returns the original
+     * image rather than stacking a second conversion.
+     *
+     * @param src The image to convert to linear sRGB.
+     * @param premult The preferred alpha state of the result.
+     * @return    An equivilant image to <code>src</code> who's data is in
+     *            linear sRGB.
+     */
+    public static CachableRed convertToLsRGB(CachableRed src,
+                                             boolean premult) {
         ColorModel cm = src.getColorModel();
         ColorSpace cs = cm.getColorSpace();
         if (cs == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB))
             return src;
 
-        return new Any2LsRGBRed(src);
+        if (src instanceof Any2sRGBRed) {
+            // Skip the sRGB -> linear sRGB round trip.
+            CachableRed orig = (CachableRed)src.getSources().get(0);
+            ColorModel origCM = orig.getColorModel();
+            if ((origCM != null) &&
+                (origCM.getColorSpace() ==
+                 ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB)))
+                return orig;
+        }
+
+        return new Any2LsRGBRed(src, premult);
     }
 
     /**
@@ -697,12 +736,39 @@ public class GraphicsUtil {
      * @return    An equivilant image to <code>src</code> who's data is in sRGB.
      */
     public static CachableRed convertTosRGB(CachableRed src) {
+        return convertTosRGB(src, false);
+    }
+
+    /**
+     * Like <code>convertTosRGB(CachableRed)</code> but lets the caller
+     * say which alpha state it would like the result to be in.  When
+     * the conversion can produce that state in the same pass it does
+     * so, otherwise the result is unpremultiplied.  Converting the
+     * output of <code>convertToLsRGB</code> back returns the original
+     * image rather than stacking a second conversion.
+     *
+     * @param src The image to convert to sRGB.
+     * @param premult The preferred alpha state of the result.
+     * @return    An equivilant image to <code>src</code> who's data is in sRGB.
+     */
+    public static CachableRed convertTosRGB(CachableRed src,
+                                            boolean premult) {
         ColorModel cm = src.getColorModel();
         ColorSpace cs = cm.getColorSpace();
         if (cs == ColorSpace.getInstance(ColorSpace.CS_sRGB))
             return src;
 
-        return new Any2sRGBRed(src);
+        if (src instanceof Any2LsRGBRed) {
+            // Skip the linear sRGB -> sRGB round trip.
+            CachableRed orig = (CachableRed)src.getSources().get(0);
+            ColorModel origCM = orig.getColorModel();
+            if ((origCM != null) &&
+                (origCM.getColorSpace() ==
+                 ColorSpace.getInstance(ColorSpace.CS_sRGB)))
+                return orig;
+        }
+
+        return new Any2sRGBRed(src, premult);
     }
 
     /**
@@ -1391,6 +1457,94 @@ public class GraphicsUtil {
             return true;
         }
 
+    /**
+     * Fixed point reciprocals of the alpha values, used to divide
+     * out alpha without a division per pixel.
+     */
+    private static final int[] ALPHA_DIVIDE_TABLE = new int[256];
+    static {
+        for (int a=1; a<256; a++)
+            ALPHA_DIVIDE_TABLE[a] = 0x00FF0000/a;
+    }
+
+    /**
+     * Applies <code>lut</code> to the colour channels of an INT_PACK
+     * raster, converting the alpha state along the way, all in a single
+     * pass over the data.  This is equivalent to (but much cheaper
+     * than) dividing out alpha, applying the lookup table and then
+     * multiplying alpha back in.
+     *
+     * @param wr  The raster to convert in place.
+     * @param lut 256 entry lookup table applied to each colour channel.
+     * @param srcPremult true if the data in wr is alpha premultiplied.
+     * @param dstPremult true if the result should be alpha premultiplied.
+     */
+    public static void applyLut_INT_PACK_Data(WritableRaster wr,
+                                              final int[] lut,
+                                              boolean srcPremult,
+                                              boolean dstPremult) {
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+
+        final int width = wr.getWidth();
+        final int height = wr.getHeight();
+
+        final int scanStride = sppsm.getScanlineStride();
+        DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+        final int base
+            = (db.getOffset() +
+               sppsm.getOffset(wr.getMinX()-wr.getSampleModelTranslateX(),
+                               wr.getMinY()-wr.getSampleModelTranslateY()));
+
+        final int[] divTable = ALPHA_DIVIDE_TABLE;
+        // Access the pixel data array
+        final int[] pixels = db.getBankData()[0];
+        for (int y=0; y<height; y++) {
+            int sp = base + y*scanStride;
+            final int end = sp + width;
+            while (sp < end) {
+                int pixel = pixels[sp];
+                int a = pixel>>>24;
+                int r = (pixel>>16)&0xFF;
+                int g = (pixel>> 8)&0xFF;
+                int b = (pixel    )&0xFF;
+                if (a == 255) {
+                    r = lut[r];
+                    g = lut[g];
+                    b = lut[b];
+                } else if (a == 0) {
+                    if (srcPremult) {
+                        // Same as what divide_INT_PACK_Data produces.
+                        r = g = b = 0xFF;
+                    }
+                    r = lut[r];
+                    g = lut[g];
+                    b = lut[b];
+                    if (dstPremult) {
+                        r = g = b = 0;
+                    }
+                } else {
+                    if (srcPremult) {
+                        int aFP = divTable[a];
+                        r = ((r*aFP)&0xFF0000)>>16;
+                        g = ((g*aFP)&0xFF0000)>>16;
+                        b = ((b*aFP)&0xFF0000)>>16;
+                    }
+                    r = lut[r];
+                    g = lut[g];
+                    b = lut[b];
+                    if (dstPremult) {
+                        r = (r*a)>>8;
+                        g = (g*a)>>8;
+                        b = (b*a)>>8;
+                    }
+                }
+                pixels[sp] = (a<<24) | (r<<16) | (g<<8) | b;
+                sp++;
+            }
+        }
+    }
+
     protected static void divide_INT_PACK_Data(WritableRaster wr) {
         // System.out.println("Divide Int");
 
@@ -1417,7 +1571,7 @@ public class GraphicsUtil {
                 if (a<=0) {
                     pixels[sp] = 0x00FFFFFF;
                 } else if (a<255) {
-                    int aFP = (0x00FF0000/a);
+                    int aFP = ALPHA_DIVIDE_TABLE[a];
                     pixels[sp] =
                         ((a << 24) |
                          (((((pixel&0xFF0000)>>16)*aFP)&0xFF0000)    ) |
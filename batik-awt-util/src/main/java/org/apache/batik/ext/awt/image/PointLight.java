@@ -20,6 +20,8 @@ package org.apache.batik.ext.awt.image;
 
 import java.awt.Color;
 
+import org.apache.batik.ext.awt.image.rendered.BumpMap;
+
 /**
  * A light source which emits a light of constant intensity in all directions.
  *
@@ -97,5 +99,41 @@ public class PointLight extends AbstractLight {
         L[ 1 ] = L1;
         L[ 2 ] = L2;
     }
-}
 
+    /**
+     * Returns a row of the light map into a flat array, the light
+     * vector is normalized inline and the intensity is always one.
+     */
+    public double[] getLightRow4(double x, double y,
+                                 final double dx, final int width,
+                                 final float[] z, final int zOff,
+                                 final double[] lightRow) {
+        double [] ret = lightRow;
+        if ((ret == null) || (ret.length < 4*width))
+            ret = new double[4*width];
+
+        final double L1 = lightY - y;
+        final double L1Sq = L1*L1;
+        double L0 = lightX - x;
+        int zp = zOff + 3;
+        for(int i=0, o=0; i<width; i++, o+=4){
+            final double L2 = lightZ - z[zp];
+            final double norm = Math.sqrt(L0*L0 + L1Sq + L2*L2);
+            if (norm > 0) {
+                final double invNorm = 1.0/norm;
+                ret[o]   = L0*invNorm;
+                ret[o+1] = L1*invNorm;
+                ret[o+2] = L2*invNorm;
+            } else {
+                ret[o]   = L0;
+                ret[o+1] = L1;
+                ret[o+2] = L2;
+            }
+            ret[o+3] = 1;
+            zp += BumpMap.NORMAL_STRIDE;
+            L0 -= dx;
+        }
+
+        return ret;
+    }
+}
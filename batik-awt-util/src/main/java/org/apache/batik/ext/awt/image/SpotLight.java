@@ -20,6 +20,8 @@ package org.apache.batik.ext.awt.image;
 
 import java.awt.Color;
 
+import org.apache.batik.ext.awt.image.rendered.BumpMap;
+
 /**
  * A light source which emits a light of constant intensity in all directions.
  *
@@ -237,5 +239,30 @@ public class SpotLight extends AbstractLight {
         return ret;
     }
 
+    /**
+     * Returns a row of the light map into a flat array, storing the
+     * normalized light vector and the spot intensity for each sample.
+     */
+    public double[] getLightRow4(double x, double y,
+                                 final double dx, final int width,
+                                 final float[] z, final int zOff,
+                                 final double[] lightRow) {
+        double [] ret = lightRow;
+        if ((ret == null) || (ret.length < 4*width))
+            ret = new double[4*width];
+
+        final double [] L = new double[3];
+        int zp = zOff + 3;
+        for(int i=0, o=0; i<width; i++, o+=4){
+            ret[o+3] = getLightBase(x, y, z[zp], L);
+            ret[o]   = L[0];
+            ret[o+1] = L[1];
+            ret[o+2] = L[2];
+            zp += BumpMap.NORMAL_STRIDE;
+            x  += dx;
+        }
+
+        return ret;
+    }
 }
 
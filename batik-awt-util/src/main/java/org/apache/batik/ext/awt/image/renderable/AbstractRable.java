@@ -52,6 +52,7 @@ public abstract class AbstractRable implements Filter {
     protected Vector srcs;
     protected Map    props = new HashMap();
     protected long   stamp = 0;
+    protected FilterResultCache resultCache;
 
     /**
      * void constructor. The subclass must call one of the
@@ -268,6 +269,46 @@ public abstract class AbstractRable implements Filter {
 
     public boolean isDynamic() { return false; }
 
+    /**
+     * Sets the cache in which this filter keeps its renderings, or
+     * null if it should not keep them.
+     */
+    public void setResultCache(FilterResultCache cache) {
+        resultCache = cache;
+    }
+
+    /**
+     * Returns the cache in which this filter keeps its renderings, or
+     * null.
+     */
+    public FilterResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Returns a rendering of this filter that was stored with
+     * <code>cacheRendering</code> for an equivalent render context, or
+     * null.  Subclasses whose renderings are expensive call this at
+     * the start of <code>createRendering</code>.
+     */
+    protected RenderedImage getCachedRendering(RenderContext rc) {
+        if (resultCache == null)
+            return null;
+        return resultCache.get(this, rc);
+    }
+
+    /**
+     * Stores <code>ri</code> as the rendering of this filter for
+     * <code>rc</code> and returns the image to hand out in its place.
+     * @see FilterResultCache
+     */
+    protected RenderedImage cacheRendering(RenderContext rc,
+                                           RenderedImage ri) {
+        if (resultCache == null)
+            return ri;
+        return resultCache.put(this, rc, ri);
+    }
+
     public Shape getDependencyRegion(int srcIndex,
                                      Rectangle2D outputRgn) {
         if ((srcIndex < 0) || (srcIndex > srcs.size()))
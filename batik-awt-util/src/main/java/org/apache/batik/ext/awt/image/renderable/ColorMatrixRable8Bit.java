@@ -21,7 +21,7 @@ package org.apache.batik.ext.awt.image.renderable;
 import java.awt.image.RenderedImage;
 import java.awt.image.renderable.RenderContext;
 
-import org.apache.batik.ext.awt.image.rendered.ColorMatrixRed;
+import org.apache.batik.ext.awt.image.rendered.ColorOpRed;
 
 /**
  * Implements the interface expected from a color matrix
@@ -210,6 +210,6 @@ public final class ColorMatrixRable8Bit
         if(srcRI == null)
             return null;
 
-        return new ColorMatrixRed(convertSourceCS(srcRI), matrix);
+        return new ColorOpRed(convertSourceCS(srcRI), matrix);
     }
 }
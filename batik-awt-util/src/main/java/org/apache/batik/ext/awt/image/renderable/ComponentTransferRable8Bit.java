@@ -28,7 +28,7 @@ import org.apache.batik.ext.awt.image.IdentityTransfer;
 import org.apache.batik.ext.awt.image.LinearTransfer;
 import org.apache.batik.ext.awt.image.TableTransfer;
 import org.apache.batik.ext.awt.image.TransferFunction;
-import org.apache.batik.ext.awt.image.rendered.ComponentTransferRed;
+import org.apache.batik.ext.awt.image.rendered.ColorOpRed;
 
 /**
  * This class implements the interface expected from a component
@@ -159,9 +159,8 @@ public class ComponentTransferRable8Bit
         if(srcRI == null)
             return null;
 
-        return new ComponentTransferRed(convertSourceCS(srcRI),
-                                        getTransferFunctions(),
-                                        rc.getRenderingHints());
+        return new ColorOpRed(convertSourceCS(srcRI),
+                              getTransferFunctions());
     }
 
     /**
@@ -0,0 +1,349 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.renderable;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.apache.batik.ext.awt.image.CompositeRule;
+import org.apache.batik.ext.awt.image.PadMode;
+
+/**
+ * Simplifies a graph of filter primitives before it is rendered.
+ * Filter chains are built exactly as authored, which often leaves
+ * redundant work in the graph.  This class rewrites:
+ * <ul>
+ *   <li>an offset of an offset into a single offset,</li>
+ *   <li>identity colour matrices and merges of a single input into
+ *       their input, when that input is already in the colour space
+ *       they work in,</li>
+ *   <li>zero pads of zero pads into a single pad, and</li>
+ *   <li>the input region of a blur whose result is cropped to a
+ *       subregion down to what that subregion depends on.</li>
+ * </ul>
+ * The graph may share nodes (named results used several times); each
+ * node is visited once.  Only nodes of the known primitive classes are
+ * descended into or rewritten, anything else is left alone.  A short
+ * description of every rewrite is recorded and can be retrieved with
+ * {@link #getChanges}.
+ *
+ * @version $Id$
+ */
+public class FilterOptimizer {
+
+    /**
+     * Tolerance used when checking for an identity matrix.
+     */
+    protected static final float EPS = 1e-6f;
+
+    /**
+     * Maps the nodes already visited to their replacement.
+     */
+    protected Map visited = new IdentityHashMap();
+
+    /**
+     * Descriptions of the rewrites done so far.
+     */
+    protected List changes = new ArrayList();
+
+    /**
+     * Returns an equivalent, simplified version of <code>filter</code>.
+     * The nodes of the graph may be updated in place to refer to
+     * simplified sources.
+     */
+    public Filter optimize(Filter filter) {
+        if (filter == null)
+            return null;
+
+        Filter ret = (Filter)visited.get(filter);
+        if (ret != null)
+            return ret;
+
+        if (canRewriteSources(filter)) {
+            AbstractRable ar = (AbstractRable)filter;
+            Vector srcs = ar.getSources();
+            for (int i = 0; i < srcs.size(); i++) {
+                Filter src = (Filter)srcs.get(i);
+                Filter opt = optimize(src);
+                if (opt != src) {
+                    srcs.set(i, opt);
+                    ar.touch();
+                }
+            }
+        }
+
+        ret = rewrite(filter);
+        visited.put(filter, ret);
+        return ret;
+    }
+
+    /**
+     * Returns the descriptions of the rewrites done so far.
+     */
+    public List getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Returns true if the sources of <code>filter</code> may be
+     * replaced by equivalent filters.  This holds for the primitives
+     * that look at their sources only when rendering.
+     */
+    protected boolean canRewriteSources(Filter filter) {
+        return ((filter instanceof PadRable8Bit)                ||
+                (filter instanceof AffineRable8Bit)             ||
+                (filter instanceof ColorMatrixRable8Bit)        ||
+                (filter instanceof ComponentTransferRable8Bit)  ||
+                (filter instanceof CompositeRable8Bit)          ||
+                (filter instanceof GaussianBlurRable8Bit)       ||
+                (filter instanceof MorphologyRable8Bit)         ||
+                (filter instanceof ConvolveMatrixRable8Bit)     ||
+                (filter instanceof DiffuseLightingRable8Bit)    ||
+                (filter instanceof SpecularLightingRable8Bit)   ||
+                (filter instanceof DisplacementMapRable8Bit)    ||
+                (filter instanceof TileRable8Bit)               ||
+                (filter instanceof FilterAlphaRable));
+    }
+
+    /**
+     * Applies the rewrite rules to a node whose sources have already
+     * been simplified.
+     */
+    protected Filter rewrite(Filter filter) {
+        if (filter instanceof ColorMatrixRable8Bit)
+            return rewriteColorMatrix((ColorMatrixRable8Bit)filter);
+        if (filter instanceof CompositeRable8Bit)
+            return rewriteComposite((CompositeRable8Bit)filter);
+        if (filter instanceof PadRable8Bit)
+            return rewritePad((PadRable8Bit)filter);
+        return filter;
+    }
+
+    /**
+     * An identity colour matrix is replaced by its source.
+     */
+    protected Filter rewriteColorMatrix(ColorMatrixRable8Bit cm) {
+        float[][] m = cm.getMatrix();
+        if (m == null)
+            return cm;
+        for (int r = 0; r < m.length; r++) {
+            for (int c = 0; c < m[r].length; c++) {
+                float v = (r == c) ? 1 : 0;
+                if (Math.abs(m[r][c] - v) > EPS)
+                    return cm;
+            }
+        }
+        if (!isInColorSpace(cm.getSource(), cm.isColorSpaceLinear()))
+            return cm;
+        changes.add("Removed identity color matrix");
+        return cm.getSource();
+    }
+
+    /**
+     * A merge (source over composite) of a single input is replaced by
+     * that input.
+     */
+    protected Filter rewriteComposite(CompositeRable8Bit comp) {
+        if ((comp.getSources().size() != 1) ||
+            (comp.getCompositeRule() != CompositeRule.OVER))
+            return comp;
+        Filter src = (Filter)comp.getSources().get(0);
+        if (!isInColorSpace(src, comp.isColorSpaceLinear()))
+            return comp;
+        changes.add("Removed composite of a single source");
+        return src;
+    }
+
+    protected Filter rewritePad(PadRable8Bit pad) {
+        if (pad.getPadMode() != PadMode.ZERO_PAD)
+            return pad;
+
+        Filter src = pad.getSource();
+        Rectangle2D r = pad.getPadRect();
+
+        // Pad(Pad(x, A), B) with B inside A is Pad(x, B).
+        PadRable8Bit inner = getZeroPad(src);
+        if ((inner != null) && inner.getPadRect().contains(r)) {
+            changes.add("Merged nested pads");
+            return rewritePad(new PadRable8Bit(inner.getSource(), r,
+                                               PadMode.ZERO_PAD));
+        }
+
+        // Offsets are built as Pad(Affine(Pad(x, R1), T), R2).
+        if (src instanceof AffineRable8Bit) {
+            Filter ret = rewriteOffset(pad, (AffineRable8Bit)src);
+            if (ret != pad)
+                return ret;
+        }
+
+        if (src instanceof GaussianBlurRable8Bit)
+            return rewriteBlurCrop(pad, (GaussianBlurRable8Bit)src);
+
+        return pad;
+    }
+
+    /**
+     * Merges an offset whose input is itself an offset, and removes
+     * the translation of a zero offset.
+     */
+    protected Filter rewriteOffset(PadRable8Bit outer, AffineRable8Bit aff) {
+        AffineTransform t = aff.getAffine();
+        if (!isTranslation(t))
+            return outer;
+        PadRable8Bit inner = getZeroPad(aff.getSource());
+        if (inner == null)
+            return outer;
+
+        Rectangle2D r2 = outer.getPadRect();
+        double tx = t.getTranslateX();
+        double ty = t.getTranslateY();
+
+        // The region of the input that survives both pads, in the
+        // input's coordinates.
+        Rectangle2D clip = inner.getPadRect().createIntersection
+            (translate(r2, -tx, -ty));
+        Filter src = inner.getSource();
+
+        if ((tx == 0) && (ty == 0)) {
+            changes.add("Removed zero offset");
+            return new PadRable8Bit(new PadRable8Bit(src, clip,
+                                                     PadMode.ZERO_PAD),
+                                    r2, PadMode.ZERO_PAD);
+        }
+
+        // Is the input the output of another offset?  Its outer pad
+        // may already have been merged with our inner pad.
+        PadRable8Bit pad2;
+        if (src instanceof AffineRable8Bit) {
+            pad2 = inner;
+        } else {
+            pad2 = getZeroPad(src);
+            if ((pad2 == null) ||
+                !(pad2.getSource() instanceof AffineRable8Bit))
+                return outer;
+        }
+        AffineRable8Bit aff1 = (AffineRable8Bit)pad2.getSource();
+        AffineTransform t1 = aff1.getAffine();
+        if (!isTranslation(t1))
+            return outer;
+        PadRable8Bit pad1 = getZeroPad(aff1.getSource());
+        if (pad1 == null)
+            return outer;
+
+        double tx1 = t1.getTranslateX();
+        double ty1 = t1.getTranslateY();
+        clip = translate(clip.createIntersection(pad2.getPadRect()),
+                         -tx1, -ty1);
+        clip = clip.createIntersection(pad1.getPadRect());
+
+        changes.add("Merged offsets (" + tx1 + ", " + ty1 + ") and ("
+                    + tx + ", " + ty + ")");
+        AffineTransform at = AffineTransform.getTranslateInstance
+            (tx + tx1, ty + ty1);
+        Filter ret = new PadRable8Bit(pad1.getSource(), clip,
+                                      PadMode.ZERO_PAD);
+        ret = new AffineRable8Bit(ret, at);
+        return new PadRable8Bit(ret, r2, PadMode.ZERO_PAD);
+    }
+
+    /**
+     * Shrinks the padded input of a blur whose result is cropped, to
+     * the part of the input the cropped result depends on.
+     */
+    protected Filter rewriteBlurCrop(PadRable8Bit crop,
+                                     GaussianBlurRable8Bit blur) {
+        PadRable8Bit in = getZeroPad(blur.getSource());
+        if (in == null)
+            return crop;
+
+        Rectangle2D dep = blur.getDependencyRegion
+            (0, crop.getPadRect()).getBounds2D();
+        // Leave some slack for the rounding to device pixels.
+        double mx = dep.getWidth()  - crop.getPadRect().getWidth();
+        double my = dep.getHeight() - crop.getPadRect().getHeight();
+        dep = new Rectangle2D.Double(dep.getX() - mx/2, dep.getY() - my/2,
+                                     dep.getWidth() + mx,
+                                     dep.getHeight() + my);
+
+        Rectangle2D r = in.getPadRect();
+        if (!r.intersects(dep) || dep.contains(r))
+            return crop;
+        r = r.createIntersection(dep);
+
+        changes.add("Reduced blur input region");
+        GaussianBlurRable8Bit ret = new GaussianBlurRable8Bit
+            (new PadRable8Bit(in.getSource(), r, PadMode.ZERO_PAD),
+             blur.getStdDeviationX(), blur.getStdDeviationY());
+        ret.setColorSpaceLinear(blur.isColorSpaceLinear());
+        ret.setResultCache(blur.getResultCache());
+        return new PadRable8Bit(ret, crop.getPadRect(), PadMode.ZERO_PAD);
+    }
+
+    /**
+     * Returns true if <code>f</code> is known to render in the given
+     * colour space.  A primitive converts its input to the colour space
+     * it works in, and converting 8 bit data to another colour space
+     * and back loses precision: a primitive that leaves its input as
+     * is may only be removed when its input needs no conversion.
+     */
+    protected static boolean isInColorSpace(Filter f, boolean linear) {
+        // Pads and affines hand on the pixels of their source.
+        while ((f instanceof PadRable8Bit) ||
+               (f instanceof AffineRable8Bit)) {
+            if (f instanceof PadRable8Bit)
+                f = ((PadRable8Bit)f).getSource();
+            else
+                f = ((AffineRable8Bit)f).getSource();
+        }
+        if (!(f instanceof AbstractColorInterpolationRable))
+            return false;
+        return ((AbstractColorInterpolationRable)f).isColorSpaceLinear()
+            == linear;
+    }
+
+    /**
+     * Returns <code>f</code> as a zero pad, or null if it isn't one.
+     */
+    protected static PadRable8Bit getZeroPad(Filter f) {
+        if (!(f instanceof PadRable8Bit))
+            return null;
+        PadRable8Bit pad = (PadRable8Bit)f;
+        if (pad.getPadMode() != PadMode.ZERO_PAD)
+            return null;
+        return pad;
+    }
+
+    protected static boolean isTranslation(AffineTransform at) {
+        int type = at.getType();
+        return ((type == AffineTransform.TYPE_IDENTITY) ||
+                (type == AffineTransform.TYPE_TRANSLATION));
+    }
+
+    protected static Rectangle2D translate(Rectangle2D r,
+                                           double dx, double dy) {
+        return new Rectangle2D.Double(r.getX() + dx, r.getY() + dy,
+                                      r.getWidth(), r.getHeight());
+    }
+}
@@ -0,0 +1,578 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.renderable;
+
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.awt.image.renderable.RenderContext;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.rendered.AbstractRed;
+import org.apache.batik.ext.awt.image.rendered.AffineRed;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.ext.awt.image.rendered.TranslateRed;
+
+/**
+ * A cache of the renderings produced by expensive filter primitives,
+ * so that repeated renderings of an unchanged filter graph (zooming
+ * back and forth, redraws caused by changes elsewhere in a document)
+ * reuse the pixels computed the first time.
+ *
+ * <p>Entries are keyed by the identity of the filter, the identity
+ * and time stamp of every filter in its source graph, the rendering
+ * hints (other than the destination image and area of interest) and
+ * the device transform.  The linear part of the transform
+ * is quantized to {@link #SCALE_QUANTUM} and the translation to
+ * {@link #TRANSLATE_QUANTUM}, renderings whose translations differ
+ * by whole pixels share an entry.  A cached rendering is only
+ * returned when it covers the requested area of interest.  Graphs
+ * containing a filter that reports itself as dynamic are never
+ * cached.</p>
+ *
+ * <p>A cached rendering keeps the tiles of the rendering as they are
+ * first asked for, so only the parts of a rendering that are drawn
+ * are computed.  It refers to the rendering until all of its tiles
+ * have been computed, and through it possibly to the graphics nodes
+ * it draws, so a cache should live no longer than the document its
+ * filters come from: the bridge keeps one per
+ * <code>BridgeContext</code> and hands it to the filters through
+ * {@link AbstractRable#setResultCache}.  The number of renderings
+ * kept is bounded by a byte budget on the size of all their tiles,
+ * the least recently used ones are dropped first.  Filters are only
+ * weakly referenced.</p>
+ *
+ * @version $Id$
+ */
+public final class FilterResultCache {
+
+    /**
+     * Granularity of the scale and shear components of the device
+     * transform.
+     */
+    public static final double SCALE_QUANTUM = 1.0 / 65536;
+
+    /**
+     * Granularity, in device pixels, of the translation of the device
+     * transform.
+     */
+    public static final double TRANSLATE_QUANTUM = 1.0 / 256;
+
+    private static final long TRANSLATE_STEPS =
+        Math.round(1 / TRANSLATE_QUANTUM);
+
+    /**
+     * The default estimated number of bytes of rendered data a cache
+     * may keep.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private final Object lock = new Object();
+
+    private volatile boolean enabled = true;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long bytes = 0;
+
+    private int hitCount = 0;
+    private int missCount = 0;
+
+    /**
+     * The entries, in least recently used order.
+     */
+    private final LinkedHashMap<Key, Entry> entries =
+        new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    /**
+     * Queue of the references to filters that were collected.
+     */
+    private final ReferenceQueue<Filter> queue =
+        new ReferenceQueue<Filter>();
+
+    /**
+     * Enables or disables the cache.  Disabling it drops all entries.
+     */
+    public void setEnabled(boolean enable) {
+        synchronized (lock) {
+            enabled = enable;
+            if (!enable) {
+                clear();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the estimated number of bytes of rendered data the cache
+     * may keep.
+     */
+    public void setMaxBytes(long max) {
+        synchronized (lock) {
+            maxBytes = max;
+            trim();
+        }
+    }
+
+    public long getMaxBytes() {
+        synchronized (lock) {
+            return maxBytes;
+        }
+    }
+
+    /**
+     * Drops all cached renderings.
+     */
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public int getHitCount() {
+        synchronized (lock) {
+            return hitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (lock) {
+            return missCount;
+        }
+    }
+
+    /**
+     * Returns the estimated number of bytes of rendered data the
+     * entries may hold once all their tiles are computed.
+     */
+    public long getByteCount() {
+        synchronized (lock) {
+            return bytes;
+        }
+    }
+
+    public String getStatistics() {
+        synchronized (lock) {
+            return "FilterResultCache[entries=" + entries.size()
+                + " hits=" + hitCount + " misses=" + missCount
+                + " bytes=" + bytes + "]";
+        }
+    }
+
+    /**
+     * Returns the rendering of <code>f</code> cached for an equivalent
+     * render context, or null if there is none.
+     */
+    public RenderedImage get(Filter f, RenderContext rc) {
+        if (!enabled) return null;
+
+        Key key = createKey(f, rc, false);
+        if (key == null) return null;
+
+        Entry e;
+        synchronized (lock) {
+            purge();
+            e = entries.get(key);
+            if (e != null) {
+                // The cached rendering must cover what is asked for.
+                Rectangle r = new Rectangle(e.aoi);
+                r.translate((int)(key.ix - e.ix), (int)(key.iy - e.iy));
+                if (!r.contains(getDeviceAOI(f, rc)))
+                    e = null;
+            }
+            if (e == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+        }
+
+        int dx = (int)(key.ix - e.ix);
+        int dy = (int)(key.iy - e.iy);
+        if ((dx == 0) && (dy == 0))
+            return e.image;
+
+        CachableRed cr = e.image;
+        return new TranslateRed(cr, cr.getMinX() + dx, cr.getMinY() + dy);
+    }
+
+    /**
+     * Stores the rendering <code>ri</code> of <code>f</code> for the
+     * render context <code>rc</code>.  Returns the image that should
+     * be used in place of <code>ri</code>, which keeps the tiles of
+     * <code>ri</code> once they are computed.
+     */
+    public RenderedImage put(Filter f, RenderContext rc, RenderedImage ri) {
+        if (!enabled || (ri == null)) return ri;
+
+        Key key = createKey(f, rc, true);
+        if (key == null) return ri;
+
+        Rectangle aoi = getDeviceAOI(f, rc);
+        CachableRed cr = GraphicsUtil.wrap(ri);
+        CachableRed pixels = getPixelSource(cr);
+        if (aoi.isEmpty() || pixels.getBounds().isEmpty())
+            return ri;
+        long sz = getTilesSize(pixels);
+        if (sz > getMaxBytes())
+            return ri;
+
+        cr = cacheTiles(cr);
+        Entry e = new Entry(cr, aoi, key.ix, key.iy, sz);
+        synchronized (lock) {
+            purge();
+            Entry old = entries.put(key, e);
+            if (old != null)
+                bytes -= old.bytes;
+            bytes += sz;
+            trim();
+        }
+        return cr;
+    }
+
+    /**
+     * Returns the image whose tiles <code>cacheTiles</code> keeps:
+     * <code>cr</code> without the affine and translation steps at the
+     * end of its chain.
+     */
+    private static CachableRed getPixelSource(CachableRed cr) {
+        while (true) {
+            if (cr instanceof AffineRed)
+                cr = ((AffineRed)cr).getSource();
+            else if (cr instanceof TranslateRed)
+                cr = ((TranslateRed)cr).getSource();
+            else
+                return cr;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of all the tiles of <code>cr</code>.
+     */
+    private static long getTilesSize(CachableRed cr) {
+        SampleModel sm = cr.getSampleModel();
+        long bits = (long)sm.getNumDataElements()
+            * DataBuffer.getDataTypeSize(sm.getDataType());
+        long tiles = (long)cr.getNumXTiles() * cr.getNumYTiles();
+        return tiles * sm.getWidth() * sm.getHeight() * bits / 8;
+    }
+
+    /**
+     * Puts a <code>TilesRed</code> under the affine and translation
+     * steps at the end of the chain of <code>cr</code>, so that
+     * <code>GraphicsUtil.drawImage</code> can still hand them to
+     * Java2D.
+     */
+    private static CachableRed cacheTiles(CachableRed cr) {
+        if (cr instanceof AffineRed) {
+            AffineRed ar = (AffineRed)cr;
+            return new AffineRed(cacheTiles(ar.getSource()),
+                                 ar.getTransform(),
+                                 ar.getRenderingHints());
+        }
+        if (cr instanceof TranslateRed) {
+            TranslateRed tr = (TranslateRed)cr;
+            return new TranslateRed(cacheTiles(tr.getSource()),
+                                    tr.getMinX(), tr.getMinY());
+        }
+        return new TilesRed(cr);
+    }
+
+    /**
+     * Drops least recently used entries until the byte budget is met.
+     */
+    private void trim() {
+        Iterator<Entry> i = entries.values().iterator();
+        while ((bytes > maxBytes) && i.hasNext()) {
+            Entry e = i.next();
+            bytes -= e.bytes;
+            i.remove();
+        }
+    }
+
+    /**
+     * Drops the entries whose filters were garbage collected.
+     */
+    private void purge() {
+        Reference<? extends Filter> ref;
+        while ((ref = queue.poll()) != null) {
+            Key key = ((FilterRef)ref).key;
+            if (key == null) continue;
+            Entry e = entries.remove(key);
+            if (e != null)
+                bytes -= e.bytes;
+        }
+    }
+
+    private static Rectangle getDeviceAOI(Filter f, RenderContext rc) {
+        Shape aoi = rc.getAreaOfInterest();
+        if (aoi == null)
+            aoi = f.getBounds2D();
+        AffineTransform at = rc.getTransform();
+        if (at == null)
+            return aoi.getBounds();
+        return at.createTransformedShape(aoi).getBounds();
+    }
+
+    /**
+     * Builds the key for rendering <code>f</code> with
+     * <code>rc</code>, or returns null if the graph rooted at
+     * <code>f</code> can not be cached.  Only keys that are stored
+     * register their references for purging.
+     */
+    private Key createKey(Filter f, RenderContext rc, boolean register) {
+        List<Filter> graph = new ArrayList<Filter>();
+        if (!collect(f, graph, new IdentityHashMap<Filter, Filter>()))
+            return null;
+
+        AffineTransform at = rc.getTransform();
+        if (at == null)
+            at = new AffineTransform();
+
+        RenderingHints rh = rc.getRenderingHints();
+        if (rh != null) {
+            // The destination and area of interest of the caller do
+            // not change the pixels of the result.
+            rh = (RenderingHints)rh.clone();
+            rh.remove(RenderingHintsKeyExt.KEY_BUFFERED_IMAGE);
+            rh.remove(RenderingHintsKeyExt.KEY_AREA_OF_INTEREST);
+        }
+
+        return new Key(graph, at, rh, register ? queue : null);
+    }
+
+    /**
+     * Adds <code>f</code> and all of its sources to
+     * <code>graph</code>, depth first.  Returns false if any of them
+     * is dynamic.
+     */
+    private static boolean collect(Filter f, List<Filter> graph,
+                                   Map<Filter, Filter> seen) {
+        if (f.isDynamic())
+            return false;
+        if (seen.put(f, f) != null) {
+            // Shared sub graphs are only recorded once, but their
+            // position still matters.
+            graph.add(f);
+            return true;
+        }
+        graph.add(f);
+
+        List srcs = f.getSources();
+        if (srcs == null)
+            return true;
+        for (int i = 0; i < srcs.size(); i++) {
+            Object src = srcs.get(i);
+            if (!(src instanceof Filter))
+                return false;
+            if (!collect((Filter)src, graph, seen))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A weak reference to one of the filters of a key.
+     */
+    private static class FilterRef extends WeakReference<Filter> {
+        Key key;
+
+        FilterRef(Filter f, Key key, ReferenceQueue<Filter> queue) {
+            super(f, queue);
+            this.key = key;
+        }
+    }
+
+    private static class Key {
+        final FilterRef[] filters;
+        final long[]      stamps;
+        final long[]      xform;
+        final long        ix, iy;
+        final RenderingHints hints;
+        final int         hash;
+
+        /**
+         * @param queue where the references to the filters are queued
+         *        once collected, or null if the key is not stored
+         */
+        Key(List<Filter> graph, AffineTransform at, RenderingHints hints,
+            ReferenceQueue<Filter> queue) {
+            int n = graph.size();
+            filters = new FilterRef[n];
+            stamps  = new long[n];
+            int h = 0;
+            for (int i = 0; i < n; i++) {
+                Filter f = graph.get(i);
+                filters[i] = new FilterRef
+                    (f, (queue == null) ? null : this, queue);
+                stamps[i]  = f.getTimeStamp();
+                h = h * 31 + System.identityHashCode(f);
+                h = h * 31 + (int)(stamps[i] ^ (stamps[i] >>> 32));
+            }
+
+            // The translation is split in whole pixels, which are
+            // not part of the key, and a sub pixel remainder.
+            long tx = Math.round(at.getTranslateX() / TRANSLATE_QUANTUM);
+            long ty = Math.round(at.getTranslateY() / TRANSLATE_QUANTUM);
+            ix = floorDiv(tx, TRANSLATE_STEPS);
+            iy = floorDiv(ty, TRANSLATE_STEPS);
+
+            xform = new long[] {
+                Math.round(at.getScaleX() / SCALE_QUANTUM),
+                Math.round(at.getShearY() / SCALE_QUANTUM),
+                Math.round(at.getShearX() / SCALE_QUANTUM),
+                Math.round(at.getScaleY() / SCALE_QUANTUM),
+                tx - ix * TRANSLATE_STEPS,
+                ty - iy * TRANSLATE_STEPS
+            };
+            h = h * 31 + Arrays.hashCode(xform);
+
+            this.hints = hints;
+            if (hints != null)
+                h = h * 31 + hints.hashCode();
+            hash = h;
+        }
+
+        private static long floorDiv(long a, long b) {
+            long q = a / b;
+            if ((a % b != 0) && ((a < 0) != (b < 0)))
+                q--;
+            return q;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key k = (Key)o;
+            if ((hash != k.hash) ||
+                (filters.length != k.filters.length) ||
+                !Arrays.equals(stamps, k.stamps) ||
+                !Arrays.equals(xform, k.xform))
+                return false;
+
+            if (hints == null) {
+                if (k.hints != null) return false;
+            } else if (!hints.equals(k.hints)) {
+                return false;
+            }
+
+            for (int i = 0; i < filters.length; i++) {
+                Object f = filters[i].get();
+                if ((f == null) || (f != k.filters[i].get()))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A rendering that keeps its tiles once they are computed.  It
+     * has the tile layout of the rendering and pulls its tiles one at
+     * a time, as they are pulled when the image is drawn, since some
+     * filters compute slightly different values when asked for a
+     * larger area.  Once all the tiles are kept, the rendering is
+     * dropped.
+     */
+    private static class TilesRed extends AbstractRed {
+        private CachableRed src;
+        private final Raster[] tiles;
+        private int missing;
+
+        TilesRed(CachableRed src) {
+            super((CachableRed)null, src.getBounds(),
+                  src.getColorModel(), src.getSampleModel(),
+                  src.getTileGridXOffset(), src.getTileGridYOffset(),
+                  null);
+            this.src = src;
+            this.missing = getNumXTiles() * getNumYTiles();
+            this.tiles = new Raster[missing];
+        }
+
+        public synchronized Raster getTile(int tileX, int tileY) {
+            int i = ((tileY - getMinTileY()) * getNumXTiles()
+                     + (tileX - getMinTileX()));
+            Raster tile = tiles[i];
+            if (tile == null) {
+                WritableRaster wr = makeTile(tileX, tileY);
+                src.copyData(wr);
+                tile = wr;
+                tiles[i] = tile;
+                if (--missing == 0)
+                    src = null;
+            }
+            return tile;
+        }
+
+        public WritableRaster copyData(WritableRaster wr) {
+            Rectangle r = wr.getBounds().intersection(getBounds());
+            if (r.isEmpty())
+                return wr;
+            int tx0 = getXTile(r.x);
+            int ty0 = getYTile(r.y);
+            int tx1 = getXTile(r.x + r.width  - 1);
+            int ty1 = getYTile(r.y + r.height - 1);
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    GraphicsUtil.copyData(getTile(tx, ty), wr);
+                }
+            }
+            return wr;
+        }
+    }
+
+    private static class Entry {
+        final CachableRed image;
+        final Rectangle   aoi;
+        final long        ix, iy;
+        final long        bytes;
+
+        Entry(CachableRed image, Rectangle aoi, long ix, long iy,
+              long bytes) {
+            this.image = image;
+            this.aoi   = aoi;
+            this.ix    = ix;
+            this.iy    = iy;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -146,6 +146,10 @@ public class GaussianBlurRable8Bit
     }
 
     public RenderedImage createRendering(RenderContext rc) {
+        RenderedImage cached = getCachedRendering(rc);
+        if (cached != null)
+            return cached;
+
         // Just copy over the rendering hints.
         RenderingHints rh = rc.getRenderingHints();
         if (rh == null) rh = new RenderingHints(null);
@@ -278,7 +282,7 @@ public class GaussianBlurRable8Bit
         if ((resAt != null) && (!resAt.isIdentity()))
             cr = new AffineRed(cr, resAt, rh);
 
-        return cr;
+        return cacheRendering(rc, cr);
     }
 
     /**
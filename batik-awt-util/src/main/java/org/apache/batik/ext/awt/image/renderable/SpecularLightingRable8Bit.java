@@ -219,6 +219,10 @@ public class SpecularLightingRable8Bit
     }
 
     public RenderedImage createRendering(RenderContext rc){
+        RenderedImage cached = getCachedRendering(rc);
+        if (cached != null)
+            return cached;
+
         Shape aoi = rc.getAreaOfInterest();
         if (aoi == null)
             aoi = getBounds2D();
@@ -283,14 +287,14 @@ public class SpecularLightingRable8Bit
 
 
         // Build texture from the source
-        rc = (RenderContext)rc.clone();
-        rc.setAreaOfInterest(aoiR);
-        rc.setTransform(scale);
+        RenderContext srcRC = (RenderContext)rc.clone();
+        srcRC.setAreaOfInterest(aoiR);
+        srcRC.setTransform(scale);
 
         // System.out.println("scaleX / scaleY : " + scaleX + "/" + scaleY);
 
         CachableRed cr;
-        cr = GraphicsUtil.wrap(getSource().createRendering(rc));
+        cr = GraphicsUtil.wrap(getSource().createRendering(srcRC));
 
         BumpMap bumpMap = new BumpMap(cr, surfaceScale, scaleX, scaleY);
 
@@ -314,7 +318,7 @@ public class SpecularLightingRable8Bit
             cr = new AffineRed(cr, shearAt, rh);
         }
 
-        return cr;
+        return cacheRendering(rc, cr);
     }
 }
 
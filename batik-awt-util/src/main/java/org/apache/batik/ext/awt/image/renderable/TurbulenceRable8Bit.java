@@ -199,6 +199,9 @@ public class TurbulenceRable8Bit
     }
 
     public RenderedImage createRendering(RenderContext rc){
+        RenderedImage cached = getCachedRendering(rc);
+        if (cached != null)
+            return cached;
 
         Rectangle2D aoiRect;
         Shape aoi = rc.getAreaOfInterest();
@@ -237,8 +240,8 @@ public class TurbulenceRable8Bit
         }catch(NoninvertibleTransformException e){
         }
 
-        return new TurbulencePatternRed
+        return cacheRendering(rc, new TurbulencePatternRed
             (baseFreqX, baseFreqY, numOctaves, seed, fractalNoise,
-             tile, patternTxf, devRect, cs, true);
+             tile, patternTxf, devRect, cs, true));
     }
 }
@@ -59,6 +59,10 @@ public class AffineRed extends AbstractRed {
         return (CachableRed)getSources().get(0);
     }
 
+    public RenderingHints getRenderingHints() {
+        return hints;
+    }
+
     public AffineRed(CachableRed     src,
                      AffineTransform src2me,
                      RenderingHints  hints) {
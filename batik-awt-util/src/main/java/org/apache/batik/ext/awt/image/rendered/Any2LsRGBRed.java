@@ -51,8 +51,21 @@ public class Any2LsRGBRed extends AbstractRed {
      * @param src The image to convert to a luminance image
      */
     public Any2LsRGBRed(CachableRed src) {
+        this(src, false);
+    }
+
+    /**
+     * Construct a linear sRGB image from src.  When
+     * <code>premult</code> is true and src is in sRGB with alpha, the
+     * result is premultiplied; the alpha conversion is then done in
+     * the same pass as the colour conversion.
+     *
+     * @param src The image to convert to a linear sRGB image
+     * @param premult The preferred alpha state of the result
+     */
+    public Any2LsRGBRed(CachableRed src, boolean premult) {
         super(src,src.getBounds(),
-              fixColorModel(src),
+              fixColorModel(src, premult),
               fixSampleModel(src),
               src.getTileGridXOffset(),
               src.getTileGridYOffset(),
@@ -103,13 +116,40 @@ public class Any2LsRGBRed extends AbstractRed {
         ColorModel  srcCM = src.getColorModel();
         SampleModel srcSM = src.getSampleModel();
 
+        if (getColorModel().isAlphaPremultiplied() &&
+            !Any2sRGBRed.is_INT_PACK_COMP(wr.getSampleModel())) {
+            // Premultiplied results are only produced by the fast
+            // case, so convert via a raster in our own layout.
+            WritableRaster tmp;
+            if (src.getBounds().contains(wr.getBounds()))
+                tmp = RasterPool.getRaster
+                    (getSampleModel(), wr.getMinX(), wr.getMinY(),
+                     wr.getWidth(), wr.getHeight());
+            else
+                // The source does not write the whole raster.
+                tmp = RasterPool.getClearedRaster
+                    (getSampleModel(), wr.getMinX(), wr.getMinY(),
+                     wr.getWidth(), wr.getHeight());
+            try {
+                copyData(tmp);
+                GraphicsUtil.copyData(tmp, wr);
+            } finally {
+                RasterPool.releaseRaster(tmp);
+            }
+            return wr;
+        }
+
         // Fast case, SRGB source, INT Pack writable raster...
         if (srcIssRGB &&
             Any2sRGBRed.is_INT_PACK_COMP(wr.getSampleModel())) {
             src.copyData(wr);
             if (srcCM.hasAlpha())
-                GraphicsUtil.coerceData(wr, srcCM, false);
-            Any2sRGBRed.applyLut_INT(wr, sRGBToLsRGBLut);
+                // Alpha and colour conversion in one pass.
+                GraphicsUtil.applyLut_INT_PACK_Data
+                    (wr, sRGBToLsRGBLut, srcCM.isAlphaPremultiplied(),
+                     getColorModel().isAlphaPremultiplied());
+            else
+                Any2sRGBRed.applyLut_INT(wr, sRGBToLsRGBLut);
             return wr;
         }
 
@@ -153,6 +193,7 @@ public class Any2LsRGBRed extends AbstractRed {
         } else {
             ColorModel dstCM = getColorModel();
             BufferedImage dstBI;
+            WritableRaster pooledWr = null;
 
             if (!dstCM.hasAlpha()) {
                 // No alpha ao we don't have to work around the bug
@@ -193,37 +234,48 @@ public class Any2LsRGBRed extends AbstractRed {
             WritableRaster srcWr;
             if ( srcCM.hasAlpha() && srcCM.isAlphaPremultiplied() ) {
                 Rectangle wrR = wr.getBounds();
-                SampleModel sm = srcCM.createCompatibleSampleModel
-                    (wrR.width, wrR.height);
-
-                srcWr = Raster.createWritableRaster
-                    (sm, new Point(wrR.x, wrR.y));
-                src.copyData(srcWr);
-                srcBICM = GraphicsUtil.coerceData(srcWr, srcCM, false);
+                SampleModel sm =
+                    srcCM.createCompatibleSampleModel(wrR.width, wrR.height);
+                if (src.getBounds().contains(wrR))
+                    srcWr = RasterPool.getRaster
+                        (sm, wrR.x, wrR.y, wrR.width, wrR.height);
+                else
+                    // The source does not write the whole raster.
+                    srcWr = RasterPool.getClearedRaster
+                        (sm, wrR.x, wrR.y, wrR.width, wrR.height);
+                pooledWr = srcWr;
             } else {
                 Raster srcRas = src.getData(wr.getBounds());
                 srcWr = GraphicsUtil.makeRasterWritable(srcRas);
             }
 
-            BufferedImage srcBI;
-            srcBI = new BufferedImage(srcBICM,
-                                      srcWr.createWritableTranslatedChild(0,0),
-                                      false,
-                                      null);
-
-            /*
-             * System.out.println("src: " + srcBI.getWidth() + "x" +
-             *                    srcBI.getHeight());
-             * System.out.println("dst: " + dstBI.getWidth() + "x" +
-             *                    dstBI.getHeight());
-             */
-
-            ColorConvertOp op = new ColorConvertOp(null);
-            op.filter(srcBI, dstBI);
-
-            if (dstCM.hasAlpha())
-                copyBand(srcWr, srcSM.getNumBands()-1,
-                         wr,    getSampleModel().getNumBands()-1);
+            try {
+                if (pooledWr != null) {
+                    src.copyData(srcWr);
+                    srcBICM = GraphicsUtil.coerceData(srcWr, srcCM, false);
+                }
+
+                BufferedImage srcBI;
+                srcBI = new BufferedImage
+                    (srcBICM, srcWr.createWritableTranslatedChild(0,0),
+                     false, null);
+
+                /*
+                 * System.out.println("src: " + srcBI.getWidth() + "x" +
+                 *                    srcBI.getHeight());
+                 * System.out.println("dst: " + dstBI.getWidth() + "x" +
+                 *                    dstBI.getHeight());
+                 */
+
+                ColorConvertOp op = new ColorConvertOp(null);
+                op.filter(srcBI, dstBI);
+
+                if (dstCM.hasAlpha())
+                    copyBand(srcWr, srcSM.getNumBands()-1,
+                             wr,    getSampleModel().getNumBands()-1);
+            } finally {
+                RasterPool.releaseRaster(pooledWr);
+            }
         }
         return wr;
     }
@@ -234,7 +286,22 @@ public class Any2LsRGBRed extends AbstractRed {
          * if the source had an alpha channel.
          */
     protected static ColorModel fixColorModel(CachableRed src) {
+        return fixColorModel(src, false);
+    }
+
+    /**
+     * Like fixColorModel(CachableRed) but selects a premultiplied
+     * result if requested and the source is in sRGB with alpha (the
+     * case handled by the single pass conversion).
+     */
+    protected static ColorModel fixColorModel(CachableRed src,
+                                              boolean premult) {
         ColorModel  cm = src.getColorModel();
+        if (premult && (cm != null) && cm.hasAlpha() &&
+            (cm.getColorSpace() ==
+             ColorSpace.getInstance(ColorSpace.CS_sRGB)))
+            return GraphicsUtil.Linear_sRGB_Pre;
+
         if (cm != null) {
             if (cm.hasAlpha())
                 return GraphicsUtil.Linear_sRGB_Unpre;
@@ -51,8 +51,22 @@ public class Any2sRGBRed extends AbstractRed {
      * @param src The image to convert to a luminance image
      */
     public Any2sRGBRed(CachableRed src) {
+        this(src, false);
+    }
+
+    /**
+     * Construct an sRGB image from src.  When <code>premult</code> is
+     * true and src is in linear sRGB with alpha, the result is
+     * premultiplied; the alpha conversion is then done in the same
+     * pass as the colour conversion, so a following reformat to a
+     * premultiplied destination is not needed.
+     *
+     * @param src The image to convert to an sRGB image
+     * @param premult The preferred alpha state of the result
+     */
+    public Any2sRGBRed(CachableRed src, boolean premult) {
         super(src,src.getBounds(),
-              fixColorModel(src),
+              fixColorModel(src, premult),
               fixSampleModel(src),
               src.getTileGridXOffset(),
               src.getTileGridYOffset(),
@@ -160,13 +174,40 @@ public class Any2sRGBRed extends AbstractRed {
         SampleModel srcSM = src.getSampleModel();
 
 
+        if (getColorModel().isAlphaPremultiplied() &&
+            !is_INT_PACK_COMP(wr.getSampleModel())) {
+            // Premultiplied results are only produced by the fast
+            // case, so convert via a raster in our own layout.
+            WritableRaster tmp;
+            if (src.getBounds().contains(wr.getBounds()))
+                tmp = RasterPool.getRaster
+                    (getSampleModel(), wr.getMinX(), wr.getMinY(),
+                     wr.getWidth(), wr.getHeight());
+            else
+                // The source does not write the whole raster.
+                tmp = RasterPool.getClearedRaster
+                    (getSampleModel(), wr.getMinX(), wr.getMinY(),
+                     wr.getWidth(), wr.getHeight());
+            try {
+                copyData(tmp);
+                GraphicsUtil.copyData(tmp, wr);
+            } finally {
+                RasterPool.releaseRaster(tmp);
+            }
+            return wr;
+        }
+
         // Fast case, Linear SRGB source, INT Pack writable raster...
         if (srcIsLsRGB &&
             is_INT_PACK_COMP(wr.getSampleModel())) {
             src.copyData(wr);
             if (srcCM.hasAlpha())
-                GraphicsUtil.coerceData(wr, srcCM, false);
-            applyLut_INT(wr, linearToSRGBLut);
+                // Alpha and colour conversion in one pass.
+                GraphicsUtil.applyLut_INT_PACK_Data
+                    (wr, linearToSRGBLut, srcCM.isAlphaPremultiplied(),
+                     getColorModel().isAlphaPremultiplied());
+            else
+                applyLut_INT(wr, linearToSRGBLut);
             return wr;
         }
 
@@ -297,7 +338,22 @@ public class Any2sRGBRed extends AbstractRed {
      * if the source had an alpha channel.
      */
     protected static ColorModel fixColorModel(CachableRed src) {
+        return fixColorModel(src, false);
+    }
+
+    /**
+     * Like fixColorModel(CachableRed) but selects a premultiplied
+     * result if requested and the source is in linear sRGB with alpha
+     * (the case handled by the single pass conversion).
+     */
+    protected static ColorModel fixColorModel(CachableRed src,
+                                              boolean premult) {
         ColorModel  cm = src.getColorModel();
+        if (premult && (cm != null) && cm.hasAlpha() &&
+            (cm.getColorSpace() ==
+             ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB)))
+            return GraphicsUtil.sRGB_Pre;
+
         if (cm != null) {
             if (cm.hasAlpha())
                 return GraphicsUtil.sRGB_Unpre;
@@ -23,6 +23,7 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
 
 /**
  * Default BumpMap implementation.
@@ -63,6 +64,23 @@ public final class BumpMap {
         this.scaleY = scaleY;
     }
 
+    /**
+     * Number of floats used per pixel in the buffers returned by
+     * {@link #getNormalBuffer}.
+     */
+    public static final int NORMAL_STRIDE = 4;
+
+    /**
+     * Largest normal buffer, in floats, kept for reuse by a thread.
+     */
+    public static final int MAX_THREAD_BUFFER = NORMAL_STRIDE*256*256;
+
+    /**
+     * The normal buffer of each thread, reused from one call of
+     * {@link #getThreadNormalBuffer} to the next.
+     */
+    private static final ThreadLocal threadBuffer = new ThreadLocal();
+
     /**
      * @return surface scale used by this bump map.
      */
@@ -73,12 +91,68 @@ public final class BumpMap {
     /**
      * @param x x-axis coordinate for which the normal is computed
      * @param y y-axis coordinate for which the normal is computed
+     * @see #getNormalBuffer
      */
     public double[][][] getNormalArray
         (final int x, final int y,
          final int w, final int h)
     {
         final double[][][] N = new double[h][w][4];
+        if ((w <= 0) || (h <= 0))
+            return N;
+
+        final float[] buf = getThreadNormalBuffer(x, y, w, h);
+        int i = 0;
+        for (int j=0; j<h; j++) {
+            for (int k=0; k<w; k++) {
+                final double [] n = N[j][k];
+                n[0] = buf[i++];
+                n[1] = buf[i++];
+                n[2] = buf[i++];
+                n[3] = buf[i++];
+            }
+        }
+        return N;
+    }
+
+    /**
+     * Computes the normals for the given rectangle, as
+     * {@link #getNormalBuffer} does, into a buffer kept by the calling
+     * thread.  The buffer is overwritten by the next call made on the
+     * same thread, so it must not be kept.
+     */
+    public float[] getThreadNormalBuffer(final int x, final int y,
+                                         final int w, final int h) {
+        float[] buf = (float[])threadBuffer.get();
+        buf = getNormalBuffer(x, y, w, h, buf);
+        if (buf.length <= MAX_THREAD_BUFFER)
+            threadBuffer.set(buf);
+        return buf;
+    }
+
+    /**
+     * Computes the normals for the given rectangle into a single flat
+     * buffer. Each pixel takes <code>NORMAL_STRIDE</code> consecutive
+     * floats: the x, y and z components of the unit normal followed by
+     * the surface height. Pixels are stored in row major order so the
+     * normal of (x+i, y+j) starts at <code>(j*w + i)*NORMAL_STRIDE</code>.
+     * Pixels outside the texture get a zero entry.
+     *
+     * @param x x-axis coordinate of the first normal
+     * @param y y-axis coordinate of the first normal
+     * @param buf buffer to fill, reused when it is large enough. May
+     *            be null.
+     * @return the buffer holding the normals.
+     */
+    public float[] getNormalBuffer(final int x, final int y,
+                                   final int w, final int h,
+                                   float[] buf) {
+        final int len = (w > 0 && h > 0) ? NORMAL_STRIDE*w*h : 0;
+        if ((buf == null) || (buf.length < len))
+            buf = new float[len];
+        else
+            Arrays.fill(buf, 0, len, 0f);
+        final float[] N = buf;
 
         Rectangle srcRect = new Rectangle(x-1, y-1, w+2, h+2);
         Rectangle srcBound = new Rectangle
@@ -113,7 +187,7 @@ public final class BumpMap {
         double prpc=0, prcc=0, prnc=0;
         double crpc=0, crcc=0, crnc=0;
         double nrpc=0, nrcc=0, nrnc=0;
-        double invNorm;
+        double nx, ny;
 
         final double quarterSurfaceScaleX = surfaceScaleX / 4f;
         final double quarterSurfaceScaleY = surfaceScaleY / 4f;
@@ -148,7 +222,7 @@ public final class BumpMap {
         if (yloc == srcRect.y) {
             if (yloc == yEnd) {
                 // Only one row of pixels...
-                final double [][] NRow = N[yloc-y];
+                final int rowOff = NORMAL_STRIDE*w*(yloc-y);
                 int xloc=x;
                 if (xloc < srcRect.x)
                     xloc = srcRect.x;
@@ -164,14 +238,9 @@ public final class BumpMap {
                     // Top left pixel, in src (0, 0);
                     crnc = (pixels[p+1] >>> 24)*pixelScale;
 
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = 2*surfaceScaleX*(crcc - crnc);
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + 1);
-                    n[0] *= invNorm;
-                    n[1]  = 0;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    nx = 2*surfaceScaleX*(crcc - crnc);
+                    ny = 0;
+                    setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
                     p++;
                     xloc++;
                     crpc = crcc;
@@ -184,14 +253,9 @@ public final class BumpMap {
                 for (; xloc<xEnd; xloc++) {
                     // Middle Top row...
                     crnc = (pixels[p+1] >>> 24)*pixelScale;
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = surfaceScaleX * (crpc - crnc );
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + 1);
-                    n[0] *= invNorm;
-                    n[1]  = 0;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    nx = surfaceScaleX * (crpc - crnc );
+                    ny = 0;
+                    setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
                     p++;
                     crpc = crcc;
                     crcc = crnc;
@@ -200,19 +264,14 @@ public final class BumpMap {
                 if ((xloc < x+w) &&
                     (xloc == srcRect.x+srcRect.width-1)) {
                     // Last pixel of top row
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = 2*surfaceScaleX*(crpc - crcc);
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                    n[0] *= invNorm;
-                    n[1] *= invNorm;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    nx = 2*surfaceScaleX*(crpc - crcc);
+                    ny = 0;
+                    setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
                 }
                 return N;
             }
 
-            final double [][] NRow = N[yloc-y];
+            final int rowOff = NORMAL_STRIDE*w*(yloc-y);
             int p  = offset + scanStride*(yloc-srcRect.y);
             int xloc=x;
             if (xloc < srcRect.x)
@@ -231,17 +290,11 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - twoThirdSurfaceScaleX *
+                nx = - twoThirdSurfaceScaleX *
                     ((2*crnc + nrnc - 2*crcc - nrcc));
-                n[1] = - twoThirdSurfaceScaleY *
+                ny = - twoThirdSurfaceScaleY *
                     ((2*nrcc + nrnc - 2*crcc - crnc));
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
                 p++;
                 xloc++;
                 crpc = crcc;
@@ -259,18 +312,11 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - thirdSurfaceScaleX * (( 2*crnc + nrnc)
-                                               - (2*crpc + nrpc));
-                n[1] = - halfSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
-                                             - (crpc + 2*crcc + crnc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                nx = - thirdSurfaceScaleX * (( 2*crnc + nrnc)
+                                             - (2*crpc + nrpc));
+                ny = - halfSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
+                                           - (crpc + 2*crcc + crnc));
+                setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
                 p++;
                 crpc = crcc;
                 nrpc = nrcc;
@@ -281,24 +327,17 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Last pixel of top row
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - twoThirdSurfaceScaleX *(( 2*crcc + nrcc)
-                                                 - (2*crpc + nrpc));
-                n[1] = - twoThirdSurfaceScaleY *(( 2*nrcc + nrpc)
-                                                 - (2*crcc + crpc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                nx = - twoThirdSurfaceScaleX *(( 2*crcc + nrcc)
+                                               - (2*crpc + nrpc));
+                ny = - twoThirdSurfaceScaleY *(( 2*nrcc + nrpc)
+                                               - (2*crcc + crpc));
+                setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
             }
             yloc++;
         }
 
         for (; yloc<yEnd; yloc++) {
-            final double [][] NRow = N[yloc-y];
+            final int rowOff = NORMAL_STRIDE*w*(yloc-y);
             int p  = offset + scanStride*(yloc-srcRect.y);
 
             int xloc=x;
@@ -322,18 +361,11 @@ public final class BumpMap {
                 prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - halfSurfaceScaleX *(( prnc + 2*crnc + nrnc)
-                                             - (prcc + 2*crcc + nrcc));
-                n[1] = - thirdSurfaceScaleY *(( 2*prcc + prnc)
-                                              - ( 2*crcc + crnc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                nx = - halfSurfaceScaleX *(( prnc + 2*crnc + nrnc)
+                                           - (prcc + 2*crcc + nrcc));
+                ny = - thirdSurfaceScaleY *(( 2*prcc + prnc)
+                                            - ( 2*crcc + crnc));
+                setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
 
                 p++;
                 xloc++;
@@ -357,18 +389,11 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - quarterSurfaceScaleX *(( prnc + 2*crnc + nrnc)
-                                                - (prpc + 2*crpc + nrpc));
-                n[1] = - quarterSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
-                                                - (prpc + 2*prcc + prnc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                nx = - quarterSurfaceScaleX *(( prnc + 2*crnc + nrnc)
+                                              - (prpc + 2*crpc + nrpc));
+                ny = - quarterSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
+                                              - (prpc + 2*prcc + prnc));
+                setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
 
                 p++;
                 prpc = prcc;
@@ -382,24 +407,17 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Now, proces right column, from (w-1, 1) to (w-1, h-1)
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - halfSurfaceScaleX *( (prcc + 2*crcc + nrcc)
-                                             -(prpc + 2*crpc + nrpc));
-                n[1] = - thirdSurfaceScaleY *(( nrpc + 2*nrcc)
-                                              - ( prpc + 2*prcc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                nx = - halfSurfaceScaleX *( (prcc + 2*crcc + nrcc)
+                                           -(prpc + 2*crpc + nrpc));
+                ny = - thirdSurfaceScaleY *(( nrpc + 2*nrcc)
+                                            - ( prpc + 2*prcc));
+                setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
             }
         }
 
         if ((yloc < y+h) &&
             (yloc == srcRect.y+srcRect.height-1)) {
-            final double [][] NRow = N[yloc-y];
+            final int rowOff = NORMAL_STRIDE*w*(yloc-y);
             int p  = offset + scanStride*(yloc-srcRect.y);
             int xloc=x;
             if (xloc < srcRect.x)
@@ -419,15 +437,9 @@ public final class BumpMap {
                 crnc = (pixels[p + 1] >>> 24)*pixelScale;
                 prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - twoThirdSurfaceScaleX * ((2*crnc + prnc - 2*crcc - prcc));
-                n[1] = - twoThirdSurfaceScaleY * ((2*crcc + crnc - 2*prcc - prnc));
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                nx = - twoThirdSurfaceScaleX * ((2*crnc + prnc - 2*crcc - prcc));
+                ny = - twoThirdSurfaceScaleY * ((2*crcc + crnc - 2*prcc - prnc));
+                setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
 
                 p++;
                 xloc++;
@@ -450,18 +462,11 @@ public final class BumpMap {
                 //                    prpc + "," + prcc + "," + prnc + "  " +
                 //                    crpc + "," + crcc + "," + crnc );
 
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - thirdSurfaceScaleX *(( 2*crnc + prnc)
-                                              - (2*crpc + prpc));
-                n[1] = - halfSurfaceScaleY *(( crpc + 2*crcc + crnc)
-                                             - (prpc + 2*prcc + prnc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                nx = - thirdSurfaceScaleX *(( 2*crnc + prnc)
+                                            - (2*crpc + prpc));
+                ny = - halfSurfaceScaleY *(( crpc + 2*crcc + crnc)
+                                           - (prpc + 2*prcc + prnc));
+                setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
 
                 p++;
                 crpc = crcc;
@@ -473,21 +478,26 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Bottom right corner
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - twoThirdSurfaceScaleX *(( 2*crcc + prcc)
-                                                 - (2*crpc + prpc));
-                n[1] = - twoThirdSurfaceScaleY *(( 2*crcc + crpc)
-                                                 - (2*prcc + prpc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                nx = - twoThirdSurfaceScaleX *(( 2*crcc + prcc)
+                                               - (2*crpc + prpc));
+                ny = - twoThirdSurfaceScaleY *(( 2*crcc + crpc)
+                                               - (2*prcc + prpc));
+                setNormal(N, rowOff + NORMAL_STRIDE*(xloc-x), nx, ny, crcc);
             }
         }
         return N;
     }
-}
 
+    /**
+     * Normalizes (nx, ny, 1) and stores it, along with the surface
+     * height, at <code>off</code> in the normal buffer.
+     */
+    private void setNormal(float[] N, int off,
+                           double nx, double ny, double crcc) {
+        final double invNorm = 1.0/Math.sqrt(nx*nx + ny*ny + 1);
+        N[off]   = (float)(nx*invNorm);
+        N[off+1] = (float)(ny*invNorm);
+        N[off+2] = (float)invNorm;
+        N[off+3] = (float)(crcc*surfaceScale);
+    }
+}
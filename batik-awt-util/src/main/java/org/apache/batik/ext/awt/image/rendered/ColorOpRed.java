@@ -0,0 +1,460 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.TransferFunction;
+
+/**
+ * Applies a chain of per pixel colour operations (colour matrices and
+ * component transfer tables) to its source in a single pass.
+ *
+ * <p>When the source of a <code>ColorOpRed</code> is itself a
+ * <code>ColorOpRed</code> working in the same colour space, directly or
+ * through a <code>PadRed</code> with the same bounds, the two are
+ * fused: the new instance reads the pixels of the inner one's source
+ * and applies both sets of operations, one scanline at a time, so a
+ * chain of colour only filter primitives costs one read and one write
+ * of the image whatever its length.  Each operation still sees the
+ * clamped, unpremultiplied 8 bit values it would have seen as a
+ * separate pass, so the fused result is identical to the unfused
+ * one.  Runs of operations that treat each channel independently
+ * (transfer tables and diagonal matrices) are folded into a single
+ * set of lookup tables.</p>
+ *
+ * <p>Optionally, see {@link #setColorCubeEnabled}, chains of at least
+ * {@link #CUBE_MIN_STEPS} steps in which alpha and colour do not
+ * depend on each other are evaluated through a 3D lookup table
+ * sampled every {@link #CUBE_STEP} levels and trilinearly
+ * interpolated.  This is only an approximation of the chain so it is
+ * off by default.</p>
+ *
+ * @version $Id$
+ */
+public class ColorOpRed extends AbstractRed {
+
+    /**
+     * Distance, in 8 bit levels, between the samples of the 3D lookup
+     * table.  255 is a multiple of it so both ends are sampled.
+     */
+    public static final int CUBE_STEP = 15;
+
+    /**
+     * Number of samples per axis of the 3D lookup table.
+     */
+    public static final int CUBE_SIZE = 255 / CUBE_STEP + 1;
+
+    /**
+     * Minimum number of steps, after folding, a chain must have for
+     * the 3D lookup table to be used.
+     */
+    public static final int CUBE_MIN_STEPS = 3;
+
+    private static volatile boolean colorCubeEnabled = false;
+
+    /**
+     * Sets whether long chains may be evaluated through an
+     * interpolated 3D lookup table, trading a small loss of accuracy
+     * for speed.  Only affects instances created afterwards.
+     */
+    public static void setColorCubeEnabled(boolean enabled) {
+        colorCubeEnabled = enabled;
+    }
+
+    /**
+     * Returns whether long chains may be evaluated through an
+     * interpolated 3D lookup table.
+     */
+    public static boolean isColorCubeEnabled() {
+        return colorCubeEnabled;
+    }
+
+    /**
+     * The operations of the chain, in order.  Each one is either a
+     * <code>float[20]</code> colour matrix, in row order and already
+     * divided by 255, or a <code>byte[4][]</code> set of lookup tables
+     * in alpha, red, green, blue order.
+     */
+    private List ops;
+
+    /**
+     * The operations as they are applied: <code>float[]</code>
+     * matrices, <code>int[4][256]</code> lookup tables with the
+     * results already shifted into place, or a {@link ColorCube}.
+     */
+    private Object[] steps;
+
+    /**
+     * Applies a colour matrix to <code>src</code>.
+     * @param matrix a 4x5 matrix, as used by <code>ColorMatrixRed</code>.
+     */
+    public ColorOpRed(CachableRed src, float[][] matrix) {
+        if (matrix == null || matrix.length != 4)
+            throw new IllegalArgumentException();
+
+        float[] m = new float[20];
+        for (int i=0; i<4; i++) {
+            if (matrix[i] == null || matrix[i].length != 5)
+                throw new IllegalArgumentException
+                    (String.valueOf(i) + " : " +
+                     (matrix[i] == null ? 0 : matrix[i].length));
+            for (int j=0; j<5; j++)
+                m[i*5+j] = matrix[i][j]/255f;
+        }
+        init(src, m);
+    }
+
+    /**
+     * Applies the lookup tables of <code>funcs</code> to
+     * <code>src</code>.
+     * @param funcs the alpha, red, green and blue transfer functions,
+     *        in that order.
+     */
+    public ColorOpRed(CachableRed src, TransferFunction[] funcs) {
+        byte[][] luts = new byte[4][];
+        for (int i=0; i<4; i++)
+            luts[i] = funcs[i].getLookupTable();
+        init(src, luts);
+    }
+
+    private void init(CachableRed src, Object op) {
+        ops = new ArrayList();
+        if (src instanceof PadRed) {
+            // The filter primitive bridges pad every primitive to its
+            // subregion.  A pad covering exactly its source adds
+            // nothing, so look through it for a ColorOpRed.
+            CachableRed padSrc = (CachableRed)src.getSources().get(0);
+            if ((padSrc instanceof ColorOpRed) &&
+                padSrc.getBounds().equals(src.getBounds()))
+                src = padSrc;
+        }
+        if (src instanceof ColorOpRed) {
+            // Our source is in the colour space we would work in,
+            // otherwise a conversion would sit between us, so take
+            // over its operations and read its source directly.
+            ColorOpRed cor = (ColorOpRed)src;
+            ops.addAll(cor.ops);
+            src = (CachableRed)cor.getSources().get(0);
+        }
+        ops.add(op);
+        steps = compile(ops);
+
+        ColorModel srcCM = src.getColorModel();
+        ColorSpace srcCS = null;
+        if (srcCM != null)
+            srcCS = srcCM.getColorSpace();
+        ColorModel cm;
+        if ((srcCS == null) ||
+            (srcCS == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB)))
+            cm = GraphicsUtil.Linear_sRGB_Unpre;
+        else
+            cm = GraphicsUtil.sRGB_Unpre;
+
+        SampleModel srcSM = src.getSampleModel();
+        SampleModel sm =
+            cm.createCompatibleSampleModel(srcSM.getWidth(),
+                                           srcSM.getHeight());
+
+        init(src, src.getBounds(), cm, sm,
+             src.getTileGridXOffset(), src.getTileGridYOffset(), null);
+    }
+
+    /**
+     * Returns the number of operations applied by this image, including
+     * the ones taken over from fused sources.
+     */
+    public int getOperationCount() {
+        return ops.size();
+    }
+
+    public WritableRaster copyData(WritableRaster wr) {
+        if (!GraphicsUtil.is_INT_PACK_Data(wr.getSampleModel(), true)) {
+            SampleModel tsm = getSampleModel().createCompatibleSampleModel
+                (wr.getWidth(), wr.getHeight());
+            WritableRaster tmp = Raster.createWritableRaster
+                (tsm, new Point(wr.getMinX(), wr.getMinY()));
+            copyData(tmp);
+            GraphicsUtil.copyData(tmp, wr);
+            return wr;
+        }
+
+        CachableRed src = (CachableRed)getSources().get(0);
+        wr = src.copyData(wr);
+        GraphicsUtil.coerceData(wr, src.getColorModel(), false);
+
+        final int w = wr.getWidth();
+        final int h = wr.getHeight();
+        DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+        final int[] pixels = db.getBankData()[0];
+        SinglePixelPackedSampleModel sppsm =
+            (SinglePixelPackedSampleModel)wr.getSampleModel();
+        final int scanStride = sppsm.getScanlineStride();
+        int off = (db.getOffset() +
+                   sppsm.getOffset(wr.getMinX()-wr.getSampleModelTranslateX(),
+                                   wr.getMinY()-wr.getSampleModelTranslateY()));
+
+        // Run the whole chain over one scanline at a time so the
+        // pixels stay in cache between steps.
+        for (int y=0; y<h; y++, off+=scanStride)
+            apply(steps, pixels, off, w);
+
+        return wr;
+    }
+
+    private static void apply(Object[] steps, int[] pixels, int off, int w) {
+        for (int s=0; s<steps.length; s++) {
+            Object step = steps[s];
+            if (step instanceof float[])
+                applyMatrix((float[])step, pixels, off, w);
+            else if (step instanceof int[][])
+                applyLookup((int[][])step, pixels, off, w);
+            else
+                ((ColorCube)step).apply(pixels, off, w);
+        }
+    }
+
+    private static void applyLookup(int[][] luts,
+                                    int[] pixels, int off, int w) {
+        final int[] la = luts[0], lr = luts[1], lg = luts[2], lb = luts[3];
+        final int end = off+w;
+        for (int p=off; p<end; p++) {
+            int pel = pixels[p];
+            pixels[p] = (la[pel >>> 24] | lr[(pel >> 16) & 0xff] |
+                         lg[(pel >>  8) & 0xff] | lb[pel & 0xff]);
+        }
+    }
+
+    private static void applyMatrix(float[] m,
+                                    int[] pixels, int off, int w) {
+        final float
+            a00=m[ 0], a01=m[ 1], a02=m[ 2], a03=m[ 3], a04=m[ 4],
+            a10=m[ 5], a11=m[ 6], a12=m[ 7], a13=m[ 8], a14=m[ 9],
+            a20=m[10], a21=m[11], a22=m[12], a23=m[13], a24=m[14],
+            a30=m[15], a31=m[16], a32=m[17], a33=m[18], a34=m[19];
+
+        final int end = off+w;
+        for (int p=off; p<end; p++) {
+            int pel = pixels[p];
+
+            int a = pel >>> 24;
+            int r = (pel >> 16) & 0xff;
+            int g = (pel >> 8 ) & 0xff;
+            int b =  pel        & 0xff;
+
+            int dr = (int)((a00*r + a01*g + a02*b + a03*a + a04)*255.0f);
+            int dg = (int)((a10*r + a11*g + a12*b + a13*a + a14)*255.0f);
+            int db = (int)((a20*r + a21*g + a22*b + a23*a + a24)*255.0f);
+            int da = (int)((a30*r + a31*g + a32*b + a33*a + a34)*255.0f);
+
+            // If any high bits are set we are not in range.
+            // If the highest bit is set then we are negative so
+            // clamp to zero else we are > 255 so clamp to 255.
+            if ((dr & 0xFFFFFF00) != 0)
+                dr = ((dr & 0x80000000) != 0)?0:255;
+            if ((dg & 0xFFFFFF00) != 0)
+                dg = ((dg & 0x80000000) != 0)?0:255;
+            if ((db & 0xFFFFFF00) != 0)
+                db = ((db & 0x80000000) != 0)?0:255;
+            if ((da & 0xFFFFFF00) != 0)
+                da = ((da & 0x80000000) != 0)?0:255;
+
+            pixels[p] = (da << 24 | dr << 16 | dg << 8 | db);
+        }
+    }
+
+    /**
+     * Applies the raw operations <code>ops[start, end)</code> to the
+     * given pixels.
+     */
+    private static void applyOps(List ops, int start, int end,
+                                 int[] pixels) {
+        for (int i=start; i<end; i++) {
+            Object op = ops.get(i);
+            if (op instanceof float[])
+                applyMatrix((float[])op, pixels, 0, pixels.length);
+            else
+                applyLookup(toLookup((byte[][])op), pixels, 0, pixels.length);
+        }
+    }
+
+    private static int[][] toLookup(byte[][] luts) {
+        int[][] ret = new int[4][256];
+        for (int i=0; i<256; i++) {
+            ret[0][i] = (luts[0][i] & 0xff) << 24;
+            ret[1][i] = (luts[1][i] & 0xff) << 16;
+            ret[2][i] = (luts[2][i] & 0xff) <<  8;
+            ret[3][i] = (luts[3][i] & 0xff);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns true if each output channel of <code>op</code> depends
+     * only on the same input channel.
+     */
+    private static boolean isPerChannel(Object op) {
+        if (!(op instanceof float[]))
+            return true;
+        float[] m = (float[])op;
+        // Matrix columns are r, g, b, a, offset and rows r, g, b, a.
+        for (int row=0; row<4; row++)
+            for (int col=0; col<4; col++)
+                if ((row != col) && (m[row*5+col] != 0))
+                    return false;
+        return true;
+    }
+
+    /**
+     * Returns true if the colour channels produced by <code>op</code>
+     * do not depend on alpha and alpha does not depend on them.
+     */
+    private static boolean isAlphaSeparable(Object op) {
+        if (!(op instanceof float[]))
+            return true;
+        float[] m = (float[])op;
+        return ((m[3]  == 0) && (m[8]  == 0) && (m[13] == 0) &&
+                (m[15] == 0) && (m[16] == 0) && (m[17] == 0));
+    }
+
+    /**
+     * Builds the steps used to apply <code>ops</code>.
+     */
+    private static Object[] compile(List ops) {
+        List steps = new ArrayList();
+        int n = ops.size();
+        int i = 0;
+        while (i < n) {
+            if (!isPerChannel(ops.get(i))) {
+                steps.add(ops.get(i++));
+                continue;
+            }
+            // Fold this run of per channel operations into one set of
+            // tables by running it over a ramp of grey pixels.
+            int start = i;
+            while ((i < n) && isPerChannel(ops.get(i)))
+                i++;
+            int[] ramp = new int[256];
+            for (int v=0; v<256; v++)
+                ramp[v] = (v << 24) | (v << 16) | (v << 8) | v;
+            applyOps(ops, start, i, ramp);
+            int[][] luts = new int[4][256];
+            for (int v=0; v<256; v++) {
+                luts[0][v] = ramp[v] & 0xff000000;
+                luts[1][v] = ramp[v] & 0x00ff0000;
+                luts[2][v] = ramp[v] & 0x0000ff00;
+                luts[3][v] = ramp[v] & 0x000000ff;
+            }
+            steps.add(luts);
+        }
+
+        if (colorCubeEnabled && (steps.size() >= CUBE_MIN_STEPS)) {
+            boolean separable = true;
+            for (int j=0; j<n && separable; j++)
+                separable = isAlphaSeparable(ops.get(j));
+            if (separable)
+                return new Object[] { new ColorCube(ops) };
+        }
+        return steps.toArray();
+    }
+
+    /**
+     * A chain of operations in which alpha and colour are independent,
+     * sampled as a lookup table for alpha and a 3D lookup table for
+     * colour.
+     */
+    private static final class ColorCube {
+        final int[] alpha = new int[256];
+        final int[] rgb = new int[CUBE_SIZE*CUBE_SIZE*CUBE_SIZE];
+
+        ColorCube(List ops) {
+            int[] pixels = new int[256];
+            for (int v=0; v<256; v++)
+                pixels[v] = v << 24;
+            applyOps(ops, 0, ops.size(), pixels);
+            for (int v=0; v<256; v++)
+                alpha[v] = pixels[v] & 0xff000000;
+
+            int idx = 0;
+            for (int r=0; r<CUBE_SIZE; r++)
+                for (int g=0; g<CUBE_SIZE; g++)
+                    for (int b=0; b<CUBE_SIZE; b++)
+                        rgb[idx++] = (0xff000000 | (r*CUBE_STEP) << 16 |
+                                      (g*CUBE_STEP) << 8 | (b*CUBE_STEP));
+            applyOps(ops, 0, ops.size(), rgb);
+        }
+
+        void apply(int[] pixels, int off, int w) {
+            final int[] cube = rgb;
+            final int S = CUBE_STEP;
+            final int SZ = CUBE_SIZE;
+            final int end = off+w;
+            for (int p=off; p<end; p++) {
+                int pel = pixels[p];
+                int r = (pel >> 16) & 0xff;
+                int g = (pel >>  8) & 0xff;
+                int b =  pel        & 0xff;
+
+                int ri = r/S, fr = r-ri*S;
+                int gi = g/S, fg = g-gi*S;
+                int bi = b/S, fb = b-bi*S;
+                // At the top of the range stay in the last cell with
+                // a full weight rather than reading past the table.
+                if (ri == SZ-1) { ri--; fr = S; }
+                if (gi == SZ-1) { gi--; fg = S; }
+                if (bi == SZ-1) { bi--; fb = S; }
+
+                int i000 = (ri*SZ + gi)*SZ + bi;
+                int i010 = i000 + SZ;
+                int i100 = i000 + SZ*SZ;
+                int i110 = i100 + SZ;
+
+                int c000 = cube[i000], c001 = cube[i000+1];
+                int c010 = cube[i010], c011 = cube[i010+1];
+                int c100 = cube[i100], c101 = cube[i100+1];
+                int c110 = cube[i110], c111 = cube[i110+1];
+
+                int out = alpha[pel >>> 24];
+                for (int sh=16; sh>=0; sh-=8) {
+                    // Interpolate along b, then g, then r keeping
+                    // the fractions, scaled by S each time.
+                    int v00 = ((c000 >> sh) & 0xff)*(S-fb) + ((c001 >> sh) & 0xff)*fb;
+                    int v01 = ((c010 >> sh) & 0xff)*(S-fb) + ((c011 >> sh) & 0xff)*fb;
+                    int v10 = ((c100 >> sh) & 0xff)*(S-fb) + ((c101 >> sh) & 0xff)*fb;
+                    int v11 = ((c110 >> sh) & 0xff)*(S-fb) + ((c111 >> sh) & 0xff)*fb;
+                    int v0 = v00*(S-fg) + v01*fg;
+                    int v1 = v10*(S-fg) + v11*fg;
+                    int v  = v0*(S-fr) + v1*fr;
+                    out |= ((v + S*S*S/2)/(S*S*S)) << sh;
+                }
+                pixels[p] = out;
+            }
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Kernel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+
+/**
+ * Implements the feConvolveMatrix operation directly on packed
+ * integer data, one tile at a time.  Sources in other layouts are
+ * converted to packed integer ARGB data first.
+ *
+ * Pixels outside the source are taken according to the edge mode
+ * while gathering the source for a tile, so no padded copy of the
+ * whole source is made. Kernels of rank one (such as box or gaussian
+ * approximations) are applied as a horizontal pass followed by a
+ * vertical pass, which costs kw+kh rather than kw*kh per pixel.
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRed extends AbstractTiledRed {
+
+    /**
+     * Relative tolerance used when checking whether a kernel is
+     * separable.
+     */
+    private static final float SEPARABLE_EPSILON = 1e-6f;
+
+    /**
+     * Kernel width and height.
+     */
+    private final int kw, kh;
+
+    /**
+     * The kernel target, the position of the output pixel in the
+     * kernel.
+     */
+    private final int targetX, targetY;
+
+    /**
+     * Kernel weights, rotated by 180 degrees as the convolution
+     * requires, so that weights[i*kw+j] applies to the source pixel
+     * (x-targetX+j, y-targetY+i).
+     */
+    private final float[] weights;
+
+    /**
+     * Horizontal and vertical factors of the kernel when it is
+     * separable, null otherwise.
+     */
+    private final float[] rowWeights, colWeights;
+
+    private final PadMode edgeMode;
+
+    private final boolean preserveAlpha;
+
+    /**
+     * True if the kernel has negative values, in which case alpha
+     * may end up below a colour component and needs fixing.
+     */
+    private final boolean kernelHasNegValues;
+
+    /**
+     * @param src The source image, its bounds define the edges for
+     *            the edge mode.  It is converted to packed integer
+     *            ARGB data if it is in another layout.
+     * @param kernel The convolution kernel, already divided by the
+     *               divisor.
+     * @param target The target position in the kernel.
+     * @param edgeMode How pixels outside the source are computed,
+     *                 null means zero padding.
+     * @param preserveAlpha If true only the colour channels are
+     *                      convolved (unpremultiplied) and the alpha
+     *                      channel is copied from the source.
+     * @param bounds The area of the result.
+     */
+    public ConvolveMatrixRed(CachableRed src, Kernel kernel, Point target,
+                             PadMode edgeMode, boolean preserveAlpha,
+                             Rectangle bounds) {
+        this.kw = kernel.getWidth();
+        this.kh = kernel.getHeight();
+        this.targetX = target.x;
+        this.targetY = target.y;
+        this.edgeMode = edgeMode;
+        this.preserveAlpha = preserveAlpha;
+
+        float[] kd = kernel.getKernelData(null);
+        weights = new float[kd.length];
+        boolean neg = false;
+        for (int i=0; i<kd.length; i++) {
+            weights[i] = kd[kd.length-1-i];
+            if (kd[i] < 0) neg = true;
+        }
+        kernelHasNegValues = neg;
+
+        float[][] factors = factor(weights, kw, kh);
+        if (factors != null) {
+            rowWeights = factors[0];
+            colWeights = factors[1];
+        } else {
+            rowWeights = null;
+            colWeights = null;
+        }
+
+        if (!GraphicsUtil.is_INT_PACK_Data(src.getSampleModel(), true)) {
+            // Such as the byte interleaved images of feImage.
+            ColorModel srcCM = src.getColorModel();
+            src = new FormatRed(src, new DirectColorModel
+                (srcCM.getColorSpace(), 32,
+                 0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000,
+                 srcCM.isAlphaPremultiplied(), DataBuffer.TYPE_INT));
+        }
+
+        ColorModel cm = GraphicsUtil.coerceColorModel
+            (src.getColorModel(), !preserveAlpha);
+
+        int tw = bounds.width;
+        int th = bounds.height;
+        int defSz = AbstractTiledRed.getDefaultTileSize();
+        if (tw > defSz) tw = defSz;
+        if (th > defSz) th = defSz;
+
+        init(src, bounds, cm, cm.createCompatibleSampleModel(tw, th),
+             bounds.x, bounds.y, null);
+    }
+
+    /**
+     * Returns true if the kernel is applied as two one dimensional
+     * passes.
+     */
+    public boolean isSeparable() {
+        return rowWeights != null;
+    }
+
+    /**
+     * Splits a kernel into a row and a column vector whose outer
+     * product is the kernel, or returns null if the kernel does not
+     * have rank one.
+     */
+    private static float[][] factor(float[] k, int kw, int kh) {
+        if ((kw == 1) || (kh == 1))
+            // Nothing to gain from two passes.
+            return null;
+
+        // Use the largest entry as pivot for better accuracy.
+        int pi = 0, pj = 0;
+        float max = 0;
+        for (int i=0; i<kh; i++) {
+            for (int j=0; j<kw; j++) {
+                float v = Math.abs(k[i*kw+j]);
+                if (v > max) {
+                    max = v;
+                    pi = i;
+                    pj = j;
+                }
+            }
+        }
+        if (max == 0)
+            return null;
+
+        float pivot = k[pi*kw+pj];
+        float[] row = new float[kw];
+        float[] col = new float[kh];
+        for (int j=0; j<kw; j++)
+            row[j] = k[pi*kw+j];
+        for (int i=0; i<kh; i++)
+            col[i] = k[i*kw+pj]/pivot;
+
+        float tol = max*SEPARABLE_EPSILON;
+        for (int i=0; i<kh; i++) {
+            for (int j=0; j<kw; j++) {
+                if (Math.abs(k[i*kw+j] - col[i]*row[j]) > tol)
+                    return null;
+            }
+        }
+        return new float[][] { row, col };
+    }
+
+    /**
+     * Maps a coordinate to the source according to the edge mode.
+     * Returns an index relative to <code>min</code> or -1 if the
+     * pixel is transparent black.
+     */
+    private int mapCoord(int c, int min, int size) {
+        c -= min;
+        if ((c >= 0) && (c < size))
+            return c;
+        if (size <= 0)
+            return -1;
+        if (edgeMode == PadMode.REPLICATE)
+            return (c < 0) ? 0 : size-1;
+        if (edgeMode == PadMode.WRAP) {
+            c %= size;
+            return (c < 0) ? c+size : c;
+        }
+        return -1;
+    }
+
+    public void genRect(WritableRaster wr) {
+        if (!GraphicsUtil.is_INT_PACK_Data(wr.getSampleModel(), true)) {
+            // Generate into packed integer data and copy from there.
+            WritableRaster tmp = RasterPool.getRaster
+                (getColorModel(), wr.getWidth(), wr.getHeight());
+            try {
+                WritableRaster child = tmp.createWritableTranslatedChild
+                    (wr.getMinX(), wr.getMinY());
+                genRect(child);
+                GraphicsUtil.copyData(child, wr);
+            } finally {
+                RasterPool.releaseRaster(tmp);
+            }
+            return;
+        }
+
+        final int w = wr.getWidth();
+        final int h = wr.getHeight();
+        final int minX = wr.getMinX();
+        final int minY = wr.getMinY();
+
+        // Size of the source area the tile depends on.
+        final int gw = w + kw - 1;
+        final int gh = h + kh - 1;
+
+        CachableRed src = (CachableRed)getSources().get(0);
+        Rectangle srcR = src.getBounds();
+
+        // Map each column/row of that area to the source, and find
+        // the part of the source actually used.
+        final int[] xmap = new int[gw];
+        final int[] ymap = new int[gh];
+        int x0 = Integer.MAX_VALUE, x1 = -1;
+        int y0 = Integer.MAX_VALUE, y1 = -1;
+        for (int i=0; i<gw; i++) {
+            int c = mapCoord(minX-targetX+i, srcR.x, srcR.width);
+            xmap[i] = c;
+            if (c < 0) continue;
+            if (c < x0) x0 = c;
+            if (c > x1) x1 = c;
+        }
+        for (int i=0; i<gh; i++) {
+            int c = mapCoord(minY-targetY+i, srcR.y, srcR.height);
+            ymap[i] = c;
+            if (c < 0) continue;
+            if (c < y0) y0 = c;
+            if (c > y1) y1 = c;
+        }
+
+        final float[] pa = new float[gw*gh];
+        final float[] pr = new float[gw*gh];
+        final float[] pg = new float[gw*gh];
+        final float[] pb = new float[gw*gh];
+
+        if ((x1 >= x0) && (y1 >= y0)) {
+            ColorModel srcCM = src.getColorModel();
+            int sw = x1-x0+1;
+            int sh = y1-y0+1;
+            WritableRaster tmp = RasterPool.getRaster(srcCM, sw, sh);
+            src.copyData(tmp.createWritableTranslatedChild
+                         (srcR.x+x0, srcR.y+y0));
+            if (!preserveAlpha)
+                GraphicsUtil.coerceData(tmp, srcCM, true);
+            // When alpha is preserved the colours are convolved
+            // unpremultiplied, fully transparent pixels count as black
+            // whatever colour unpremultiplied data holds for them.
+            final boolean unpremult =
+                preserveAlpha && srcCM.isAlphaPremultiplied();
+
+            DataBufferInt db = (DataBufferInt)tmp.getDataBuffer();
+            SinglePixelPackedSampleModel sppsm;
+            sppsm = (SinglePixelPackedSampleModel)tmp.getSampleModel();
+            final int base = db.getOffset() +
+                sppsm.getOffset(tmp.getMinX()-tmp.getSampleModelTranslateX(),
+                                tmp.getMinY()-tmp.getSampleModelTranslateY());
+            final int scan = sppsm.getScanlineStride();
+            final int[] pixels = db.getBankData()[0];
+
+            // Gather the source into one plane per channel, pixels
+            // outside the source stay transparent black.
+            int gp = 0;
+            for (int i=0; i<gh; i++) {
+                if (ymap[i] < 0) {
+                    gp += gw;
+                    continue;
+                }
+                final int row = base + (ymap[i]-y0)*scan - x0;
+                for (int j=0; j<gw; j++, gp++) {
+                    if (xmap[j] < 0) continue;
+                    final int pel = pixels[row + xmap[j]];
+                    final int a = pel>>>24;
+                    if (a == 0) continue;
+                    pa[gp] = a;
+                    if (unpremult) {
+                        pr[gp] = (((pel>>16)&0xFF)*255 + a/2)/a;
+                        pg[gp] = (((pel>> 8)&0xFF)*255 + a/2)/a;
+                        pb[gp] = (((pel    )&0xFF)*255 + a/2)/a;
+                    } else {
+                        pr[gp] = (pel>>16)&0xFF;
+                        pg[gp] = (pel>> 8)&0xFF;
+                        pb[gp] = (pel    )&0xFF;
+                    }
+                }
+            }
+            RasterPool.releaseRaster(tmp);
+        }
+
+        final float[] ra = preserveAlpha ? null : convolve(pa, gw, w, h);
+        final float[] rr = convolve(pr, gw, w, h);
+        final float[] rg = convolve(pg, gw, w, h);
+        final float[] rb = convolve(pb, gw, w, h);
+
+        DataBufferInt dstDB = (DataBufferInt)wr.getDataBuffer();
+        SinglePixelPackedSampleModel dstSPPSM;
+        dstSPPSM = (SinglePixelPackedSampleModel)wr.getSampleModel();
+        final int dstOff = dstDB.getOffset() +
+            dstSPPSM.getOffset(minX-wr.getSampleModelTranslateX(),
+                               minY-wr.getSampleModelTranslateY());
+        final int dstScan = dstSPPSM.getScanlineStride();
+        final int[] dstPixels = dstDB.getBankData()[0];
+
+        int sp = 0;
+        for (int y=0; y<h; y++) {
+            int dp = dstOff + y*dstScan;
+            // Position of the pixel itself in the gathered planes.
+            int ap = (y+targetY)*gw + targetX;
+            for (int x=0; x<w; x++, sp++, ap++) {
+                int a;
+                if (preserveAlpha) a = (int)pa[ap];
+                else               a = clamp(ra[sp]);
+                int r = clamp(rr[sp]);
+                int g = clamp(rg[sp]);
+                int b = clamp(rb[sp]);
+                if (kernelHasNegValues && !preserveAlpha) {
+                    // Premultiplied colour can not exceed alpha.
+                    if (a < r) a = r;
+                    if (a < g) a = g;
+                    if (a < b) a = b;
+                }
+                dstPixels[dp++] = (a<<24) | (r<<16) | (g<<8) | b;
+            }
+        }
+    }
+
+    private static int clamp(float v) {
+        int i = (int)(v + 0.5f);
+        if ((i & 0xFFFFFF00) == 0) return i;
+        return ((i & 0x80000000) != 0) ? 0 : 255;
+    }
+
+    /**
+     * Convolves one channel plane, <code>gw</code> values wide, and
+     * returns the w x h result.
+     */
+    private float[] convolve(final float[] p, final int gw,
+                             final int w, final int h) {
+        final float[] out = new float[w*h];
+        if (rowWeights != null) {
+            final int gh = h + kh - 1;
+            // Horizontal pass over every gathered row.
+            final float[] tmp = new float[w*gh];
+            for (int i=0, tp=0; i<gh; i++) {
+                final int row = i*gw;
+                for (int x=0; x<w; x++, tp++) {
+                    float sum = 0;
+                    for (int j=0; j<kw; j++)
+                        sum += p[row+x+j]*rowWeights[j];
+                    tmp[tp] = sum;
+                }
+            }
+            // Vertical pass.
+            for (int y=0, op=0; y<h; y++) {
+                for (int x=0; x<w; x++, op++) {
+                    float sum = 0;
+                    int tp = y*w + x;
+                    for (int i=0; i<kh; i++, tp+=w)
+                        sum += tmp[tp]*colWeights[i];
+                    out[op] = sum;
+                }
+            }
+            return out;
+        }
+
+        for (int y=0, op=0; y<h; y++) {
+            for (int x=0; x<w; x++, op++) {
+                float sum = 0;
+                int kp = 0;
+                for (int i=0; i<kh; i++) {
+                    final int row = (y+i)*gw + x;
+                    for (int j=0; j<kw; j++)
+                        sum += p[row+j]*weights[kp++];
+                }
+                out[op] = sum;
+            }
+        }
+        return out;
+    }
+}
@@ -25,6 +25,7 @@ import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 
+import org.apache.batik.ext.awt.image.AbstractLight;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.Light;
 
@@ -124,27 +125,26 @@ public class DiffuseLightingRed extends AbstractRed{
         double y = scaleY*minY;
         double NL = 0;
 
-        // final double[] L = new double[3];
-        final double[][][] NA = bumpMap.getNormalArray(minX, minY, w, h);
+        // Normals are stored NORMAL_STRIDE floats per pixel, row major.
+        final float[] NA = bumpMap.getThreadNormalBuffer(minX, minY, w, h);
+        int n = 0;
         if(!light.isConstant()){
-            final double[][] LA = new double[w][3];
+            final double[] LA = new double[4*w];
 
             for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                light.getLightRow(x, y+i*scaleY, scaleX, w, NR, LA);
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    // Get Light Vector
-                    final double [] L = LA[j];
-                    
-                    NL = 255.*kd*(N[0]*L[0] + N[1]*L[1] + N[2]*L[2]);
-                    
+                AbstractLight.getLightRow4(light, x, y+i*scaleY, scaleX, w,
+                                           NA, n, LA);
+                for(j=0; j<w; j++, n+=BumpMap.NORMAL_STRIDE){
+                    // Light vector and intensity
+                    final int l = 4*j;
+
+                    NL = 255.*kd*LA[l+3]*(NA[n]*LA[l] + NA[n+1]*LA[l+1] +
+                                          NA[n+2]*LA[l+2]);
+
                     r = (int)(NL*lightColor[0]);
                     g = (int)(NL*lightColor[1]);
                     b = (int)(NL*lightColor[2]);
-                    
+
                     // If any high bits are set we are not in range.
                     // If the highest bit is set then we are negative so
                     // clamp to zero else we are > 255 so clamp to 255.
@@ -154,7 +154,7 @@ public class DiffuseLightingRed extends AbstractRed{
                         g = ((g & 0x80000000) != 0)?0:255;
                     if ((b & 0xFFFFFF00) != 0)
                         b = ((b & 0x80000000) != 0)?0:255;
-                    
+
                     pixels[p++] = (0xff000000
                                    |
                                    r << 16
@@ -162,7 +162,7 @@ public class DiffuseLightingRed extends AbstractRed{
                                    g << 8
                                    |
                                    b);
-                    
+
                 }
                 p += adjust;
             }
@@ -172,14 +172,13 @@ public class DiffuseLightingRed extends AbstractRed{
             // Constant light
             final double[] L = new double[3];
             light.getLight(0, 0, 0, L);
+            final double L0 = 255.*kd*L[0];
+            final double L1 = 255.*kd*L[1];
+            final double L2 = 255.*kd*L[2];
 
             for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double[] N = NR[j];
-                    
-                    NL = 255.*kd*(N[0]*L[0] + N[1]*L[1] + N[2]*L[2]);
+                for(j=0; j<w; j++, n+=BumpMap.NORMAL_STRIDE){
+                    NL = NA[n]*L0 + NA[n+1]*L1 + NA[n+2]*L2;
                     
                     r = (int)(NL*lightColor[0]);
                     g = (int)(NL*lightColor[1]);
@@ -0,0 +1,453 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of scratch rasters, so that temporary rasters allocated while
+ * rendering can be reused rather than becoming garbage after each
+ * call.
+ *
+ * <p>Requests are rounded up to a size class, so rasters of slightly
+ * different sizes share the same storage; in that case the returned
+ * raster is a child of a larger raster.  The contents of a raster
+ * obtained from {@link #getRaster} are undefined, callers must write
+ * every pixel they later read; {@link #getClearedRaster} returns a
+ * raster set to zero.</p>
+ *
+ * <p>Released storage is kept in two tiers: small buffers (tile sized)
+ * are kept per thread so they can be reused without locking, larger
+ * ones go into a shared pool that is bounded by a byte budget and
+ * evicts the least recently released buffers first.</p>
+ *
+ * <p>A raster must only be released once nothing references it any
+ * more.  Rasters that are never released are simply reclaimed by the
+ * garbage collector; they are counted by {@link #getLeakCount} which
+ * helps spotting code paths that miss a release.</p>
+ *
+ * @version $Id$
+ */
+public final class RasterPool {
+
+    /**
+     * Widths and heights are rounded up to a multiple of this.
+     */
+    public static final int SIZE_CLASS = 32;
+
+    /**
+     * Largest buffer, in bytes, kept in the per thread tier.
+     */
+    public static final int MAX_THREAD_BYTES = 1024 * 1024;
+
+    /**
+     * Number of buffers kept in the per thread tier.
+     */
+    public static final int MAX_THREAD_ENTRIES = 4;
+
+    private static final Object lock = new Object();
+
+    private static boolean enabled = true;
+    private static long maxSharedBytes = 32 * 1024 * 1024;
+    private static long sharedBytes = 0;
+
+    /**
+     * The entries of the shared tier, by sample model.
+     */
+    private static final Map<SampleModel, LinkedList<Entry>> shared =
+        new HashMap<SampleModel, LinkedList<Entry>>();
+
+    /**
+     * Entries in the shared tier, least recently released first.
+     */
+    private static final LinkedHashMap<Entry, Entry> sharedOrder =
+        new LinkedHashMap<Entry, Entry>(16, 0.75f, true);
+
+    /**
+     * The sample models of the buffers currently handed out.
+     */
+    private static final Map<DataBuffer, SampleModel> leased =
+        new WeakHashMap<DataBuffer, SampleModel>();
+
+    private static final ThreadLocal<List<Entry>> threadTier =
+        new ThreadLocal<List<Entry>>() {
+            protected List<Entry> initialValue() {
+                return new ArrayList<Entry>(MAX_THREAD_ENTRIES);
+            }
+        };
+
+    private static long requests;
+    private static long allocations;
+    private static long threadHits;
+    private static long sharedHits;
+    private static long releases;
+
+    private RasterPool() {
+    }
+
+    /**
+     * Enables or disables pooling.  When disabled every request
+     * allocates a new raster and releases are ignored.
+     */
+    public static void setEnabled(boolean enabled) {
+        synchronized (lock) {
+            RasterPool.enabled = enabled;
+            if (!enabled) {
+                clearShared();
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the number of bytes the shared tier may hold.
+     */
+    public static void setMaxBytes(long maxBytes) {
+        synchronized (lock) {
+            maxSharedBytes = maxBytes;
+            trim();
+        }
+    }
+
+    public static long getMaxBytes() {
+        return maxSharedBytes;
+    }
+
+    /**
+     * Drops all the buffers held by the shared tier and by the
+     * calling thread.
+     */
+    public static void clear() {
+        threadTier.get().clear();
+        synchronized (lock) {
+            clearShared();
+        }
+    }
+
+    /**
+     * Returns a raster with the given size whose sample model is
+     * compatible with <code>cm</code>, located at 0,0.
+     * This is the pooled counterpart of
+     * <code>ColorModel.createCompatibleWritableRaster</code>.
+     */
+    public static WritableRaster getRaster(ColorModel cm, int w, int h) {
+        return getRaster(cm.createCompatibleSampleModel(w, h), 0, 0, w, h);
+    }
+
+    /**
+     * Returns a raster compatible with <code>sm</code> with the given
+     * location and size.
+     */
+    public static WritableRaster getRaster(SampleModel sm,
+                                           int x, int y, int w, int h) {
+        return getRaster(sm, x, y, w, h, false);
+    }
+
+    /**
+     * Returns a raster with the given size whose sample model is
+     * compatible with <code>cm</code>, located at 0,0, with all its
+     * samples set to zero.
+     */
+    public static WritableRaster getClearedRaster(ColorModel cm,
+                                                  int w, int h) {
+        return getRaster(cm.createCompatibleSampleModel(w, h),
+                         0, 0, w, h, true);
+    }
+
+    /**
+     * Returns a raster compatible with <code>sm</code> with the given
+     * location and size, with all its samples set to zero.
+     */
+    public static WritableRaster getClearedRaster(SampleModel sm,
+                                                  int x, int y,
+                                                  int w, int h) {
+        return getRaster(sm, x, y, w, h, true);
+    }
+
+    private static WritableRaster getRaster(SampleModel sm,
+                                            int x, int y, int w, int h,
+                                            boolean clear) {
+        if (!enabled) {
+            sm = sm.createCompatibleSampleModel(w, h);
+            return Raster.createWritableRaster(sm, new Point(x, y));
+        }
+
+        int cw = sizeClass(w);
+        int ch = sizeClass(h);
+        SampleModel key = sm.createCompatibleSampleModel(cw, ch);
+
+        DataBuffer db = takeThread(key);
+        boolean threadHit = (db != null);
+        synchronized (lock) {
+            requests++;
+            if (threadHit) {
+                threadHits++;
+            } else {
+                db = takeShared(key);
+                if (db != null) {
+                    sharedHits++;
+                } else {
+                    allocations++;
+                }
+            }
+            if (db == null) {
+                db = key.createDataBuffer();
+                // New storage is already zero.
+                clear = false;
+            }
+            leased.put(db, key);
+        }
+
+        WritableRaster wr;
+        wr = Raster.createWritableRaster(key, db, new Point(x, y));
+        if ((cw != w) || (ch != h))
+            wr = wr.createWritableChild(x, y, w, h, x, y, null);
+        if (clear)
+            PadRed.ZeroRecter.zeroRect(wr);
+        return wr;
+    }
+
+    /**
+     * Returns the storage of a raster obtained from {@link #getRaster}
+     * to the pool.  Rasters that did not come from the pool, or were
+     * already released, are ignored.  Any child of the released raster
+     * shares its storage and must not be used afterwards either.
+     */
+    public static void releaseRaster(Raster r) {
+        if (r == null)
+            return;
+
+        DataBuffer db = r.getDataBuffer();
+        SampleModel key;
+        synchronized (lock) {
+            key = leased.remove(db);
+            if (key == null)
+                return;
+            releases++;
+            if (!enabled)
+                return;
+        }
+
+        if (bufferBytes(db) <= MAX_THREAD_BYTES) {
+            List<Entry> l = threadTier.get();
+            if (l.size() >= MAX_THREAD_ENTRIES) {
+                // Move the oldest thread entry to the shared tier.
+                Entry e = l.remove(0);
+                putShared(e.key, e.db);
+            }
+            l.add(new Entry(key, db));
+        } else {
+            putShared(key, db);
+        }
+    }
+
+    /**
+     * Returns the number of rasters requested from the pool.
+     */
+    public static long getRequestCount() {
+        synchronized (lock) {
+            return requests;
+        }
+    }
+
+    /**
+     * Returns the number of requests that needed new storage.
+     */
+    public static long getAllocationCount() {
+        synchronized (lock) {
+            return allocations;
+        }
+    }
+
+    /**
+     * Returns the number of requests served from the per thread tier.
+     */
+    public static long getThreadHitCount() {
+        synchronized (lock) {
+            return threadHits;
+        }
+    }
+
+    /**
+     * Returns the number of requests served from the shared tier.
+     */
+    public static long getSharedHitCount() {
+        synchronized (lock) {
+            return sharedHits;
+        }
+    }
+
+    /**
+     * Returns the number of rasters released back to the pool.
+     */
+    public static long getReleaseCount() {
+        synchronized (lock) {
+            return releases;
+        }
+    }
+
+    /**
+     * Returns the number of rasters currently handed out.
+     */
+    public static int getOutstandingCount() {
+        synchronized (lock) {
+            return leased.size();
+        }
+    }
+
+    /**
+     * Returns the number of rasters that were garbage collected
+     * without having been released to the pool.
+     */
+    public static long getLeakCount() {
+        synchronized (lock) {
+            return requests - releases - leased.size();
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently held by the shared tier.
+     */
+    public static long getSharedBytes() {
+        synchronized (lock) {
+            return sharedBytes;
+        }
+    }
+
+    public static String getStatistics() {
+        synchronized (lock) {
+            return "RasterPool[requests=" + requests
+                + " allocations=" + allocations
+                + " threadHits=" + threadHits
+                + " sharedHits=" + sharedHits
+                + " releases=" + releases
+                + " outstanding=" + leased.size()
+                + " leaks=" + (requests - releases - leased.size())
+                + " sharedBytes=" + sharedBytes + ']';
+        }
+    }
+
+    private static int sizeClass(int sz) {
+        return ((sz + SIZE_CLASS - 1) / SIZE_CLASS) * SIZE_CLASS;
+    }
+
+    private static long bufferBytes(DataBuffer db) {
+        return ((long)db.getSize()) * db.getNumBanks()
+            * (DataBuffer.getDataTypeSize(db.getDataType()) / 8);
+    }
+
+    private static DataBuffer takeThread(SampleModel key) {
+        List<Entry> l = threadTier.get();
+        for (int i = l.size() - 1; i >= 0; i--) {
+            Entry e = l.get(i);
+            if (e.key.equals(key)) {
+                l.remove(i);
+                return e.db;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private static DataBuffer takeShared(SampleModel key) {
+        LinkedList<Entry> l = shared.get(key);
+        if (l == null)
+            return null;
+
+        Entry e = l.removeLast();
+        if (l.isEmpty())
+            shared.remove(key);
+        sharedOrder.remove(e);
+        sharedBytes -= e.bytes;
+        return e.db;
+    }
+
+    private static void putShared(SampleModel key, DataBuffer db) {
+        Entry e = new Entry(key, db);
+        synchronized (lock) {
+            if (e.bytes > maxSharedBytes)
+                return;
+            LinkedList<Entry> l = shared.get(key);
+            if (l == null) {
+                l = new LinkedList<Entry>();
+                shared.put(key, l);
+            }
+            l.add(e);
+            sharedOrder.put(e, e);
+            sharedBytes += e.bytes;
+            trim();
+        }
+    }
+
+    /**
+     * Evicts the oldest shared entries until the budget is met.
+     * Must be called with the lock held.
+     */
+    private static void trim() {
+        Iterator<Entry> i = sharedOrder.keySet().iterator();
+        while ((sharedBytes > maxSharedBytes) && i.hasNext()) {
+            Entry e = i.next();
+            i.remove();
+            LinkedList<Entry> l = shared.get(e.key);
+            l.remove(e);
+            if (l.isEmpty())
+                shared.remove(e.key);
+            sharedBytes -= e.bytes;
+        }
+    }
+
+    private static void clearShared() {
+        shared.clear();
+        sharedOrder.clear();
+        sharedBytes = 0;
+    }
+
+    /**
+     * A pooled buffer along with the sample model it was made for.
+     */
+    private static class Entry {
+        final SampleModel key;
+        final DataBuffer  db;
+        final long        bytes;
+
+        Entry(SampleModel key, DataBuffer db) {
+            this.key   = key;
+            this.db    = db;
+            this.bytes = bufferBytes(db);
+        }
+    }
+}
@@ -25,9 +25,9 @@ import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 
+import org.apache.batik.ext.awt.image.AbstractLight;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.Light;
-import org.apache.batik.ext.awt.image.SpotLight;
 
 /**
  * 
@@ -159,32 +159,32 @@ public class SpecularLightingRed extends AbstractTiledRed{
 
         // System.out.println("Pixel: 0x" + Integer.toHexString(pixel));
 
-        final double[][][] NA = bumpMap.getNormalArray(minX, minY, w, h);
+        // Normals are stored NORMAL_STRIDE floats per pixel, row major.
+        final float[] NA = bumpMap.getThreadNormalBuffer(minX, minY, w, h);
+        int n = 0;
 
         // System.out.println("Entering Specular Lighting");
-        if (light instanceof SpotLight) {
-            SpotLight slight = (SpotLight)light;
-            final double[][] LA = new double[w][4];
+        if(!light.isConstant()){
+            final double[] LA = new double[4*w];
             for(i=0; i<h; i++){
                 // System.out.println("Row: " + i);
-                final double [][] NR = NA[i];
-                slight.getLightRow4(x, y+i*scaleY, scaleX, w, NR, LA);
-                for (j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    // Get Light Vector
-                    final double [] L = LA[j];
-                    double vs = L[3];
+                AbstractLight.getLightRow4(light, x, y+i*scaleY, scaleX, w,
+                                           NA, n, LA);
+                for (j=0; j<w; j++, n+=BumpMap.NORMAL_STRIDE){
+                    // Light vector and intensity
+                    final int l = 4*j;
+                    final double vs = LA[l+3];
                     if (vs == 0) {
                         a = 0;
                     } else {
-                        L[2] += 1;
-                        norm = L[0]*L[0] + L[1]*L[1] + L[2]*L[2];
-                        norm = Math.sqrt(norm);
-                        double dot = N[0]*L[0] + N[1]*L[1] + N[2]*L[2];
-                        vs = vs*Math.pow(dot/norm, specularExponent);
-                        a = (int)(mult*vs + 0.5);
+                        // Half-way vector
+                        final double H0 = LA[l];
+                        final double H1 = LA[l+1];
+                        final double H2 = LA[l+2] + 1;
+                        norm = Math.sqrt(H0*H0 + H1*H1 + H2*H2);
+                        double dot = NA[n]*H0 + NA[n+1]*H1 + NA[n+2]*H2;
+                        a = (int)(mult*vs*Math.pow(dot/norm, specularExponent)
+                                  + 0.5);
                         if ((a & 0xFFFFFF00) != 0)
                             a = ((a & 0x80000000) != 0)?0:255;
                     }
@@ -192,31 +192,6 @@ public class SpecularLightingRed extends AbstractTiledRed{
                 }
                 p += adjust;
             }
-        } else if(!light.isConstant()){
-            final double[][] LA = new double[w][4];
-            for(i=0; i<h; i++){
-                // System.out.println("Row: " + i);
-                final double [][] NR = NA[i];
-                light.getLightRow(x, y+i*scaleY, scaleX, w, NR, LA);
-                for (j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    // Get Light Vector
-                    final double [] L = LA[j];
-                    L[2] += 1;
-                    norm = L[0]*L[0] + L[1]*L[1] + L[2]*L[2];
-                    norm = Math.sqrt(norm);
-                    double dot = N[0]*L[0] + N[1]*L[1] + N[2]*L[2];
-                    // vs = vs/norm;
-                    norm = Math.pow(dot/norm, specularExponent);
-                    a = (int)(mult*norm + 0.5);
-                    if ((a & 0xFFFFFF00) != 0)
-                        a = ((a & 0x80000000) != 0)?0:255;
-                    pixels[p++] = (a << 24 | pixel);
-                }
-                p += adjust;
-            }
         }
         else{
             // Get constant light vector
@@ -233,12 +208,9 @@ public class SpecularLightingRed extends AbstractTiledRed{
             }
 
             for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    a = (int)(mult*Math.pow(N[0]*L[0] + N[1]*L[1] + N[2]*L[2], 
+                for(j=0; j<w; j++, n+=BumpMap.NORMAL_STRIDE){
+                    a = (int)(mult*Math.pow(NA[n]*L[0] + NA[n+1]*L[1] +
+                                            NA[n+2]*L[2],
                                             specularExponent) + 0.5);
                     
                     if ((a & 0xFFFFFF00) != 0)
@@ -29,6 +29,19 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.batik.util.HaltingThread;
+
 /**
  * This class creates a RenderedImage in conformance to the one
  * defined for the feTurbulence filter of the SVG specification.  What
@@ -210,8 +223,68 @@ public final class TurbulencePatternRed extends AbstractRed {
     private static final int BSize = 0x100;
     private static final int BM = 0xff;
     private static final double PerlinN = 0x1000;
-    private final int[] latticeSelector = new int[BSize + 1];
-    private final double[] gradient = new double[(BSize+1)*8];
+    private final int[] latticeSelector;
+    private final double[] gradient;
+
+    /**
+     * Maximum number of lattices kept in the shared lattice cache.
+     */
+    private static final int MAX_LATTICES = 32;
+
+    /**
+     * Lattices shared between instances, keyed by seed. The arrays
+     * are never modified once built so they can be used concurrently.
+     */
+    private static final Map lattices =
+        new LinkedHashMap(MAX_LATTICES, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_LATTICES;
+            }
+        };
+
+    /**
+     * Minimum number of pixels given to a thread when a request is
+     * split across several threads.  Requests mostly come a tile at
+     * a time, and tiles are usually 128x128, so this lets a tile be
+     * split in up to four bands.  Even with a single octave a band
+     * this size takes over a tenth of a millisecond to generate,
+     * much longer than handing it to another thread.
+     */
+    private static final int PARALLEL_THRESHOLD = 64*64;
+
+    /**
+     * Number of threads used to generate large requests.  Requests
+     * are generated on the calling thread unless this is raised with
+     * <code>setParallelism</code> or the
+     * <code>org.apache.batik.turbulence_parallelism</code> system
+     * property.
+     */
+    private static int parallelism;
+    static {
+        int value = 1;
+        try {
+            String s = System.getProperty
+                ("org.apache.batik.turbulence_parallelism", "1");
+            value = Integer.parseInt(s);
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        } finally {
+            parallelism = value;
+        }
+    }
+
+    /**
+     * Number of seconds an idle worker thread waits for more work
+     * before it stops.
+     */
+    private static final int KEEP_ALIVE = 5;
+
+    /**
+     * Worker threads, created on first use.  There is one less than
+     * the parallelism, as the calling thread generates a band too.
+     * They are daemon threads and stop when idle.
+     */
+    private static ThreadPoolExecutor executor;
 
     public double getBaseFrequencyX(){
         return baseFrequencyX;
@@ -256,7 +329,76 @@ public final class TurbulencePatternRed extends AbstractRed {
         return result;
     }
 
-    private void initLattice(int seed) {
+    /**
+     * Returns the lattice selector and gradient arrays for the given
+     * seed, building them if they are not in the shared cache.
+     */
+    private Object[] getLattice(int seed) {
+        Integer key = Integer.valueOf(seed);
+        synchronized (lattices) {
+            Object[] lattice = (Object[])lattices.get(key);
+            if (lattice != null)
+                return lattice;
+        }
+        int[] selector = new int[BSize + 1];
+        double[] grad = new double[(BSize+1)*8];
+        initLattice(seed, selector, grad);
+        Object[] lattice = new Object[] { selector, grad };
+        synchronized (lattices) {
+            lattices.put(key, lattice);
+        }
+        return lattice;
+    }
+
+    /**
+     * Sets the maximum number of threads used to generate a single
+     * request. Values smaller than 2 generate everything on the
+     * calling thread.
+     */
+    public static synchronized void setParallelism(int n) {
+        parallelism = n;
+        // With no more work the idle threads stop on their own.
+        if ((executor == null) || (n < 2))
+            return;
+        if (n-1 > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(n-1);
+            executor.setCorePoolSize(n-1);
+        } else {
+            executor.setCorePoolSize(n-1);
+            executor.setMaximumPoolSize(n-1);
+        }
+    }
+
+    /**
+     * Returns the maximum number of threads used to generate a
+     * single request.
+     */
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int n = Math.max(1, parallelism-1);
+            executor = new ThreadPoolExecutor
+                (n, n, KEEP_ALIVE, TimeUnit.SECONDS,
+                 new LinkedBlockingQueue<Runnable>(),
+                 new ThreadFactory() {
+                    int count;
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread
+                            (r, "TurbulencePatternRed-" + (++count));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    private void initLattice(int seed, final int[] latticeSelector,
+                             final double[] gradient) {
         double u, v, s;
         int i, j, k, s1, s2;
         seed = setupSeed(seed);
@@ -484,116 +626,6 @@ public final class TurbulencePatternRed extends AbstractRed {
         }
     }
 
-    /**
-     * This is the heart of the turbulence calculation. It returns
-     * 'turbFunctionResult', as defined in the spec.  This is
-     * special case for 4 bands of output.
-     *
-     * @param pointX x coordinate of the point to process.
-     * @param pointY y coordinate of the point to process.
-     * @param fSum array used to avoid reallocating double array for each pixel
-     * @return The ARGB pixel value.
-     */
-    private final int turbulence_4(double pointX,
-                                   double pointY,
-                                   final double[] fSum) {
-        double n, ratio = 255;
-        int i, j, b0, b1, nOctave;
-        double px, py, rx0, rx1, ry0, ry1, sx, sy;
-
-        pointX *= baseFrequencyX;
-        pointY *= baseFrequencyY;
-        fSum[0] = fSum[1] = fSum[2] = fSum[3] = 0;
-
-        for (nOctave = numOctaves; nOctave > 0; nOctave--){
-            px = pointX+PerlinN;
-
-            b0 = ((int)px)&BM;
-            i = latticeSelector[b0 ];
-            j = latticeSelector[b0+1];
-
-            rx0 = px - (int)px;
-            rx1 = rx0 - 1.0;
-            sx  = s_curve(rx0);
-
-            py = pointY+PerlinN;
-            b0 = ((int)py) & BM;
-            b1 = (b0+1) & BM;
-
-            b1 = ((j + b0)&BM)<<3;
-            b0 = ((i + b0)&BM)<<3;
-
-            ry0 = py - (int)py;
-            ry1 = ry0 - 1.0;
-            sy = s_curve(ry0);
-
-            n = lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+0] + ry0*gradient[b0+1],
-                          rx1*gradient[b1+0] + ry0*gradient[b1+1]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+0] + ry1*gradient[b0+8+1],
-                          rx1*gradient[b1+8+0] + ry1*gradient[b1+8+1]));
-
-            if (n<0) fSum[0] -= (n * ratio);
-            else     fSum[0] += (n * ratio);
-
-            n = lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+2] + ry0*gradient[b0+3],
-                          rx1*gradient[b1+2] + ry0*gradient[b1+3]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+2] + ry1*gradient[b0+8+3],
-                          rx1*gradient[b1+8+2] + ry1*gradient[b1+8+3]));
-
-            if (n<0) fSum[1] -= (n * ratio);
-            else     fSum[1] += (n * ratio);
-
-            n = lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+4] + ry0*gradient[b0+5],
-                          rx1*gradient[b1+4] + ry0*gradient[b1+5]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+4] + ry1*gradient[b0+8+5],
-                          rx1*gradient[b1+8+4] + ry1*gradient[b1+8+5]));
-
-            if (n<0) fSum[2] -= (n * ratio);
-            else     fSum[2] += (n * ratio);
-
-            n = lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+6] + ry0*gradient[b0+7],
-                          rx1*gradient[b1+6] + ry0*gradient[b1+7]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+6] + ry1*gradient[b0+8+7],
-                          rx1*gradient[b1+8+6] + ry1*gradient[b1+8+7]));
-            if (n<0) fSum[3] -= (n * ratio);
-            else     fSum[3] += (n * ratio);
-
-            ratio *= .5;
-            pointX *= 2;
-            pointY *= 2;
-        }
-
-        i = (int)fSum[0];
-        if ((i & 0xFFFFFF00) == 0) j  = i<<16;
-        else                       j  = ((i & 0x80000000) != 0)?0:0xFF0000;
-
-        i = (int)fSum[1];
-        if ((i & 0xFFFFFF00) == 0) j |= i<<8;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF00;
-
-        i = (int)fSum[2];
-        if ((i & 0xFFFFFF00) == 0) j |= i;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF;
-
-        i = (int)fSum[3];
-        if ((i & 0xFFFFFF00) == 0) j |= i<<24;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF000000;
-        return j;
-    }
-
-
     /**
      * This is the heart of the turbulence calculation. It returns
      * 'turbFunctionResult', as defined in the spec.
@@ -821,102 +853,6 @@ public final class TurbulencePatternRed extends AbstractRed {
         }
     }
 
-    /**
-     * This is the heart of the turbulence calculation. It returns
-     * 'turbFunctionResult', as defined in the spec.  This handles the
-     * case where we are generating 4 channels of noise.
-     * @param pointX x coordinate of the point to process.
-     * @param pointY y coordinate of the point to process.
-     * @param fSum array used to avoid reallocating double array for each pixel
-     * @return The ARGB pixel
-     */
-    private final int turbulenceFractal_4( double pointX,
-                                           double pointY,
-                                           final double[] fSum) {
-        int b0, b1, nOctave, i, j;
-        double px, py, rx0, rx1, ry0, ry1, sx, sy, ratio = 127.5;
-
-        pointX *= baseFrequencyX;
-        pointY *= baseFrequencyY;
-        fSum[0] = fSum[1] = fSum[2] = fSum[3] = 127.5;
-
-        for (nOctave = numOctaves; nOctave > 0; nOctave--){
-            px = pointX+PerlinN;
-
-            b0 = ((int)px)&BM;
-            i = latticeSelector[b0 ];
-            j = latticeSelector[b0+1];
-
-            rx0 = px - (int)px;
-            rx1 = rx0 - 1.0;
-            sx  = s_curve(rx0);
-
-            py = pointY+PerlinN;
-            b0 = ((int)py) & BM;
-            b1 = (b0+1) & BM;
-
-            b1 = ((j + b0)&BM)<<3;
-            b0 = ((i + b0)&BM)<<3;
-
-            ry0 = py - (int)py;
-            ry1 = ry0 - 1.0;
-            sy = s_curve(ry0);
-
-            fSum[0] += lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+0] + ry0*gradient[b0+1],
-                          rx1*gradient[b1+0] + ry0*gradient[b1+1]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+0] + ry1*gradient[b0+8+1],
-                          rx1*gradient[b1+8+0] + ry1*gradient[b1+8+1]))*ratio;
-
-            fSum[1] += lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+2] + ry0*gradient[b0+3],
-                          rx1*gradient[b1+2] + ry0*gradient[b1+3]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+2] + ry1*gradient[b0+8+3],
-                          rx1*gradient[b1+8+2] + ry1*gradient[b1+8+3]))*ratio;
-
-            fSum[2] += lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+4] + ry0*gradient[b0+5],
-                          rx1*gradient[b1+4] + ry0*gradient[b1+5]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+4] + ry1*gradient[b0+8+5],
-                          rx1*gradient[b1+8+4] + ry1*gradient[b1+8+5]))*ratio;
-
-            fSum[3] += lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+6] + ry0*gradient[b0+7],
-                          rx1*gradient[b1+6] + ry0*gradient[b1+7]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+6] + ry1*gradient[b0+8+7],
-                          rx1*gradient[b1+8+6] + ry1*gradient[b1+8+7]))*ratio;
-
-            ratio  *= .5;
-            pointX *= 2;
-            pointY *= 2;
-        }
-
-        i = (int)fSum[0];
-        if ((i & 0xFFFFFF00) == 0) j  = i<<16;
-        else                       j  = ((i & 0x80000000) != 0)?0:0xFF0000;
-
-        i = (int)fSum[1];
-        if ((i & 0xFFFFFF00) == 0) j |= i<<8;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF00;
-
-        i = (int)fSum[2];
-        if ((i & 0xFFFFFF00) == 0) j |= i;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF;
-
-        i = (int)fSum[3];
-        if ((i & 0xFFFFFF00) == 0) j |= i<<24;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF000000;
-        return j;
-    }
-
     /**
      * This is the heart of the turbulence calculation. It returns
      * 'turbFunctionResult', as defined in the spec.
@@ -1051,154 +987,366 @@ public final class TurbulencePatternRed extends AbstractRed {
                 ("Cannot generate a noise pattern into a null raster");
 
 
-        int w = dest.getWidth();
-        int h = dest.getHeight();
+        final int w = dest.getWidth();
+        final int h = dest.getHeight();
 
         // Access the integer buffer for the destination Raster
         DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
         SinglePixelPackedSampleModel sppsm;
-        int minX = dest.getMinX();
-        int minY = dest.getMinY();
+        final int minX = dest.getMinX();
+        final int minY = dest.getMinY();
         sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
-        int dstOff = dstDB.getOffset() +
+        final int dstOff = dstDB.getOffset() +
             sppsm.getOffset(minX - dest.getSampleModelTranslateX(),
                             minY - dest.getSampleModelTranslateY());
 
         final int[] destPixels = dstDB.getBankData()[0];
-        int dstAdjust = sppsm.getScanlineStride() - w;
+        final int scanStride = sppsm.getScanlineStride();
+
+        int threads = getParallelism();
+        if ((long)w*h < 2*PARALLEL_THRESHOLD)
+            threads = 1;
+        else
+            threads = (int)Math.min(threads, (long)w*h/PARALLEL_THRESHOLD);
+        threads = Math.min(threads, h);
+
+        // The bands check whether the thread the request comes from
+        // has been halted.
+        final Thread caller = Thread.currentThread();
+        if (threads < 2) {
+            generateRows(destPixels, dstOff, scanStride, minX, minY, w, 0, h,
+                         caller);
+            return dest;
+        }
 
-        // Generate pixel pattern now
-        int i, end, dp=dstOff;
+        // Split the request into horizontal bands, the calling
+        // thread generates the first one.
+        Future[] bands = new Future[threads-1];
+        ExecutorService exec = getExecutor();
+        for (int t=1; t<threads; t++) {
+            final int y0 = (int)((long)h*t/threads);
+            final int y1 = (int)((long)h*(t+1)/threads);
+            bands[t-1] = exec.submit(new Runnable() {
+                    public void run() {
+                        generateRows(destPixels, dstOff, scanStride,
+                                     minX, minY, w, y0, y1, caller);
+                    }
+                });
+        }
+        generateRows(destPixels, dstOff, scanStride,
+                     minX, minY, w, 0, (int)((long)h/threads), caller);
+
+        boolean interrupted = false;
+        for (int t=0; t<bands.length; t++) {
+            while (true) {
+                try {
+                    bands[t].get();
+                    break;
+                } catch (InterruptedException ie) {
+                    // The other bands write into dest so we have to
+                    // wait for them regardless.
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException)cause;
+                    if (cause instanceof Error)
+                        throw (Error)cause;
+                    throw new RuntimeException(cause);
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        return dest;
+    }
+
+    /**
+     * Generates rows <code>y0</code> (inclusive) to <code>y1</code>
+     * (exclusive) of a request starting at (minX, minY). The start of
+     * each row is transformed to filter space directly, so the
+     * result does not depend on how a request is split into bands.
+     * Stops early when <code>caller</code> has been halted.
+     */
+    private void generateRows(final int[] destPixels, final int dstOff,
+                              final int scanStride,
+                              final int minX, final int minY,
+                              final int w, final int y0, final int y1,
+                              final Thread caller) {
         final int[] rgb = new int[4];
         final double[] fSum = {0, 0, 0, 0};
         final double[] noise = {0, 0, 0, 0};
-
-        final double tx0, tx1, ty0, ty1;
-        tx0 = tx[0];
-        tx1 = tx[1];
-        // Update for y step, (note we substract all the stuff we
-        // added while going across the scan line).
-        ty0 = ty[0]-(w*tx0);
-        ty1 = ty[1]-(w*tx1);
-
-        double[] p = {minX, minY};
-        txf.transform(p, 0, p, 0, 1);
-        double point_0 = p[0];
-        double point_1 = p[1];
-
-        if(isFractalNoise){
-            if(stitchInfo == null){
-                if (channels.length == 4) {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++) {
-                            destPixels[dp] = turbulenceFractal_4
-                                (point_0, point_1, fSum);
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
-                } else {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
-                            turbulenceFractal(rgb, point_0, point_1, fSum, noise);
-
-                            // Write RGB value.
-                            destPixels[dp] = ((rgb[3]<<24) |
-                                              (rgb[0]<<16) |
-                                              (rgb[1]<<8)  |
-                                              (rgb[2]   ));
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
+        final double[] p = new double[2];
+
+        final double tx0 = tx[0];
+        final double tx1 = tx[1];
+
+        final boolean span = (stitchInfo == null) && (channels.length == 4);
+        final double[] pointX = span ? new double[w] : null;
+        final double[] pointY = span ? new double[w] : null;
+        final double[] sums   = span ? new double[4*w] : null;
+        final StitchInfo si = (stitchInfo == null) ? null : new StitchInfo();
+
+        for (int y=y0; y<y1; y++) {
+            if (HaltingThread.hasBeenHalted(caller))
+                return;
+
+            p[0] = minX;
+            p[1] = minY + y;
+            txf.transform(p, 0, p, 0, 1);
+            double point_0 = p[0];
+            double point_1 = p[1];
+            int dp = dstOff + y*scanStride;
+
+            if (span) {
+                for (int i=0; i<w; i++) {
+                    pointX[i] = point_0;
+                    pointY[i] = point_1;
+                    point_0 += tx0;
+                    point_1 += tx1;
                 }
+                if (isFractalNoise)
+                    turbulenceFractalSpan_4(pointX, pointY, sums, w);
+                else
+                    turbulenceSpan_4(pointX, pointY, sums, w);
+                packSpan_4(sums, w, destPixels, dp);
+                continue;
             }
-            else{
-                StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
-                    for(end=dp+w; dp<end; dp++){
-                        si.assign(this.stitchInfo);
+
+            for (int end=dp+w; dp<end; dp++) {
+                if (si != null) {
+                    si.assign(this.stitchInfo);
+                    if (isFractalNoise)
                         turbulenceFractalStitch(rgb, point_0, point_1,
                                                 fSum, noise, si);
-
-                        // Write RGB value.
-                        destPixels[dp] = ((rgb[3]<<24) |
-                                          (rgb[0]<<16) |
-                                          (rgb[1]<<8)  |
-                                          (rgb[2]   ));
-                        point_0 += tx0;
-                        point_1 += tx1;
-                    }
-                    point_0 += ty0;
-                    point_1 += ty1;
-                    dp += dstAdjust;
+                    else
+                        turbulenceStitch(rgb, point_0, point_1,
+                                         fSum, noise, si);
+                } else if (isFractalNoise) {
+                    turbulenceFractal(rgb, point_0, point_1, fSum, noise);
+                } else {
+                    turbulence(rgb, point_0, point_1, fSum, noise);
                 }
+
+                // Write RGB value.
+                destPixels[dp] = ((rgb[3]<<24) |
+                                  (rgb[0]<<16) |
+                                  (rgb[1]<<8)  |
+                                  (rgb[2]   ));
+                point_0 += tx0;
+                point_1 += tx1;
             }
         }
-        else{ // Loop for turbulence noise
-            if(stitchInfo == null){
-                if (channels.length == 4) {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
-                            destPixels[dp] = turbulence_4
-                                (point_0, point_1, fSum);
-
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
-                } else {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
-                            turbulence(rgb, point_0, point_1, fSum, noise);
-
-                            // Write RGB value.
-                            destPixels[dp] = ((rgb[3]<<24) |
-                                              (rgb[0]<<16) |
-                                              (rgb[1]<<8)  |
-                                              (rgb[2]   ));
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
-                }
+    }
+
+    /**
+     * This is the heart of the turbulence calculation. It computes
+     * 'turbFunctionResult', as defined in the spec, for a span of
+     * points. This is special case for 4 bands of output.
+     * The octave loop is outermost so each pass over the span runs
+     * the same short sequence of arithmetic on consecutive points,
+     * which keeps the lattice in cache and gives the JIT a simple
+     * loop to unroll.
+     *
+     * @param pointX x coordinates of the points, overwritten.
+     * @param pointY y coordinates of the points, overwritten.
+     * @param sums receives the four channel sums of each point,
+     *             <code>w</code> values per channel.
+     */
+    private void turbulenceSpan_4(final double[] pointX,
+                                  final double[] pointY,
+                                  final double[] sums, final int w) {
+        final int[] latticeSelector = this.latticeSelector;
+        final double[] gradient = this.gradient;
+        final int w2 = w*2, w3 = w*3;
+
+        for (int k=0; k<w; k++) {
+            pointX[k] *= baseFrequencyX;
+            pointY[k] *= baseFrequencyY;
+        }
+        Arrays.fill(sums, 0, 4*w, 0);
+
+        double ratio = 255;
+        for (int nOctave = numOctaves; nOctave > 0; nOctave--){
+            for (int k=0; k<w; k++) {
+                final double px = pointX[k]+PerlinN;
+                int b0 = ((int)px)&BM;
+                final int i = latticeSelector[b0 ];
+                final int j = latticeSelector[b0+1];
+
+                final double rx0 = px - (int)px;
+                final double rx1 = rx0 - 1.0;
+                final double sx  = s_curve(rx0);
+
+                final double py = pointY[k]+PerlinN;
+                b0 = ((int)py) & BM;
+
+                final int b1 = ((j + b0)&BM)<<3;
+                b0 = ((i + b0)&BM)<<3;
+
+                final double ry0 = py - (int)py;
+                final double ry1 = ry0 - 1.0;
+                final double sy = s_curve(ry0);
+
+                double n;
+                n = lerp(sy,
+                         lerp(sx,
+                              rx0*gradient[b0+0] + ry0*gradient[b0+1],
+                              rx1*gradient[b1+0] + ry0*gradient[b1+1]),
+                         lerp(sx,
+                              rx0*gradient[b0+8+0] + ry1*gradient[b0+8+1],
+                              rx1*gradient[b1+8+0] + ry1*gradient[b1+8+1]));
+                if (n<0) sums[k] -= (n * ratio);
+                else     sums[k] += (n * ratio);
+
+                n = lerp(sy,
+                         lerp(sx,
+                              rx0*gradient[b0+2] + ry0*gradient[b0+3],
+                              rx1*gradient[b1+2] + ry0*gradient[b1+3]),
+                         lerp(sx,
+                              rx0*gradient[b0+8+2] + ry1*gradient[b0+8+3],
+                              rx1*gradient[b1+8+2] + ry1*gradient[b1+8+3]));
+                if (n<0) sums[w+k] -= (n * ratio);
+                else     sums[w+k] += (n * ratio);
+
+                n = lerp(sy,
+                         lerp(sx,
+                              rx0*gradient[b0+4] + ry0*gradient[b0+5],
+                              rx1*gradient[b1+4] + ry0*gradient[b1+5]),
+                         lerp(sx,
+                              rx0*gradient[b0+8+4] + ry1*gradient[b0+8+5],
+                              rx1*gradient[b1+8+4] + ry1*gradient[b1+8+5]));
+                if (n<0) sums[w2+k] -= (n * ratio);
+                else     sums[w2+k] += (n * ratio);
+
+                n = lerp(sy,
+                         lerp(sx,
+                              rx0*gradient[b0+6] + ry0*gradient[b0+7],
+                              rx1*gradient[b1+6] + ry0*gradient[b1+7]),
+                         lerp(sx,
+                              rx0*gradient[b0+8+6] + ry1*gradient[b0+8+7],
+                              rx1*gradient[b1+8+6] + ry1*gradient[b1+8+7]));
+                if (n<0) sums[w3+k] -= (n * ratio);
+                else     sums[w3+k] += (n * ratio);
+
+                pointX[k] *= 2;
+                pointY[k] *= 2;
             }
-            else{
-                StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
-                    for(end=dp+w; dp<end; dp++){
-                        si.assign(this.stitchInfo);
-                        turbulenceStitch(rgb, point_0, point_1,
-                                         fSum, noise, si);
+            ratio *= .5;
+        }
+    }
 
-                        // Write RGB value.
-                        destPixels[dp] = ((rgb[3]<<24) |
-                                          (rgb[0]<<16) |
-                                          (rgb[1]<<8)  |
-                                          (rgb[2]   ));
-                        point_0 += tx0;
-                        point_1 += tx1;
-                    }
-                    point_0 += ty0;
-                    point_1 += ty1;
-                    dp += dstAdjust;
-                }
+    /**
+     * Fractal noise version of {@link #turbulenceSpan_4}. This
+     * computes 'turbFunctionResult' for a span of points when
+     * generating 4 channels of noise.
+     *
+     * @param pointX x coordinates of the points, overwritten.
+     * @param pointY y coordinates of the points, overwritten.
+     * @param sums receives the four channel sums of each point,
+     *             <code>w</code> values per channel.
+     */
+    private void turbulenceFractalSpan_4(final double[] pointX,
+                                         final double[] pointY,
+                                         final double[] sums, final int w) {
+        final int[] latticeSelector = this.latticeSelector;
+        final double[] gradient = this.gradient;
+        final int w2 = w*2, w3 = w*3;
+
+        for (int k=0; k<w; k++) {
+            pointX[k] *= baseFrequencyX;
+            pointY[k] *= baseFrequencyY;
+        }
+        Arrays.fill(sums, 0, 4*w, 127.5);
+
+        double ratio = 127.5;
+        for (int nOctave = numOctaves; nOctave > 0; nOctave--){
+            for (int k=0; k<w; k++) {
+                final double px = pointX[k]+PerlinN;
+                int b0 = ((int)px)&BM;
+                final int i = latticeSelector[b0 ];
+                final int j = latticeSelector[b0+1];
+
+                final double rx0 = px - (int)px;
+                final double rx1 = rx0 - 1.0;
+                final double sx  = s_curve(rx0);
+
+                final double py = pointY[k]+PerlinN;
+                b0 = ((int)py) & BM;
+
+                final int b1 = ((j + b0)&BM)<<3;
+                b0 = ((i + b0)&BM)<<3;
+
+                final double ry0 = py - (int)py;
+                final double ry1 = ry0 - 1.0;
+                final double sy = s_curve(ry0);
+
+                sums[k] += lerp(sy,
+                     lerp(sx,
+                          rx0*gradient[b0+0] + ry0*gradient[b0+1],
+                          rx1*gradient[b1+0] + ry0*gradient[b1+1]),
+                     lerp(sx,
+                          rx0*gradient[b0+8+0] + ry1*gradient[b0+8+1],
+                          rx1*gradient[b1+8+0] + ry1*gradient[b1+8+1]))*ratio;
+
+                sums[w+k] += lerp(sy,
+                     lerp(sx,
+                          rx0*gradient[b0+2] + ry0*gradient[b0+3],
+                          rx1*gradient[b1+2] + ry0*gradient[b1+3]),
+                     lerp(sx,
+                          rx0*gradient[b0+8+2] + ry1*gradient[b0+8+3],
+                          rx1*gradient[b1+8+2] + ry1*gradient[b1+8+3]))*ratio;
+
+                sums[w2+k] += lerp(sy,
+                     lerp(sx,
+                          rx0*gradient[b0+4] + ry0*gradient[b0+5],
+                          rx1*gradient[b1+4] + ry0*gradient[b1+5]),
+                     lerp(sx,
+                          rx0*gradient[b0+8+4] + ry1*gradient[b0+8+5],
+                          rx1*gradient[b1+8+4] + ry1*gradient[b1+8+5]))*ratio;
+
+                sums[w3+k] += lerp(sy,
+                     lerp(sx,
+                          rx0*gradient[b0+6] + ry0*gradient[b0+7],
+                          rx1*gradient[b1+6] + ry0*gradient[b1+7]),
+                     lerp(sx,
+                          rx0*gradient[b0+8+6] + ry1*gradient[b0+8+7],
+                          rx1*gradient[b1+8+6] + ry1*gradient[b1+8+7]))*ratio;
+
+                pointX[k] *= 2;
+                pointY[k] *= 2;
             }
+            ratio *= .5;
         }
+    }
 
-        return dest;
+    /**
+     * Clamps the channel sums computed by the span functions and
+     * writes them as ARGB pixels starting at <code>dp</code>.
+     */
+    private static void packSpan_4(final double[] sums, final int w,
+                                   final int[] destPixels, int dp) {
+        final int w2 = w*2, w3 = w*3;
+        for (int k=0; k<w; k++) {
+            int i, j;
+            i = (int)sums[k];
+            if ((i & 0xFFFFFF00) == 0) j  = i<<16;
+            else                       j  = ((i & 0x80000000) != 0)?0:0xFF0000;
+
+            i = (int)sums[w+k];
+            if ((i & 0xFFFFFF00) == 0) j |= i<<8;
+            else                       j |= ((i & 0x80000000) != 0)?0:0xFF00;
+
+            i = (int)sums[w2+k];
+            if ((i & 0xFFFFFF00) == 0) j |= i;
+            else                       j |= ((i & 0x80000000) != 0)?0:0xFF;
+
+            i = (int)sums[w3+k];
+            if ((i & 0xFFFFFF00) == 0) j |= i<<24;
+            else                       j |= ((i & 0x80000000) != 0)?0:0xFF000000;
+            destPixels[dp++] = j;
+        }
     }
 
     /**
@@ -1326,7 +1474,9 @@ public final class TurbulencePatternRed extends AbstractRed {
             //                     " maxLatticeY = " + maxLatticeY);
         }
 
-        initLattice(seed);
+        Object[] lattice = getLattice(seed);
+        latticeSelector = (int[])lattice[0];
+        gradient = (double[])lattice[1];
 
         ColorModel cm;
         if (alpha)
@@ -55,8 +55,10 @@ import org.apache.batik.dom.AbstractNode;
 import org.apache.batik.dom.events.NodeEventTarget;
 import org.apache.batik.dom.svg.SVGContext;
 import org.apache.batik.dom.xbl.XBLManager;
+import org.apache.batik.ext.awt.image.renderable.FilterResultCache;
 import org.apache.batik.gvt.CompositeGraphicsNode;
 import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.PatternTileCache;
 import org.apache.batik.script.Interpreter;
 import org.apache.batik.script.InterpreterPool;
 import org.apache.batik.util.CSSConstants;
@@ -542,6 +544,34 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         return cursorManager;
     }
 
+    /**
+     * Returns the cache of the rasterized tiles of the pattern paints
+     * of the document, shared with the child contexts.
+     */
+    public PatternTileCache getPatternTileCache() {
+        if (primaryContext != null) {
+            return primaryContext.getPatternTileCache();
+        }
+        if (patternTileCache == null) {
+            patternTileCache = new PatternTileCache();
+        }
+        return patternTileCache;
+    }
+
+    /**
+     * Returns the cache of the renderings of the expensive filter
+     * primitives of the document, shared with the child contexts.
+     */
+    public FilterResultCache getFilterResultCache() {
+        if (primaryContext != null) {
+            return primaryContext.getFilterResultCache();
+        }
+        if (filterResultCache == null) {
+            filterResultCache = new FilterResultCache();
+        }
+        return filterResultCache;
+    }
+
     /**
      * Sets the interpreter pool used to handle scripts to the
      * specified interpreter pool.
@@ -1161,6 +1191,16 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      */
     protected CursorManager cursorManager = new CursorManager(this);
 
+    /**
+     * The cache of pattern tiles, created when first needed.
+     */
+    protected PatternTileCache patternTileCache;
+
+    /**
+     * The cache of filter renderings, created when first needed.
+     */
+    protected FilterResultCache filterResultCache;
+
     /**
      * Adds EventListeners to the input document to handle the cursor
      * property.
@@ -1475,6 +1515,12 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         if (elementNodeMap != null) {
             elementNodeMap.clear();
         }        
+        if (patternTileCache != null) {
+            patternTileCache.clear();
+        }
+        if (filterResultCache != null) {
+            filterResultCache.clear();
+        }
     }
 
     /**
@@ -21,10 +21,8 @@ package org.apache.batik.bridge;
 import java.awt.Point;
 import java.awt.event.KeyEvent;
 import java.awt.geom.Point2D;
-import java.awt.geom.Rectangle2D;
 import java.lang.ref.SoftReference;
 import java.text.AttributedCharacterIterator;
-import java.util.List;
 
 import org.apache.batik.dom.events.DOMKeyEvent;
 import org.apache.batik.dom.events.DOMMouseEvent;
@@ -430,26 +428,19 @@ public abstract class BridgeEventSupport implements SVGConstants {
             // is a tspan or textPath
             if (target != null && node instanceof TextNode) {
                 TextNode textNode = (TextNode)node;
-                List list = textNode.getTextRuns();
-                if (list != null){
+                TextHitIndex index = textNode.getHitIndex();
+                if (index != null) {
                     float x = (float)pt.getX();
                     float y = (float)pt.getY();
-                    for (Object aList : list) {
-                        StrokingTextPainter.TextRun run =
-                                (StrokingTextPainter.TextRun) aList;
+                    StrokingTextPainter.TextRun run = index.getTextRun(x, y);
+                    if (run != null) {
                         AttributedCharacterIterator aci = run.getACI();
-                        TextSpanLayout layout = run.getLayout();
-                        TextHit textHit = layout.hitTestChar(x, y);
-                        Rectangle2D bounds = layout.getBounds2D();
-                        if ((textHit != null) &&
-                                (bounds != null) && bounds.contains(x, y)) {
-                            SoftReference sr;
-                            sr = (SoftReference) aci.getAttribute
-                                    (TEXT_COMPOUND_ID);
-                            Object delimiter = sr.get();
-                            if (delimiter instanceof Element) {
-                                return (Element) delimiter;
-                            }
+                        SoftReference sr;
+                        sr = (SoftReference) aci.getAttribute
+                                (TEXT_COMPOUND_ID);
+                        Object delimiter = sr.get();
+                        if (delimiter instanceof Element) {
+                            return (Element) delimiter;
                         }
                     }
                 }
@@ -23,6 +23,7 @@ import java.awt.GraphicsEnvironment;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,7 @@ import org.apache.batik.gvt.font.AWTFontFamily;
 import org.apache.batik.gvt.font.AWTGVTFont;
 import org.apache.batik.gvt.font.GVTFontFace;
 import org.apache.batik.gvt.font.GVTFontFamily;
+import org.apache.batik.util.ParsedURL;
 
 /**
  * The is a utility class that is used for resolving UnresolvedFontFamilies.
@@ -131,7 +133,8 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
      * This keeps track of all the resolved font families. This is to hopefully
      * reduce the number of font family objects used.
      */
-    protected static final Map resolvedFontFamilies = new HashMap();
+    protected static final Map resolvedFontFamilies =
+        Collections.synchronizedMap(new HashMap());
 
     public AWTFontFamily resolve(String familyName, FontFace fontFace) {
         String fontName = (String)fonts.get(fontFace.getFamilyName().toLowerCase());
@@ -144,7 +147,18 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
     }
 
     public GVTFontFamily loadFont(InputStream in, FontFace ff) throws Exception {
-        Font font = Font.createFont(Font.TRUETYPE_FONT, in);
+        Font font = WebFontCache.getFont(in);
+        return new AWTFontFamily(ff, font);
+    }
+
+    /**
+     * Loads the TrueType font at <code>purl</code>.  Fonts are shared
+     * through the {@link WebFontCache}, a URL already loaded is not
+     * opened again.
+     */
+    public GVTFontFamily loadFont(ParsedURL purl, FontFace ff)
+        throws Exception {
+        Font font = WebFontCache.getFont(purl);
         return new AWTFontFamily(ff, font);
     }
 
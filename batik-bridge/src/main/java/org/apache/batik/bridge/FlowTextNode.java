@@ -30,6 +30,12 @@ package org.apache.batik.bridge;
  */
 public class FlowTextNode extends TextNode{
 
+    /**
+     * The last layout of the text, reused when the text is laid out
+     * again.
+     */
+    FlowTextPainter.FlowLayout flowLayout;
+
     public FlowTextNode() {
         textPainter = FlowTextPainter.getInstance();
     }
@@ -19,14 +19,21 @@
 
 package org.apache.batik.bridge;
 
+import java.awt.RenderingHints;
 import java.awt.font.FontRenderContext;
 import java.awt.font.TextAttribute;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.lang.ref.Reference;
 import java.text.AttributedCharacterIterator;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Arrays;
 
@@ -37,10 +44,12 @@ import org.apache.batik.gvt.flow.LineInfo;
 import org.apache.batik.gvt.flow.RegionInfo;
 import org.apache.batik.gvt.flow.TextLineBreaks;
 import org.apache.batik.gvt.flow.WordInfo;
+import org.apache.batik.gvt.font.AWTGVTFont;
 import org.apache.batik.gvt.font.GVTFont;
 import org.apache.batik.gvt.font.GVTGlyphVector;
 import org.apache.batik.gvt.font.GVTLineMetrics;
 import org.apache.batik.gvt.font.MultiGlyphVector;
+import org.apache.batik.gvt.text.BidiAttributedCharacterIterator;
 import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
 
 /**
@@ -71,33 +80,181 @@ public class FlowTextPainter extends StrokingTextPainter {
         }
 
         AttributedCharacterIterator[] chunkACIs = getTextChunkACIs(aci);
-        textRuns = computeTextRuns(node, aci, chunkACIs);
 
         aci.first();
         List rgns = (List)aci.getAttribute(FLOW_REGIONS);
 
-        if (rgns != null) {
-            Iterator i = textRuns.iterator();
-            List chunkLayouts = new ArrayList();
-            TextRun tr = (TextRun)i.next();
-            List layouts = new ArrayList();
-            chunkLayouts.add(layouts);
+        if ((rgns != null) && (node instanceof FlowTextNode)) {
+            textRuns = layoutFlowText((FlowTextNode)node, aci, chunkACIs, rgns);
+        } else {
+            textRuns = computeTextRuns(node, aci, chunkACIs);
+            if (rgns != null)
+                wrapTextRuns(textRuns, chunkACIs, rgns);
+        }
+
+        node.setTextRuns(textRuns);
+        return node.getTextRuns();
+    }
+
+    /**
+     * Flows the text runs of all the chunks, <code>chunkACIs</code>
+     * holding the reordered, font matched chunks the runs were created
+     * from.
+     */
+    protected void wrapTextRuns(List textRuns,
+                                AttributedCharacterIterator[] chunkACIs,
+                                List rgns) {
+        Iterator i = textRuns.iterator();
+        List chunkLayouts = new ArrayList();
+        TextRun tr = (TextRun)i.next();
+        List layouts = new ArrayList();
+        chunkLayouts.add(layouts);
+        layouts.add(tr.getLayout());
+        while (i.hasNext()) {
+            tr = (TextRun)i.next();
+            if (tr.isFirstRunInChunk()) {
+                layouts = new ArrayList();
+                chunkLayouts.add(layouts);
+            }
             layouts.add(tr.getLayout());
-            while (i.hasNext()) {
-                tr = (TextRun)i.next();
-                if (tr.isFirstRunInChunk()) {
-                    layouts = new ArrayList();
-                    chunkLayouts.add(layouts);
+        }
+
+        textWrap(chunkACIs, chunkLayouts, rgns, fontRenderContext);
+    }
+
+    /**
+     * Lays out the text of a flow text node, reusing what it can of the
+     * previous layout of the node.  The paragraphs whose text and
+     * attributes have not changed, at the start and at the end of the
+     * text, keep their text runs and word analysis.  The text is
+     * flowed again from the first changed paragraph, and only until a
+     * paragraph starts where it started in the previous layout, as
+     * the lines that follow are then unchanged too.
+     */
+    protected List layoutFlowText(FlowTextNode node,
+                                  AttributedCharacterIterator aci,
+                                  AttributedCharacterIterator[] chunkACIs,
+                                  List rgns) {
+        FlowLayout prev = node.flowLayout;
+        node.flowLayout = null;
+
+        int n = chunkACIs.length;
+        FlowLayout fl = new FlowLayout(this, node, rgns, n);
+        if ((prev != null) && !prev.isCompatible(fl))
+            prev = null;
+
+        // Match the unchanged paragraphs at the start and at the end
+        // of the text with those of the previous layout.
+        Paragraph[] reusable = new Paragraph[n];
+        if (prev != null) {
+            Paragraph[] prevParas = prev.paragraphs;
+            int pn = prevParas.length;
+            int prefix = 0;
+            while ((prefix < n) && (prefix < pn) &&
+                   prevParas[prefix].isSameText(chunkACIs[prefix])) {
+                reusable[prefix] = prevParas[prefix];
+                prefix++;
+            }
+            int suffix = 0;
+            while ((suffix < n - prefix) && (suffix < pn - prefix) &&
+                   prevParas[pn-1-suffix].isSameText(chunkACIs[n-1-suffix])) {
+                reusable[n-1-suffix] = prevParas[pn-1-suffix];
+                suffix++;
+            }
+            if ((prefix == 0) && (suffix == 0))
+                prev = null;
+        }
+
+        List [] chunkRuns = null;
+        AttributedCharacterIterator [] shapedACIs = null;
+        if (prev == null) {
+            // Nothing to reuse, lay out all the chunks at once.
+            shapedACIs = (AttributedCharacterIterator[])chunkACIs.clone();
+            List textRuns = computeTextRuns(node, aci, shapedACIs);
+            chunkRuns = splitChunkRuns(textRuns, n);
+            if (chunkRuns == null) {
+                wrapTextRuns(textRuns, shapedACIs, rgns);
+                return textRuns;
+            }
+        }
+
+        List textRuns = new ArrayList();
+        WordInfo  [][] wordInfos  = new WordInfo[n][];
+        BlockInfo   [] blockInfos = new BlockInfo[n];
+        float       [] topSkip    = new float[n];
+        float prevBotMargin = 0;
+        int numWords = 0;
+        for (int chunk = 0; chunk < n; chunk++) {
+            AttributedCharacterIterator chunkACI = chunkACIs[chunk];
+            Paragraph p = reusable[chunk];
+            if ((p != null) && !p.rebase(chunkACI, numWords))
+                p = null;
+            if (p == null) {
+                List runs;
+                AttributedCharacterIterator shapedACI;
+                if (chunkRuns != null) {
+                    runs      = chunkRuns[chunk];
+                    shapedACI = shapedACIs[chunk];
+                } else {
+                    BidiAttributedCharacterIterator bidi;
+                    bidi = new BidiAttributedCharacterIterator
+                        (chunkACI, fontRenderContext,
+                         chunkACI.getBeginIndex());
+                    AttributedCharacterIterator [] acis = { bidi };
+                    runs = computeTextRuns(node, aci, acis,
+                                           new int[][] { bidi.getCharMap() });
+                    shapedACI = acis[0];
                 }
-                layouts.add(tr.getLayout());
+                p = new Paragraph(chunkACI, runs, shapedACI, numWords,
+                                  fontRenderContext);
             }
+            fl.paragraphs[chunk] = p;
+            textRuns.addAll(p.runs);
+            wordInfos[chunk] = p.wordInfos;
 
-            textWrap(chunkACIs, chunkLayouts, rgns, fontRenderContext);
+            chunkACI.first();
+            BlockInfo bi = (BlockInfo)chunkACI.getAttribute(FLOW_PARAGRAPH);
+            bi.initLineInfo(fontRenderContext);
+            blockInfos[chunk] = bi;
+            if (prevBotMargin > bi.getTopMargin())
+                topSkip[chunk] = prevBotMargin;
+            else
+                topSkip[chunk] = bi.getTopMargin();
+            prevBotMargin = bi.getBottomMargin();
+            numWords += wordInfos[chunk].length;
         }
 
+        fl.startFrom(prev);
+        fl.overflow = textWrap(wordInfos, blockInfos, topSkip, rgns, fl);
+        for (int chunk = 0; chunk < n; chunk++) {
+            fl.paragraphs[chunk].flowed = true;
+        }
+        fl.prev = null;
+        node.flowLayout = fl;
+        return textRuns;
+    }
 
-        node.setTextRuns(textRuns);
-        return node.getTextRuns();
+    /**
+     * Splits the text runs of a node by text chunk.  Returns null if
+     * there are not <code>numChunks</code> chunks.
+     */
+    protected static List[] splitChunkRuns(List textRuns, int numChunks) {
+        List [] chunkRuns = new List[numChunks];
+        int chunk = -1;
+        Iterator i = textRuns.iterator();
+        while (i.hasNext()) {
+            TextRun tr = (TextRun)i.next();
+            if (tr.isFirstRunInChunk() || (chunk == -1)) {
+                chunk++;
+                if (chunk == numChunks)
+                    return null;
+                chunkRuns[chunk] = new ArrayList();
+            }
+            chunkRuns[chunk].add(tr);
+        }
+        if (chunk != numChunks-1)
+            return null;
+        return chunkRuns;
     }
 
     public static final char SOFT_HYPHEN       = 0x00AD;
@@ -113,6 +270,9 @@ public class FlowTextPainter extends StrokingTextPainter {
 
     public static final AttributedCharacterIterator.Attribute FLOW_LINE_BREAK
         = GVTAttributedCharacterIterator.TextAttribute.FLOW_LINE_BREAK;
+    public static final AttributedCharacterIterator.Attribute
+        FLOW_EMPTY_PARAGRAPH
+        = GVTAttributedCharacterIterator.TextAttribute.FLOW_EMPTY_PARAGRAPH;
     public static final AttributedCharacterIterator.Attribute LINE_HEIGHT
         = GVTAttributedCharacterIterator.TextAttribute.LINE_HEIGHT;
 
@@ -170,16 +330,46 @@ public class FlowTextPainter extends StrokingTextPainter {
             numWords += wordInfos[chunk].length;
         }
 
-        Iterator frIter = flowRects.iterator();
-        RegionInfo currentRegion = null;
+        return textWrap(wordInfos, blockInfos, topSkip, flowRects, null);
+    }
+
+    /**
+     * Flows the words of the chunks in the flow regions.  When
+     * <code>fl</code> is not null, flowing resumes where
+     * <code>fl</code> says, the start of each paragraph is recorded in
+     * <code>fl</code> and flowing stops when <code>fl</code> finds
+     * that the following lines are unchanged.
+     *
+     * @return true if the text overflows the flow regions.
+     */
+    static boolean textWrap(WordInfo [][] wordInfos,
+                            BlockInfo [] blockInfos,
+                            float [] topSkip,
+                            List flowRects,
+                            FlowLayout fl) {
         int currWord = 0;
         int chunk = 0;
+        int rgn = 0;
+        FlowRegions fr = null;
+        if ((fl != null) && (fl.resume != null)) {
+            chunk = fl.start;
+            rgn   = fl.resume.region;
+            fr    = new FlowRegions(fl.resume.flowRegions);
+        }
         List lineInfos = new LinkedList();
-        while(frIter.hasNext()) {
-            currentRegion = (RegionInfo) frIter.next();
-            FlowRegions fr = new FlowRegions(currentRegion.getShape());
+        for (; rgn < flowRects.size(); rgn++) {
+            if (fr == null) {
+                RegionInfo currentRegion = (RegionInfo)flowRects.get(rgn);
+                fr = new FlowRegions(currentRegion.getShape());
+            }
+
+            while (true) {
+                if ((fl != null) && (currWord == 0) &&
+                    fl.startParagraph(chunk, rgn, fr, topSkip))
+                    return fl.overflow;  // The rest is unchanged.
+                if (chunk == wordInfos.length)
+                    break;
 
-            while (chunk < wordInfos.length) {
                 WordInfo [] chunkInfo = wordInfos[chunk];
                 BlockInfo bi = blockInfos[chunk];
                 WordInfo  wi = chunkInfo[currWord];
@@ -236,6 +426,7 @@ public class FlowTextPainter extends StrokingTextPainter {
                 if (!fr.newLine(lh)) // Region is done.
                     break;
             }
+            fr = null;
             if (chunk == wordInfos.length)
                 break;
         }
@@ -243,6 +434,8 @@ public class FlowTextPainter extends StrokingTextPainter {
         boolean overflow = (chunk < wordInfos.length);
 
         while (chunk < wordInfos.length) {
+            if ((fl != null) && (currWord == 0))
+                fl.paragraphs[chunk].unflow();
             WordInfo [] chunkInfo = wordInfos[chunk];
             while (currWord < chunkInfo.length) {
                 WordInfo wi = chunkInfo[currWord];
@@ -518,4 +711,506 @@ public class FlowTextPainter extends StrokingTextPainter {
         return wordInfos;
     }
 
+
+    /**
+     * Returns the WORD_LIMIT of the first character of <code>aci</code>.
+     */
+    static int getWordLimit(AttributedCharacterIterator aci) {
+        aci.first();
+        Integer w = (Integer)aci.getAttribute(WORD_LIMIT);
+        return (w == null) ? 0 : w;
+    }
+
+    /**
+     * Returns true if the values <code>ov</code> and <code>nv</code>
+     * of the attribute <code>key</code>, in two successive
+     * attributed strings of a node, lay out the text in the same way.
+     * WORD_LIMIT and FLOW_LINE_BREAK are handled by the caller.
+     */
+    static boolean sameValue(Object key, Object ov, Object nv) {
+        if (ov == nv)
+            return true;
+        if ((ov == null) || (nv == null))
+            return false;
+        if (key == TEXT_COMPOUND_ID) {
+            Object e = ((Reference)ov).get();
+            return (e != null) && (e == ((Reference)nv).get());
+        }
+        if (key == FLOW_PARAGRAPH)
+            return sameBlockInfo((BlockInfo)ov, (BlockInfo)nv);
+        if (key == FLOW_EMPTY_PARAGRAPH) {
+            List ol = (List)ov;
+            List nl = (List)nv;
+            if (ol.size() != nl.size())
+                return false;
+            Iterator oi = ol.iterator();
+            Iterator ni = nl.iterator();
+            while (oi.hasNext()) {
+                if (!sameBlockInfo((BlockInfo)oi.next(), (BlockInfo)ni.next()))
+                    return false;
+            }
+            return true;
+        }
+        if (key == GVT_FONTS)
+            return sameFonts((List)ov, (List)nv);
+        if (key == FLOW_REGIONS)
+            return true;  // The regions are compared by the layout.
+        if (key == PAINT_INFO)
+            return false; // Must be the same object, see above.
+        return ov.equals(nv);
+    }
+
+    /**
+     * Returns true if the fonts are AWT fonts of the same family and
+     * size.  Other fonts (SVG fonts) are never considered the same.
+     */
+    static boolean sameFonts(List ol, List nl) {
+        if (ol.size() != nl.size())
+            return false;
+        Iterator oi = ol.iterator();
+        Iterator ni = nl.iterator();
+        while (oi.hasNext()) {
+            GVTFont of = (GVTFont)oi.next();
+            GVTFont nf = (GVTFont)ni.next();
+            if (of == nf)
+                continue;
+            if ((of.getClass() != AWTGVTFont.class) ||
+                (nf.getClass() != AWTGVTFont.class) ||
+                (of.getSize() != nf.getSize()) ||
+                !of.getFamilyName().equals(nf.getFamilyName()))
+                return false;
+        }
+        return true;
+    }
+
+    static boolean sameBlockInfo(BlockInfo ob, BlockInfo nb) {
+        if (ob == nb)
+            return true;
+        if ((ob.getTopMargin()      != nb.getTopMargin())    ||
+            (ob.getRightMargin()    != nb.getRightMargin())  ||
+            (ob.getBottomMargin()   != nb.getBottomMargin()) ||
+            (ob.getLeftMargin()     != nb.getLeftMargin())   ||
+            (ob.getIndent()         != nb.getIndent())       ||
+            (ob.getTextAlignment()  != nb.getTextAlignment()) ||
+            (ob.getLineHeight()     != nb.getLineHeight())   ||
+            (ob.isFlowRegionBreak() != nb.isFlowRegionBreak()))
+            return false;
+        if (!sameFonts(ob.getFontList(), nb.getFontList()))
+            return false;
+
+        Map oa = ob.getFontAttrs();
+        Map na = nb.getFontAttrs();
+        if (oa.size() != na.size())
+            return false;
+        Iterator i = oa.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry me = (Map.Entry)i.next();
+            Object key = me.getKey();
+            if (!na.containsKey(key) ||
+                !sameValue(key, me.getValue(), na.get(key)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the two lists of RegionInfo hold the same shapes
+     * with the same vertical alignment.
+     */
+    static boolean sameRegions(List or, List nr) {
+        if (or == nr)
+            return true;
+        if (or.size() != nr.size())
+            return false;
+        float [] oc = new float[6];
+        float [] nc = new float[6];
+        Iterator oi = or.iterator();
+        Iterator ni = nr.iterator();
+        while (oi.hasNext()) {
+            RegionInfo ori = (RegionInfo)oi.next();
+            RegionInfo nri = (RegionInfo)ni.next();
+            if (ori.getVerticalAlignment() != nri.getVerticalAlignment())
+                return false;
+            PathIterator op = ori.getShape().getPathIterator(null);
+            PathIterator np = nri.getShape().getPathIterator(null);
+            if (op.getWindingRule() != np.getWindingRule())
+                return false;
+            while (!op.isDone()) {
+                if (np.isDone())
+                    return false;
+                int type = op.currentSegment(oc);
+                if (np.currentSegment(nc) != type)
+                    return false;
+                if (!Arrays.equals(oc, nc))
+                    return false;
+                op.next();
+                np.next();
+            }
+            if (!np.isDone())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The layout of the text of a flow text node, kept by the node so
+     * that the text can be laid out again incrementally when it
+     * changes.
+     */
+    static class FlowLayout {
+        final TextPainter painter;
+        final Point2D     location;
+        final boolean     aaOff;
+        final List        regions;
+
+        /**
+         * The paragraphs (text chunks) of the text.
+         */
+        final Paragraph [] paragraphs;
+
+        /**
+         * Where each paragraph, and the text after the last one,
+         * started to be flowed.  Null for the paragraphs that were
+         * not reached.
+         */
+        final FlowStart [] starts;
+
+        /**
+         * Whether the text overflows the flow regions.
+         */
+        boolean overflow;
+
+        // The state below is only used while the text is laid out.
+
+        /**
+         * The previous layout of the node, or null.
+         */
+        FlowLayout prev;
+
+        /**
+         * The paragraph flowing starts at, and where it starts if it
+         * is not the first one.
+         */
+        int       start;
+        FlowStart resume;
+
+        /**
+         * The first paragraph from which all the paragraphs are those
+         * of the previous layout, <code>convergeShift</code> places
+         * further in it.
+         */
+        int convergeFrom;
+        int convergeShift;
+
+        FlowLayout(TextPainter painter, TextNode node, List regions,
+                   int numChunks) {
+            this.painter  = painter;
+            this.location = (Point2D)node.getLocation().clone();
+            RenderingHints rh = node.getRenderingHints();
+            this.aaOff = (rh != null) &&
+                (rh.get(RenderingHints.KEY_TEXT_ANTIALIASING) ==
+                 RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+            this.regions    = regions;
+            this.paragraphs = new Paragraph[numChunks];
+            this.starts     = new FlowStart[numChunks+1];
+        }
+
+        /**
+         * Returns true if the paragraphs of <code>fl</code> can be
+         * reused by this layout.
+         */
+        boolean isCompatible(FlowLayout fl) {
+            return (painter == fl.painter) && (aaOff == fl.aaOff) &&
+                location.equals(fl.location);
+        }
+
+        /**
+         * Sets where flowing starts and where it may stop, once the
+         * paragraphs have been set, given the previous layout.
+         */
+        void startFrom(FlowLayout prev) {
+            int n = paragraphs.length;
+            start         = 0;
+            resume        = null;
+            convergeFrom  = n+1;
+            this.prev     = null;
+            if ((prev == null) || !sameRegions(prev.regions, regions))
+                return;
+
+            // Resume at the first changed paragraph, or before it if
+            // it was not reached.
+            Paragraph [] pp = prev.paragraphs;
+            int pn = pp.length;
+            int s = 0;
+            while ((s < n) && (s < pn) && (paragraphs[s] == pp[s]))
+                s++;
+            while ((s > 0) && (prev.starts[s] == null))
+                s--;
+            if (s > 0) {
+                start  = s;
+                resume = prev.starts[s];
+                System.arraycopy(prev.starts, 0, starts, 0, s);
+            }
+
+            int c = n;
+            while ((c > 0) && (c-1+pn-n >= 0) &&
+                   (paragraphs[c-1] == pp[c-1+pn-n]))
+                c--;
+            convergeFrom  = c;
+            convergeShift = pn-n;
+            this.prev     = prev;
+        }
+
+        /**
+         * Called when flowing reaches the start of the paragraph
+         * <code>chunk</code> (or the end of the text), in the region
+         * <code>region</code> flowed by <code>fr</code>.  Returns true
+         * if the rest of the text is laid out as in the previous
+         * layout, so flowing can stop.
+         */
+        boolean startParagraph(int chunk, int region, FlowRegions fr,
+                               float [] topSkip) {
+            if (starts[chunk] != null)
+                return false;  // Not flowed from its start.
+
+            int n = paragraphs.length;
+            FlowStart fs = new FlowStart
+                (region, fr, (chunk < n) ? topSkip[chunk] : 0);
+            starts[chunk] = fs;
+            if ((prev != null) && (chunk > start) && (chunk >= convergeFrom)) {
+                int pc = chunk + convergeShift;
+                if ((prev.starts[pc] != null) && fs.isSame(prev.starts[pc])) {
+                    System.arraycopy(prev.starts, pc+1, starts, chunk+1,
+                                     n-chunk);
+                    overflow = prev.overflow;
+                    return true;
+                }
+            }
+            if (chunk < n)
+                paragraphs[chunk].unflow();
+            return false;
+        }
+    }
+
+    /**
+     * The state of the flow regions where the flowing of a paragraph
+     * started.
+     */
+    static class FlowStart {
+        final int         region;
+        final FlowRegions flowRegions;
+        final float       topSkip;
+
+        FlowStart(int region, FlowRegions fr, float topSkip) {
+            this.region      = region;
+            this.flowRegions = new FlowRegions(fr);
+            this.topSkip     = topSkip;
+        }
+
+        boolean isSame(FlowStart fs) {
+            return (region == fs.region) && (topSkip == fs.topSkip) &&
+                flowRegions.isAtSamePosition(fs.flowRegions);
+        }
+    }
+
+    /**
+     * A paragraph (text chunk) of a flow text node: its text runs and
+     * word analysis, and the position and visibility of its glyphs
+     * before they were flowed.
+     */
+    static class Paragraph {
+        /**
+         * The index of the first character of the paragraph in the
+         * text of the node.
+         */
+        int begin;
+
+        /**
+         * The text of the paragraph, and the ends (relative to
+         * <code>begin</code>) and attributes of its runs of characters
+         * with the same attributes.
+         */
+        final String text;
+        final int [] runLimits;
+        final Map [] runAttributes;
+
+        /**
+         * The WORD_LIMIT of the first character, and that less the
+         * index of the first word in the text.
+         */
+        final int firstWord;
+        final int wordOffset;
+
+        final List           runs;
+        final GVTGlyphVector gv;
+        final WordInfo []    wordInfos;
+        final float []       positions;
+        final boolean []     visible;
+
+        /**
+         * Whether the glyphs have been flowed since the snapshot.
+         */
+        boolean flowed;
+
+        Paragraph(AttributedCharacterIterator aci, List runs,
+                  AttributedCharacterIterator shapedACI, int numWords,
+                  FontRenderContext frc) {
+            this.begin = aci.getBeginIndex();
+            this.runs  = runs;
+
+            // Iterating over the characters is slow when crossing runs,
+            // so the text and attributes are read once.
+            int len = aci.getEndIndex() - begin;
+            StringBuffer sb = new StringBuffer(len);
+            List limits = new ArrayList();
+            List atts = new ArrayList();
+            char c = aci.first();
+            for (int i = 0; i < len;) {
+                int limit = aci.getRunLimit() - begin;
+                limits.add(limit);
+                atts.add(new HashMap(aci.getAttributes()));
+                for (; i < limit; i++) {
+                    sb.append(c);
+                    c = aci.next();
+                }
+            }
+            text = sb.toString();
+            runLimits = new int[limits.size()];
+            for (int i = 0; i < runLimits.length; i++) {
+                runLimits[i] = (Integer)limits.get(i);
+            }
+            runAttributes = (Map[])atts.toArray(new Map[atts.size()]);
+            Integer w = (runAttributes.length == 0) ? null
+                : (Integer)runAttributes[0].get(WORD_LIMIT);
+            firstWord  = (w == null) ? 0 : w;
+            wordOffset = firstWord - numWords;
+
+            List gvl = new LinkedList();
+            for (Object run : runs) {
+                GlyphLayout gl = (GlyphLayout)((TextRun)run).getLayout();
+                gvl.add(gl.getGlyphVector());
+            }
+            gv = new MultiGlyphVector(gvl);
+            wordInfos = doWordAnalysis(gv, shapedACI, numWords, frc);
+
+            int numGlyphs = gv.getNumGlyphs();
+            positions = gv.getGlyphPositions(0, numGlyphs, null);
+            visible = new boolean[numGlyphs];
+            for (int i = 0; i < numGlyphs; i++) {
+                visible[i] = gv.isGlyphVisible(i);
+            }
+        }
+
+        /**
+         * Returns true if <code>newACI</code> holds the same text as
+         * this paragraph, with attributes that lay it out the same way.
+         */
+        boolean isSameText(AttributedCharacterIterator newACI) {
+            int nBegin = newACI.getBeginIndex();
+            int len = text.length();
+            if (newACI.getEndIndex() - nBegin != len)
+                return false;
+
+            int nWord = 0;
+            Map oBreaks = new IdentityHashMap();
+            Map nBreaks = new IdentityHashMap();
+            char c = newACI.first();
+            int run = 0;
+            for (int i = 0; i < len; run++) {
+                int limit = newACI.getRunLimit() - nBegin;
+                if ((run == runLimits.length) || (limit != runLimits[run]))
+                    return false;
+
+                Map oa = runAttributes[run];
+                Map nm = newACI.getAttributes();
+
+                // Only the grouping of the characters in lines matters,
+                // characters outside any flowLine forming a group too.
+                Object ob = oa.get(FLOW_LINE_BREAK);
+                Object nb = nm.get(FLOW_LINE_BREAK);
+                if (oBreaks.containsKey(ob) || nBreaks.containsKey(nb)) {
+                    if (!oBreaks.containsKey(ob) ||
+                        !nBreaks.containsKey(nb) ||
+                        (oBreaks.get(ob) != nb) || (nBreaks.get(nb) != ob))
+                        return false;
+                } else {
+                    oBreaks.put(ob, nb);
+                    nBreaks.put(nb, ob);
+                }
+
+                int osz = oa.size();
+                if (oa.containsKey(FLOW_LINE_BREAK))
+                    osz--;
+                int nsz = nm.size();
+                if (nm.containsKey(FLOW_LINE_BREAK))
+                    nsz--;
+                if (osz != nsz)
+                    return false;
+                Iterator iter = nm.entrySet().iterator();
+                while (iter.hasNext()) {
+                    Map.Entry me = (Map.Entry)iter.next();
+                    Object key = me.getKey();
+                    if (key == FLOW_LINE_BREAK)
+                        continue;
+                    Object nv  = me.getValue();
+                    Object ov  = oa.get(key);
+                    if ((ov == null) && !oa.containsKey(key))
+                        return false;
+                    if (key == WORD_LIMIT) {
+                        if (i == 0)
+                            nWord = (Integer)nv;
+                        if ((Integer)ov - firstWord != (Integer)nv - nWord)
+                            return false;
+                    } else if (!sameValue(key, ov, nv)) {
+                        return false;
+                    }
+                }
+
+                for (; i < limit; i++) {
+                    if (c != text.charAt(i))
+                        return false;
+                    c = newACI.next();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Makes this paragraph the one of <code>newACI</code>, which
+         * holds the same text, <code>numWords</code> words into the
+         * text.  Returns false if the paragraph can not be moved there.
+         */
+        boolean rebase(AttributedCharacterIterator newACI, int numWords) {
+            if (getWordLimit(newACI) - numWords != wordOffset)
+                return false;
+            int delta = newACI.getBeginIndex() - begin;
+            if (delta != 0) {
+                for (Object run : runs) {
+                    if (!(((TextRun)run).getLayout() instanceof GlyphLayout))
+                        return false;
+                }
+                for (Object run : runs) {
+                    ((GlyphLayout)((TextRun)run).getLayout()).shiftCharMap(delta);
+                }
+            }
+            begin += delta;
+            return true;
+        }
+
+        /**
+         * Puts the glyphs back where they were before being flowed.
+         */
+        void unflow() {
+            if (!flowed)
+                return;
+            Point2D.Float p = new Point2D.Float();
+            for (int i = 0; i < visible.length; i++) {
+                p.x = positions[2*i];
+                p.y = positions[2*i+1];
+                gv.setGlyphPosition(i, p);
+                gv.setGlyphVisible(i, visible[i]);
+            }
+            flowed = false;
+        }
+    }
 }
@@ -200,7 +200,12 @@ public abstract class FontFace extends GVTFontFace
         }
         // Must be a reference to a 'Web Font'.
         try {
-            return ctx.getFontFamilyResolver().loadFont(purl.openStream(), this);
+            FontFamilyResolver resolver = ctx.getFontFamilyResolver();
+            if (resolver instanceof DefaultFontFamilyResolver) {
+                return ((DefaultFontFamilyResolver)resolver).loadFont
+                    (purl, this);
+            }
+            return resolver.loadFont(purl.openStream(), this);
         } catch (Exception ex) {
         }
         return null;
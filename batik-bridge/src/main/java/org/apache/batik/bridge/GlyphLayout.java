@@ -261,6 +261,17 @@ public class GlyphLayout implements TextSpanLayout {
         }
     }
 
+    /**
+     * Adds <code>delta</code> to the indexes of the characters the
+     * glyphs of this layout map to, when the text before these
+     * characters has changed length.
+     */
+    void shiftCharMap(int delta) {
+        for (int i = 0; i < charMap.length; i++) {
+            charMap[i] += delta;
+        }
+    }
+
     /**
      * Sets the text position used for the implicit origin
      * of glyph layout. Ignored if multiple explicit glyph
@@ -936,12 +947,7 @@ public class GlyphLayout implements TextSpanLayout {
             if (gbounds != null) {
                 Rectangle2D gbounds2d = gbounds.getBounds2D();
                 if (gbounds.contains(x, y)) {
-                    boolean isRightHalf =
-                        (x > (gbounds2d.getX()+(gbounds2d.getWidth()/2d)));
-                    boolean isLeadingEdge = !isRightHalf;
-                    int charIndex = charMap[currentChar];
-                    textHit = new TextHit(charIndex, isLeadingEdge);
-                    return textHit;
+                    return createTextHit(currentChar, gbounds2d, x);
                 }
             }
             currentChar += getCharacterCount(i, i);
@@ -951,6 +957,22 @@ public class GlyphLayout implements TextSpanLayout {
         return textHit;
     }
 
+    /**
+     * Returns the hit at <code>x</code> on a glyph whose logical
+     * bounds are <code>glyphBounds</code>, and whose first character
+     * is the <code>charOffset</code>th character of the layout, in
+     * glyph order.
+     */
+    TextHit createTextHit(int charOffset, Rectangle2D glyphBounds, float x) {
+        if (charOffset >= charMap.length)
+            charOffset = charMap.length-1;
+        boolean isRightHalf =
+            (x > (glyphBounds.getX()+(glyphBounds.getWidth()/2d)));
+        boolean isLeadingEdge = !isRightHalf;
+        int charIndex = charMap[charOffset];
+        return new TextHit(charIndex, isLeadingEdge);
+    }
+
 //protected
 
     /**
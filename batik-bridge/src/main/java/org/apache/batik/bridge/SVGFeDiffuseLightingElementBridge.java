@@ -115,12 +115,14 @@ public class SVGFeDiffuseLightingElementBridge
                                                         defaultRegion,
                                                         filterRegion,
                                                         ctx);
-        Filter filter = new DiffuseLightingRable8Bit(in,
-                                                     primitiveRegion,
-                                                     light,
-                                                     diffuseConstant,
-                                                     surfaceScale,
-                                                     kernelUnitLength);
+        DiffuseLightingRable8Bit filter
+            = new DiffuseLightingRable8Bit(in,
+                                           primitiveRegion,
+                                           light,
+                                           diffuseConstant,
+                                           surfaceScale,
+                                           kernelUnitLength);
+        filter.setResultCache(ctx.getFilterResultCache());
 
         // handle the 'color-interpolation-filters' property
         handleColorInterpolationFilters(filter, filterElement);
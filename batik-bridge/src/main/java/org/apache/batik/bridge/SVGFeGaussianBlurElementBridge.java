@@ -116,8 +116,9 @@ public class SVGFeGaussianBlurElementBridge
         PadRable pad = new PadRable8Bit(in, primitiveRegion, PadMode.ZERO_PAD);
 
         // build filter
-        Filter blur = new GaussianBlurRable8Bit
+        GaussianBlurRable8Bit blur = new GaussianBlurRable8Bit
             (pad, stdDeviationXY[0], stdDeviationXY[1]);
+        blur.setResultCache(ctx.getFilterResultCache());
 
         // handle the 'color-interpolation-filters' property
         handleColorInterpolationFilters(blur, filterElement);
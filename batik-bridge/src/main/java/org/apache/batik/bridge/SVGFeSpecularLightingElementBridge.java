@@ -116,13 +116,15 @@ public class SVGFeSpecularLightingElementBridge
                                                         filterRegion,
                                                         ctx);
 
-        Filter filter = new  SpecularLightingRable8Bit(in,
-                                                       primitiveRegion,
-                                                       light,
-                                                       specularConstant,
-                                                       specularExponent,
-                                                       surfaceScale,
-                                                       kernelUnitLength);
+        SpecularLightingRable8Bit filter
+            = new SpecularLightingRable8Bit(in,
+                                            primitiveRegion,
+                                            light,
+                                            specularConstant,
+                                            specularExponent,
+                                            surfaceScale,
+                                            kernelUnitLength);
+        filter.setResultCache(ctx.getFilterResultCache());
 
 
         // handle the 'color-interpolation-filters' property
@@ -23,7 +23,6 @@ import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.apache.batik.ext.awt.image.renderable.Filter;
-import org.apache.batik.ext.awt.image.renderable.TurbulenceRable;
 import org.apache.batik.ext.awt.image.renderable.TurbulenceRable8Bit;
 import org.apache.batik.gvt.GraphicsNode;
 import org.w3c.dom.Element;
@@ -117,8 +116,9 @@ public class SVGFeTurbulenceElementBridge
             = convertType(filterElement, ctx);
 
         // create the filter primitive
-        TurbulenceRable turbulenceRable
+        TurbulenceRable8Bit turbulenceRable
             = new TurbulenceRable8Bit(primitiveRegion);
+        turbulenceRable.setResultCache(ctx.getFilterResultCache());
 
         turbulenceRable.setBaseFrequencyX(baseFrequency[0]);
         turbulenceRable.setBaseFrequencyY(baseFrequency[1]);
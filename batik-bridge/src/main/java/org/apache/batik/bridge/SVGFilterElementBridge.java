@@ -31,6 +31,7 @@ import org.apache.batik.ext.awt.image.PadMode;
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.renderable.FilterChainRable;
 import org.apache.batik.ext.awt.image.renderable.FilterChainRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.FilterOptimizer;
 import org.apache.batik.ext.awt.image.renderable.FloodRable8Bit;
 import org.apache.batik.ext.awt.image.renderable.PadRable8Bit;
 import org.apache.batik.gvt.GraphicsNode;
@@ -52,6 +53,11 @@ public class SVGFilterElementBridge extends AnimatableGenericSVGBridge
      */
     protected static final Color TRANSPARENT_BLACK = new Color(0, true);
 
+    /**
+     * Set to true to print the rewrites done by the filter optimizer.
+     */
+    private static final boolean DEBUG = false;
+
     /**
      * Constructs a new bridge for the &lt;filter&gt; element.
      */
@@ -119,6 +125,18 @@ public class SVGFilterElementBridge extends AnimatableGenericSVGBridge
             // no filter primitive found, so output transparent black
             in = createEmptyFilter(filterElement, filterRegion, filteredElement,
                                    filteredNode, ctx);
+        } else {
+            // remove redundant primitives before anything is rendered
+            FilterOptimizer optimizer = new FilterOptimizer();
+            in = optimizer.optimize(in);
+            if (DEBUG) {
+                List changes = optimizer.getChanges();
+                for (int i = 0; i < changes.size(); i++) {
+                    System.err.println
+                        ("filter " + filterElement.getAttributeNS
+                         (null, SVG_ID_ATTRIBUTE) + ": " + changes.get(i));
+                }
+            }
         }
         filterChain.setSource(in);
         return filterChain;
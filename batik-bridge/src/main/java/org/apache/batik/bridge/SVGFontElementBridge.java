@@ -18,10 +18,15 @@
  */
 package org.apache.batik.bridge;
 
+import org.apache.batik.constants.XMLConstants;
+import org.apache.batik.dom.events.NodeEventTarget;
 import org.apache.batik.gvt.text.ArabicTextHandler;
 import org.apache.batik.gvt.font.GVTFontFace;
+import org.apache.batik.gvt.font.KerningTable;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
 
 /**
  * Bridge class for the &lt;font&gt; element.
@@ -62,6 +67,29 @@ public class SVGFontElementBridge extends AbstractSVGBridge {
                                  float size,
                                  GVTFontFace fontFace) {
 
+        // the glyphs and kerning tables of the font are shared by all
+        // its sizes and the text elements that use it
+        FontContent content = (FontContent)ctx.getElementData(fontElement);
+        if (content == null) {
+            content = createFontContent(fontElement);
+            ctx.setElementData(fontElement, content);
+            if (ctx.isDynamic()) {
+                // read the font again once it has been modified
+                new FontModificationListener(ctx, fontElement);
+            }
+        }
+
+        // return the new SVGGVTFont
+        return new SVGGVTFont(size, fontFace, content, ctx, textElement);
+    }
+
+    /**
+     * Collects the glyph and kerning elements of the specified
+     * &lt;font&gt; element.
+     *
+     * @param fontElement The font element to read.
+     */
+    protected FontContent createFontContent(Element fontElement) {
 
         // construct a list of glyph codes that this font can display and
         // a list of the glyph elements
@@ -119,11 +147,103 @@ public class SVGFontElementBridge extends AbstractSVGBridge {
             vkernElementArray[i] = vkernElement;
         }
 
-        // return the new SVGGVTFont
-        return new SVGGVTFont
-            (size, fontFace, glyphCodes, glyphNames, glyphLangs,
-             glyphOrientations, glyphForms, ctx,
-             glyphElementArray, missingGlyphElement,
-             hkernElementArray, vkernElementArray, textElement);
+        return new FontContent
+            (glyphCodes, glyphNames, glyphLangs, glyphOrientations,
+             glyphForms, glyphElementArray, missingGlyphElement,
+             hkernElementArray, vkernElementArray);
+    }
+
+    /**
+     * The content of a &lt;font&gt; element, shared by the SVGGVTFonts
+     * created from it in a bridge context.  The glyph definitions and
+     * the kerning tables, which are in font units, are built the first
+     * time they are needed and scaled to the size of each font.  In a
+     * dynamic document, the content is dropped when the font element
+     * or its children are modified.
+     */
+    protected static class FontContent {
+
+        protected String[] glyphUnicodes;
+        protected String[] glyphNames;
+        protected String[] glyphLangs;
+        protected String[] glyphOrientations;
+        protected String[] glyphForms;
+        protected Element[] glyphElements;
+        protected Element missingGlyphElement;
+        protected Element[] hkernElements;
+        protected Element[] vkernElements;
+
+        protected KerningTable hKerningTable;
+        protected KerningTable vKerningTable;
+
+        /**
+         * The glyph definitions, indexed by glyph code.  The missing
+         * glyph comes last.
+         */
+        protected SVGGlyphElementBridge.GlyphContent[] glyphs;
+
+        public FontContent(String[] glyphUnicodes,
+                           String[] glyphNames,
+                           String[] glyphLangs,
+                           String[] glyphOrientations,
+                           String[] glyphForms,
+                           Element[] glyphElements,
+                           Element missingGlyphElement,
+                           Element[] hkernElements,
+                           Element[] vkernElements) {
+            this.glyphUnicodes = glyphUnicodes;
+            this.glyphNames = glyphNames;
+            this.glyphLangs = glyphLangs;
+            this.glyphOrientations = glyphOrientations;
+            this.glyphForms = glyphForms;
+            this.glyphElements = glyphElements;
+            this.missingGlyphElement = missingGlyphElement;
+            this.hkernElements = hkernElements;
+            this.vkernElements = vkernElements;
+            this.glyphs = new SVGGlyphElementBridge.GlyphContent
+                [glyphElements.length + 1];
+        }
+    }
+
+    /**
+     * Drops the content of a &lt;font&gt; element when the element, its
+     * attributes or its children are modified, so that the fonts
+     * created afterwards read it again.  Fonts already created keep
+     * the content they were created with.
+     */
+    protected static class FontModificationListener implements EventListener {
+
+        protected BridgeContext ctx;
+        protected NodeEventTarget fontElement;
+
+        public FontModificationListener(BridgeContext ctx,
+                                        Element fontElement) {
+            this.ctx = ctx;
+            this.fontElement = (NodeEventTarget)fontElement;
+            addListener("DOMSubtreeModified");
+            addListener("DOMAttrModified");
+        }
+
+        protected void addListener(String type) {
+            fontElement.addEventListenerNS
+                (XMLConstants.XML_EVENTS_NAMESPACE_URI, type,
+                 this, false, null);
+            ctx.storeEventListenerNS
+                (fontElement, XMLConstants.XML_EVENTS_NAMESPACE_URI, type,
+                 this, false);
+        }
+
+        /**
+         * Handles 'DOMSubtreeModified' and 'DOMAttrModified' events.
+         */
+        public void handleEvent(Event evt) {
+            ctx.setElementData((Element)fontElement, null);
+            fontElement.removeEventListenerNS
+                (XMLConstants.XML_EVENTS_NAMESPACE_URI, "DOMSubtreeModified",
+                 this, false);
+            fontElement.removeEventListenerNS
+                (XMLConstants.XML_EVENTS_NAMESPACE_URI, "DOMAttrModified",
+                 this, false);
+        }
     }
 }
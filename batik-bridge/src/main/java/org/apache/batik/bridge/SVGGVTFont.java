@@ -57,6 +57,7 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
 
     private float fontSize;
     private GVTFontFace fontFace;
+    private SVGFontElementBridge.FontContent content;
     private String[] glyphUnicodes;
     private String[] glyphNames;
     private String[] glyphLangs;
@@ -109,18 +110,44 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
                       Element[] hkernElements,
                       Element[] vkernElements,
                       Element textElement) {
+        this(fontSize, fontFace,
+             new SVGFontElementBridge.FontContent
+                 (glyphUnicodes, glyphNames, glyphLangs, glyphOrientations,
+                  glyphForms, glyphElements, missingGlyphElement,
+                  hkernElements, vkernElements),
+             ctx, textElement);
+    }
+
+    /**
+     * Constructs a new SVGGVTFont of the specified size, sharing the
+     * glyph definitions and kerning tables of <code>content</code>
+     * with the other sizes of the font.
+     *
+     * @param fontSize The size of the font to create.
+     * @param fontFace The font face that describes the font.
+     * @param content The content of the &lt;font&gt; element.
+     * @param ctx The bridge context.
+     * @param textElement The text element that contains the text to
+     * be rendered using this font.
+     */
+    SVGGVTFont(float fontSize,
+               GVTFontFace fontFace,
+               SVGFontElementBridge.FontContent content,
+               BridgeContext ctx,
+               Element textElement) {
         this.fontFace = fontFace;
         this.fontSize = fontSize;
-        this.glyphUnicodes = glyphUnicodes;
-        this.glyphNames = glyphNames;
-        this.glyphLangs = glyphLangs;
-        this.glyphOrientations = glyphOrientations;
-        this.glyphForms = glyphForms;
+        this.content = content;
+        this.glyphUnicodes = content.glyphUnicodes;
+        this.glyphNames = content.glyphNames;
+        this.glyphLangs = content.glyphLangs;
+        this.glyphOrientations = content.glyphOrientations;
+        this.glyphForms = content.glyphForms;
         this.ctx = ctx;
-        this.glyphElements = glyphElements;
-        this.missingGlyphElement = missingGlyphElement;
-        this.hkernElements = hkernElements;
-        this.vkernElements = vkernElements;
+        this.glyphElements = content.glyphElements;
+        this.missingGlyphElement = content.missingGlyphElement;
+        this.hkernElements = content.hkernElements;
+        this.vkernElements = content.vkernElements;
         this.scale         = fontSize/fontFace.getUnitsPerEm();
         this.textElement = textElement;
 
@@ -135,14 +162,22 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
             this.orientation = SVG_H_VALUE;
         }
 
-        createKerningTables();
+        if (content.hKerningTable == null) {
+            createKerningTables();
+            content.hKerningTable = hKerningTable;
+            content.vKerningTable = vKerningTable;
+        } else {
+            hKerningTable = content.hKerningTable;
+            vKerningTable = content.vKerningTable;
+        }
     }
 
 
     /**
      * Creates the kerning tables for this font. Two tables are created,
      * horizontal and vertical. If there are not children vkern or hkern
-     * elements these tables will be empty.
+     * elements these tables will be empty.  The kerning values are in
+     * font units, so the tables are shared by all the sizes of the font.
      */
     private void createKerningTables() {
 
@@ -588,16 +623,11 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
                                 ci.getIndex())) {  // found a possible match
 
                     if (glyphUnicodes[i].length() == 1)  { // not a ligature
-                        Element glyphElement = glyphElements[i];
-                        SVGGlyphElementBridge glyphBridge =
-                            (SVGGlyphElementBridge)ctx.getBridge(glyphElement);
                         TextPaintInfo tpi = null;
                         if (aci != null) {
                             tpi = (TextPaintInfo)aci.getAttribute(PAINT_INFO);
                         }
-                        Glyph glyph = glyphBridge.createGlyph
-                            (ctx, glyphElement, textElement, i,
-                             fontSize, fontFace, tpi);
+                        Glyph glyph = createGlyph(glyphElements[i], i, tpi);
                         glyphs.add(glyph);
                         foundMatchingGlyph = true;
                         break;
@@ -615,19 +645,14 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
                         }
                         if (matched) { // found a matching ligature!
 
-                            Element glyphElement = glyphElements[i];
-                            SVGGlyphElementBridge glyphBridge
-                                = (SVGGlyphElementBridge)ctx.getBridge
-                                (glyphElement);
                             TextPaintInfo tpi = null;
                             if (aci != null) {
                                 aci.setIndex(ci.getIndex());
                                 tpi = (TextPaintInfo)aci.getAttribute
                                     (PAINT_INFO);
                             }
-                            Glyph glyph = glyphBridge.createGlyph
-                                (ctx, glyphElement, textElement, i,
-                                 fontSize, fontFace, tpi);
+                            Glyph glyph = createGlyph(glyphElements[i], i,
+                                                      tpi);
                             glyphs.add(glyph);
                             foundMatchingGlyph = true;
                             break;
@@ -642,16 +667,12 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
             }
             if (!foundMatchingGlyph) {
                 // add the missing glyph
-                SVGGlyphElementBridge glyphBridge =
-                    (SVGGlyphElementBridge)ctx.getBridge(missingGlyphElement);
                 TextPaintInfo tpi = null;
                 if (aci != null) {
                     aci.setIndex(ci.getIndex());
                     tpi = (TextPaintInfo)aci.getAttribute(PAINT_INFO);
                 }
-                Glyph glyph = glyphBridge.createGlyph
-                    (ctx, missingGlyphElement, textElement, -1,
-                     fontSize, fontFace, tpi);
+                Glyph glyph = createGlyph(missingGlyphElement, -1, tpi);
                 glyphs.add(glyph);
             }
             c = ci.next();
@@ -666,6 +687,29 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
         return new SVGGVTGlyphVector(this, glyphArray, frc);
     }
 
+    /**
+     * Creates the glyph <code>glyphCode</code> of this font from
+     * <code>glyphElement</code>.  The glyph element is read once per
+     * content of the &lt;font&gt; element, and glyphs of the same content
+     * and size share their outline.
+     */
+    private Glyph createGlyph(Element glyphElement, int glyphCode,
+                              TextPaintInfo tpi) {
+        SVGGlyphElementBridge glyphBridge =
+            (SVGGlyphElementBridge)ctx.getBridge(glyphElement);
+        int index = (glyphCode == -1) ? glyphElements.length : glyphCode;
+        SVGGlyphElementBridge.GlyphContent gc = content.glyphs[index];
+        if (gc == null) {
+            gc = glyphBridge.createGlyphContent(ctx, glyphElement, fontFace);
+            content.glyphs[index] = gc;
+        }
+        Glyph glyph = glyphBridge.createGlyph
+            (ctx, gc, glyphElement, textElement, glyphCode,
+             fontSize, fontFace, tpi);
+        glyph.setGeometryKey(content, fontSize);
+        return glyph;
+    }
+
     /**
      * Returns a new GVTGlyphVector object for the glyphs in the
      * the glyph code array.
@@ -712,10 +756,7 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return The new font object.
      */
     public GVTFont deriveFont(float size) {
-        return new SVGGVTFont(size, fontFace, glyphUnicodes, glyphNames,
-                              glyphLangs, glyphOrientations, glyphForms, ctx,
-                              glyphElements, missingGlyphElement,
-                              hkernElements, vkernElements, textElement);
+        return new SVGGVTFont(size, fontFace, content, ctx, textElement);
     }
 
     public String getFamilyName() {
@@ -20,6 +20,8 @@ package org.apache.batik.bridge;
 
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.util.StringTokenizer;
 import java.util.List;
@@ -81,54 +83,54 @@ public class SVGGlyphElementBridge extends AbstractSVGBridge
                              float fontSize,
                              GVTFontFace fontFace,
                              TextPaintInfo tpi) {
+        GlyphContent content = createGlyphContent(ctx, glyphElement, fontFace);
+        return createGlyph(ctx, content, glyphElement, textElement,
+                           glyphCode, fontSize, fontFace, tpi);
+    }
+
+    /**
+     * Constructs a new Glyph of the requested size from the definition
+     * of the specified &lt;glyph&gt; element, as returned by
+     * <code>createGlyphContent</code>.
+     *
+     * @param ctx The current bridge context.
+     * @param content The definition of the glyph, in font units.
+     * @param glyphElement The glyph element to base the glyph construction on.
+     * @param textElement The textElement the glyph will be used for.
+     * @param glyphCode The unique id to give to the new glyph.
+     * @param fontSize The font size used to determine the size of the glyph.
+     * @param fontFace The font face object that contains the font attributes.
+     *
+     * @return The new Glyph.
+     */
+    protected Glyph createGlyph(BridgeContext ctx,
+                                GlyphContent content,
+                                Element glyphElement,
+                                Element textElement,
+                                int glyphCode,
+                                float fontSize,
+                                GVTFontFace fontFace,
+                                TextPaintInfo tpi) {
 
         float fontHeight = fontFace.getUnitsPerEm();
         float scale = fontSize/fontHeight;
         AffineTransform scaleTransform
             = AffineTransform.getScaleInstance(scale, -scale);
 
-        // create a shape that represents the d attribute
-        String d = glyphElement.getAttributeNS(null, SVG_D_ATTRIBUTE);
+        // transform the shape into the correct coord system
         Shape dShape = null;
-        if (d.length() != 0) {
-            AWTPathProducer app = new AWTPathProducer();
+        if (content.outline != null) {
             // Glyph is supposed to use properties from text element.
-            app.setWindingRule(CSSUtilities.convertFillRule(textElement));
-            try {
-                PathParser pathParser = new PathParser();
-                pathParser.setPathHandler(app);
-                pathParser.parse(d);
-            } catch (ParseException pEx) {
-                throw new BridgeException(ctx, glyphElement,
-                                          pEx, ERR_ATTRIBUTE_VALUE_MALFORMED,
-                                          new Object [] {SVG_D_ATTRIBUTE});
-            } finally {
-                // transform the shape into the correct coord system
-                Shape shape = app.getShape();
-                Shape transformedShape
-                    = scaleTransform.createTransformedShape(shape);
-                dShape = transformedShape;
-            }
+            Path2D shape = new Path2D.Double(content.outline, scaleTransform);
+            shape.setWindingRule(CSSUtilities.convertFillRule(textElement));
+            dShape = shape;
         }
 
         // process any glyph children
 
-        // first see if there are any, because don't want to do the following
-        // bit of code if we can avoid it
-
-        NodeList glyphChildren = glyphElement.getChildNodes();
-        int numChildren = glyphChildren.getLength();
-        int numGlyphChildren = 0;
-        for (int i = 0; i < numChildren; i++) {
-            Node childNode = glyphChildren.item(i);
-            if (childNode.getNodeType() == Node.ELEMENT_NODE) {
-                numGlyphChildren++;
-            }
-        }
-
         CompositeGraphicsNode glyphContentNode = null;
 
-        if (numGlyphChildren > 0) {  // the glyph has child elements
+        if (content.hasChildren) {  // the glyph has child elements
 
             // build the GVT tree that represents the glyph children
             GVTBuilder builder = ctx.getGVTBuilder();
@@ -175,10 +177,80 @@ public class SVGGlyphElementBridge extends AbstractSVGBridge
             textElement.removeChild(fontElementClone);
         }
 
+        // scale the glyph metrics
+        float horizAdvX = content.horizAdvX * scale;
+        float vertAdvY = content.vertAdvY * scale;
+        float vertOriginX;
+        if (Float.isNaN(content.vertOriginX)) {
+            // not specified so use the default value which is horizAdvX/2
+            vertOriginX = horizAdvX/2 * scale;
+        } else {
+            vertOriginX = content.vertOriginX * scale;
+        }
+        float vertOriginY = content.vertOriginY * -scale;
+        Point2D vertOrigin = new Point2D.Float(vertOriginX, vertOriginY);
+
+        float horizOriginX = content.horizOriginX * scale;
+        float horizOriginY = content.horizOriginY * -scale;
+        Point2D horizOrigin = new Point2D.Float(horizOriginX, horizOriginY);
+
+        // return a new Glyph
+        return new Glyph(content.unicode, content.names, content.orientation,
+                         content.arabicForm, content.lang,
+                         horizOrigin, vertOrigin,
+                         horizAdvX, vertAdvY, glyphCode,
+                         tpi, dShape, glyphContentNode);
+    }
+
+    /**
+     * Reads the definition of the specified &lt;glyph&gt; element: its
+     * outline and metrics in font units, and its attributes.  It does
+     * not depend on the font size or on the text the glyph is used
+     * for, so <code>SVGGVTFont</code> reads it once per &lt;font&gt;
+     * element.
+     *
+     * @param ctx The current bridge context.
+     * @param glyphElement The glyph element to read.
+     * @param fontFace The font face object that contains the font attributes.
+     */
+    protected GlyphContent createGlyphContent(BridgeContext ctx,
+                                              Element glyphElement,
+                                              GVTFontFace fontFace) {
+        GlyphContent content = new GlyphContent();
+
+        // create a shape that represents the d attribute
+        String d = glyphElement.getAttributeNS(null, SVG_D_ATTRIBUTE);
+        if (d.length() != 0) {
+            AWTPathProducer app = new AWTPathProducer();
+            try {
+                PathParser pathParser = new PathParser();
+                pathParser.setPathHandler(app);
+                pathParser.parse(d);
+            } catch (ParseException pEx) {
+                throw new BridgeException(ctx, glyphElement,
+                                          pEx, ERR_ATTRIBUTE_VALUE_MALFORMED,
+                                          new Object [] {SVG_D_ATTRIBUTE});
+            }
+            // a plain path, so it is copied in one go at each size
+            content.outline = new GeneralPath(app.getShape());
+        }
+
+        // see if there are any glyph children, because don't want
+        // to build them if we can avoid it
+        NodeList glyphChildren = glyphElement.getChildNodes();
+        int numChildren = glyphChildren.getLength();
+        for (int i = 0; i < numChildren; i++) {
+            Node childNode = glyphChildren.item(i);
+            if (childNode.getNodeType() == Node.ELEMENT_NODE) {
+                content.hasChildren = true;
+                break;
+            }
+        }
+
         // set up glyph attributes
 
         // unicode
-        String unicode
+        content.unicode
             = glyphElement.getAttributeNS(null, SVG_UNICODE_ATTRIBUTE);
 
         // glyph-name
@@ -189,17 +261,18 @@ public class SVGGlyphElementBridge extends AbstractSVGBridge
         while (st.hasMoreTokens()) {
             names.add(st.nextToken());
         }
+        content.names = names;
 
         // orientation
-        String orientation
+        content.orientation
             = glyphElement.getAttributeNS(null, SVG_ORIENTATION_ATTRIBUTE);
 
         // arabicForm
-        String arabicForm
+        content.arabicForm
             = glyphElement.getAttributeNS(null, SVG_ARABIC_FORM_ATTRIBUTE);
 
         // lang
-        String lang = glyphElement.getAttributeNS(null, SVG_LANG_ATTRIBUTE);
+        content.lang = glyphElement.getAttributeNS(null, SVG_LANG_ATTRIBUTE);
 
 
         Element parentFontElement = (Element)glyphElement.getParentNode();
@@ -216,9 +289,8 @@ public class SVGGlyphElementBridge extends AbstractSVGBridge
                      new Object[] {SVG_HORIZ_ADV_X_ATTRIBUTE});
             }
         }
-        float horizAdvX;
         try {
-            horizAdvX = SVGUtilities.convertSVGNumber(s) * scale;
+            content.horizAdvX = SVGUtilities.convertSVGNumber(s);
         } catch (NumberFormatException nfEx ) {
             throw new BridgeException
                 (ctx, glyphElement, nfEx, ERR_ATTRIBUTE_VALUE_MALFORMED,
@@ -235,9 +307,8 @@ public class SVGGlyphElementBridge extends AbstractSVGBridge
                 s = String.valueOf(fontFace.getUnitsPerEm());
             }
         }
-        float vertAdvY;
         try {
-            vertAdvY = SVGUtilities.convertSVGNumber(s) * scale;
+            content.vertAdvY = SVGUtilities.convertSVGNumber(s);
         } catch (NumberFormatException nfEx ) {
             throw new BridgeException
                 (ctx, glyphElement, nfEx, ERR_ATTRIBUTE_VALUE_MALFORMED,
@@ -249,18 +320,18 @@ public class SVGGlyphElementBridge extends AbstractSVGBridge
         if (s.length() == 0) {
             // look for attribute on parent font element
             s = parentFontElement.getAttributeNS(null, SVG_VERT_ORIGIN_X_ATTRIBUTE);
-            if (s.length() == 0) {
-                // not specified so use the default value which is horizAdvX/2
-                s = Float.toString(horizAdvX/2);
-            }
         }
-        float vertOriginX;
-        try {
-            vertOriginX = SVGUtilities.convertSVGNumber(s) * scale;
-        } catch (NumberFormatException nfEx ) {
-            throw new BridgeException
-                (ctx, glyphElement, nfEx, ERR_ATTRIBUTE_VALUE_MALFORMED,
-                 new Object [] {SVG_VERT_ORIGIN_X_ATTRIBUTE, s});
+        if (s.length() == 0) {
+            // not specified, the default value depends on the font size
+            content.vertOriginX = Float.NaN;
+        } else {
+            try {
+                content.vertOriginX = SVGUtilities.convertSVGNumber(s);
+            } catch (NumberFormatException nfEx ) {
+                throw new BridgeException
+                    (ctx, glyphElement, nfEx, ERR_ATTRIBUTE_VALUE_MALFORMED,
+                     new Object [] {SVG_VERT_ORIGIN_X_ATTRIBUTE, s});
+            }
         }
 
         // vert-origin-y
@@ -273,17 +344,14 @@ public class SVGGlyphElementBridge extends AbstractSVGBridge
                 s = String.valueOf(fontFace.getAscent());
             }
         }
-        float vertOriginY;
         try {
-            vertOriginY = SVGUtilities.convertSVGNumber(s) * -scale;
+            content.vertOriginY = SVGUtilities.convertSVGNumber(s);
         } catch (NumberFormatException nfEx ) {
             throw new BridgeException
                 (ctx, glyphElement, nfEx, ERR_ATTRIBUTE_VALUE_MALFORMED,
                  new Object [] {SVG_VERT_ORIGIN_Y_ATTRIBUTE, s});
         }
 
-        Point2D vertOrigin = new Point2D.Float(vertOriginX, vertOriginY);
-
 
         // get the horizontal origin from the parent font element
 
@@ -293,9 +361,8 @@ public class SVGGlyphElementBridge extends AbstractSVGBridge
             // not specified so use the default value which is 0
             s = SVG_HORIZ_ORIGIN_X_DEFAULT_VALUE;
         }
-        float horizOriginX;
         try {
-            horizOriginX = SVGUtilities.convertSVGNumber(s) * scale;
+            content.horizOriginX = SVGUtilities.convertSVGNumber(s);
         } catch (NumberFormatException nfEx ) {
             throw new BridgeException
                 (ctx, parentFontElement, nfEx, ERR_ATTRIBUTE_VALUE_MALFORMED,
@@ -308,21 +375,50 @@ public class SVGGlyphElementBridge extends AbstractSVGBridge
             // not specified so use the default value which is 0
             s = SVG_HORIZ_ORIGIN_Y_DEFAULT_VALUE;
         }
-        float horizOriginY;
         try {
-            horizOriginY = SVGUtilities.convertSVGNumber(s) * -scale;
+            content.horizOriginY = SVGUtilities.convertSVGNumber(s);
         } catch (NumberFormatException nfEx ) {
             throw new BridgeException
                 (ctx, glyphElement, nfEx, ERR_ATTRIBUTE_VALUE_MALFORMED,
                  new Object [] {SVG_HORIZ_ORIGIN_Y_ATTRIBUTE, s});
         }
 
-        Point2D horizOrigin = new Point2D.Float(horizOriginX, horizOriginY);
+        return content;
+    }
 
-        // return a new Glyph
-        return new Glyph(unicode, names, orientation,
-                         arabicForm, lang, horizOrigin, vertOrigin,
-                         horizAdvX, vertAdvY, glyphCode,
-                         tpi, dShape, glyphContentNode);
+    /**
+     * The definition of a glyph, independent of the font size and of
+     * the text it is used for.  Lengths are in font units.
+     */
+    protected static class GlyphContent {
+
+        /**
+         * The outline described by the 'd' attribute, or null.  It is
+         * shared by all the glyphs made from this definition, and must
+         * not be modified.
+         */
+        protected GeneralPath outline;
+
+        /**
+         * Whether the glyph has child elements to render.
+         */
+        protected boolean hasChildren;
+
+        protected String unicode;
+        protected List   names;
+        protected String orientation;
+        protected String arabicForm;
+        protected String lang;
+
+        protected float horizAdvX;
+        protected float vertAdvY;
+
+        /**
+         * The 'vert-origin-x' value, NaN when it is not specified.
+         */
+        protected float vertOriginX;
+        protected float vertOriginY;
+        protected float horizOriginX;
+        protected float horizOriginY;
     }
 }
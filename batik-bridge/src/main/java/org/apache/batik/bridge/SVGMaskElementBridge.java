@@ -131,6 +131,8 @@ public class SVGMaskElementBridge extends AnimatableGenericSVGBridge
             filter = maskedNode.getGraphicsNodeRable(true);
         }
 
-        return new MaskRable8Bit(filter, maskNode, maskRegion);
+        MaskRable8Bit mask = new MaskRable8Bit(filter, maskNode, maskRegion);
+        mask.setResultCache(ctx.getFilterResultCache());
+        return mask;
     }
 }
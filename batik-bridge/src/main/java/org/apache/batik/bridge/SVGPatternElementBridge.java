@@ -23,8 +23,11 @@ import java.awt.Paint;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.batik.anim.dom.SVGOMDocument;
 import org.apache.batik.dom.util.XLinkSupport;
@@ -77,14 +80,15 @@ public class SVGPatternElementBridge extends AnimatableGenericSVGBridge
 
 
         // extract pattern content
-        RootGraphicsNode patternContentNode;
-        patternContentNode = (RootGraphicsNode)
-            ctx.getElementData(patternElement);
+        PatternContent content =
+            (PatternContent)ctx.getElementData(patternElement);
 
-        if (patternContentNode == null) {
-            patternContentNode = extractPatternContent(patternElement, ctx);
-            ctx.setElementData(patternElement, patternContentNode);
+        if (content == null) {
+            content = new PatternContent
+                (extractPatternContent(patternElement, ctx));
+            ctx.setElementData(patternElement, content);
         }
+        RootGraphicsNode patternContentNode = content.node;
         if (patternContentNode == null) {
             return null; // no content means no paint
         }
@@ -196,6 +200,16 @@ public class SVGPatternElementBridge extends AnimatableGenericSVGBridge
             }
         }
 
+        // Elements painted with the same pattern and the same parameters
+        // share a paint, so that its rasterized tile is reused.
+        List key = Arrays.asList(new Object[] {
+            patternRegion, patternContentTransform, patternTransform,
+            Boolean.valueOf(overflowIsHidden), Float.valueOf(opacity) });
+        PatternPaint paint = (PatternPaint)content.paints.get(key);
+        if (paint != null) {
+            return paint;
+        }
+
         //
         // Apply transform
         //
@@ -220,11 +234,13 @@ public class SVGPatternElementBridge extends AnimatableGenericSVGBridge
 
         
 
-        return new PatternPaint(gn,
-                                patternRegion,
-                                !overflowIsHidden,
-                                patternTransform);
-
+        paint = new PatternPaint(gn,
+                                 patternRegion,
+                                 !overflowIsHidden,
+                                 patternTransform,
+                                 ctx.getPatternTileCache());
+        content.paints.put(key, paint);
+        return paint;
     }
 
     /**
@@ -315,6 +331,34 @@ public class SVGPatternElementBridge extends AnimatableGenericSVGBridge
         return false;
     }
 
+    /**
+     * The content of a pattern element and the paints created from it,
+     * stored as the element's data.
+     */
+    protected static class PatternContent {
+
+        /**
+         * The maximum number of paints kept per pattern.
+         */
+        protected static final int MAX_PAINTS = 32;
+
+        protected RootGraphicsNode node;
+
+        /**
+         * The paints created for this content, keyed by the list of
+         * their parameters, in least recently used order.
+         */
+        protected Map paints = new LinkedHashMap(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry eldest) {
+                    return size() > MAX_PAINTS;
+                }
+            };
+
+        public PatternContent(RootGraphicsNode node) {
+            this.node = node;
+        }
+    }
+
     public static class PatternGraphicsNode extends AbstractGraphicsNode {
         GraphicsNode pcn;
         Rectangle2D pBounds;
@@ -350,6 +394,16 @@ public class SVGPatternElementBridge extends AnimatableGenericSVGBridge
                 oShape = tr.createTransformedShape(oShape);
             return oShape;
         }
+        /**
+         * Includes the changes of the pattern content, which is not a
+         * child of this node.
+         */
+        public long getChangeCount() {
+            long count = super.getChangeCount();
+            if (pcn instanceof AbstractGraphicsNode)
+                count += ((AbstractGraphicsNode)pcn).getChangeCount();
+            return count;
+        }
         protected void invalidateGeometryCache() {
             pBounds = null;
             gBounds = null;
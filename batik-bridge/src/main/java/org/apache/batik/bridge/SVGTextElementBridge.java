@@ -135,6 +135,10 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
     // in this text element.
     protected WeakHashMap elemTPI = new WeakHashMap();
 
+    // The TextPaintInfo of each element in the previous layout,
+    // only set while the text is being laid out again.
+    protected WeakHashMap prevElemTPI;
+
     // This is true if any of the spans of this text element
     // use a 'complex' SVG font (meaning the font uses more
     // and just the 'd' attribute on the glyph element.
@@ -625,9 +629,15 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
                                       Element e,
                                       GraphicsNode node) {
         TextNode tn = (TextNode)node;
-        elemTPI.clear();
+        prevElemTPI = elemTPI;
+        elemTPI = new WeakHashMap();
 
-        AttributedString as = buildAttributedString(ctx, e);
+        AttributedString as;
+        try {
+            as = buildAttributedString(ctx, e);
+        } finally {
+            prevElemTPI = null;
+        }
         if (as == null) {
             tn.setAttributedCharacterIterator(null);
             return;
@@ -635,7 +645,9 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
 
         addGlyphPositionAttributes(as, e, ctx);
         if (ctx.isDynamic()) {
-            laidoutText = new AttributedString(as.getIterator());
+            // Only used to tell whether the layout is up to date, the
+            // attributed string is not modified once laid out.
+            laidoutText = as;
         }
 
         // Install the ACI in the text node.
@@ -1541,6 +1553,28 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
         return fontList;
     }
 
+    /**
+     * Returns the TextPaintInfo to attach to the characters of
+     * <code>element</code> while the text is laid out, its values are
+     * swapped in once the text node has the new text.  An element
+     * keeps the TextPaintInfo of the previous layout, so text runs a
+     * text painter reuses from that layout see later paint changes.
+     */
+    protected TextPaintInfo initTextPaintInfo(Element element) {
+        TextPaintInfo pi = null;
+        if (prevElemTPI != null)
+            pi = (TextPaintInfo)prevElemTPI.get(element);
+        if (pi == null) {
+            pi = new TextPaintInfo();
+            // Set some basic props so we can get bounds info for
+            // complex paints.
+            pi.visible   = true;
+            pi.fillPaint = Color.black;
+        }
+        elemTPI.put(element, pi);
+        return pi;
+    }
+
     /**
      * Returns the map to pass to the current characters.
      *
@@ -1578,12 +1612,8 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
 
         // Add null TPI objects to the text (after we set it on the
         // Text we will swap in the correct values.
-        TextPaintInfo pi = new TextPaintInfo();
-        // Set some basic props so we can get bounds info for complex paints.
-        pi.visible   = true;
-        pi.fillPaint = Color.black;
+        TextPaintInfo pi = initTextPaintInfo(element);
         result.put(PAINT_INFO, pi);
-        elemTPI.put(element, pi);
 
         if (textPath != null) {
             result.put(TEXTPATH, textPath);
@@ -0,0 +1,178 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the shaping of simple text runs, shared by all the
+ * text nodes (and documents) of the JVM.
+ *
+ * <p>The shaping of a run is the result of the bidi reordering and
+ * font matching <code>StrokingTextPainter</code> does before the
+ * glyphs are laid out: the text in visual order, the map back to
+ * logical order, and the font, bidi level and arabic form of each
+ * character.  It only depends on the text and the font related
+ * attributes of the run, so text nodes repeating the same string in
+ * the same style (axis labels, legends) share it, and only build
+ * their glyph layout, at their own position and with their own
+ * paint.</p>
+ *
+ * <p>Keys are built by <code>StrokingTextPainter</code>, they only
+ * hold values, fonts and font families, never document elements.
+ * The number of entries kept is bounded, least recently used ones
+ * are dropped first.</p>
+ *
+ * @version $Id$
+ */
+public final class ShapedTextCache {
+
+    private static final Object lock = new Object();
+
+    private static boolean enabled = true;
+    private static int maxEntries = 1024;
+
+    private static int hitCount = 0;
+    private static int missCount = 0;
+
+    /**
+     * Key -&gt; Entry, in least recently used order.
+     */
+    private static final LinkedHashMap entries =
+        new LinkedHashMap(16, 0.75f, true);
+
+    private ShapedTextCache() {
+    }
+
+    /**
+     * Enables or disables the cache.  Disabling it drops all entries.
+     */
+    public static void setEnabled(boolean enable) {
+        synchronized (lock) {
+            enabled = enable;
+            if (!enable) {
+                clear();
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the number of shaped runs the cache may keep.
+     */
+    public static void setMaxEntries(int max) {
+        synchronized (lock) {
+            maxEntries = max;
+            trim();
+        }
+    }
+
+    public static int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Drops all cached runs.
+     */
+    public static void clear() {
+        synchronized (lock) {
+            entries.clear();
+        }
+    }
+
+    public static int getHitCount() {
+        return hitCount;
+    }
+
+    public static int getMissCount() {
+        return missCount;
+    }
+
+    public static String getStatistics() {
+        synchronized (lock) {
+            return "ShapedTextCache[entries=" + entries.size()
+                + " hits=" + hitCount + " misses=" + missCount + "]";
+        }
+    }
+
+    static Entry get(Object key) {
+        synchronized (lock) {
+            if (!enabled) return null;
+            Entry e = (Entry)entries.get(key);
+            if (e == null)
+                missCount++;
+            else
+                hitCount++;
+            return e;
+        }
+    }
+
+    static void put(Object key, Entry e) {
+        synchronized (lock) {
+            if (!enabled) return;
+            entries.put(key, e);
+            trim();
+        }
+    }
+
+    private static void trim() {
+        Iterator i = entries.values().iterator();
+        while ((entries.size() > maxEntries) && i.hasNext()) {
+            i.next();
+            i.remove();
+        }
+    }
+
+    /**
+     * The shaping of a run.  Character indexes are relative to the
+     * start of the run.
+     */
+    static class Entry {
+        /**
+         * The text, in visual order.
+         */
+        final String text;
+
+        /**
+         * The logical index of each visual character.
+         */
+        final int[] charMap;
+
+        /**
+         * The ends of the runs of characters to which the shaping
+         * gave the same attributes (font, bidi level, arabic form),
+         * and these attributes.
+         */
+        final int[] runLimits;
+        final Map[] runAttributes;
+
+        Entry(String text, int[] charMap, int[] runLimits,
+              Map[] runAttributes) {
+            this.text          = text;
+            this.charMap       = charMap;
+            this.runLimits     = runLimits;
+            this.runAttributes = runAttributes;
+        }
+    }
+}
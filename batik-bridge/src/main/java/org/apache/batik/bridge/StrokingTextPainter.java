@@ -33,11 +33,16 @@ import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
 import java.text.CharacterIterator;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.batik.gvt.font.AWTFontFamily;
+import org.apache.batik.gvt.font.AWTGVTFont;
 import org.apache.batik.gvt.font.GVTFont;
 import org.apache.batik.gvt.font.GVTFontFamily;
 import org.apache.batik.gvt.font.GVTGlyphMetrics;
@@ -124,8 +129,53 @@ public class StrokingTextPainter extends BasicTextPainter {
     public static final GVTAttributedCharacterIterator.TextAttribute ALT_GLYPH_HANDLER =
         GVTAttributedCharacterIterator.TextAttribute.ALT_GLYPH_HANDLER;
 
+    public static final
+        AttributedCharacterIterator.Attribute GVT_FONT_FAMILIES
+        = GVTAttributedCharacterIterator.TextAttribute.GVT_FONT_FAMILIES;
+
+    /**
+     * The length of the longest run whose shaping is shared.
+     */
+    protected static final int MAX_SHARED_RUN_LENGTH = 256;
+
     static Set extendedAtts = new HashSet();
 
+    /**
+     * The attributes that prevent the shaping of a run from being
+     * shared.
+     */
+    static Set unsharedRunAtts = new HashSet();
+
+    /**
+     * The attributes whose values are specific to an element and are
+     * not part of the key of a shared run.
+     */
+    static Set elementRunAtts = new HashSet();
+
+    static {
+        unsharedRunAtts.add(FLOW_PARAGRAPH);
+        unsharedRunAtts.add(FLOW_REGIONS);
+        unsharedRunAtts.add
+            (GVTAttributedCharacterIterator.TextAttribute.FLOW_LINE_BREAK);
+        unsharedRunAtts.add(TEXTPATH);
+        unsharedRunAtts.add(ALT_GLYPH_HANDLER);
+        unsharedRunAtts.add(GVT_FONT);
+        unsharedRunAtts.add
+            (GVTAttributedCharacterIterator.TextAttribute.DX);
+        unsharedRunAtts.add
+            (GVTAttributedCharacterIterator.TextAttribute.DY);
+        unsharedRunAtts.add
+            (GVTAttributedCharacterIterator.TextAttribute.ROTATION);
+        unsharedRunAtts.add
+            (GVTAttributedCharacterIterator.TextAttribute.BBOX_WIDTH);
+
+        elementRunAtts.add(TEXT_COMPOUND_ID);
+        elementRunAtts.add
+            (GVTAttributedCharacterIterator.TextAttribute.TEXT_COMPOUND_DELIMITER);
+        elementRunAtts.add(PAINT_INFO);
+        elementRunAtts.add(GVT_FONTS);
+    }
+
     static {
         extendedAtts.add(FLOW_PARAGRAPH);
         extendedAtts.add(TEXT_COMPOUND_ID);
@@ -188,7 +238,12 @@ public class StrokingTextPainter extends BasicTextPainter {
         }
 
         AttributedCharacterIterator[] chunkACIs = getTextChunkACIs(aci);
-        textRuns = computeTextRuns(node, aci, chunkACIs);
+        if ((chunkACIs.length == 1) &&
+            (getClass() == StrokingTextPainter.class)) {
+            textRuns = computeSharedTextRuns(node, aci, chunkACIs[0]);
+        }
+        if (textRuns == null)
+            textRuns = computeTextRuns(node, aci, chunkACIs);
 
         // cache the textRuns so don't need to recalculate
         node.setTextRuns(textRuns);
@@ -224,7 +279,16 @@ public class StrokingTextPainter extends BasicTextPainter {
             chunkACIs    [i] = createModifiedACIForFontMatching(chunkACIs[i]);
             chunkStart += (chunkACIs[i].getEndIndex() - chunkACIs[i].getBeginIndex());
         }
+        return layoutTextChunks(node, chunkACIs, chunkCharMaps);
+    }
 
+    /**
+     * Creates the text runs of the given chunks, which have been
+     * reordered and had their fonts resolved, and positions them.
+     */
+    protected List layoutTextChunks(TextNode node,
+                                    AttributedCharacterIterator [] chunkACIs,
+                                    int [][] chunkCharMaps) {
         // Create text runs for each chunk and add them to the list.
         List perNodeRuns = new ArrayList();
         TextChunk chunk, prevChunk=null;
@@ -264,6 +328,180 @@ public class StrokingTextPainter extends BasicTextPainter {
         return perNodeRuns;
     }
 
+    /**
+     * Computes the text runs of a node whose text is a single simple
+     * chunk, reusing the bidi reordering and font matching of any
+     * identical run from the {@link ShapedTextCache}.  Returns null,
+     * and nothing is cached, if the chunk can not be shared, see
+     * <code>getSharedShaping</code>.
+     */
+    protected List computeSharedTextRuns(TextNode node,
+                                         AttributedCharacterIterator aci,
+                                         AttributedCharacterIterator chunkACI) {
+        int [][] charMaps = new int[1][];
+        AttributedCharacterIterator shaped;
+        shaped = getSharedShaping(chunkACI, charMaps);
+        if (shaped == null)
+            return null;
+
+        return layoutTextChunks(node,
+                                new AttributedCharacterIterator[] { shaped },
+                                charMaps);
+    }
+
+    /**
+     * Returns a chunk after bidi reordering and font matching, reusing
+     * the shaping of any identical run from the {@link
+     * ShapedTextCache}, and stores the map from its chars to the
+     * chunk's chars in <code>charMaps[0]</code>.  Returns null, and
+     * nothing is cached, if the chunk has per character positioning
+     * or rotation, is on a path, is stretched by 'textLength', is
+     * flowed text or uses SVG fonts or alternate glyphs.
+     */
+    protected AttributedCharacterIterator getSharedShaping
+        (AttributedCharacterIterator chunkACI, int [][] charMaps) {
+        int begin = chunkACI.getBeginIndex();
+        int end   = chunkACI.getEndIndex();
+        if ((end - begin) > MAX_SHARED_RUN_LENGTH)
+            return null;
+
+        // The attributes other than the position of the first char
+        // must be the same for the whole chunk.
+        Set atts = new HashSet(chunkACI.getAllAttributeKeys());
+        atts.remove(XPOS);
+        atts.remove(YPOS);
+        chunkACI.first();
+        if (chunkACI.getRunLimit(atts) != end)
+            return null;
+        for (char c = chunkACI.next();
+             c != CharacterIterator.DONE;
+             c = chunkACI.next()) {
+            Float x = (Float)chunkACI.getAttribute(XPOS);
+            Float y = (Float)chunkACI.getAttribute(YPOS);
+            if (((x != null) && !x.isNaN()) || ((y != null) && !y.isNaN()))
+                return null;
+        }
+
+        chunkACI.first();
+        Map attrs = new HashMap();
+        Iterator i = chunkACI.getAttributes().entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry e = (Map.Entry)i.next();
+            if ((e.getKey() == null) || (e.getValue() == null))
+                continue;
+            if (unsharedRunAtts.contains(e.getKey()))
+                return null;
+            attrs.put(e.getKey(), e.getValue());
+        }
+        List families = (List)attrs.get(GVT_FONT_FAMILIES);
+        if (families == null)
+            return null;
+        for (int f = 0; f < families.size(); f++) {
+            if (families.get(f).getClass() != AWTFontFamily.class)
+                return null;
+        }
+        Float x = (Float)attrs.remove(XPOS);
+        Float y = (Float)attrs.remove(YPOS);
+
+        // The key holds the text and the attributes that are not
+        // specific to the node's element.
+        StringBuffer sb = new StringBuffer(end - begin);
+        for (char c = chunkACI.first();
+             c != CharacterIterator.DONE;
+             c = chunkACI.next()) {
+            sb.append(c);
+        }
+        Map keyAttrs = new HashMap(attrs);
+        keyAttrs.keySet().removeAll(elementRunAtts);
+        Object key = Arrays.asList(new Object[] {
+            sb.toString(), keyAttrs, fontRenderContext
+        });
+
+        AttributedCharacterIterator shaped;
+        int [] charMap;
+        ShapedTextCache.Entry entry = ShapedTextCache.get(key);
+        if (entry == null) {
+            BidiAttributedCharacterIterator bidi;
+            bidi = new BidiAttributedCharacterIterator
+                (chunkACI, fontRenderContext, begin);
+            charMap = bidi.getCharMap();
+            shaped  = createModifiedACIForFontMatching(bidi);
+            entry   = createShapedTextEntry(shaped, charMap, begin, attrs);
+            if (entry != null)
+                ShapedTextCache.put(key, entry);
+        } else {
+            int n = entry.text.length();
+            AttributedString as = new AttributedString(entry.text, attrs);
+            if (x != null)
+                as.addAttribute(XPOS, x, 0, 1);
+            if (y != null)
+                as.addAttribute(YPOS, y, 0, 1);
+            int start = 0;
+            for (int r = 0; r < entry.runLimits.length; r++) {
+                int limit = entry.runLimits[r];
+                as.addAttributes(entry.runAttributes[r], start, limit);
+                start = limit;
+            }
+            shaped = as.getIterator();
+
+            charMap = new int[n];
+            for (int c = 0; c < n; c++)
+                charMap[c] = entry.charMap[c] + begin;
+        }
+
+        charMaps[0] = charMap;
+        return shaped;
+    }
+
+    /**
+     * Records the attributes the bidi reordering and font matching
+     * added to a chunk, or returns null if they can not be shared.
+     *
+     * @param shaped the chunk after font matching
+     * @param charMap the map from its chars to the node's chars
+     * @param begin the index of the chunk's first char in the node
+     * @param attrs the attributes of the chunk before shaping
+     */
+    private ShapedTextCache.Entry createShapedTextEntry
+        (AttributedCharacterIterator shaped, int [] charMap,
+         int begin, Map attrs) {
+        int n = shaped.getEndIndex() - shaped.getBeginIndex();
+        StringBuffer sb = new StringBuffer(n);
+        int [] limits = new int[n];
+        List runAttrs = new ArrayList();
+        char c = shaped.first();
+        while (c != CharacterIterator.DONE) {
+            int limit = shaped.getRunLimit();
+            Map added = new HashMap();
+            Iterator i = shaped.getAttributes().entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry e = (Map.Entry)i.next();
+                Object k = e.getKey();
+                if (attrs.containsKey(k) || (k == XPOS) || (k == YPOS) ||
+                    (e.getValue() == null))
+                    continue;
+                if ((e.getValue() instanceof GVTFont) &&
+                    (e.getValue().getClass() != AWTGVTFont.class))
+                    return null;
+                added.put(k, e.getValue());
+            }
+            for (; shaped.getIndex() < limit; c = shaped.next())
+                sb.append(c);
+            limits[runAttrs.size()] = limit - shaped.getBeginIndex();
+            runAttrs.add(added);
+        }
+
+        int [] map = new int[n];
+        for (int i = 0; i < n; i++)
+            map[i] = charMap[i] - begin;
+        int [] runLimits = new int[runAttrs.size()];
+        System.arraycopy(limits, 0, runLimits, 0, runLimits.length);
+        Map [] runAttributes = new Map[runAttrs.size()];
+        runAttrs.toArray(runAttributes);
+        return new ShapedTextCache.Entry(sb.toString(), map, runLimits,
+                                         runAttributes);
+    }
+
     /**
      * Reorder text runs as required by bidi algorithm.
      * @param runs - unordered runs
@@ -1407,19 +1645,13 @@ public class StrokingTextPainter extends BasicTextPainter {
         if (aci == null)
             return null;
 
-        // get the list of text runs
-        List textRuns = getTextRuns(node, aci);
-        if (textRuns != null) {
-            // for each text run, see if its been hit
-            for (Object textRun1 : textRuns) {
-                TextRun textRun = (TextRun) textRun1;
-                TextSpanLayout layout = textRun.getLayout();
-                TextHit textHit = layout.hitTestChar((float) x, (float) y);
-                Rectangle2D bounds = layout.getBounds2D();
-                if ((textHit != null) &&
-                        (bounds != null) && bounds.contains(x, y))
-                    return new BasicMark(node, textHit);
-            }
+        // make sure the text is laid out, then look up the run hit
+        getTextRuns(node, aci);
+        TextHitIndex index = node.getHitIndex();
+        if (index != null) {
+            TextHit textHit = index.hitTestChar(x, y);
+            if (textHit != null)
+                return new BasicMark(node, textHit);
         }
 
         return null;
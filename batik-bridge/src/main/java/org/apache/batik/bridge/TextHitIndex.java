@@ -0,0 +1,355 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.batik.gvt.font.GVTGlyphVector;
+
+/**
+ * An index of the text runs of a <code>TextNode</code> and of their
+ * glyphs, to find the character at a point without testing every
+ * glyph of the node.
+ *
+ * <p>A hit is what the linear search of the text runs finds: the
+ * first run, in the order of the list, whose bounds contain the point
+ * and whose <code>hitTestChar</code> finds a glyph there.  The runs are
+ * sorted on their bounds along the axis on which they are the
+ * thinnest (the lines of horizontal text, the columns of vertical
+ * text), so only the runs crossing the point on that axis are tested.
+ * Within a run, when the logical bounds of the glyphs follow each
+ * other along an axis, as they do unless the glyphs are positioned
+ * explicitly, the glyphs at the point are found by a binary
+ * search.</p>
+ *
+ * <p>The index describes the runs as they are laid out when it is
+ * built: it must be dropped with them, when the layout of the node
+ * changes.  The glyphs of a run are indexed the first time a point
+ * falls in its bounds.</p>
+ *
+ * @see TextNode#getHitIndex
+ * @version $Id$
+ */
+public class TextHitIndex {
+
+    protected static final int AXIS_NONE = -1;
+    protected static final int AXIS_X    = 0;
+    protected static final int AXIS_Y    = 1;
+
+    /**
+     * The indexed text runs, in the order of the list.
+     */
+    protected StrokingTextPainter.TextRun [] runs;
+
+    /**
+     * The bounds of each run, null if it has none.
+     */
+    protected Rectangle2D [] runBounds;
+
+    /**
+     * The axis along which the runs are sorted.
+     */
+    protected int axis;
+
+    /**
+     * The indexes of the runs with bounds, sorted on the start of their
+     * bounds along <code>axis</code>, and these starts.
+     */
+    protected int    [] sortedRuns;
+    protected double [] sortedStarts;
+
+    /**
+     * The largest extent of a run along <code>axis</code>.
+     */
+    protected double maxExtent;
+
+    /**
+     * The glyph index of each run, built when first needed.
+     */
+    protected GlyphIndex [] glyphIndexes;
+
+    /**
+     * Indexes the given text runs.
+     */
+    public TextHitIndex(List textRuns) {
+        int n = textRuns.size();
+        runs         = new StrokingTextPainter.TextRun[n];
+        runBounds    = new Rectangle2D[n];
+        glyphIndexes = new GlyphIndex[n];
+
+        double maxWidth  = 0;
+        double maxHeight = 0;
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            runs[i] = (StrokingTextPainter.TextRun)textRuns.get(i);
+            Rectangle2D b = runs[i].getLayout().getBounds2D();
+            runBounds[i] = b;
+            if (b == null)
+                continue;
+            maxWidth  = Math.max(maxWidth,  b.getWidth());
+            maxHeight = Math.max(maxHeight, b.getHeight());
+            count++;
+        }
+        axis      = (maxHeight <= maxWidth) ? AXIS_Y : AXIS_X;
+        maxExtent = (axis == AXIS_Y) ? maxHeight : maxWidth;
+
+        // Sort the runs on their start, then on their index.
+        final double [] starts = new double[n];
+        Integer [] order = new Integer[count];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            Rectangle2D b = runBounds[i];
+            if (b == null)
+                continue;
+            starts[i] = (axis == AXIS_Y) ? b.getMinY() : b.getMinX();
+            order[k++] = i;
+        }
+        Arrays.sort(order, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    int i1 = (Integer)o1;
+                    int i2 = (Integer)o2;
+                    int c = Double.compare(starts[i1], starts[i2]);
+                    return (c != 0) ? c : (i1 - i2);
+                }
+            });
+        sortedRuns   = new int[count];
+        sortedStarts = new double[count];
+        for (int i = 0; i < count; i++) {
+            sortedRuns[i]   = order[i];
+            sortedStarts[i] = starts[order[i]];
+        }
+    }
+
+    /**
+     * Returns the hit at (x, y), or null if no glyph is there.
+     */
+    public TextHit hitTestChar(double x, double y) {
+        TextHit [] hit = new TextHit[1];
+        if (findRun(x, y, hit) == -1)
+            return null;
+        return hit[0];
+    }
+
+    /**
+     * Returns the text run hit at (x, y), or null if no glyph is
+     * there.
+     */
+    public StrokingTextPainter.TextRun getTextRun(double x, double y) {
+        int run = findRun(x, y, new TextHit[1]);
+        return (run == -1) ? null : runs[run];
+    }
+
+    /**
+     * Returns the index of the first run hit at (x, y), or -1, and
+     * stores the hit in <code>hit[0]</code>.
+     */
+    protected int findRun(double x, double y, TextHit [] hit) {
+        double v = (axis == AXIS_Y) ? y : x;
+
+        // The runs that may contain v start between v - maxExtent and
+        // v, give or take some rounding.
+        double slack = 2 * (Math.ulp(v) + Math.ulp(maxExtent));
+        int lo = lowerBound(sortedStarts, v - maxExtent - slack);
+        int hi = lowerBound(sortedStarts, Math.nextUp(v));
+        int [] candidates = new int[hi - lo];
+        int count = 0;
+        for (int i = lo; i < hi; i++) {
+            int run = sortedRuns[i];
+            if (runBounds[run].contains(x, y))
+                candidates[count++] = run;
+        }
+        if (count == 0)
+            return -1;
+        if (count > 1)
+            Arrays.sort(candidates, 0, count);
+
+        float fx = (float)x;
+        float fy = (float)y;
+        for (int i = 0; i < count; i++) {
+            int run = candidates[i];
+            TextHit textHit = getGlyphIndex(run).hitTestChar(fx, fy);
+            if (textHit != null) {
+                hit[0] = textHit;
+                return run;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the glyph index of a run, building it if needed.
+     */
+    protected GlyphIndex getGlyphIndex(int run) {
+        GlyphIndex gi = glyphIndexes[run];
+        if (gi == null) {
+            gi = new GlyphIndex(runs[run].getLayout());
+            glyphIndexes[run] = gi;
+        }
+        return gi;
+    }
+
+    /**
+     * Returns the first index of <code>a</code> whose value is not
+     * less than <code>v</code>.
+     */
+    protected static int lowerBound(double [] a, double v) {
+        int lo = 0;
+        int hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < v)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * The glyphs of a text run: their logical bounds and the offset of
+     * their first character.
+     */
+    protected static class GlyphIndex {
+
+        /**
+         * The layout, or null if it is not a GlyphLayout, in which
+         * case <code>fallback</code> is used.
+         */
+        protected GlyphLayout layout;
+        protected TextSpanLayout fallback;
+
+        /**
+         * The glyphs with logical bounds, in glyph order, with their
+         * bounds and the offset of their first character.
+         */
+        protected int         [] glyphs;
+        protected Shape       [] shapes;
+        protected Rectangle2D [] bounds;
+        protected int         [] charOffsets;
+
+        /**
+         * The axis along which both the starts and the ends of the
+         * glyph bounds never decrease, if any, and these starts and
+         * ends.
+         */
+        protected int axis = AXIS_NONE;
+        protected double [] starts;
+        protected double [] ends;
+
+        public GlyphIndex(TextSpanLayout layout) {
+            if (!(layout instanceof GlyphLayout)) {
+                fallback = layout;
+                return;
+            }
+            this.layout = (GlyphLayout)layout;
+
+            // Makes sure the glyphs are where they are drawn.
+            layout.getBounds2D();
+            GVTGlyphVector gv = layout.getGlyphVector();
+            int numGlyphs = gv.getNumGlyphs();
+
+            int [] gs = new int[numGlyphs];
+            int [] offs = new int[numGlyphs];
+            Shape [] ss = new Shape[numGlyphs];
+            Rectangle2D [] bs = new Rectangle2D[numGlyphs];
+            int count = 0;
+            int charOffset = 0;
+            for (int i = 0; i < numGlyphs; i++) {
+                Shape gbounds = gv.getGlyphLogicalBounds(i);
+                if (gbounds != null) {
+                    gs[count]   = i;
+                    offs[count] = charOffset;
+                    ss[count]   = gbounds;
+                    bs[count]   = gbounds.getBounds2D();
+                    count++;
+                }
+                charOffset += layout.getCharacterCount(i, i);
+            }
+            glyphs      = new int[count];
+            charOffsets = new int[count];
+            shapes      = new Shape[count];
+            bounds      = new Rectangle2D[count];
+            System.arraycopy(gs,   0, glyphs,      0, count);
+            System.arraycopy(offs, 0, charOffsets, 0, count);
+            System.arraycopy(ss,   0, shapes,      0, count);
+            System.arraycopy(bs,   0, bounds,      0, count);
+
+            if (isOrdered(AXIS_X))
+                setAxis(AXIS_X);
+            else if (isOrdered(AXIS_Y))
+                setAxis(AXIS_Y);
+        }
+
+        protected boolean isOrdered(int a) {
+            for (int i = 1; i < bounds.length; i++) {
+                Rectangle2D p = bounds[i-1];
+                Rectangle2D b = bounds[i];
+                if (a == AXIS_X) {
+                    if ((b.getMinX() < p.getMinX()) ||
+                        (b.getMaxX() < p.getMaxX()))
+                        return false;
+                } else {
+                    if ((b.getMinY() < p.getMinY()) ||
+                        (b.getMaxY() < p.getMaxY()))
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        protected void setAxis(int a) {
+            axis   = a;
+            starts = new double[bounds.length];
+            ends   = new double[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                Rectangle2D b = bounds[i];
+                starts[i] = (a == AXIS_X) ? b.getMinX() : b.getMinY();
+                ends[i]   = (a == AXIS_X) ? b.getMaxX() : b.getMaxY();
+            }
+        }
+
+        /**
+         * Returns the hit at (x, y), as
+         * <code>TextSpanLayout.hitTestChar</code> does.
+         */
+        public TextHit hitTestChar(float x, float y) {
+            if (layout == null)
+                return fallback.hitTestChar(x, y);
+
+            int begin = 0;
+            int end   = glyphs.length;
+            if (axis != AXIS_NONE) {
+                // The glyphs that may contain v are those ending at or
+                // after v and starting at or before it.
+                double v = (axis == AXIS_X) ? x : y;
+                begin = lowerBound(ends, v);
+                end   = lowerBound(starts, Math.nextUp(v));
+            }
+            for (int i = begin; i < end; i++) {
+                if (shapes[i].contains(x, y))
+                    return layout.createTextHit(charOffsets[i], bounds[i], x);
+            }
+            return null;
+        }
+    }
+}
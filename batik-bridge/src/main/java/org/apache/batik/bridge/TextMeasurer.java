@@ -0,0 +1,275 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextAttribute;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.batik.gvt.font.GVTFontFamily;
+import org.apache.batik.gvt.font.GVTLineMetrics;
+import org.apache.batik.gvt.text.AttributedCharacterSpanIterator;
+import org.apache.batik.gvt.text.BidiAttributedCharacterIterator;
+
+/**
+ * Measures strings as they would be laid out by a &lt;text&gt;
+ * element with no positioning, without building a document or a GVT
+ * tree.
+ *
+ * <p>The text goes through the same bidi reordering, font matching
+ * and glyph layout as the text of a <code>TextNode</code> painted by
+ * the <code>StrokingTextPainter</code>, and shares its shaping through
+ * the {@link ShapedTextCache}, so measuring the same string again is
+ * cheap.  Strings are laid out from the origin, with 'text-anchor:
+ * start', and measured as given: white space is not collapsed as it
+ * is in a document.</p>
+ *
+ * <p>A TextMeasurer can be used by several threads at once.  Fonts
+ * defined by SVG &lt;font&gt; elements belong to their document and
+ * can not be measured with it.</p>
+ *
+ * @version $Id$
+ */
+public class TextMeasurer {
+
+    /**
+     * The attributes given to the measured text.
+     */
+    protected Map attributes;
+
+    /**
+     * The painter whose shaping and layout steps are used.
+     */
+    protected StrokingTextPainter painter = new StrokingTextPainter();
+
+    /**
+     * Creates a measurer for text in the given font families.
+     *
+     * @param familyNames The font family names, in order of preference.
+     *        Names that are not available are ignored, as in a
+     *        'font-family' property.
+     * @param fontSize The font size.
+     * @param attributes Other text attributes, such as
+     *        <code>TextAttribute.WEIGHT</code> and
+     *        <code>TextAttribute.POSTURE</code>, or null.
+     */
+    public TextMeasurer(String[] familyNames, float fontSize, Map attributes) {
+        this(resolveFontFamilies(familyNames), fontSize, attributes);
+    }
+
+    /**
+     * Creates a measurer for text in the given font families.
+     *
+     * @param fontFamilies The GVTFontFamily objects to use, in order of
+     *        preference.
+     * @param fontSize The font size.
+     * @param attributes Other text attributes, such as
+     *        <code>TextAttribute.WEIGHT</code> and
+     *        <code>TextAttribute.POSTURE</code>, or null.
+     */
+    public TextMeasurer(List fontFamilies, float fontSize, Map attributes) {
+        Map m = new HashMap();
+        if (attributes != null)
+            m.putAll(attributes);
+        m.put(TextAttribute.SIZE, fontSize);
+
+        List families = new ArrayList(fontFamilies);
+        List fonts = new ArrayList();
+        Iterator i = families.iterator();
+        while (i.hasNext()) {
+            GVTFontFamily family = (GVTFontFamily)i.next();
+            fonts.add(family.deriveFont(fontSize, m));
+        }
+        if (fonts.isEmpty()) {
+            // As the painter would, but once and for all.
+            GVTFontFamily family =
+                painter.getFontFamilyResolver().getDefault();
+            fonts.add(family.deriveFont(fontSize, m));
+        }
+        m.put(StrokingTextPainter.GVT_FONT_FAMILIES,
+              Collections.unmodifiableList(families));
+        m.put(StrokingTextPainter.GVT_FONTS,
+              Collections.unmodifiableList(fonts));
+        this.attributes = m;
+    }
+
+    /**
+     * Resolves font family names with the default font family
+     * resolver, ignoring the names it does not know.
+     */
+    protected static List resolveFontFamilies(String[] familyNames) {
+        FontFamilyResolver resolver = DefaultFontFamilyResolver.SINGLETON;
+        List families = new ArrayList();
+        for (String familyName : familyNames) {
+            GVTFontFamily family = resolver.resolve(familyName);
+            if (family != null)
+                families.add(family);
+        }
+        return families;
+    }
+
+    /**
+     * Measures one string.
+     */
+    public Metrics measure(String text) {
+        if (text.length() == 0)
+            return new Metrics(0, 0, new Rectangle2D.Float(), 0, 0);
+
+        FontRenderContext frc = painter.fontRenderContext;
+        AttributedCharacterIterator aci =
+            new AttributedString(text, attributes).getIterator();
+
+        // reorder the text and resolve its fonts
+        int [][] charMaps = new int[1][];
+        AttributedCharacterIterator shaped;
+        shaped = painter.getSharedShaping(aci, charMaps);
+        if (shaped == null) {
+            BidiAttributedCharacterIterator bidi;
+            bidi = new BidiAttributedCharacterIterator(aci, frc, 0);
+            charMaps[0] = bidi.getCharMap();
+            shaped = painter.createModifiedACIForFontMatching(bidi);
+        }
+        int [] charMap = charMaps[0];
+
+        // lay out each run after the previous one
+        TextLayoutFactory factory = painter.getTextLayoutFactory();
+        Set runAtts = painter.getTextRunBoundaryAttributes();
+        float x = 0;
+        float y = 0;
+        float ascent = 0;
+        float descent = 0;
+        Rectangle2D bounds = null;
+        int begin = shaped.getBeginIndex();
+        int end   = shaped.getEndIndex();
+        shaped.first();
+        for (int start = begin; start < end;) {
+            int limit = shaped.getRunLimit(runAtts);
+            AttributedCharacterIterator runaci;
+            runaci = new AttributedCharacterSpanIterator(shaped, start, limit);
+            int [] subCharMap = new int[limit - start];
+            System.arraycopy(charMap, start - begin,
+                             subCharMap, 0, subCharMap.length);
+
+            TextSpanLayout layout = factory.createTextLayout
+                (runaci, subCharMap, new Point2D.Float(x, y), frc);
+
+            // runs with no outline, such as spaces, add nothing
+            Rectangle2D r = layout.getOutline().getBounds2D();
+            if (!r.isEmpty()) {
+                if (bounds == null)
+                    bounds = r;
+                else
+                    bounds.add(r);
+            }
+
+            GVTLineMetrics lm = layout.getLineMetrics();
+            ascent  = Math.max(ascent,  lm.getAscent());
+            descent = Math.max(descent, lm.getDescent());
+
+            Point2D adv = layout.getAdvance2D();
+            x += (float)adv.getX();
+            y += (float)adv.getY();
+
+            start = limit;
+            shaped.setIndex(start);
+        }
+        if (bounds == null)
+            bounds = new Rectangle2D.Float();
+        return new Metrics(x, y, bounds, ascent, descent);
+    }
+
+    /**
+     * Measures several strings.  The same string is only measured
+     * once, its metrics are returned at each of its indexes.
+     */
+    public Metrics[] measure(String[] texts) {
+        Metrics[] ret = new Metrics[texts.length];
+        Map measured = new HashMap();
+        for (int i = 0; i < texts.length; i++) {
+            Metrics m = (Metrics)measured.get(texts[i]);
+            if (m == null) {
+                m = measure(texts[i]);
+                measured.put(texts[i], m);
+            }
+            ret[i] = m;
+        }
+        return ret;
+    }
+
+    /**
+     * The measures of a string.
+     */
+    public static class Metrics {
+
+        protected float advanceX;
+        protected float advanceY;
+        protected Rectangle2D bounds;
+        protected float ascent;
+        protected float descent;
+
+        public Metrics(float advanceX, float advanceY, Rectangle2D bounds,
+                       float ascent, float descent) {
+            this.advanceX = advanceX;
+            this.advanceY = advanceY;
+            this.bounds   = bounds;
+            this.ascent   = ascent;
+            this.descent  = descent;
+        }
+
+        /**
+         * Returns where the text following the string would start.
+         */
+        public Point2D getAdvance() {
+            return new Point2D.Float(advanceX, advanceY);
+        }
+
+        /**
+         * Returns the bounds of the outline of the glyphs, as
+         * <code>TextNode.getGeometryBounds</code> would, relative to
+         * the start of the string on the baseline.
+         */
+        public Rectangle2D getBounds() {
+            return (Rectangle2D)bounds.clone();
+        }
+
+        /**
+         * Returns the largest ascent of the fonts used.
+         */
+        public float getAscent() {
+            return ascent;
+        }
+
+        /**
+         * Returns the largest descent of the fonts used.
+         */
+        public float getDescent() {
+            return descent;
+        }
+    }
+}
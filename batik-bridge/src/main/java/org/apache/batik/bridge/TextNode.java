@@ -77,6 +77,11 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
      */
     protected List textRuns;
 
+    /**
+     * The hit index of the text runs, built when first needed.
+     */
+    protected TextHitIndex hitIndex;
+
     /**
      * The text painter used to display the text of this text node.
      */
@@ -140,6 +145,25 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
      */
     public void setTextRuns(List textRuns) {
         this.textRuns = textRuns;
+        hitIndex = null;
+    }
+
+    /**
+     * Returns the index used to find the character at a point in the
+     * text runs of this node.  It is dropped with the layout of the
+     * text, when the text runs or the geometry of the node change.
+     * Returns null if the text is not laid out.
+     */
+    public TextHitIndex getHitIndex() {
+        TextHitIndex index = hitIndex;
+        if (index == null) {
+            List runs = getTextRuns();
+            if (runs == null)
+                return null;
+            index = new TextHitIndex(runs);
+            hitIndex = index;
+        }
+        return index;
     }
 
     /**
@@ -206,6 +230,7 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
         this.aci = newAci;
         text = null;
         textRuns = null;
+        hitIndex = null;
         fireGraphicsNodeChangeCompleted();
     }
 
@@ -232,6 +257,7 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
         primitiveBounds = null;
         geometryBounds = null;
         outline = null;
+        hitIndex = null;
     }
 
     /**
@@ -419,20 +445,13 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
         if (!super.contains(p)) {
             return false;
         }
-        List list = getTextRuns();
+        TextHitIndex index = getHitIndex();
+        if (index == null)
+            return false;
         // place coords in text node coordinate system
-        for (Object aList : list) {
-            StrokingTextPainter.TextRun run =
-                    (StrokingTextPainter.TextRun) aList;
-            TextSpanLayout layout = run.getLayout();
-            float x = (float) p.getX();
-            float y = (float) p.getY();
-            TextHit textHit = layout.hitTestChar(x, y);
-            if (textHit != null && contains(p, layout.getBounds2D())) {
-                return true;
-            }
-        }
-        return false;
+        StrokingTextPainter.TextRun run;
+        run = index.getTextRun(p.getX(), p.getY());
+        return (run != null) && contains(p, run.getLayout().getBounds2D());
     }
 
     protected boolean contains(Point2D p, Rectangle2D b) {
@@ -0,0 +1,309 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.batik.util.ParsedURL;
+
+/**
+ * A cache of the TrueType fonts loaded for '@font-face' rules and
+ * &lt;font-face-uri&gt; elements, shared by all the documents (and
+ * threads) of the JVM.
+ *
+ * <p>Fonts are kept by the hash of their content, so identical font
+ * files referenced through different URLs are parsed only once.  The
+ * resolved URL of a font is also remembered, so a font referenced
+ * again through the same URL is neither downloaded nor parsed again.
+ * URLs are not checked for changes, <code>clear</code> forgets them.
+ * 'data:' URLs are only looked up by content.</p>
+ *
+ * <p>The number of bytes of font data kept is bounded, least recently
+ * used fonts are dropped first.</p>
+ *
+ * @version $Id$
+ */
+public final class WebFontCache {
+
+    private static final Object lock = new Object();
+
+    private static boolean enabled = true;
+    private static long maxBytes = 16 * 1024 * 1024;
+    private static long bytes = 0;
+
+    private static int urlHitCount = 0;
+    private static int contentHitCount = 0;
+    private static int missCount = 0;
+    private static int evictionCount = 0;
+
+    /**
+     * Content hash -&gt; Entry, in least recently used order.
+     */
+    private static final LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Resolved URL -&gt; content hash.
+     */
+    private static final Map<String, String> urls =
+        new HashMap<String, String>();
+
+    private WebFontCache() {
+    }
+
+    /**
+     * Enables or disables the cache.  Disabling it drops all entries.
+     */
+    public static void setEnabled(boolean enable) {
+        synchronized (lock) {
+            enabled = enable;
+            if (!enable) {
+                clear();
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the number of bytes of font data the cache may keep.
+     */
+    public static void setMaxBytes(long max) {
+        synchronized (lock) {
+            maxBytes = max;
+            trim();
+        }
+    }
+
+    public static long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Drops all cached fonts and URLs.
+     */
+    public static void clear() {
+        synchronized (lock) {
+            entries.clear();
+            urls.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Returns the number of fonts found by their URL.
+     */
+    public static int getURLHitCount() {
+        return urlHitCount;
+    }
+
+    /**
+     * Returns the number of fonts loaded again but found by their
+     * content.
+     */
+    public static int getContentHitCount() {
+        return contentHitCount;
+    }
+
+    public static int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of fonts dropped to stay within the byte
+     * budget.
+     */
+    public static int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of bytes of font data currently kept.
+     */
+    public static long getByteCount() {
+        return bytes;
+    }
+
+    public static String getStatistics() {
+        synchronized (lock) {
+            return "WebFontCache[fonts=" + entries.size()
+                + " urls=" + urls.size()
+                + " urlHits=" + urlHitCount
+                + " contentHits=" + contentHitCount
+                + " misses=" + missCount
+                + " evictions=" + evictionCount
+                + " bytes=" + bytes + "]";
+        }
+    }
+
+    /**
+     * Returns the TrueType font at <code>purl</code>, loading it if
+     * it is not cached.
+     */
+    public static Font getFont(ParsedURL purl)
+        throws IOException, FontFormatException {
+        String url = null;
+        if (enabled && !"data".equals(purl.getProtocol())) {
+            url = purl.toString();
+            synchronized (lock) {
+                String hash = urls.get(url);
+                if (hash != null) {
+                    Entry e = entries.get(hash);
+                    if (e != null) {
+                        urlHitCount++;
+                        return e.font;
+                    }
+                    urls.remove(url);
+                }
+            }
+        }
+        return getFont(purl.openStream(), url);
+    }
+
+    /**
+     * Returns the TrueType font read from <code>in</code>, which is
+     * closed, reusing the cached font with the same content if any.
+     */
+    public static Font getFont(InputStream in)
+        throws IOException, FontFormatException {
+        return getFont(in, null);
+    }
+
+    private static Font getFont(InputStream in, String url)
+        throws IOException, FontFormatException {
+        byte[] data;
+        try {
+            data = readFully(in);
+        } finally {
+            in.close();
+        }
+        if (!enabled)
+            return createFont(data);
+
+        String hash = digest(data);
+        synchronized (lock) {
+            Entry e = entries.get(hash);
+            if (e != null) {
+                contentHitCount++;
+                if (url != null)
+                    urls.put(url, hash);
+                return e.font;
+            }
+            missCount++;
+        }
+
+        // Parsed outside the lock, two threads may parse the same font
+        // at the same time, the first one cached is kept.
+        Font font = createFont(data);
+        if (data.length > maxBytes / 4)
+            return font;
+
+        synchronized (lock) {
+            Entry e = entries.get(hash);
+            if (e != null) {
+                font = e.font;
+            } else {
+                entries.put(hash, new Entry(font, data.length));
+                bytes += data.length;
+            }
+            if (url != null)
+                urls.put(url, hash);
+            trim();
+        }
+        return font;
+    }
+
+    private static Font createFont(byte[] data)
+        throws IOException, FontFormatException {
+        return Font.createFont(Font.TRUETYPE_FONT,
+                               new ByteArrayInputStream(data));
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static String digest(byte[] data) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform provides SHA-256.
+            throw new RuntimeException(ex);
+        }
+        byte[] d = md.digest(data);
+        StringBuffer sb = new StringBuffer(d.length * 2);
+        for (int i = 0; i < d.length; i++) {
+            sb.append(Character.forDigit((d[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(d[i] & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Drops least recently used fonts, and the URLs they were loaded
+     * from, until the byte budget is met.
+     */
+    private static void trim() {
+        if (bytes <= maxBytes)
+            return;
+
+        Set<String> dropped = new HashSet<String>();
+        Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+        while ((bytes > maxBytes) && i.hasNext()) {
+            Map.Entry<String, Entry> me = i.next();
+            bytes -= me.getValue().bytes;
+            dropped.add(me.getKey());
+            i.remove();
+            evictionCount++;
+        }
+        urls.values().removeAll(dropped);
+    }
+
+    private static class Entry {
+        final Font font;
+        final long bytes;
+
+        Entry(Font font, long bytes) {
+            this.font  = font;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -19,7 +19,6 @@
 
 package org.apache.batik.bridge.svg12;
 
-import java.awt.Color;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.font.TextAttribute;
@@ -482,11 +481,7 @@ public class SVGFlowRootElementBridge extends SVG12TextElementBridge {
 
     protected AttributedString gatherFlowPara
         (BridgeContext ctx, Element div) {
-        TextPaintInfo divTPI = new TextPaintInfo();
-        // Set some basic props so we can get bounds info for complex paints.
-        divTPI.visible   = true;
-        divTPI.fillPaint = Color.black;
-        elemTPI.put(div, divTPI);
+        TextPaintInfo divTPI = initTextPaintInfo(div);
 
         AttributedStringBuffer asb = new AttributedStringBuffer();
         List paraEnds  = new ArrayList();
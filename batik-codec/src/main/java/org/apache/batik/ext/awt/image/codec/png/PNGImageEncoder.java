@@ -341,6 +341,20 @@ public class PNGImageEncoder extends ImageEncoderImpl {
                             int xOffset,     int yOffset,
                             int xSkip,       int ySkip)
         throws IOException {
+        encodePass(os, ras, xOffset, yOffset, xSkip, ySkip, true);
+    }
+
+    /**
+     * Encodes the rows of <code>ras</code> selected by the offsets and
+     * skips.  When <code>newPass</code> is false the filter state of
+     * the previous call is kept, so consecutive strips of one
+     * non-interlaced pass can be encoded by successive calls.
+     */
+    private void encodePass(OutputStream os, Raster ras,
+                            int xOffset,     int yOffset,
+                            int xSkip,       int ySkip,
+                            boolean newPass)
+        throws IOException {
         int minX   = ras.getMinX();
         int minY   = ras.getMinY();
         int width  = ras.getWidth();
@@ -366,10 +380,12 @@ public class PNGImageEncoder extends ImageEncoderImpl {
             return;
         }
 
-        currRow = new byte[bytesPerRow + bpp];
-        prevRow = new byte[bytesPerRow + bpp];
+        if (newPass || (currRow == null)) {
+            currRow = new byte[bytesPerRow + bpp];
+            prevRow = new byte[bytesPerRow + bpp];
 
-        filteredRows = new byte[5][bytesPerRow + bpp];
+            filteredRows = new byte[5][bytesPerRow + bpp];
+        }
 
         int maxValue = (1 << bitDepth) - 1;
 
@@ -445,46 +461,43 @@ public class PNGImageEncoder extends ImageEncoderImpl {
         }
     }
 
-    private void writeIDAT() throws IOException {
-        IDATOutputStream ios = new IDATOutputStream(dataOutput, 8192);
-        DeflaterOutputStream dos =
-            new DeflaterOutputStream(ios, new Deflater(9));
-
-        // Future work - don't convert entire image to a Raster It
-        // might seem that you could just call image.getData() but
+    /**
+     * Returns the rows <code>y</code> to <code>y + h</code> of the
+     * image as a Raster, dropping the alpha band if it isn't written.
+     */
+    private Raster getRaster(int y, int h) {
+        // It might seem that you could just call image.getData() but
         // 'BufferedImage.subImage' doesn't appear to set the Width
         // and height properly of the Child Raster, so the Raster
         // you get back here appears larger than it should.
         // This solves that problem by bounding the raster to the
-        // image's bounds...
-        Raster ras = image.getData(new Rectangle(image.getMinX(),
-                                                 image.getMinY(),
-                                                 image.getWidth(),
-                                                 image.getHeight()));
-        // System.out.println("Image: [" +
-        //                    image.getMinY()  + ", " +
-        //                    image.getMinX()  + ", " +
-        //                    image.getWidth()  + ", " +
-        //                    image.getHeight() + "]");
-        // System.out.println("Ras: [" +
-        //                    ras.getMinX()  + ", " +
-        //                    ras.getMinY()  + ", " +
-        //                    ras.getWidth()  + ", " +
-        //                    ras.getHeight() + "]");
-
+        // requested rows...
+        Raster ras = image.getData(new Rectangle(image.getMinX(), y,
+                                                 image.getWidth(), h));
         if (skipAlpha) {
             int numBands = ras.getNumBands() - 1;
             int[] bandList = new int[numBands];
             for (int i = 0; i < numBands; i++) {
                 bandList[i] = i;
             }
-            ras = ras.createChild(0, 0,
+            ras = ras.createChild(ras.getMinX(), ras.getMinY(),
                                   ras.getWidth(), ras.getHeight(),
-                                  0, 0,
+                                  ras.getMinX(), ras.getMinY(),
                                   bandList);
         }
+        return ras;
+    }
+
+    private void writeIDAT() throws IOException {
+        IDATOutputStream ios = new IDATOutputStream(dataOutput, 8192);
+        DeflaterOutputStream dos =
+            new DeflaterOutputStream(ios, new Deflater(9));
 
         if (interlace) {
+            // The interlacing passes revisit every row so the whole
+            // image has to be available up front.
+            Raster ras = getRaster(image.getMinY(), image.getHeight());
+
             // Interlacing pass 1
             encodePass(dos, ras, 0, 0, 8, 8);
             // Interlacing pass 2
@@ -500,7 +513,33 @@ public class PNGImageEncoder extends ImageEncoderImpl {
             // Interlacing pass 7
             encodePass(dos, ras, 0, 1, 1, 2);
         } else {
-            encodePass(dos, ras, 0, 0, 1, 1);
+            // Pull the image one row of tiles at a time.  For a
+            // lazily rendered source (such as a CachableRed) this
+            // means the tiles are computed as they are encoded and
+            // only one strip needs to be held in memory.
+            int minY = image.getMinY();
+            int maxY = minY + image.getHeight();
+            int tileH = image.getTileHeight();
+            if ((tileH <= 0) || (tileH > image.getHeight())) {
+                tileH = image.getHeight();
+            }
+            int tgy = image.getTileGridYOffset();
+            boolean newPass = true;
+            int y = minY;
+            while (y < maxY) {
+                // Align the end of the strip with the tile grid.
+                int next = tgy + ((y - tgy) / tileH + 1) * tileH;
+                if (y < tgy) {
+                    next = y + tileH;
+                }
+                if (next > maxY) {
+                    next = maxY;
+                }
+                Raster ras = getRaster(y, next - y);
+                encodePass(dos, ras, 0, 0, 1, 1, newPass);
+                newPass = false;
+                y = next;
+            }
         }
 
         dos.finish();
@@ -27,7 +27,8 @@ import org.apache.batik.ext.awt.image.spi.ImageWriterParams;
 
 /**
  * ImageWriter implementation that uses Batik's PNG codec to
- * write PNG files.
+ * write PNG files.  Non-interlaced images are pulled from the source
+ * one row of tiles at a time.
  *
  * @version $Id$
  */
@@ -117,6 +117,20 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
      */
     protected int pointerEventType = VISIBLE_PAINTED;
 
+    /**
+     * The number of changes made to this node or any of its
+     * descendants.
+     */
+    protected long changeCount;
+
+    /**
+     * The clip path and device transform of the last test made by
+     * isClipNeeded, and its result.
+     */
+    private Shape clipTestPath;
+    private AffineTransform clipTestTransform;
+    private boolean clipTestResult;
+
     /**
      * The GraphicsNodeRable for this node.
      */
@@ -451,7 +465,12 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
         RenderingHints  defaultHints     = null;
         Graphics2D      baseG2d          = null;
 
-        if (clip != null)  {
+        // A clip path that contains everything painted is not applied,
+        // clipping to an arbitrary shape (or worse with antialiasing
+        // through an offscreen buffer) is expensive.
+        boolean useClip = (clip != null) && isClipNeeded(g2d.getTransform());
+
+        if (useClip)  {
             baseG2d = g2d;
             g2d = (Graphics2D)g2d.create();
             if (hints != null)
@@ -494,7 +513,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
         // Only paint if needed.
         if (paintNeeded){
             boolean antialiasedClip = false;
-            if ((clip != null) && clip.getUseAntialiasedClip()) {
+            if (useClip && clip.getUseAntialiasedClip()) {
                 antialiasedClip = isAntialiasedClip(g2d.getTransform(),
                                                     g2d.getRenderingHints(),
                                                     clip.getClipPath());
@@ -525,7 +544,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
                     filteredImage = mask;
                 }
 
-                if (clip != null && antialiasedClip) {
+                if (useClip && antialiasedClip) {
                     if (clip.getSource() != filteredImage){
                         clip.setSource(filteredImage);
                     }
@@ -569,6 +588,44 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
         }
     }
 
+    /**
+     * Returns false if this node's clip path contains everything the
+     * node paints, with a margin of a device pixel for antialiasing,
+     * so that clipping would not change the result.
+     *
+     * @param usr2dev the transform to device space of this node's
+     *        parent.
+     */
+    protected boolean isClipNeeded(AffineTransform usr2dev) {
+        Shape path = clip.getClipPath();
+        if (transform != null) {
+            usr2dev = new AffineTransform(usr2dev);
+            usr2dev.concatenate(transform);
+        }
+        if ((path == clipTestPath) && usr2dev.equals(clipTestTransform))
+            return clipTestResult;
+
+        boolean needed = true;
+        Rectangle2D r = (filter == null)
+            ? getPrimitiveBounds() : filter.getBounds2D();
+        double det = usr2dev.getDeterminant();
+        if ((r != null) && (path != null) && (det != 0)) {
+            // Size, in user space, of a device pixel.
+            double px = Math.max
+                (Math.hypot(usr2dev.getScaleY(), usr2dev.getShearY()),
+                 Math.hypot(usr2dev.getShearX(), usr2dev.getScaleX()))
+                / Math.abs(det);
+            r = new Rectangle2D.Double(r.getX() - px, r.getY() - px,
+                                       r.getWidth()  + 2 * px,
+                                       r.getHeight() + 2 * px);
+            needed = !path.contains(r);
+        }
+        clipTestPath      = path;
+        clipTestTransform = usr2dev;
+        clipTestResult    = needed;
+        return needed;
+    }
+
     /**
      * DEBUG: Trace filter chain
      */
@@ -630,6 +687,15 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
         return false;
     }
 
+    /**
+     * Returns the number of changes made to this node or any of its
+     * descendants.  Renderings of this node that were produced while
+     * this count had another value may be out of date.
+     */
+    public long getChangeCount() {
+        return changeCount;
+    }
+
     //
     // Event support methods
     //
@@ -657,6 +723,12 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
 
     public void fireGraphicsNodeChangeStarted
         (GraphicsNodeChangeEvent changeStartedEvent) {
+        // Any change to this node changes the rendering of all of
+        // its ancestors as well.
+        for (AbstractGraphicsNode n = this; n != null; n = n.parent) {
+            n.changeCount++;
+        }
+
         // If we had per node listeners we would fire them here...
 
         RootGraphicsNode rootGN = getRoot();
@@ -751,6 +823,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
             parent.invalidateGeometryCache();
         }
         bounds = null;
+        clipTestPath = null;
     }
 
     /**
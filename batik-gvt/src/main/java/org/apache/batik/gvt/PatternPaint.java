@@ -70,8 +70,19 @@ public class PatternPaint implements Paint {
      */
     private boolean overflow;
 
+    /**
+     * The cache sharing tiles between paints of the same pattern, or
+     * null.
+     */
+    private PatternTileCache tileCache;
+
     private PatternPaintContext lastContext;
 
+    /**
+     * The change count of the node when lastContext was created.
+     */
+    private long lastStamp;
+
     /**
      * Constructs a new <code>PatternPaint</code>.
      *
@@ -86,6 +97,26 @@ public class PatternPaint implements Paint {
                         Rectangle2D patternRegion,
                         boolean overflow,
                         AffineTransform patternTransform){
+        this(node, patternRegion, overflow, patternTransform, null);
+    }
+
+    /**
+     * Constructs a new <code>PatternPaint</code> that shares its
+     * rasterized tiles through <code>tileCache</code>.
+     *
+     * @param node Used to generate the paint pixel pattern
+     * @param patternRegion Region to which this paint is constrained
+     * @param overflow controls whether or not the node can overflow
+     *        the patternRegion.
+     * @param patternTransform additional transform added on
+     *        top of the user space to device space transform.
+     * @param tileCache the cache of pattern tiles to use, or null.
+     */
+    public PatternPaint(GraphicsNode node,
+                        Rectangle2D patternRegion,
+                        boolean overflow,
+                        AffineTransform patternTransform,
+                        PatternTileCache tileCache){
 
         if (node == null) {
             throw new IllegalArgumentException();
@@ -99,6 +130,7 @@ public class PatternPaint implements Paint {
         this.patternRegion    = patternRegion;
         this.overflow         = overflow;
         this.patternTransform = patternTransform;
+        this.tileCache        = tileCache;
 
         // Wrap the input node so that the primitivePaint
         // in GraphicsNodeRable takes the filter, clip....
@@ -163,31 +195,49 @@ public class PatternPaint implements Paint {
         }
 
         if ((lastContext!= null) &&
+            (lastStamp == PatternTileCache.getStamp(node)) &&
             lastContext.getColorModel().equals(cm)) {
 
             double[] p = new double[6];
             double[] q = new double[6];
             xform.getMatrix(p);
             lastContext.getUsr2Dev().getMatrix(q);
+            // The context is shared by all the elements filled with
+            // this paint, only reuse it for whole pixel translations.
+            double dx = Math.rint(q[4]-p[4]);
+            double dy = Math.rint(q[5]-p[5]);
             if ((p[0] == q[0]) && (p[1] == q[1]) &&
-                (p[2] == q[2]) && (p[3] == q[3])) {
-                if ((p[4] == q[4]) && (p[5] == q[5]))
+                (p[2] == q[2]) && (p[3] == q[3]) &&
+                (Math.abs(q[4]-p[4]-dx) < PatternTileCache.TRANSLATE_QUANTUM) &&
+                (Math.abs(q[5]-p[5]-dy) < PatternTileCache.TRANSLATE_QUANTUM)) {
+                if ((dx == 0) && (dy == 0))
                     return lastContext;
                 else
                     return new PatternPaintContextWrapper
-                        (lastContext,
-                         (int)(q[4]-p[4]+0.5),
-                         (int)(q[5]-p[5]+0.5));
+                        (lastContext, (int)dx, (int)dy);
             }
         }
         // System.out.println("CreateContext Called: " + this);
         // System.out.println("CM : " + cm);
         // System.out.println("xForm : " + xform);
 
+        // Paints of the same pattern share their tiles through the
+        // cache, when they share the pattern's node.
+        if (tileCache != null) {
+            PaintContext pc = tileCache.get(node, patternRegion, overflow,
+                                            cm, xform, hints);
+            if (pc != null)
+                return pc;
+        }
+
+        lastStamp = PatternTileCache.getStamp(node);
         lastContext = new PatternPaintContext(cm, xform,
                                        hints, tile,
                                        patternRegion,
                                        overflow);
+        if (tileCache != null)
+            tileCache.put(node, patternRegion, overflow, cm, xform, hints,
+                          lastContext);
         return lastContext;
     }
 
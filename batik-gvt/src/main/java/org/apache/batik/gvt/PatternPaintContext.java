@@ -19,6 +19,7 @@
 package org.apache.batik.gvt;
 
 import java.awt.PaintContext;
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.color.ColorSpace;
@@ -30,12 +31,17 @@ import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.awt.image.renderable.RenderContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.renderable.TileRable;
 import org.apache.batik.ext.awt.image.renderable.TileRable8Bit;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
 import org.apache.batik.ext.awt.image.rendered.TileCacheRed;
+import org.apache.batik.ext.awt.image.rendered.TileGenerator;
+import org.apache.batik.ext.awt.image.rendered.TileStore;
 
 /**
  * <code>PaintContext</code> for the <code>ConcretePatterPaint</code>
@@ -46,6 +52,13 @@ import org.apache.batik.ext.awt.image.rendered.TileCacheRed;
  */
 public class PatternPaintContext implements PaintContext {
 
+    /**
+     * The number of tiles of a large pattern a context keeps.  Enough
+     * for a row of tiles 2048 pixels wide, which is how the tiles are
+     * asked for when a shape is filled.
+     */
+    static final int MAX_CACHED_TILES = 8;
+
     /**
      * ColorModel for the Rasters created by this Paint
      */
@@ -61,6 +74,11 @@ public class PatternPaintContext implements PaintContext {
      */
     private RenderedImage tiled;
 
+    /**
+     * Estimate of the number of bytes of tile data kept.
+     */
+    private long byteCount;
+
     protected AffineTransform usr2dev;
 
     public AffineTransform getUsr2Dev() { return usr2dev; }
@@ -120,9 +138,20 @@ public class PatternPaintContext implements PaintContext {
         if(tiled != null) {
             Rectangle2D devRgn = usr2dev.createTransformedShape
                 (patternRegion).getBounds();
+
+            // The tiled image keeps a pattern cell, in one raster
+            // holding a few copies of it or in the tiles of the cell.
+            byteCount = 4L * Math.max
+                ((long)tiled.getTileWidth() * tiled.getTileHeight(),
+                 (long)devRgn.getWidth() * (long)devRgn.getHeight());
+
             if ((devRgn.getWidth() > 128) ||
-                (devRgn.getHeight() > 128))
-                tiled = new TileCacheRed(GraphicsUtil.wrap(tiled), 256, 64);
+                (devRgn.getHeight() > 128)) {
+                tiled = new BoundedTileCacheRed
+                    (GraphicsUtil.wrap(tiled), 256, 64);
+                byteCount += 4L * MAX_CACHED_TILES
+                    * tiled.getTileWidth() * tiled.getTileHeight();
+            }
         } else {
             //System.out.println("Tile was null");
             rasterCM = ColorModel.getRGBdefault();
@@ -130,6 +159,7 @@ public class PatternPaintContext implements PaintContext {
             wr = rasterCM.createCompatibleWritableRaster(32, 32);
             tiled = GraphicsUtil.wrap
                 (new BufferedImage(rasterCM, wr, false, null));
+            byteCount = 4L * 32 * 32;
             return;
         }
 
@@ -147,6 +177,15 @@ public class PatternPaintContext implements PaintContext {
         raster = null;
     }
 
+    /**
+     * Returns an estimate of the number of bytes of tile data held by
+     * this context: the pattern cell and, for large patterns, the
+     * tiles kept by the cache in front of it.
+     */
+    long getByteCount() {
+        return byteCount;
+    }
+
     public ColorModel getColorModel(){
         return rasterCM;
     }
@@ -178,4 +217,61 @@ public class PatternPaintContext implements PaintContext {
 
         return wr.createTranslatedChild(0,0);
     }
+
+    /**
+     * A <code>TileCacheRed</code> that keeps only the tiles used last,
+     * instead of every tile ever computed, so a context held by a
+     * <code>PatternTileCache</code> keeps a bounded amount of data.
+     */
+    private static class BoundedTileCacheRed extends TileCacheRed {
+        BoundedTileCacheRed(CachableRed cr, int tileWidth, int tileHeight) {
+            super(cr, tileWidth, tileHeight);
+        }
+
+        protected TileStore createTileStore() {
+            return new LRUTileStore(this);
+        }
+    }
+
+    /**
+     * A <code>TileStore</code> keeping at most
+     * <code>MAX_CACHED_TILES</code> tiles, least recently used ones are
+     * dropped first.
+     */
+    private static class LRUTileStore implements TileStore {
+        private final TileGenerator source;
+
+        private final Map<Point, Raster> tiles =
+            new LinkedHashMap<Point, Raster>(16, 0.75f, true) {
+                protected boolean removeEldestEntry
+                    (Map.Entry<Point, Raster> eldest) {
+                    return size() > MAX_CACHED_TILES;
+                }
+            };
+
+        LRUTileStore(TileGenerator source) {
+            this.source = source;
+        }
+
+        public synchronized void setTile(int x, int y, Raster ras) {
+            Point pt = new Point(x, y);
+            if (ras == null)
+                tiles.remove(pt);
+            else
+                tiles.put(pt, ras);
+        }
+
+        public synchronized Raster getTileNoCompute(int x, int y) {
+            return tiles.get(new Point(x, y));
+        }
+
+        public Raster getTile(int x, int y) {
+            Raster ras = getTileNoCompute(x, y);
+            if (ras == null) {
+                ras = source.genTile(x, y);
+                setTile(x, y, ras);
+            }
+            return ras;
+        }
+    }
 }
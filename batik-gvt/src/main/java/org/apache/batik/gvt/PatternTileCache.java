@@ -0,0 +1,358 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.PaintContext;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.ColorModel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
+
+/**
+ * A cache of the rasterized tiles of pattern paints, so that a
+ * pattern used to fill many shapes is only rendered once per device
+ * transform.
+ *
+ * <p>Entries are keyed by the identity of the pattern's
+ * <code>GraphicsNode</code>, the pattern region, the overflow flag,
+ * the destination colour model, the device transform and the
+ * rendering hints (other than the destination image and area of
+ * interest).  As for <code>PatternPaint</code>'s own reuse of its last
+ * context, renderings whose translations differ by whole pixels share
+ * an entry.  Each entry remembers the change count of the node it
+ * was rendered from and is dropped when the node, or the content it
+ * draws, has changed since.</p>
+ *
+ * <p>The number of bytes of tile data kept is bounded, least recently
+ * used entries are dropped first.  Entries keep their pattern nodes
+ * alive until they are dropped, so a cache should live no longer
+ * than the document its patterns come from: the bridge keeps one per
+ * <code>BridgeContext</code>.</p>
+ *
+ * @see PatternPaint#PatternPaint(GraphicsNode, Rectangle2D, boolean,
+ *      AffineTransform, PatternTileCache)
+ * @version $Id$
+ */
+public final class PatternTileCache {
+
+    /**
+     * Granularity, in device pixels, of the translation of the device
+     * transform.
+     */
+    public static final double TRANSLATE_QUANTUM = 1.0 / 256;
+
+    private static final long TRANSLATE_STEPS =
+        Math.round(1 / TRANSLATE_QUANTUM);
+
+    /**
+     * The default estimated number of bytes of tile data a cache may
+     * keep.
+     */
+    public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    private final Object lock = new Object();
+
+    private boolean enabled = true;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long bytes = 0;
+
+    private int hitCount = 0;
+    private int missCount = 0;
+    private int invalidationCount = 0;
+    private int evictionCount = 0;
+
+    /**
+     * Key -&gt; Entry, in least recently used order.
+     */
+    private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * Enables or disables the cache.  Disabling it drops all entries.
+     */
+    public void setEnabled(boolean enable) {
+        synchronized (lock) {
+            enabled = enable;
+            if (!enable) {
+                clear();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the estimated number of bytes of tile data the cache may
+     * keep.
+     */
+    public void setMaxBytes(long max) {
+        synchronized (lock) {
+            maxBytes = max;
+            trim();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Drops all cached tiles.
+     */
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public int getHitCount() {
+        synchronized (lock) {
+            return hitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (lock) {
+            return missCount;
+        }
+    }
+
+    /**
+     * Returns the number of entries dropped because their pattern
+     * changed.
+     */
+    public int getInvalidationCount() {
+        synchronized (lock) {
+            return invalidationCount;
+        }
+    }
+
+    /**
+     * Returns the number of entries dropped to stay within the byte
+     * budget.
+     */
+    public int getEvictionCount() {
+        synchronized (lock) {
+            return evictionCount;
+        }
+    }
+
+    /**
+     * Returns the estimated number of bytes of tile data currently
+     * kept.
+     */
+    public long getByteCount() {
+        synchronized (lock) {
+            return bytes;
+        }
+    }
+
+    public String getStatistics() {
+        synchronized (lock) {
+            return "PatternTileCache[entries=" + entries.size()
+                + " hits=" + hitCount + " misses=" + missCount
+                + " invalidations=" + invalidationCount
+                + " evictions=" + evictionCount
+                + " bytes=" + bytes + "]";
+        }
+    }
+
+    /**
+     * Returns the change count of <code>node</code>, used to detect
+     * that a cached tile is out of date.
+     */
+    static long getStamp(GraphicsNode node) {
+        if (node instanceof AbstractGraphicsNode)
+            return ((AbstractGraphicsNode)node).getChangeCount();
+        return 0;
+    }
+
+    /**
+     * Returns a context for painting the pattern of <code>node</code>
+     * with the given parameters that reuses a cached tile, or null if
+     * there is none.
+     */
+    PaintContext get(GraphicsNode node, Rectangle2D patternRegion,
+                            boolean overflow, ColorModel cm,
+                            AffineTransform xform, RenderingHints hints) {
+        if (!enabled) return null;
+
+        Key key = new Key(node, patternRegion, overflow, cm, xform, hints);
+        Entry e;
+        synchronized (lock) {
+            e = (Entry)entries.get(key);
+            if ((e != null) && (e.stamp != getStamp(node))) {
+                entries.remove(key);
+                bytes -= e.bytes;
+                invalidationCount++;
+                e = null;
+            }
+            if (e == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+        }
+
+        int dx = (int)(e.ix - key.ix);
+        int dy = (int)(e.iy - key.iy);
+        if ((dx == 0) && (dy == 0))
+            return e.context;
+        return new PatternPaint.PatternPaintContextWrapper(e.context, dx, dy);
+    }
+
+    /**
+     * Stores <code>ppc</code>, created to paint the pattern of
+     * <code>node</code> with the given parameters.
+     */
+    void put(GraphicsNode node, Rectangle2D patternRegion,
+                    boolean overflow, ColorModel cm,
+                    AffineTransform xform, RenderingHints hints,
+                    PatternPaintContext ppc) {
+        if (!enabled) return;
+
+        long sz = ppc.getByteCount();
+        if (sz > maxBytes / 4)
+            return;
+
+        Key key = new Key(node, patternRegion, overflow, cm, xform, hints);
+        Entry e = new Entry(ppc, getStamp(node), key.ix, key.iy, sz);
+        synchronized (lock) {
+            Entry old = (Entry)entries.put(key, e);
+            if (old != null)
+                bytes -= old.bytes;
+            bytes += sz;
+            trim();
+        }
+    }
+
+    /**
+     * Drops least recently used entries until the byte budget is met.
+     */
+    private void trim() {
+        Iterator i = entries.values().iterator();
+        while ((bytes > maxBytes) && i.hasNext()) {
+            Entry e = (Entry)i.next();
+            bytes -= e.bytes;
+            i.remove();
+            evictionCount++;
+        }
+    }
+
+    private static class Key {
+        final GraphicsNode   node;
+        final Rectangle2D    region;
+        final boolean        overflow;
+        final ColorModel     cm;
+        final double[]       xform;
+        final long           ix, iy;
+        final RenderingHints hints;
+        final int            hash;
+
+        Key(GraphicsNode node, Rectangle2D region, boolean overflow,
+            ColorModel cm, AffineTransform at, RenderingHints hints) {
+            this.node     = node;
+            this.region   = region;
+            this.overflow = overflow;
+            this.cm       = cm;
+
+            // The translation is split in whole pixels, which are
+            // not part of the key, and a sub pixel remainder.
+            long tx = Math.round(at.getTranslateX() / TRANSLATE_QUANTUM);
+            long ty = Math.round(at.getTranslateY() / TRANSLATE_QUANTUM);
+            ix = floorDiv(tx, TRANSLATE_STEPS);
+            iy = floorDiv(ty, TRANSLATE_STEPS);
+            xform = new double[] {
+                at.getScaleX(), at.getShearY(),
+                at.getShearX(), at.getScaleY(),
+                tx - ix * TRANSLATE_STEPS,
+                ty - iy * TRANSLATE_STEPS
+            };
+
+            if (hints != null) {
+                // The destination and area of interest of the caller
+                // do not change the pixels of the pattern.
+                hints = (RenderingHints)hints.clone();
+                hints.remove(RenderingHintsKeyExt.KEY_BUFFERED_IMAGE);
+                hints.remove(RenderingHintsKeyExt.KEY_AREA_OF_INTEREST);
+            }
+            this.hints = hints;
+
+            int h = System.identityHashCode(node);
+            h = h * 31 + region.hashCode();
+            h = h * 31 + (overflow ? 1 : 0);
+            h = h * 31 + Arrays.hashCode(xform);
+            if (hints != null)
+                h = h * 31 + hints.hashCode();
+            hash = h;
+        }
+
+        private static long floorDiv(long a, long b) {
+            long q = a / b;
+            if ((a % b != 0) && ((a < 0) != (b < 0)))
+                q--;
+            return q;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key k = (Key)o;
+            if ((hash != k.hash) ||
+                (node != k.node) ||
+                (overflow != k.overflow) ||
+                !Arrays.equals(xform, k.xform) ||
+                !region.equals(k.region) ||
+                !cm.equals(k.cm))
+                return false;
+
+            if (hints == null)
+                return k.hints == null;
+            return hints.equals(k.hints);
+        }
+    }
+
+    private static class Entry {
+        final PatternPaintContext context;
+        final long                stamp;
+        final long                ix, iy;
+        final long                bytes;
+
+        Entry(PatternPaintContext context, long stamp, long ix, long iy,
+              long bytes) {
+            this.context = context;
+            this.stamp   = stamp;
+            this.ix      = ix;
+            this.iy      = iy;
+            this.bytes   = bytes;
+        }
+    }
+}
@@ -354,7 +354,8 @@ public class BackgroundRable8Bit
      * reused.  It is always safe to return true.
      */
     public boolean isDynamic(){
-        return false;
+        // The background depends on nodes that are not our sources.
+        return true;
     }
 
     /**
@@ -34,6 +34,7 @@ import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.renderable.PaintRable;
 import org.apache.batik.ext.awt.image.rendered.CachableRed;
 import org.apache.batik.ext.awt.image.rendered.TranslateRed;
+import org.apache.batik.gvt.AbstractGraphicsNode;
 import org.apache.batik.gvt.GraphicsNode;
 
 /**
@@ -72,6 +73,7 @@ public class GraphicsNodeRable8Bit
      * if it should use paint.  
      */
     public void setUsePrimitivePaint(boolean usePrimitivePaint) {
+        touch();
         this.usePrimitivePaint = usePrimitivePaint;
     }
 
@@ -95,9 +97,20 @@ public class GraphicsNodeRable8Bit
             throw new IllegalArgumentException();
         }
 
+        touch();
         this.node = node;
     }
 
+    /**
+     * Returns a time stamp that also changes whenever the
+     * <code>GraphicsNode</code> or any of its descendants change.
+     */
+    public long getTimeStamp() {
+        if (node instanceof AbstractGraphicsNode)
+            return stamp + ((AbstractGraphicsNode)node).getChangeCount();
+        return stamp;
+    }
+
     /**
      * Clear any cached Red.
      */
@@ -18,21 +18,49 @@
  */
 package org.apache.batik.gvt.filter;
 
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.Shape;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
 import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.awt.image.renderable.RenderContext;
 
+import org.apache.batik.ext.awt.LinearGradientPaint;
+import org.apache.batik.ext.awt.MultipleGradientPaint;
+import org.apache.batik.ext.awt.RadialGradientPaint;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.PadMode;
 import org.apache.batik.ext.awt.image.renderable.AbstractRable;
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.renderable.FilterAsAlphaRable;
-import org.apache.batik.ext.awt.image.renderable.PadRable;
+import org.apache.batik.ext.awt.image.renderable.FilterResultCache;
 import org.apache.batik.ext.awt.image.renderable.PadRable8Bit;
+import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
 import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.ext.awt.image.rendered.FilterAsAlphaRed;
 import org.apache.batik.ext.awt.image.rendered.MultiplyAlphaRed;
 import org.apache.batik.ext.awt.image.rendered.RenderedImageCachableRed;
+import org.apache.batik.gvt.AbstractGraphicsNode;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.CompositeShapePainter;
+import org.apache.batik.gvt.FillShapePainter;
 import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.ShapeNode;
+import org.apache.batik.gvt.ShapePainter;
+import org.apache.batik.gvt.StrokeShapePainter;
 
 /**
  * MaskRable implementation
@@ -54,6 +82,18 @@ public class MaskRable8Bit
      */
     protected Rectangle2D filterRegion;
 
+    /**
+     * The mask content converted to alpha.  It is kept from one
+     * rendering to the next so that its renderings can be found in
+     * the result cache of this filter.
+     */
+    protected Filter maskAlpha;
+
+    /**
+     * The rendering of the mask node that maskAlpha was built on.
+     */
+    protected Filter maskAlphaSource;
+
     public MaskRable8Bit(Filter src, GraphicsNode mask, 
                              Rectangle2D filterRegion) {
         super(src, null);
@@ -92,7 +132,9 @@ public class MaskRable8Bit
             throw new IllegalArgumentException();
         }
 
+        touch();
         this.filterRegion = filterRegion;
+        this.maskAlpha = null;
     }
 
     /**
@@ -107,6 +149,7 @@ public class MaskRable8Bit
     public void setMaskNode(GraphicsNode mask) {
         touch();
         this.mask = mask;
+        this.maskAlpha = null;
     }
 
       /**
@@ -118,6 +161,16 @@ public class MaskRable8Bit
         return mask;
     }
 
+    /**
+     * Returns a time stamp that also changes whenever the mask node
+     * or any of its descendants change.
+     */
+    public long getTimeStamp() {
+        if (mask instanceof AbstractGraphicsNode)
+            return stamp + ((AbstractGraphicsNode)mask).getChangeCount();
+        return stamp;
+    }
+
     /**
      * Pass-through: returns the source's bounds
      */
@@ -125,28 +178,56 @@ public class MaskRable8Bit
         return (Rectangle2D)filterRegion.clone();
     }
 
+    /**
+     * Returns the mask content converted to alpha and padded to the
+     * filter region.
+     */
+    protected Filter getMaskAlpha() {
+        Filter maskSrc = getMaskNode().getGraphicsNodeRable(true);
+        if ((maskAlpha == null) || (maskAlphaSource != maskSrc)) {
+            maskAlpha = new FilterAsAlphaRable
+                (new PadRable8Bit(maskSrc, getBounds2D(), PadMode.ZERO_PAD));
+            maskAlphaSource = maskSrc;
+        }
+        return maskAlpha;
+    }
+
     public RenderedImage createRendering(RenderContext rc) {
-        //
-        // Get the mask content
-        //
-        Filter   maskSrc = getMaskNode().getGraphicsNodeRable(true);
-        PadRable maskPad = new PadRable8Bit(maskSrc, getBounds2D(),
-                                                PadMode.ZERO_PAD);
-        maskSrc = new FilterAsAlphaRable(maskPad);
-        RenderedImage ri = maskSrc.createRendering(rc);
-        if (ri == null)
+        Rectangle2D aoi = rc.getAreaOfInterest() == null
+            ? getBounds2D() : rc.getAreaOfInterest().getBounds2D();
+        if (!aoi.intersects(filterRegion))
             return null;
 
-        CachableRed maskCr = RenderedImageCachableRed.wrap(ri);
+        //
+        // Get the mask content, either drawn directly as alpha when
+        // it is a plain shape, or converted from the mask node.
+        //
+        Filter maskSrc = getMaskAlpha();
+        FilterResultCache cache = getResultCache();
+        RenderedImage mri = null;
+        if (cache != null)
+            mri = cache.get(maskSrc, rc);
+        if (mri == null) {
+            mri = createShapeMask(rc);
+            if (mri == null) {
+                // FilterAsAlphaRable adds to the hints it is given.
+                mri = maskSrc.createRendering((RenderContext)rc.clone());
+                if (mri == null)
+                    return null;
+            }
+            if (cache != null)
+                mri = cache.put(maskSrc, rc, mri);
+        }
+        CachableRed maskCr = RenderedImageCachableRed.wrap(mri);
 
         //
         // Get the masked content
         //
-        PadRable maskedPad = new PadRable8Bit(getSource(),
+        PadRable8Bit maskedPad = new PadRable8Bit(getSource(),
                                                   getBounds2D(),
                                                   PadMode.ZERO_PAD);
 
-        ri = maskedPad.createRendering(rc);
+        RenderedImage ri = maskedPad.createRendering(rc);
         if (ri == null)
             return null;
 
@@ -166,4 +247,196 @@ public class MaskRable8Bit
 
         return ret;
     }
+
+    /**
+     * Draws the mask straight into an alpha image when its content is
+     * a single filled shape whose paint only varies in opacity: a
+     * solid colour or an sRGB gradient whose stops share one colour.  The
+     * alpha is then the shape's coverage times a constant, or times
+     * an opacity ramp, so the content does not need to be rendered in
+     * colour and converted to luminance.  Returns null when the mask
+     * content is anything else.
+     */
+    protected CachableRed createShapeMask(RenderContext rc) {
+        GraphicsNode gn = getMaskNode();
+        if ((gn == null) || (gn.getClass() != CompositeGraphicsNode.class))
+            return null;
+
+        // The mask node itself is drawn with primitivePaint so only
+        // the attributes of its descendants apply.
+        AffineTransform at = new AffineTransform();
+        RenderingHints hints = null;
+        float opacity = 1;
+        for (;;) {
+            if (gn.getClass() == CompositeGraphicsNode.class) {
+                CompositeGraphicsNode cgn = (CompositeGraphicsNode)gn;
+                if (cgn.size() != 1)
+                    return null;
+                gn = (GraphicsNode)cgn.get(0);
+            } else if (gn.getClass() == ShapeNode.class) {
+                break;
+            } else {
+                return null;
+            }
+
+            if (!gn.isVisible() || (gn.getFilter() != null) ||
+                (gn.getMask() != null) || (gn.getClip() != null))
+                return null;
+            Composite c = gn.getComposite();
+            if (c != null) {
+                if (!(c instanceof AlphaComposite) ||
+                    (((AlphaComposite)c).getRule() != AlphaComposite.SRC_OVER))
+                    return null;
+                opacity *= ((AlphaComposite)c).getAlpha();
+            }
+            if (gn.getTransform() != null)
+                at.concatenate(gn.getTransform());
+            if (gn.getRenderingHints() != null) {
+                if (hints == null)
+                    hints = new RenderingHints(null);
+                hints.add(gn.getRenderingHints());
+            }
+        }
+
+        FillShapePainter fsp = getFillPainter
+            (((ShapeNode)gn).getShapePainter());
+        if (fsp == null)
+            return null;
+        Paint paint = toAlphaPaint(fsp.getPaint(), opacity);
+        if ((paint == null) || (fsp.getShape() == null))
+            return null;
+
+        Rectangle2D rect = (Rectangle2D)filterRegion.clone();
+        Shape aoi = rc.getAreaOfInterest();
+        if (aoi != null)
+            Rectangle2D.intersect(rect, aoi.getBounds2D(), rect);
+
+        AffineTransform usr2dev = rc.getTransform();
+        if (usr2dev == null)
+            usr2dev = new AffineTransform();
+        // Same device area as the PadRable8Bit of the general case.
+        Rectangle devR = usr2dev.createTransformedShape(rect)
+            .getBounds2D().getBounds();
+        if ((devR.width <= 0) || (devR.height <= 0))
+            return null;
+
+        RenderingHints rh = rc.getRenderingHints();
+        if (rh == null)
+            rh = new RenderingHints(null);
+        // The paint is drawn to an RGB image, since Java2D would
+        // convert it to linear grey and gradients can not be drawn to
+        // grey images, then one of its equal bands is used as the mask.
+        BufferedImage bi = new BufferedImage(devR.width, devR.height,
+                                             BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g2d = GraphicsUtil.createGraphics(bi, rh);
+        if (hints != null)
+            g2d.addRenderingHints(hints);
+        g2d.translate(-devR.x, -devR.y);
+        g2d.transform(usr2dev);
+        g2d.transform(at);
+        g2d.setPaint(paint);
+        g2d.fill(fsp.getShape());
+        g2d.dispose();
+
+        WritableRaster wr = bi.getRaster().createWritableChild
+            (0, 0, devR.width, devR.height, 0, 0, new int[] { 0 });
+        ColorModel cm = new ComponentColorModel
+            (ColorSpace.getInstance(ColorSpace.CS_GRAY), new int[] { 8 },
+             false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        return new BufferedImageCachableRed
+            (new BufferedImage(cm, wr, false, null), devR.x, devR.y);
+    }
+
+    /**
+     * Returns the only painter of <code>sp</code> that draws anything
+     * if it is a <code>FillShapePainter</code>, or null.  Strokes with
+     * no paint, as built for 'stroke:none', are ignored.
+     */
+    protected static FillShapePainter getFillPainter(ShapePainter sp) {
+        if (sp == null)
+            return null;
+        if (sp.getClass() == FillShapePainter.class)
+            return (FillShapePainter)sp;
+        if (sp.getClass() != CompositeShapePainter.class)
+            return null;
+
+        CompositeShapePainter csp = (CompositeShapePainter)sp;
+        FillShapePainter ret = null;
+        for (int i = 0; i < csp.getShapePainterCount(); i++) {
+            ShapePainter p = csp.getShapePainter(i);
+            if ((p.getClass() == StrokeShapePainter.class) &&
+                (((StrokeShapePainter)p).getPaint() == null))
+                continue;
+            FillShapePainter fsp = getFillPainter(p);
+            if ((fsp == null) || (ret != null))
+                return null;
+            ret = fsp;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a grey paint whose level is the mask value that
+     * <code>paint</code> drawn with <code>opacity</code> produces, or
+     * null if that value depends on more than the paint's opacity.
+     */
+    protected static Paint toAlphaPaint(Paint paint, float opacity) {
+        if (paint instanceof Color) {
+            Color c = (Color)paint;
+            return toGrey(c, luminance(c), opacity);
+        }
+        if (!(paint instanceof MultipleGradientPaint))
+            return null;
+
+        MultipleGradientPaint mgp = (MultipleGradientPaint)paint;
+        // A gradient interpolated in linear RGB is rendered through
+        // colour conversions that do not keep its opacity ramp.
+        if (mgp.getColorSpace() != MultipleGradientPaint.SRGB)
+            return null;
+        Color[] colors = mgp.getColors();
+        int rgb = colors[0].getRGB() & 0xffffff;
+        for (int i = 1; i < colors.length; i++)
+            if ((colors[i].getRGB() & 0xffffff) != rgb)
+                return null;
+
+        // The colour is the same all along the gradient, so only the
+        // opacity ramps and it does so linearly.
+        int lum = luminance(colors[0]);
+        Color[] greys = new Color[colors.length];
+        for (int i = 0; i < colors.length; i++)
+            greys[i] = toGrey(colors[i], lum, opacity);
+
+        if (paint instanceof LinearGradientPaint) {
+            LinearGradientPaint lgp = (LinearGradientPaint)paint;
+            return new LinearGradientPaint
+                (lgp.getStartPoint(), lgp.getEndPoint(),
+                 lgp.getFractions(), greys, lgp.getCycleMethod(),
+                 MultipleGradientPaint.SRGB, lgp.getTransform());
+        }
+        if (paint instanceof RadialGradientPaint) {
+            RadialGradientPaint rgp = (RadialGradientPaint)paint;
+            return new RadialGradientPaint
+                (rgp.getCenterPoint(), rgp.getRadius(), rgp.getFocusPoint(),
+                 rgp.getFractions(), greys, rgp.getCycleMethod(),
+                 MultipleGradientPaint.SRGB, rgp.getTransform());
+        }
+        return null;
+    }
+
+    private static Color toGrey(Color c, int lum, float opacity) {
+        int v = Math.round(lum * c.getAlpha() * opacity / 255f);
+        return new Color(v, v, v);
+    }
+
+    /**
+     * Returns the mask value of an opaque pixel of the colour of
+     * <code>c</code>, converted the same way as rendered mask content.
+     */
+    private static int luminance(Color c) {
+        BufferedImage bi = new BufferedImage(1, 1,
+                                             BufferedImage.TYPE_INT_ARGB_PRE);
+        bi.setRGB(0, 0, c.getRGB() | 0xff000000);
+        CachableRed lum = new FilterAsAlphaRed(GraphicsUtil.wrap(bi));
+        return lum.getData().getSample(0, 0, 0);
+    }
 }
@@ -53,6 +53,34 @@ public class FlowRegions {
         gotoY(startY);
     }
 
+    /**
+     * Creates a copy of <code>fr</code>, at the same position in the
+     * same flow region.  Both can then be used independently.
+     */
+    public FlowRegions(FlowRegions fr) {
+        this.flowShape    = fr.flowShape;
+        this.sl           = fr.sl;
+        this.sr           = fr.sr;
+        this.validRanges  = fr.validRanges;
+        this.currentRange = fr.currentRange;
+        this.currentY     = fr.currentY;
+        this.lineHeight   = fr.lineHeight;
+    }
+
+    /**
+     * Returns true if <code>fr</code>, which flows a region of the
+     * same shape, is at the same position as this object, so that
+     * flowing the same text from either gives the same lines.
+     */
+    public boolean isAtSamePosition(FlowRegions fr) {
+        return (currentY == fr.currentY)
+            && (lineHeight == fr.lineHeight)
+            && (currentRange == fr.currentRange)
+            && ((sl == null) == (fr.sl == null))
+            && ((sr == null) == (fr.sr == null))
+            && ((validRanges == null) == (fr.validRanges == null));
+    }
+
     public double getCurrentY() { return currentY; }
     public double getLineHeight() { return lineHeight; }
 
@@ -0,0 +1,197 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.flow;
+
+import java.text.AttributedCharacterIterator;
+
+/**
+ * Finds the line break opportunities of a text, as
+ * <code>TextLineBreaks.findLineBrk</code> does, one at a time.
+ *
+ * <p>Paragraphs and flow lines (runs of the FLOW_PARAGRAPH and
+ * FLOW_LINE_BREAK attributes) always end a word.  The iterator does not
+ * allocate anything once it is created, so one instance can be reused
+ * for many texts.  It is not thread safe.</p>
+ *
+ * @version $Id$
+ */
+public class LineBreakIterator {
+
+    /**
+     * Returned by <code>next</code> once the end of the text has been
+     * reported.
+     */
+    public static final int DONE = -1;
+
+    protected AttributedCharacterIterator aci;
+
+    // The state of the pair table lookup, see TextLineBreaks.
+    protected char ch;
+    protected char prevCh;
+    protected byte cls;
+    protected byte curCls;
+    protected byte prevCls;
+    protected byte prevPrevCls;
+    protected int  ich;
+    protected int  lineEnd;
+
+    /**
+     * Whether the iterator must move to the next character before
+     * looking for the next break.
+     */
+    protected boolean advance;
+
+    /**
+     * Whether the end of the text has been reported.
+     */
+    protected boolean done = true;
+
+    /**
+     * Starts iterating over the text of <code>aci</code>, from its
+     * current index.  The iterator reads <code>aci</code> as it goes.
+     */
+    public void setText(AttributedCharacterIterator aci) {
+        this.aci = aci;
+        if (aci.getEndIndex() == aci.getBeginIndex()) {
+            done = true;
+            return;
+        }
+
+        ch          = aci.current();
+        prevCh      = (char)-1;
+        cls         = TextLineBreaks.getCharCharClass(ch);
+        if (cls == TextLineBreaks.CHAR_CLASS_LF)
+            cls = TextLineBreaks.CHAR_CLASS_BK;
+        curCls      = cls;
+        prevCls     = cls;
+        prevPrevCls = -1;
+        ich         = aci.getBeginIndex()+1;
+        lineEnd     = aci.getRunLimit(TextLineBreaks.lineBrks);
+
+        // handle case where input starts with an LF
+        if (cls >= TextLineBreaks.CHAR_CLASS_CM)
+            cls = TextLineBreaks.CHAR_CLASS_AL;
+
+        ch      = aci.next();
+        advance = false;
+        done    = false;
+    }
+
+    /**
+     * Returns the index of the next line break opportunity, the end
+     * of a word.  The end of the text is always one.  Returns DONE
+     * once it has been returned.
+     */
+    public int next() {
+        if (done)
+            return DONE;
+
+        while (true) {
+            if (advance) {
+                ich++;
+                prevCh      = ch;
+                ch          = aci.next();
+                prevPrevCls = prevCls;
+                prevCls     = curCls;
+            }
+            advance = true;
+
+            if (ch == AttributedCharacterIterator.DONE) {
+                // always break at the end
+                done = true;
+                return ich;
+            }
+
+            if (ich == lineEnd) {
+                cls     = TextLineBreaks.getCharCharClass(ch);
+                curCls  = cls;
+                prevCls = cls;
+                if (cls >= TextLineBreaks.CHAR_CLASS_CM)
+                    cls = TextLineBreaks.CHAR_CLASS_AL;
+
+                lineEnd = aci.getRunLimit(TextLineBreaks.lineBrks);
+                return ich;
+            }
+
+            // handle spaces
+            curCls = TextLineBreaks.getCharCharClass(ch);
+            if (curCls == TextLineBreaks.CHAR_CLASS_SP) {
+                continue;
+            }
+
+            // handle complex scripts
+            if (curCls == TextLineBreaks.CHAR_CLASS_SA) {
+                ich += TextLineBreaks.findComplexBreak(aci);
+                ch = aci.previous();
+                if (ch != AttributedCharacterIterator.DONE)
+                    prevCls = TextLineBreaks.getCharCharClass(ch);
+                ch = aci.next();
+                if (ch != AttributedCharacterIterator.DONE)
+                    curCls = cls = TextLineBreaks.getCharCharClass(ch);
+                continue;
+            }
+
+            // This isn't in the Unicode line breaking alg.  but it
+            // seems needed as otherwise it does produce a break.
+            if ((ch == TextLineBreaks.CHAR_ZERO_WIDTH_JOINER) ||
+                (prevCh == TextLineBreaks.CHAR_ZERO_WIDTH_JOINER))
+                continue; // Don't allow break around JOINER.
+
+            if ((curCls == TextLineBreaks.CHAR_CLASS_BK) ||
+                (curCls == TextLineBreaks.CHAR_CLASS_LF)) {
+                cls = TextLineBreaks.CHAR_CLASS_BK;
+                return ich;
+            }
+            if (prevCls == TextLineBreaks.CHAR_CLASS_CR) {
+                cls = TextLineBreaks.CHAR_CLASS_BK;
+                return ich-1;
+            }
+            if (curCls == TextLineBreaks.CHAR_CLASS_CR) {
+                continue;
+            }
+
+            // handle combining marks
+            if (curCls == TextLineBreaks.CHAR_CLASS_CM) {
+                if (prevCls == TextLineBreaks.CHAR_CLASS_SP) {
+                    cls = TextLineBreaks.CHAR_CLASS_ID;
+                    if ((prevPrevCls != -1) &&
+                        (TextLineBreaks.brkPairs[prevPrevCls]
+                                                [TextLineBreaks.CHAR_CLASS_ID]
+                         == TextLineBreaks.BREAK_ACTION_DIRECT))
+                        return ich-1;
+                }
+                continue;
+            }
+
+            if (cls == TextLineBreaks.CHAR_CLASS_BK) {
+                cls = curCls;
+                continue;
+            }
+
+            // lookup pair table information
+            byte brk = TextLineBreaks.brkPairs[cls][curCls];
+            cls = curCls;
+            if (brk == TextLineBreaks.BREAK_ACTION_DIRECT)
+                return ich;
+            if ((brk == TextLineBreaks.BREAK_ACTION_INDIRECT) &&
+                (prevCls == TextLineBreaks.CHAR_CLASS_SP))
+                return ich;
+        }
+    }
+}
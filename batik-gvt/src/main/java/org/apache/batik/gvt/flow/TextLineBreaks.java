@@ -65,143 +65,20 @@ public class TextLineBreaks {
         return cnt;
     }
 
-    // handle spaces separately, all others by table
     // as - Attributed string to attribute with Word extents.
     public static void findLineBrk(AttributedString as) {
         AttributedCharacterIterator aci = as.getIterator();
-        if (aci.getEndIndex() == 0)
-            return;
-        char ch = aci.current(), prevCh = (char)-1;
-        byte         cls = getCharCharClass(ch);
-        if (cls == CHAR_CLASS_LF) cls = CHAR_CLASS_BK;
-        byte      curCls = cls;
-        byte     prevCls = cls;
-        byte prevPrevCls = -1;
-        int  wordCnt = 0;
-        int  wordBegin = aci.getBeginIndex();
-        // loop over all pairs in the string
-        int ich = wordBegin+1;
-        int lineEnd = aci.getRunLimit(lineBrks);
-
-        // handle case where input starts with an LF
-        if (cls >= CHAR_CLASS_CM) cls = CHAR_CLASS_AL;
-
-        for (ch = aci.next();
-             ch != AttributedCharacterIterator.DONE;
-             ich++, prevCh = ch, ch = aci.next(),
-             prevPrevCls = prevCls, prevCls = curCls) {
-
-            if (ich == lineEnd) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich);
-                wordBegin = ich;
-
-                cls    = getCharCharClass(ch);
-                curCls = cls;
-                prevCls = cls;
-                if (cls >= CHAR_CLASS_CM) cls = CHAR_CLASS_AL;
-
-                lineEnd = aci.getRunLimit(lineBrks);
-                continue;
-            }
-
-            // handle spaces
-            curCls = getCharCharClass(ch);
-            if (curCls == CHAR_CLASS_SP) {
-                // pbrk[ich-1] = BREAK_ACTION_PROHIBITED;
-                continue;
-            }
-
-            // handle complex scripts
-            if (curCls == CHAR_CLASS_SA) {
-                ich += findComplexBreak(aci);
-                ch = aci.previous();
-                if (ch != AttributedCharacterIterator.DONE)
-                    prevCls = getCharCharClass(ch);
-                ch = aci.next();
-                if (ch != AttributedCharacterIterator.DONE)
-                    curCls = cls = getCharCharClass(ch);
-                continue;
-            }
-
-            // This isn't in the Unicode line breaking alg.  but it
-            // seems needed as otherwise it does produce a break.
-            if ((ch == CHAR_ZERO_WIDTH_JOINER) ||
-                (prevCh == CHAR_ZERO_WIDTH_JOINER))
-                continue; // Don't allow break around JOINER.
-
-            if ((curCls == CHAR_CLASS_BK) || (curCls == CHAR_CLASS_LF)) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich);
-                wordBegin = ich;
-                cls = CHAR_CLASS_BK;
-                continue;
-            }
-            if (prevCls == CHAR_CLASS_CR) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich-1);
-                wordBegin = ich-1;
-                cls = CHAR_CLASS_BK;
-                continue;
-            }
-            if (curCls == CHAR_CLASS_CR) {
-                continue;
-            }
-
-            // handle combining marks
-            if (curCls == CHAR_CLASS_CM) {
-                if (prevCls == CHAR_CLASS_SP) {
-                    cls = CHAR_CLASS_ID;
-                    if (prevPrevCls != -1) {
-                        if (brkPairs[prevPrevCls][CHAR_CLASS_ID] ==
-                            BREAK_ACTION_DIRECT) {
-                            as.addAttribute(WORD_LIMIT, wordCnt++,
-                                            wordBegin, ich-1);
-                            wordBegin = ich-1;
-                            // pbrk[ich-2] = BREAK_ACTION_DIRECT;
-                        } else {
-                            // pbrk[ich-2] = BREAK_ACTION_PROHIBITED;
-                        }
-                    }
-                }
-                // pbrk[ich-1] = BREAK_ACTION_PROHIBITED;
-                continue;
-            }
-
-            if (cls == CHAR_CLASS_BK) {
-                cls = curCls;
-                continue;
-            }
-
-            // lookup pair table information
-            byte brk = brkPairs[cls][curCls];
-
-            if (brk == BREAK_ACTION_DIRECT) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich);
-                wordBegin = ich;
-                // pbrk[ich-1] = brk;
-            } else if (brk == BREAK_ACTION_INDIRECT) {
-                if (prevCls == CHAR_CLASS_SP) {
-                    as.addAttribute(WORD_LIMIT, wordCnt++,
-                                    wordBegin, ich);
-                    wordBegin = ich;
-                }
-                // pbrk[ich-1] = ((prevCls == CHAR_CLASS_SP) ?
-                //                BREAK_ACTION_INDIRECT :
-                //                BREAK_ACTION_PROHIBITED);
-            }
-            cls = curCls;
+        LineBreakIterator lbi = new LineBreakIterator();
+        lbi.setText(aci);
+        int wordCnt   = 0;
+        int wordBegin = aci.getBeginIndex();
+        for (int brk = lbi.next();
+             brk != LineBreakIterator.DONE;
+             brk = lbi.next()) {
+            as.addAttribute(WORD_LIMIT, wordCnt++, wordBegin, brk);
+            wordBegin = brk;
         }
-
-        // always break at the end
-        as.addAttribute(WORD_LIMIT, wordCnt++,
-                        wordBegin, ich);
-        wordBegin = ich;
-        // pbrk[ich-1] = BREAK_ACTION_DIRECT;
-
-        return;
-   }
+    }
 
     public static byte[] stringToLineBreakClasses(String s) {
         int len = s.length();
@@ -213,45 +90,12 @@ public class TextLineBreaks {
     }
 
     public static byte getCharCharClass(char ch) {
-        if (ch < QUICK_LUT_SIZE) {
-            if (quickLut == null) buildQuickLut();
-            return quickLut[ch];
-        }
-        int len = raw_data.length;
-        int l = 0;
-        int r = (len/2)-1;
-        int entry = (l+r)/2;
-        while(l <= r) {
-            char min = raw_data[2*entry];
-            char max = raw_data[2*entry+1];
-            if      (ch < min) r = entry-1;
-            else if (ch > max) l = entry+1;
-            else break;
-            entry = (l+r)/2;
-        }
-        return raw_classes[entry];
+        return classBlocks[(blockIndex[ch >> BLOCK_SHIFT] << BLOCK_SHIFT) |
+                           (ch & BLOCK_MASK)];
     }
 
     public static final char CHAR_ZERO_WIDTH_JOINER = 0x200D;
 
-    protected static final int QUICK_LUT_SIZE = 256;
-
-    protected static void buildQuickLut() {
-        int entry = 0;
-        quickLut = new byte[QUICK_LUT_SIZE];
-        int i=0;
-        while (i<QUICK_LUT_SIZE) {
-            int max = raw_data[2*entry+1];
-            byte cls = raw_classes[entry];
-            while (i<=max) {
-                quickLut[i] = cls;
-                i++;
-                if (i>=QUICK_LUT_SIZE) break;
-            }
-            entry++;
-        }
-    }
-
     // direct break     (blank in table)
     public static final byte BREAK_ACTION_DIRECT     = 0;
     // indirect break   (% in table)
@@ -360,8 +204,6 @@ public class TextLineBreaks {
         {  0, 2, 1, 1, 1, 2, 2, 2, 0, 0, 1, 1, 0, 1, 1, 1, 0, 0, 2, 1 }};// 19
 
 
-    static byte [] quickLut = null;
-
     static final char [] raw_data = {
         0x0000, 0x0008,
         0x0009, 0x0009,
@@ -1939,4 +1781,72 @@ public class TextLineBreaks {
         CHAR_CLASS_CM,
         CHAR_CLASS_CB,
         CHAR_CLASS_AI };
+
+    /**
+     * The character classes are looked up in a two stage table built
+     * from raw_data and raw_classes: blockIndex gives, for each block
+     * of 2^BLOCK_SHIFT characters, the offset (in blocks) of the
+     * classes of its characters in classBlocks.  Identical blocks are
+     * only stored once.
+     */
+    protected static final int BLOCK_SHIFT = 7;
+    protected static final int BLOCK_SIZE  = 1 << BLOCK_SHIFT;
+    protected static final int BLOCK_MASK  = BLOCK_SIZE - 1;
+
+    protected static final char [] blockIndex;
+    protected static final byte [] classBlocks;
+
+    static {
+        byte [] classes = new byte[0x10000];
+        for (int c = 0; c < classes.length; c++) {
+            classes[c] = searchCharClass((char)c);
+        }
+
+        int numBlocks = classes.length >> BLOCK_SHIFT;
+        blockIndex = new char[numBlocks];
+        byte [] blocks = new byte[classes.length];
+        int numUnique = 0;
+        for (int b = 0; b < numBlocks; b++) {
+            int start = b << BLOCK_SHIFT;
+            int u = 0;
+            for (; u < numUnique; u++) {
+                int ustart = u << BLOCK_SHIFT;
+                int i = 0;
+                while ((i < BLOCK_SIZE) &&
+                       (blocks[ustart+i] == classes[start+i]))
+                    i++;
+                if (i == BLOCK_SIZE)
+                    break;
+            }
+            if (u == numUnique) {
+                System.arraycopy(classes, start, blocks,
+                                 numUnique << BLOCK_SHIFT, BLOCK_SIZE);
+                numUnique++;
+            }
+            blockIndex[b] = (char)u;
+        }
+        classBlocks = new byte[numUnique << BLOCK_SHIFT];
+        System.arraycopy(blocks, 0, classBlocks, 0, classBlocks.length);
+    }
+
+    /**
+     * Looks up the class of <code>ch</code> in raw_data and raw_classes.
+     * Characters in none of the ranges get the class of the last range
+     * probed.
+     */
+    private static byte searchCharClass(char ch) {
+        int len = raw_data.length;
+        int l = 0;
+        int r = (len/2)-1;
+        int entry = (l+r)/2;
+        while(l <= r) {
+            char min = raw_data[2*entry];
+            char max = raw_data[2*entry+1];
+            if      (ch < min) r = entry-1;
+            else if (ch > max) l = entry+1;
+            else break;
+            entry = (l+r)/2;
+        }
+        return raw_classes[entry];
+    }
 }
@@ -30,7 +30,6 @@ import java.awt.geom.Rectangle2D;
 import java.text.AttributedCharacterIterator;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.batik.gvt.text.ArabicTextHandler;
@@ -57,7 +56,6 @@ public class AWTGVTFont implements GVTFont {
         this.size = font.getSize2D();
         this.awtFont = font.deriveFont(FONT_SIZE);
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -70,7 +68,6 @@ public class AWTGVTFont implements GVTFont {
         this.size = font.getSize2D()*scale;
         this.awtFont = font.deriveFont(FONT_SIZE);
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -89,7 +86,6 @@ public class AWTGVTFont implements GVTFont {
             this.size = awtFont.getSize2D();
         }
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -103,7 +99,6 @@ public class AWTGVTFont implements GVTFont {
         this.awtFont = new Font(name, style, (int)FONT_SIZE);
         this.size  = size;
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -285,18 +280,35 @@ public class AWTGVTFont implements GVTFont {
      * Returns the geometry of the specified character. This method also put
      * the in cache the geometry associated to the specified character if
      * needed.
+     *
+     * @deprecated The geometry is cached by glyph code, use
+     * {@link #getGlyphGeometry(AWTGVTFont,GlyphVector,int,Point2D)}.
      */
+    @Deprecated
     public static
         AWTGlyphGeometryCache.Value getGlyphGeometry(AWTGVTFont font,
                                                      char c,
                                                      GlyphVector gv,
                                                      int glyphIndex,
                                                      Point2D glyphPos) {
+        return getGlyphGeometry(font, gv, glyphIndex, glyphPos);
+    }
 
-        AWTGlyphGeometryCache glyphCache =
-            (AWTGlyphGeometryCache)fontCache.get(font.awtFont);
-
-        AWTGlyphGeometryCache.Value v = glyphCache.get(c);
+    /**
+     * Returns the geometry of the glyph at <code>glyphIndex</code> in
+     * <code>gv</code>, a glyph vector of the AWT font of
+     * <code>font</code>.  The geometry is shared through the
+     * <code>GlyphGeometryCache</code> with all the fonts wrapping the
+     * same AWT font.
+     */
+    public static
+        AWTGlyphGeometryCache.Value getGlyphGeometry(AWTGVTFont font,
+                                                     GlyphVector gv,
+                                                     int glyphIndex,
+                                                     Point2D glyphPos) {
+        int glyphCode = gv.getGlyphCode(glyphIndex);
+        AWTGlyphGeometryCache.Value v =
+            GlyphGeometryCache.get(font.awtFont, glyphCode, FONT_SIZE);
         if (v == null) {
             Shape outline = gv.getGlyphOutline(glyphIndex);
             GlyphMetrics metrics = gv.getGlyphMetrics(glyphIndex);
@@ -307,31 +319,10 @@ public class AWTGVTFont implements GVTFont {
                 outline = tr.createTransformedShape(outline);
             }
             v = new AWTGlyphGeometryCache.Value(outline, gmB);
-            //System.out.println("put "+font.awtFont+" "+c);
-            glyphCache.put(c, v);
+            v = GlyphGeometryCache.put(font.awtFont, glyphCode, FONT_SIZE, v);
         }
         return v;
     }
 
-    //
-    // static cache for AWTGVTFont
-    //
-
-    static Map fontCache = new HashMap(11);
-
-    static void initializeFontCache(Font awtFont) {
-        if (!fontCache.containsKey(awtFont)) {
-            fontCache.put(awtFont, new AWTGlyphGeometryCache());
-        }
-    }
-
-    static void putAWTGVTFont(AWTGVTFont font) {
-        fontCache.put(font.awtFont, font);
-    }
-
-    static AWTGVTFont getAWTGVTFont(Font awtFont) {
-        return (AWTGVTFont)fontCache.get(awtFont);
-    }
-
 }
 
@@ -18,8 +18,12 @@
  */
 package org.apache.batik.gvt.font;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
+import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
 import java.awt.Paint;
 import java.awt.RenderingHints;
 import java.awt.Shape;
@@ -32,6 +36,8 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.text.AttributedCharacterIterator;
 import java.text.CharacterIterator;
 
@@ -412,10 +418,8 @@ public class AWTGVTGlyphVector implements GVTGlyphVector {
 
         // -- start glyph cache code --
         Point2D glyphPos = defaultGlyphPositions[glyphIndex];
-        char c = ci.setIndex(ci.getBeginIndex()+glyphIndex);
-        ci.setIndex(ci.getBeginIndex());
         AWTGlyphGeometryCache.Value v = AWTGVTFont.getGlyphGeometry
-            (gvtFont, c, awtGlyphVector, glyphIndex, glyphPos);
+            (gvtFont, awtGlyphVector, glyphIndex, glyphPos);
         Rectangle2D gmB = v.getBounds2D();
         // -- end glyph cache code --
 
@@ -446,10 +450,8 @@ public class AWTGVTGlyphVector implements GVTGlyphVector {
 */
             // -- start glyph cache code --
             Point2D glyphPos = defaultGlyphPositions[glyphIndex];
-            char c = ci.setIndex(ci.getBeginIndex()+glyphIndex);
-            ci.setIndex(ci.getBeginIndex());
             AWTGlyphGeometryCache.Value v = AWTGVTFont.getGlyphGeometry
-                (gvtFont, c, awtGlyphVector, glyphIndex, glyphPos);
+                (gvtFont, awtGlyphVector, glyphIndex, glyphPos);
             Shape glyphOutline = v.getOutline();
            // -- end glyph cache code --
 
@@ -582,10 +584,8 @@ public class AWTGVTGlyphVector implements GVTGlyphVector {
 */
             // -- start glyph cache code --
             Point2D glyphPos = defaultGlyphPositions[glyphIndex];
-            char c = ci.setIndex(ci.getBeginIndex()+glyphIndex);
-            ci.setIndex(ci.getBeginIndex());
             AWTGlyphGeometryCache.Value v = AWTGVTFont.getGlyphGeometry
-                (gvtFont, c, awtGlyphVector, glyphIndex, glyphPos);
+                (gvtFont, awtGlyphVector, glyphIndex, glyphPos);
             Rectangle2D glyphBounds = v.getOutlineBounds2D();
            // -- end glyph cache code --
 
@@ -947,6 +947,10 @@ public class AWTGVTGlyphVector implements GVTGlyphVector {
                 awtGlyphVector.setGlyphTransform(i, null);
             }
 
+        } else if ((fillPaint instanceof Color) &&
+                   ((stroke == null) || (strokePaint == null)) &&
+                   drawCoverage(graphics2D, (Color)fillPaint)) {
+            // Drawn from the glyphs rasterized by GlyphCoverageCache.
         } else {
             Shape outline = getOutline();
 
@@ -964,4 +968,144 @@ public class AWTGVTGlyphVector implements GVTGlyphVector {
             }
         }
     }
+
+    /**
+     * Fills this glyph vector with <code>fill</code> by copying the
+     * coverage of its glyphs, rasterized by the
+     * <code>GlyphCoverageCache</code>.  Returns false, having drawn
+     * nothing, if the cache is disabled or the text is not small and
+     * axis aligned on a raster device, drawn over what is there.
+     */
+    private boolean drawCoverage(Graphics2D g2d, Color fill) {
+        if (!GlyphCoverageCache.isEnabled())
+            return false;
+
+        AffineTransform at = g2d.getTransform();
+        int type = at.getType();
+        if ((type & ~(AffineTransform.TYPE_TRANSLATION |
+                      AffineTransform.TYPE_UNIFORM_SCALE)) != 0)
+            return false;
+        double s = at.getScaleX();
+        double scale = s * scaleFactor;
+        if ((s <= 0) ||
+            (scale * AWTGVTFont.FONT_SIZE > GlyphCoverageCache.getMaxFontSize()))
+            return false;
+
+        // The glyphs are copied in an image that covers their bounds,
+        // its transparent pixels must leave the device unchanged.
+        Composite comp = g2d.getComposite();
+        if (!(comp instanceof AlphaComposite) ||
+            (((AlphaComposite)comp).getRule() != AlphaComposite.SRC_OVER))
+            return false;
+
+        GraphicsConfiguration gc = g2d.getDeviceConfiguration();
+        if ((gc == null) ||
+            (gc.getDevice().getType() == GraphicsDevice.TYPE_PRINTER))
+            return false;
+
+        int numGlyphs = getNumGlyphs();
+        for (int i = 0; i < numGlyphs; i++) {
+            AffineTransform gt = glyphTransforms[i];
+            if ((gt != null) &&
+                ((gt.getType() & ~AffineTransform.TYPE_TRANSLATION) != 0))
+                return false;
+        }
+
+        Object aa = g2d.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        Object sc = g2d.getRenderingHint(RenderingHints.KEY_STROKE_CONTROL);
+        final int steps = GlyphCoverageCache.SUBPIXEL_STEPS;
+
+        GlyphCoverageCache.Tile[] tiles =
+            new GlyphCoverageCache.Tile[numGlyphs];
+        int[] tileX = new int[numGlyphs];
+        int[] tileY = new int[numGlyphs];
+        int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+        for (int i = 0; i < numGlyphs; i++) {
+            if (!glyphVisible[i])
+                continue;
+
+            double x = glyphPositions[i].getX();
+            double y = glyphPositions[i].getY();
+            AffineTransform gt = glyphTransforms[i];
+            if (gt != null) {
+                x += gt.getTranslateX();
+                y += gt.getTranslateY();
+            }
+
+            // Device position of the glyph origin, split in whole
+            // pixels and sub pixel steps horizontally.  Vertically the
+            // offset is kept as is: the glyphs of a line share it, and
+            // rounding it would move horizontal edges across the rows
+            // the rasterizer samples.
+            long qx = Math.round((s * x + at.getTranslateX()) * steps);
+            double dy = s * y + at.getTranslateY();
+            long ix = (long)Math.floor(qx / (double)steps);
+            long iy = (long)Math.floor(dy);
+
+            AWTGlyphGeometryCache.Value v = AWTGVTFont.getGlyphGeometry
+                (gvtFont, awtGlyphVector, i, defaultGlyphPositions[i]);
+            GlyphCoverageCache.Tile t = GlyphCoverageCache.getTile
+                (gvtFont.awtFont, awtGlyphVector.getGlyphCode(i),
+                 v.getOutline(), scale,
+                 (int)(qx - ix * steps), dy - iy, aa, sc);
+            if (t.coverage == null)
+                continue;
+
+            tiles[i] = t;
+            tileX[i] = (int)ix + t.x;
+            tileY[i] = (int)iy + t.y;
+            x0 = Math.min(x0, tileX[i]);
+            y0 = Math.min(y0, tileY[i]);
+            x1 = Math.max(x1, tileX[i] + t.width);
+            y1 = Math.max(y1, tileY[i] + t.height);
+        }
+        if (x0 >= x1)
+            return true;
+
+        // Union of the glyph coverages, as the outline of overlapping
+        // glyphs is filled once.
+        int w = x1 - x0;
+        int h = y1 - y0;
+        int[] coverage = new int[w * h];
+        for (int i = 0; i < numGlyphs; i++) {
+            GlyphCoverageCache.Tile t = tiles[i];
+            if (t == null)
+                continue;
+            int src = 0;
+            for (int ty = 0; ty < t.height; ty++) {
+                int dst = (tileY[i] - y0 + ty) * w + (tileX[i] - x0);
+                for (int tx = 0; tx < t.width; tx++, src++, dst++) {
+                    int c = t.coverage[src] & 0xff;
+                    if (c != 0) {
+                        int d = coverage[dst];
+                        coverage[dst] = d + c - (d * c + 127) / 255;
+                    }
+                }
+            }
+        }
+
+        BufferedImage bi = new BufferedImage
+            (w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] argb = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+        int a = fill.getAlpha();
+        int r = fill.getRed();
+        int g = fill.getGreen();
+        int b = fill.getBlue();
+        for (int i = 0; i < argb.length; i++) {
+            int c = coverage[i];
+            if (c == 0)
+                continue;
+            int pa = (a * c + 127) / 255;
+            argb[i] = ((pa << 24) |
+                       (((r * pa + 127) / 255) << 16) |
+                       (((g * pa + 127) / 255) <<  8) |
+                       ((b * pa + 127) / 255));
+        }
+
+        g2d.setTransform(new AffineTransform());
+        g2d.drawImage(bi, x0, y0, null);
+        g2d.setTransform(at);
+        return true;
+    }
 }
@@ -27,6 +27,10 @@ import java.lang.ref.SoftReference;
  * This class represents a doubly indexed hash table, which holds
  * soft references to the contained glyph geometry informations.
  *
+ * <p>Batik no longer keeps a table per font, glyph geometries are
+ * shared through the {@link GlyphGeometryCache}, which stores
+ * instances of {@link Value}.</p>
+ *
  * @author <a href="mailto:stephane@hillion.org">Stephane Hillion</a>
  * @author <a href="mailto:tkormann@ilog.fr">Thierry Kormann</a>
  * @version $Id$
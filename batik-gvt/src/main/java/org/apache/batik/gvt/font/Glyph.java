@@ -23,6 +23,7 @@ import java.awt.Shape;
 import java.awt.font.GlyphMetrics;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
+import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.Vector;
@@ -63,6 +64,9 @@ public class Glyph {
     private Shape dShape;
     private GraphicsNode glyphChildrenNode;
 
+    private Object geometryFont; // the GlyphGeometryCache font key
+    private float geometrySize;
+
 
     /**
      * Constructs a Glyph with the specified parameters.
@@ -199,6 +203,22 @@ public class Glyph {
         return glyphCode;
     }
 
+    /**
+     * Lets glyphs made from the same glyph definition share their
+     * outline through the <code>GlyphGeometryCache</code>.  The outline
+     * of this glyph, before it is positioned and transformed, is shared
+     * with the glyphs of the same glyph code, font and size, each glyph
+     * keeping its own winding rule.  Only the glyphs made of a path,
+     * with no graphics content, are shared.
+     *
+     * @param font The identity of the font this glyph belongs to.
+     * @param size The font size this glyph was created for.
+     */
+    public void setGeometryKey(Object font, float size) {
+        this.geometryFont = font;
+        this.geometrySize = size;
+    }
+
     /**
      * Returns the glpyh's transform.
      *
@@ -279,6 +299,15 @@ public class Glyph {
     }
 
     public Rectangle2D getGeometryBounds() {
+        if ((outline == null) && (transform == null)) {
+            AWTGlyphGeometryCache.Value v = getSharedGeometry();
+            if (v != null) {
+                Rectangle2D r = v.getOutlineBounds2D();
+                return new Rectangle2D.Double(r.getX() + position.getX(),
+                                              r.getY() + position.getY(),
+                                              r.getWidth(), r.getHeight());
+            }
+        }
         return getOutline().getBounds2D();
     }
 
@@ -337,27 +366,70 @@ public class Glyph {
             if (transform != null) {
                 tr.concatenate(transform);
             }
-            Shape glyphChildrenOutline = null;
-            if (glyphChildrenNode != null) {
-                glyphChildrenOutline = glyphChildrenNode.getOutline();
-            }
-            GeneralPath glyphOutline = null;
-            if (dShape != null && glyphChildrenOutline != null) {
-                glyphOutline = new GeneralPath(dShape);
-                glyphOutline.append(glyphChildrenOutline, false);
-            } else if (dShape != null && glyphChildrenOutline == null) {
-                glyphOutline = new GeneralPath(dShape);
-            } else if (dShape == null && glyphChildrenOutline != null) {
-                glyphOutline = new GeneralPath(glyphChildrenOutline);
+            Shape glyphOutline;
+            AWTGlyphGeometryCache.Value v = getSharedGeometry();
+            if (v != null) {
+                glyphOutline = v.getOutline();
             } else {
-                // must be a whitespace glyph, return an empty shape
-                glyphOutline = new GeneralPath();
+                glyphOutline = createOutline();
             }
             outline = tr.createTransformedShape(glyphOutline);
+            if ((v != null) && (dShape != null) &&
+                (outline instanceof Path2D)) {
+                // The shared outline may come from a glyph drawn with
+                // another fill rule.
+                ((Path2D)outline).setWindingRule
+                    (dShape.getPathIterator(null).getWindingRule());
+            }
         }
         return outline;
     }
 
+    /**
+     * Returns the outline of this glyph, before it is positioned and
+     * transformed.
+     */
+    private GeneralPath createOutline() {
+        Shape glyphChildrenOutline = null;
+        if (glyphChildrenNode != null) {
+            glyphChildrenOutline = glyphChildrenNode.getOutline();
+        }
+        GeneralPath glyphOutline = null;
+        if (dShape != null && glyphChildrenOutline != null) {
+            glyphOutline = new GeneralPath(dShape);
+            glyphOutline.append(glyphChildrenOutline, false);
+        } else if (dShape != null && glyphChildrenOutline == null) {
+            glyphOutline = new GeneralPath(dShape);
+        } else if (dShape == null && glyphChildrenOutline != null) {
+            glyphOutline = new GeneralPath(glyphChildrenOutline);
+        } else {
+            // must be a whitespace glyph, return an empty shape
+            glyphOutline = new GeneralPath();
+        }
+        return glyphOutline;
+    }
+
+    /**
+     * Returns the outline of this glyph, before it is positioned and
+     * transformed, shared through the <code>GlyphGeometryCache</code>,
+     * or null if this glyph is not shared.
+     */
+    private AWTGlyphGeometryCache.Value getSharedGeometry() {
+        if ((geometryFont == null) || (glyphChildrenNode != null))
+            return null;
+
+        AWTGlyphGeometryCache.Value v = GlyphGeometryCache.get
+            (geometryFont, glyphCode, geometrySize);
+        if (v == null) {
+            GeneralPath glyphOutline = createOutline();
+            v = new AWTGlyphGeometryCache.Value
+                (glyphOutline, glyphOutline.getBounds2D());
+            v = GlyphGeometryCache.put
+                (geometryFont, glyphCode, geometrySize, v);
+        }
+        return v;
+    }
+
     /**
      * Draws this glyph.
      *
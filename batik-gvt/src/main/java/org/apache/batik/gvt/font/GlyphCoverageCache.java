@@ -0,0 +1,328 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.font;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of rasterized glyphs, used to draw small, axis aligned text
+ * by copying the coverage of each glyph instead of filling its
+ * outline.
+ *
+ * <p>This text rendering mode is off by default.  When it is enabled,
+ * <code>AWTGVTGlyphVector</code> draws the glyph vectors filled with a
+ * plain colour, not stroked, drawn over what is already there, and
+ * whose glyphs are no larger than {@link #getMaxFontSize} device
+ * pixels, from coverage masks rendered once per AWT font, glyph code,
+ * device size and sub pixel offset.
+ * Glyph origins are rounded horizontally to an eighth of a device
+ * pixel, so glyphs may be drawn up to a sixteenth of a pixel away from
+ * where their outline would be filled; their vertical offset is not
+ * rounded.  Any other text is still drawn from its outline.</p>
+ *
+ * <p>The number of bytes of coverage data kept is bounded, least
+ * recently used glyphs are dropped first.</p>
+ *
+ * @version $Id$
+ */
+public final class GlyphCoverageCache {
+
+    /**
+     * Number of horizontal sub pixel positions glyphs are rendered at.
+     */
+    public static final int SUBPIXEL_STEPS = 8;
+
+    private static final Object lock = new Object();
+
+    private static boolean enabled = false;
+    private static float maxFontSize = 32;
+    private static long maxBytes = 4 * 1024 * 1024;
+    private static long bytes = 0;
+
+    private static int hitCount = 0;
+    private static int missCount = 0;
+    private static int evictionCount = 0;
+
+    /**
+     * Key -&gt; Tile, in least recently used order.
+     */
+    private static final LinkedHashMap entries =
+        new LinkedHashMap(16, 0.75f, true);
+
+    private GlyphCoverageCache() {
+    }
+
+    /**
+     * Enables or disables drawing text from rasterized glyphs.
+     * Disabling it drops all entries.
+     */
+    public static void setEnabled(boolean enable) {
+        synchronized (lock) {
+            enabled = enable;
+            if (!enable) {
+                clear();
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the largest font size, in device pixels, of the text drawn
+     * from rasterized glyphs.
+     */
+    public static void setMaxFontSize(float size) {
+        maxFontSize = size;
+    }
+
+    public static float getMaxFontSize() {
+        return maxFontSize;
+    }
+
+    /**
+     * Sets the number of bytes of coverage data the cache may keep.
+     */
+    public static void setMaxBytes(long max) {
+        synchronized (lock) {
+            maxBytes = max;
+            trim();
+        }
+    }
+
+    public static long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Drops all rasterized glyphs.
+     */
+    public static void clear() {
+        synchronized (lock) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public static int getHitCount() {
+        return hitCount;
+    }
+
+    public static int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of glyphs dropped to stay within the byte
+     * budget.
+     */
+    public static int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of bytes of coverage data currently kept.
+     */
+    public static long getByteCount() {
+        return bytes;
+    }
+
+    public static String getStatistics() {
+        synchronized (lock) {
+            return "GlyphCoverageCache[glyphs=" + entries.size()
+                + " hits=" + hitCount + " misses=" + missCount
+                + " evictions=" + evictionCount
+                + " bytes=" + bytes + "]";
+        }
+    }
+
+    /**
+     * Returns the coverage of the glyph <code>glyphCode</code> of
+     * <code>font</code>, whose outline is <code>outline</code>, scaled
+     * by <code>scale</code> and with its origin at
+     * <code>(sx / SUBPIXEL_STEPS, sy)</code>.
+     *
+     * @param antialiasing The value of the KEY_ANTIALIASING hint.
+     * @param strokeControl The value of the KEY_STROKE_CONTROL hint.
+     */
+    static Tile getTile(Font font, int glyphCode, Shape outline,
+                        double scale, int sx, double sy,
+                        Object antialiasing, Object strokeControl) {
+        Key key = new Key(font, glyphCode, scale, sx, sy,
+                          antialiasing, strokeControl);
+        synchronized (lock) {
+            Tile t = (Tile)entries.get(key);
+            if (t != null) {
+                hitCount++;
+                return t;
+            }
+            missCount++;
+        }
+
+        Tile t = createTile(outline, scale, sx, sy,
+                            antialiasing, strokeControl);
+        if (t.bytes > maxBytes / 4)
+            return t;
+
+        synchronized (lock) {
+            if (!enabled) return t;
+            Tile old = (Tile)entries.put(key, t);
+            if (old != null)
+                bytes -= old.bytes;
+            bytes += t.bytes;
+            trim();
+        }
+        return t;
+    }
+
+    private static Tile createTile(Shape outline, double scale,
+                                   int sx, double sy,
+                                   Object antialiasing, Object strokeControl) {
+        AffineTransform at = new AffineTransform
+            (scale, 0, 0, scale,
+             sx / (double)SUBPIXEL_STEPS, sy);
+        Rectangle r = at.createTransformedShape(outline).getBounds();
+        if (r.isEmpty())
+            return new Tile(0, 0, 0, 0, null);
+
+        // One pixel of margin for the anti-aliased edges.
+        int x = r.x - 1;
+        int y = r.y - 1;
+        int w = r.width  + 2;
+        int h = r.height + 2;
+
+        // White on a transparent image, the alpha is the coverage.
+        BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = bi.createGraphics();
+        if (antialiasing != null)
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                 antialiasing);
+        if (strokeControl != null)
+            g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
+                                 strokeControl);
+        g2d.setColor(Color.white);
+        g2d.translate(-x, -y);
+        g2d.transform(at);
+        g2d.fill(outline);
+        g2d.dispose();
+
+        int[] argb = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+        byte[] coverage = new byte[w * h];
+        for (int i = 0; i < coverage.length; i++) {
+            coverage[i] = (byte)(argb[i] >>> 24);
+        }
+        return new Tile(x, y, w, h, coverage);
+    }
+
+    /**
+     * Drops least recently used glyphs until the byte budget is met.
+     */
+    private static void trim() {
+        Iterator i = entries.values().iterator();
+        while ((bytes > maxBytes) && i.hasNext()) {
+            Tile t = (Tile)i.next();
+            bytes -= t.bytes;
+            i.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * The coverage of a rasterized glyph.  <code>x</code> and
+     * <code>y</code> are the offset of its top left corner from the
+     * pixel holding the glyph origin, <code>coverage</code> holds one
+     * byte per pixel, row by row.
+     */
+    static class Tile {
+        final int    x, y, width, height;
+        final byte[] coverage;
+        final long   bytes;
+
+        Tile(int x, int y, int width, int height, byte[] coverage) {
+            this.x        = x;
+            this.y        = y;
+            this.width    = width;
+            this.height   = height;
+            this.coverage = coverage;
+            this.bytes    = 48 + (long)width * height;
+        }
+    }
+
+    private static class Key {
+        final Font   font;
+        final int    glyphCode;
+        final long   scale;
+        final int    sx;
+        final long   sy;
+        final Object antialiasing;
+        final Object strokeControl;
+        final int    hash;
+
+        Key(Font font, int glyphCode, double scale, int sx, double sy,
+            Object antialiasing, Object strokeControl) {
+            this.font          = font;
+            this.glyphCode     = glyphCode;
+            this.scale         = Double.doubleToLongBits(scale);
+            this.sx            = sx;
+            this.sy            = Double.doubleToLongBits(sy);
+            this.antialiasing  = antialiasing;
+            this.strokeControl = strokeControl;
+
+            int h = font.hashCode();
+            h = h * 31 + glyphCode;
+            h = h * 31 + (int)(this.scale ^ (this.scale >>> 32));
+            h = h * 31 + sx;
+            h = h * 31 + (int)(this.sy ^ (this.sy >>> 32));
+            if (antialiasing != null)
+                h = h * 31 + antialiasing.hashCode();
+            if (strokeControl != null)
+                h = h * 31 + strokeControl.hashCode();
+            hash = h;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key k = (Key)o;
+            return (hash == k.hash) &&
+                (glyphCode == k.glyphCode) &&
+                (scale == k.scale) &&
+                (sx == k.sx) && (sy == k.sy) &&
+                (antialiasing == k.antialiasing) &&
+                (strokeControl == k.strokeControl) &&
+                font.equals(k.font);
+        }
+    }
+}
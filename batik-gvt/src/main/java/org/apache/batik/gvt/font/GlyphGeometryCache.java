@@ -0,0 +1,313 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.font;
+
+import java.awt.Font;
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of glyph outlines and metrics, shared by all the glyph
+ * vectors (and threads) of the JVM.
+ *
+ * <p>Entries are keyed by a font, a glyph code and a font size.  AWT
+ * fonts are compared by value, so all the <code>AWTGVTFont</code>s
+ * wrapping the same font share their glyphs.  Any other font key, such
+ * as the &lt;font&gt; element of an SVG font, is compared by identity
+ * and only weakly referenced, entries are dropped once it is garbage
+ * collected.</p>
+ *
+ * <p>Cached outlines are shared, callers must not modify them.  The
+ * estimated number of bytes of outline data kept is bounded, least
+ * recently used entries are dropped first.</p>
+ *
+ * @version $Id$
+ */
+public final class GlyphGeometryCache {
+
+    private static final Object lock = new Object();
+
+    private static boolean enabled = true;
+    private static long maxBytes = 8 * 1024 * 1024;
+    private static long bytes = 0;
+
+    private static int hitCount = 0;
+    private static int missCount = 0;
+    private static int evictionCount = 0;
+
+    /**
+     * Key -&gt; Entry, in least recently used order.
+     */
+    private static final LinkedHashMap entries =
+        new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * Where the weak references to collected font keys are queued.
+     */
+    private static final ReferenceQueue queue = new ReferenceQueue();
+
+    private GlyphGeometryCache() {
+    }
+
+    /**
+     * Enables or disables the cache.  Disabling it drops all entries.
+     */
+    public static void setEnabled(boolean enable) {
+        synchronized (lock) {
+            enabled = enable;
+            if (!enable) {
+                clear();
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the estimated number of bytes of outline data the cache may
+     * keep.
+     */
+    public static void setMaxBytes(long max) {
+        synchronized (lock) {
+            maxBytes = max;
+            trim();
+        }
+    }
+
+    public static long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Drops all cached glyphs.
+     */
+    public static void clear() {
+        synchronized (lock) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public static int getHitCount() {
+        return hitCount;
+    }
+
+    public static int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of entries dropped to stay within the byte
+     * budget.
+     */
+    public static int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the estimated number of bytes of outline data currently
+     * kept.
+     */
+    public static long getByteCount() {
+        return bytes;
+    }
+
+    public static String getStatistics() {
+        synchronized (lock) {
+            return "GlyphGeometryCache[entries=" + entries.size()
+                + " hits=" + hitCount + " misses=" + missCount
+                + " evictions=" + evictionCount
+                + " bytes=" + bytes + "]";
+        }
+    }
+
+    /**
+     * Returns the cached geometry of the glyph <code>glyphCode</code>
+     * of <code>font</code> at size <code>size</code>, or null if there
+     * is none.
+     */
+    public static AWTGlyphGeometryCache.Value get(Object font, int glyphCode,
+                                                  float size) {
+        if (!enabled) return null;
+
+        Key key = new Key(font, glyphCode, size, null);
+        synchronized (lock) {
+            purge();
+            Entry e = (Entry)entries.get(key);
+            if (e == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            return e.value;
+        }
+    }
+
+    /**
+     * Stores the geometry of the glyph <code>glyphCode</code> of
+     * <code>font</code> at size <code>size</code>.  Returns the value
+     * cached for this glyph, which is <code>v</code> unless another
+     * thread stored it first.
+     */
+    public static AWTGlyphGeometryCache.Value
+        put(Object font, int glyphCode, float size,
+            AWTGlyphGeometryCache.Value v) {
+        if (!enabled) return v;
+
+        long sz = estimateBytes(v.getOutline());
+        if (sz > maxBytes / 4)
+            return v;
+
+        Key key = new Key(font, glyphCode, size, queue);
+        synchronized (lock) {
+            purge();
+            Entry e = (Entry)entries.get(key);
+            if (e != null)
+                return e.value;
+            entries.put(key, new Entry(v, sz));
+            bytes += sz;
+            trim();
+        }
+        return v;
+    }
+
+    /**
+     * Returns a rough estimate of the memory used by
+     * <code>outline</code>: the cost of an entry plus that of each
+     * segment of the path.
+     */
+    private static long estimateBytes(Shape outline) {
+        long sz = 160;
+        PathIterator pi = outline.getPathIterator(null);
+        while (!pi.isDone()) {
+            sz += 28;
+            pi.next();
+        }
+        return sz;
+    }
+
+    /**
+     * Drops the entries of the font keys that have been garbage
+     * collected.
+     */
+    private static void purge() {
+        if (queue.poll() == null)
+            return;
+        while (queue.poll() != null) {
+        }
+
+        // Each entry has its own reference, so all the entries of a
+        // collected font are dropped in one pass.
+        Iterator i = entries.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry me = (Map.Entry)i.next();
+            Object f = ((Key)me.getKey()).font;
+            if ((f instanceof Reference) && (((Reference)f).get() == null)) {
+                bytes -= ((Entry)me.getValue()).bytes;
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops least recently used entries until the byte budget is met.
+     */
+    private static void trim() {
+        Iterator i = entries.values().iterator();
+        while ((bytes > maxBytes) && i.hasNext()) {
+            Entry e = (Entry)i.next();
+            bytes -= e.bytes;
+            i.remove();
+            evictionCount++;
+        }
+    }
+
+    private static class Key {
+
+        /**
+         * The font, or a weak reference to it when it is not an AWT
+         * font and the key is stored in the cache.
+         */
+        final Object font;
+        final int    glyphCode;
+        final int    size;
+        final int    hash;
+
+        Key(Object font, int glyphCode, float size, ReferenceQueue q) {
+            if ((q != null) && !(font instanceof Font))
+                this.font = new WeakReference(font, q);
+            else
+                this.font = font;
+            this.glyphCode = glyphCode;
+            this.size      = Float.floatToIntBits(size);
+
+            int h = (font instanceof Font)
+                ? font.hashCode() : System.identityHashCode(font);
+            h = h * 31 + glyphCode;
+            h = h * 31 + this.size;
+            hash = h;
+        }
+
+        Object getFont() {
+            if (font instanceof WeakReference)
+                return ((WeakReference)font).get();
+            return font;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key k = (Key)o;
+            if ((hash != k.hash) ||
+                (glyphCode != k.glyphCode) ||
+                (size != k.size))
+                return false;
+
+            Object f = getFont();
+            if (f == null)
+                return false;
+            if (f instanceof Font)
+                return f.equals(k.getFont());
+            return f == k.getFont();
+        }
+    }
+
+    private static class Entry {
+        final AWTGlyphGeometryCache.Value value;
+        final long                        bytes;
+
+        Entry(AWTGlyphGeometryCache.Value value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -20,7 +20,6 @@ package org.apache.batik.gvt.renderer;
 
 import java.awt.Color;
 import java.awt.Rectangle;
-import java.awt.Point;
 import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
@@ -88,6 +87,7 @@ public class DynamicRenderer extends StaticRenderer {
         rootCR = renderGNR();
         if (rootCR == null) {
             // No image to display so clear everything out...
+            releaseBaseRasters();
             workingRaster = null;
             workingOffScreen = null;
             workingBaseRaster = null;
@@ -106,10 +106,7 @@ public class DynamicRenderer extends StaticRenderer {
             (workingBaseRaster.getWidth()  < w) ||
             (workingBaseRaster.getHeight() < h)) {
 
-            sm = sm.createCompatibleSampleModel(w, h);
-
-            workingBaseRaster
-                = Raster.createWritableRaster(sm, new Point(0,0));
+            replaceWorkingBaseRaster(sm, w, h);
 
             workingRaster = workingBaseRaster.createWritableChild
                 (0, 0, w, h, 0, 0, null);
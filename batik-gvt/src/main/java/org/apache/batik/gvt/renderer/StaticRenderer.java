@@ -20,14 +20,12 @@ package org.apache.batik.gvt.renderer;
 
 import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
-import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
@@ -41,6 +39,7 @@ import org.apache.batik.ext.awt.image.PadMode;
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.rendered.CachableRed;
 import org.apache.batik.ext.awt.image.rendered.PadRed;
+import org.apache.batik.ext.awt.image.rendered.RasterPool;
 import org.apache.batik.ext.awt.image.rendered.TileCacheRed;
 import org.apache.batik.ext.awt.image.rendered.TranslateRed;
 import org.apache.batik.gvt.GraphicsNode;
@@ -121,9 +120,13 @@ public class StaticRenderer implements ImageRenderer {
 
 
     /**
-     * Disposes all resources of this renderer.
+     * Disposes all resources of this renderer.  The offscreen
+     * rasters are handed back to the <code>RasterPool</code>, so
+     * images returned by getOffScreen must not be used afterwards.
      */
     public void dispose() {
+        releaseBaseRasters();
+
         rootGN     = null;
         rootFilter = null;
         rootCR     = null;
@@ -141,6 +144,30 @@ public class StaticRenderer implements ImageRenderer {
         lastCR = null;
     }
 
+    /**
+     * Hands the working and current base rasters back to the
+     * <code>RasterPool</code>.
+     */
+    protected void releaseBaseRasters() {
+        if (currentBaseRaster != workingBaseRaster)
+            RasterPool.releaseRaster(currentBaseRaster);
+        RasterPool.releaseRaster(workingBaseRaster);
+    }
+
+    /**
+     * Replaces the working base raster with a cleared raster from the
+     * <code>RasterPool</code>, handing the old one back unless it is
+     * still the current base raster of a double buffered renderer.
+     */
+    protected void replaceWorkingBaseRaster(SampleModel sm, int w, int h) {
+        WritableRaster old = workingBaseRaster;
+        workingBaseRaster = RasterPool.getClearedRaster(sm, 0, 0, w, h);
+        // Without double buffering the current raster is the working
+        // raster, and is replaced along with it.
+        if (!isDoubleBuffered || (old != currentBaseRaster))
+            RasterPool.releaseRaster(old);
+    }
+
     /**
      * This associates the given GVT Tree with this renderer.
      * Any previous tree association is forgotten.
@@ -247,6 +274,8 @@ public class StaticRenderer implements ImageRenderer {
             currentRaster     = null;
         } else {
             // No longer double buffering so join work and current buffers.
+            if (currentBaseRaster != workingBaseRaster)
+                RasterPool.releaseRaster(currentBaseRaster);
             currentOffScreen  = workingOffScreen;
             currentBaseRaster = workingBaseRaster;
             currentRaster     = workingRaster;
@@ -506,6 +535,7 @@ public class StaticRenderer implements ImageRenderer {
         rootCR = renderGNR();
         if (rootCR == null) {
             // No image to display so clear everything out...
+            releaseBaseRasters();
             workingRaster = null;
             workingOffScreen = null;
             workingBaseRaster = null;
@@ -529,10 +559,7 @@ public class StaticRenderer implements ImageRenderer {
             (workingBaseRaster.getWidth()  < w) ||
             (workingBaseRaster.getHeight() < h)) {
 
-            sm = sm.createCompatibleSampleModel(w, h);
-
-            workingBaseRaster
-                = Raster.createWritableRaster(sm, new Point(0,0));
+            replaceWorkingBaseRaster(sm, w, h);
         }
 
         int tgx = -rootCR.getTileGridXOffset();
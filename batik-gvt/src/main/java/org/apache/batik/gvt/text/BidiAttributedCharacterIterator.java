@@ -19,10 +19,12 @@
 package org.apache.batik.gvt.text;
 
 import java.awt.font.FontRenderContext;
+import java.awt.font.TextAttribute;
 import java.awt.font.TextLayout;
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -43,6 +45,19 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
     private int chunkStart;
     private int [] newCharOrder;
     private static final Float FLOAT_NAN = Float.NaN;
+    private static final Integer LEVEL_ZERO = 0;
+
+    /**
+     * The attributes that may give left to right text a non zero bidi
+     * level.
+     */
+    private static final Set<AttributedCharacterIterator.Attribute>
+        BIDI_ATTRIBUTES = new HashSet<AttributedCharacterIterator.Attribute>();
+    static {
+        BIDI_ATTRIBUTES.add(TextAttribute.RUN_DIRECTION);
+        BIDI_ATTRIBUTES.add(TextAttribute.BIDI_EMBEDDING);
+        BIDI_ATTRIBUTES.add(TextAttribute.NUMERIC_SHAPING);
+    }
 
 
     protected BidiAttributedCharacterIterator
@@ -75,6 +90,18 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
         int   numChars    = aci.getEndIndex()-aci.getBeginIndex();
         AttributedString as;
 
+        if ((numChars > 0) && isLeftToRight(aci)) {
+            // All the characters are at level 0 and none is arabic,
+            // so neither the reordering nor the arabic forms change
+            // anything: just add the bidi level to the text.
+            this.reorderedACI = new LeftToRightIterator
+                ((AttributedCharacterIterator)aci.clone());
+            newCharOrder = new int[numChars];
+            for (int i=0; i<numChars; i++)
+                newCharOrder[i] = chunkStart+i;
+            return;
+        }
+
          // Ideally we would do a 'quick' check on chars and
          // attributes to decide if we really need to do bidi or not.
         if (false) {
@@ -264,6 +291,126 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
         reorderedACI = reorderedAS.getIterator();
     }
 
+    /**
+     * Returns true if the text of <code>aci</code> is left to right
+     * only: it has no character with a right to left or arabic number
+     * bidi type, no explicit embedding or override, and no attribute
+     * that changes the base direction, the embedding level or the
+     * digits.  The bidi level of such text is 0 everywhere, and it has
+     * no arabic characters to shape.  Nothing is copied.
+     */
+    protected static boolean isLeftToRight(AttributedCharacterIterator aci) {
+        for (char c = aci.first();
+             c != AttributedCharacterIterator.DONE;
+             c = aci.next()) {
+            // Nothing before Hebrew is right to left.
+            if (c < 0x0590)
+                continue;
+            int cp = c;
+            if (Character.isHighSurrogate(c)) {
+                char low = aci.next();
+                if (!Character.isLowSurrogate(low))
+                    return false;
+                cp = Character.toCodePoint(c, low);
+            } else if (Character.isLowSurrogate(c)) {
+                return false;
+            }
+            switch (Character.getDirectionality(cp)) {
+            case Character.DIRECTIONALITY_LEFT_TO_RIGHT:
+            case Character.DIRECTIONALITY_EUROPEAN_NUMBER:
+            case Character.DIRECTIONALITY_EUROPEAN_NUMBER_SEPARATOR:
+            case Character.DIRECTIONALITY_EUROPEAN_NUMBER_TERMINATOR:
+            case Character.DIRECTIONALITY_COMMON_NUMBER_SEPARATOR:
+            case Character.DIRECTIONALITY_NONSPACING_MARK:
+            case Character.DIRECTIONALITY_BOUNDARY_NEUTRAL:
+            case Character.DIRECTIONALITY_PARAGRAPH_SEPARATOR:
+            case Character.DIRECTIONALITY_SEGMENT_SEPARATOR:
+            case Character.DIRECTIONALITY_WHITESPACE:
+            case Character.DIRECTIONALITY_OTHER_NEUTRALS:
+                continue;
+            default:
+                // right to left, arabic numbers, embeddings, and
+                // unassigned chars, which may be any of these.
+                return false;
+            }
+        }
+
+        int end = aci.getEndIndex();
+        for (int index = aci.getBeginIndex(); index < end;) {
+            aci.setIndex(index);
+            Object dir = aci.getAttribute(TextAttribute.RUN_DIRECTION);
+            if (TextAttribute.RUN_DIRECTION_RTL.equals(dir))
+                return false;
+            Integer level =
+                (Integer)aci.getAttribute(TextAttribute.BIDI_EMBEDDING);
+            if ((level != null) && (level != 0))
+                return false;
+            if (aci.getAttribute(TextAttribute.NUMERIC_SHAPING) != null)
+                return false;
+            index = aci.getRunLimit(BIDI_ATTRIBUTES);
+        }
+        aci.first();
+        return true;
+    }
+
+    /**
+     * A view of left to right text with a 0 BIDI_LEVEL and, as the
+     * copy made for reordering, without null attribute values.
+     */
+    private static class LeftToRightIterator
+        extends AttributedCharacterSpanIterator {
+
+        private AttributedCharacterIterator source;
+
+        LeftToRightIterator(AttributedCharacterIterator aci) {
+            super(aci, aci.getBeginIndex(), aci.getEndIndex());
+            source = aci;
+        }
+
+        public Set<AttributedCharacterIterator.Attribute>
+            getAllAttributeKeys() {
+            Set<AttributedCharacterIterator.Attribute> keys =
+                new HashSet<AttributedCharacterIterator.Attribute>
+                (super.getAllAttributeKeys());
+            keys.add(GVTAttributedCharacterIterator.TextAttribute.BIDI_LEVEL);
+            return keys;
+        }
+
+        public Object getAttribute
+            (AttributedCharacterIterator.Attribute attribute) {
+            if (attribute ==
+                GVTAttributedCharacterIterator.TextAttribute.BIDI_LEVEL)
+                return LEVEL_ZERO;
+            return super.getAttribute(attribute);
+        }
+
+        public Map<AttributedCharacterIterator.Attribute, Object>
+            getAttributes() {
+            Map<AttributedCharacterIterator.Attribute, Object> attrMap =
+                super.getAttributes();
+            Map<AttributedCharacterIterator.Attribute, Object> destMap =
+                new HashMap<AttributedCharacterIterator.Attribute, Object>
+                (attrMap.size() + 1);
+            for (Map.Entry<AttributedCharacterIterator.Attribute, Object> e :
+                     attrMap.entrySet()) {
+                if ((e.getKey() != null) && (e.getValue() != null))
+                    destMap.put(e.getKey(), e.getValue());
+            }
+            destMap.put
+                (GVTAttributedCharacterIterator.TextAttribute.BIDI_LEVEL,
+                 LEVEL_ZERO);
+            return destMap;
+        }
+
+        public Object clone() {
+            int index = getIndex();
+            LeftToRightIterator it = new LeftToRightIterator
+                ((AttributedCharacterIterator)source.clone());
+            it.setIndex(index);
+            return it;
+        }
+    }
+
     // Returns an array that give the character index in the source ACI for
     // each character in this ACI.
     public int[] getCharMap() { return newCharOrder; }
@@ -714,6 +714,12 @@ public class JGVTComponent extends JComponent {
 
         // Renderer setup.
         if (renderer == null || renderer.getTree() != gvtRoot) {
+            if (renderer != null) {
+                // The offscreen of the old renderer goes back to the
+                // raster pool, so stop displaying it.
+                renderer.dispose();
+                image = null;
+            }
             renderer = createImageRenderer();
             renderer.setTree(gvtRoot);
         }
@@ -785,6 +791,9 @@ public class JGVTComponent extends JComponent {
             overlays.remove(textSelectionManager.getSelectionOverlay());
             textSelectionManager = null;
         }
+        if (renderer != null) {
+            renderer.dispose();
+        }
         renderer = null;
         image = null;
         gvtRoot = null;
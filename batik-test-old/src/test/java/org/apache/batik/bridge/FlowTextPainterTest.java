@@ -0,0 +1,296 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.geom.Point2D;
+import java.io.StringReader;
+import java.text.AttributedCharacterIterator;
+import java.util.List;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.bridge.svg12.SVG12BridgeContext;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.font.GVTGlyphVector;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.SVGConstants;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+/**
+ * Checks that the incremental layout <code>FlowTextPainter</code> does
+ * when the text of a flowRoot is edited gives the same text runs as a
+ * full layout of the edited text.  A dynamic document is laid out,
+ * edited, and laid out again; the same edit is done on a new copy of
+ * the document, laid out from scratch.  Except when the flow regions
+ * change, the runs of the unchanged first paragraph must also have
+ * been reused.
+ *
+ * @version $Id$
+ */
+public class FlowTextPainterTest extends AbstractTest {
+
+    /**
+     * Error when the incremental and full layouts differ.
+     * {0} = the edit
+     * {1} = the first difference
+     */
+    public static final String ERROR_LAYOUTS_DIFFER
+        = "FlowTextPainterTest.error.layouts.differ";
+
+    /**
+     * Error when the layout of the unchanged paragraphs was not reused.
+     * {0} = the edit
+     */
+    public static final String ERROR_NOT_REUSED
+        = "FlowTextPainterTest.error.not.reused";
+
+    public static final String ENTRY_KEY_EDIT
+        = "FlowTextPainterTest.entry.key.edit";
+
+    public static final String ENTRY_KEY_DIFFERENCE
+        = "FlowTextPainterTest.entry.key.difference";
+
+    public static final String EDIT_INSERT_TEXT        = "insertText";
+    public static final String EDIT_DELETE_TEXT        = "deleteText";
+    public static final String EDIT_INSERT_PARAGRAPH   = "insertParagraph";
+    public static final String EDIT_REMOVE_PARAGRAPH   = "removeParagraph";
+    public static final String EDIT_INSERT_LINE        = "insertLine";
+    public static final String EDIT_REMOVE_LINE        = "removeLine";
+    public static final String EDIT_INSERT_REGION_BREAK
+        = "insertRegionBreak";
+    public static final String EDIT_CHANGE_REGION      = "changeRegion";
+
+    /**
+     * The largest difference allowed between glyph positions.  A
+     * paragraph shaped on its own may be positioned with different
+     * float rounding than in a full layout.
+     */
+    protected static final double TOLERANCE = 1e-3;
+
+    protected static final String WORDS =
+        "The quick brown fox jumps over the lazy dog and keeps running " +
+        "through the field until the light fades behind the hills. ";
+
+    protected static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' version='1.2'" +
+        " width='450' height='500'>" +
+        "<flowRoot font-family='Serif' font-size='12'>" +
+        "<flowRegion>" +
+        "<rect id='region' x='10' y='10' width='200' height='120'/>" +
+        "<rect x='230' y='10' width='150' height='300'/>" +
+        "</flowRegion>" +
+        "<flowDiv>" +
+        "<flowPara id='p0'>" + WORDS + "</flowPara>" +
+        "<flowPara id='p1'>" + WORDS + WORDS + "</flowPara>" +
+        "<flowPara id='p2'>" + WORDS +
+        "<flowSpan font-weight='bold'>" + WORDS + "</flowSpan>" +
+        "</flowPara>" +
+        "<flowPara id='p3'>Before the line " +
+        "<flowLine id='line'>a line of its own</flowLine>" +
+        " after the line. " + WORDS + "</flowPara>" +
+        "<flowPara id='p4'>" + WORDS + WORDS + WORDS + "</flowPara>" +
+        "</flowDiv>" +
+        "</flowRoot>" +
+        "</svg>";
+
+    /**
+     * The edit to check.
+     */
+    protected String edit;
+
+    public FlowTextPainterTest(String edit) {
+        this.edit = edit;
+    }
+
+    public String getName() {
+        return "flow layout after " + edit;
+    }
+
+    public TestReport runImpl() throws Exception {
+        // Incremental layout.
+        Document doc = createDocument();
+        BridgeContext ctx = new SVG12BridgeContext(new UserAgentAdapter());
+        ctx.setDynamic(true);
+        TextNode node = findTextNode(new GVTBuilder().build(ctx, doc));
+        List before = getTextRuns(node);
+        Object firstRun = before.get(0);
+        doEdit(doc);
+        List incremental = getTextRuns(node);
+
+        // Full layout.
+        Document ref = createDocument();
+        doEdit(ref);
+        BridgeContext refCtx =
+            new SVG12BridgeContext(new UserAgentAdapter());
+        List full = getTextRuns
+            (findTextNode(new GVTBuilder().build(refCtx, ref)));
+
+        String diff = compare(full, incremental);
+        if (diff != null) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_LAYOUTS_DIFFER);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_EDIT, edit),
+                new TestReport.Entry(ENTRY_KEY_DIFFERENCE, diff)
+            });
+            report.setPassed(false);
+            return report;
+        }
+
+        if (!EDIT_CHANGE_REGION.equals(edit) &&
+            (incremental.get(0) != firstRun)) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_NOT_REUSED);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_EDIT, edit)
+            });
+            report.setPassed(false);
+            return report;
+        }
+        ctx.dispose();
+        refCtx.dispose();
+        return reportSuccess();
+    }
+
+    protected Document createDocument() throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        return f.createDocument("file:///flowText.svg",
+                                new StringReader(DOCUMENT));
+    }
+
+    /**
+     * Makes the edit on <code>doc</code>.
+     */
+    protected void doEdit(Document doc) {
+        String ns = SVGConstants.SVG_NAMESPACE_URI;
+        Element p1 = doc.getElementById("p1");
+        Element p2 = doc.getElementById("p2");
+        Element p3 = doc.getElementById("p3");
+        if (EDIT_INSERT_TEXT.equals(edit)) {
+            ((Text)p1.getFirstChild()).insertData
+                (40, "a few more words to push the rest of the text ");
+        } else if (EDIT_DELETE_TEXT.equals(edit)) {
+            ((Text)p1.getFirstChild()).deleteData(30, 70);
+        } else if (EDIT_INSERT_PARAGRAPH.equals(edit)) {
+            Element p = doc.createElementNS(ns, "flowPara");
+            p.appendChild(doc.createTextNode(WORDS));
+            p2.getParentNode().insertBefore(p, p2);
+        } else if (EDIT_REMOVE_PARAGRAPH.equals(edit)) {
+            p2.getParentNode().removeChild(p2);
+        } else if (EDIT_INSERT_LINE.equals(edit)) {
+            Element line = doc.createElementNS(ns, "flowLine");
+            line.appendChild(doc.createTextNode("a new line"));
+            Node t = p2.getFirstChild();
+            p2.insertBefore(line, t.getNextSibling());
+        } else if (EDIT_REMOVE_LINE.equals(edit)) {
+            p3.removeChild(doc.getElementById("line"));
+        } else if (EDIT_INSERT_REGION_BREAK.equals(edit)) {
+            Element rb = doc.createElementNS(ns, "flowRegionBreak");
+            rb.appendChild(doc.createTextNode("Region break. "));
+            p2.getParentNode().insertBefore(rb, p2);
+        } else if (EDIT_CHANGE_REGION.equals(edit)) {
+            doc.getElementById("region").setAttributeNS
+                (null, "width", "170");
+        } else {
+            throw new IllegalArgumentException(edit);
+        }
+    }
+
+    protected static TextNode findTextNode(GraphicsNode gn) {
+        if (gn instanceof TextNode)
+            return (TextNode)gn;
+        if (gn instanceof CompositeGraphicsNode) {
+            List children = ((CompositeGraphicsNode)gn).getChildren();
+            for (int i = 0; i < children.size(); i++) {
+                TextNode tn = findTextNode((GraphicsNode)children.get(i));
+                if (tn != null)
+                    return tn;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lays out the text of <code>node</code> and returns its runs.
+     */
+    protected static List getTextRuns(TextNode node) {
+        StrokingTextPainter painter =
+            (StrokingTextPainter)node.getTextPainter();
+        return painter.getTextRuns(node,
+                                   node.getAttributedCharacterIterator());
+    }
+
+    /**
+     * Returns a description of the first difference between the runs
+     * of two layouts, or null.
+     */
+    protected static String compare(List ref, List runs) {
+        if (ref.size() != runs.size())
+            return "run count " + runs.size() + " != " + ref.size();
+
+        for (int r = 0; r < ref.size(); r++) {
+            StrokingTextPainter.TextRun rr =
+                (StrokingTextPainter.TextRun)ref.get(r);
+            StrokingTextPainter.TextRun tr =
+                (StrokingTextPainter.TextRun)runs.get(r);
+            String text = getText(rr.getACI());
+            if (!text.equals(getText(tr.getACI())))
+                return "run " + r + ": text '" + getText(tr.getACI())
+                    + "' != '" + text + "'";
+
+            GVTGlyphVector rgv = rr.getLayout().getGlyphVector();
+            GVTGlyphVector gv  = tr.getLayout().getGlyphVector();
+            int n = rgv.getNumGlyphs();
+            if (gv.getNumGlyphs() != n)
+                return "run " + r + ": glyph count " + gv.getNumGlyphs()
+                    + " != " + n;
+            for (int g = 0; g < n; g++) {
+                if (gv.isGlyphVisible(g) != rgv.isGlyphVisible(g))
+                    return "run " + r + ", glyph " + g + ": visible "
+                        + gv.isGlyphVisible(g);
+                if (!rgv.isGlyphVisible(g))
+                    continue;
+                Point2D rp = rgv.getGlyphPosition(g);
+                Point2D p  = gv.getGlyphPosition(g);
+                if ((Math.abs(p.getX() - rp.getX()) > TOLERANCE) ||
+                    (Math.abs(p.getY() - rp.getY()) > TOLERANCE))
+                    return "run " + r + " '" + text + "', glyph " + g
+                        + ": " + p + " != " + rp;
+            }
+        }
+        return null;
+    }
+
+    protected static String getText(AttributedCharacterIterator aci) {
+        StringBuffer sb = new StringBuffer();
+        for (char c = aci.first();
+             c != AttributedCharacterIterator.DONE;
+             c = aci.next())
+            sb.append(c);
+        return sb.toString();
+    }
+}
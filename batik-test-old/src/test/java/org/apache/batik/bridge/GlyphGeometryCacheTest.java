@@ -0,0 +1,278 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.io.StringReader;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.font.AWTGVTFont;
+import org.apache.batik.gvt.font.AWTGlyphGeometryCache;
+import org.apache.batik.gvt.font.Glyph;
+import org.apache.batik.gvt.font.GlyphGeometryCache;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+/**
+ * Checks the sharing of glyph outlines through the process wide
+ * <code>GlyphGeometryCache</code>: equal AWT fonts must share their
+ * outlines, glyphs sharing an outline must each keep their own fill
+ * rule, and the outlines of an SVG font must not be reused once the
+ * font has changed, and must be dropped with the font.
+ *
+ * @version $Id$
+ */
+public class GlyphGeometryCacheTest extends AbstractTest {
+
+    /**
+     * Error when a check fails.
+     * {0} = the step
+     * {1} = what was found
+     */
+    public static final String ERROR_CHECK_FAILED
+        = "GlyphGeometryCacheTest.error.check.failed";
+
+    public static final String ENTRY_KEY_STEP
+        = "GlyphGeometryCacheTest.entry.key.step";
+
+    public static final String ENTRY_KEY_FOUND
+        = "GlyphGeometryCacheTest.entry.key.found";
+
+    public static final String CHECK_AWT_FONTS = "awtFonts";
+    public static final String CHECK_FILL_RULE = "fillRule";
+    public static final String CHECK_SVG_FONT  = "svgFont";
+
+    /**
+     * The number of garbage collections to wait for the contents of an
+     * SVG font to be collected.
+     */
+    protected static final int NUM_GC = 10;
+
+    protected static final String TEXT = "Shared glyphs";
+
+    /**
+     * The check to do.
+     */
+    protected String check;
+
+    public GlyphGeometryCacheTest(String check) {
+        this.check = check;
+    }
+
+    public String getName() {
+        return super.getName() + "." + check;
+    }
+
+    public TestReport runImpl() throws Exception {
+        boolean enabled = GlyphGeometryCache.isEnabled();
+        long maxBytes = GlyphGeometryCache.getMaxBytes();
+        try {
+            GlyphGeometryCache.setEnabled(true);
+            GlyphGeometryCache.setMaxBytes(8 * 1024 * 1024);
+            GlyphGeometryCache.clear();
+            String failure;
+            if (CHECK_AWT_FONTS.equals(check))
+                failure = checkAWTFonts();
+            else if (CHECK_FILL_RULE.equals(check))
+                failure = checkFillRule();
+            else if (CHECK_SVG_FONT.equals(check))
+                failure = checkSVGFont();
+            else
+                throw new IllegalArgumentException(check);
+            if (failure == null)
+                return reportSuccess();
+
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_CHECK_FAILED);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_STEP, check),
+                new TestReport.Entry(ENTRY_KEY_FOUND, failure)
+            });
+            report.setPassed(false);
+            return report;
+        } finally {
+            GlyphGeometryCache.clear();
+            GlyphGeometryCache.setMaxBytes(maxBytes);
+            GlyphGeometryCache.setEnabled(enabled);
+        }
+    }
+
+    /**
+     * Two equal AWT fonts, created separately, must get the same
+     * outline objects; another font must not.
+     */
+    protected String checkAWTFonts() {
+        AWTGVTFont f1 = new AWTGVTFont("SansSerif", Font.PLAIN, 20);
+        AWTGVTFont f2 = new AWTGVTFont("SansSerif", Font.PLAIN, 12);
+        AWTGVTFont other = new AWTGVTFont("Serif", Font.BOLD, 20);
+
+        FontRenderContext frc = new FontRenderContext(null, true, true);
+        GlyphVector gv = new Font("SansSerif", Font.PLAIN,
+                                  (int)AWTGVTFont.FONT_SIZE)
+            .createGlyphVector(frc, TEXT);
+        GlyphVector otherGV = new Font("Serif", Font.BOLD,
+                                       (int)AWTGVTFont.FONT_SIZE)
+            .createGlyphVector(frc, TEXT);
+        for (int i = 0; i < gv.getNumGlyphs(); i++) {
+            Point2D pos = gv.getGlyphPosition(i);
+            AWTGlyphGeometryCache.Value v1 =
+                AWTGVTFont.getGlyphGeometry(f1, gv, i, pos);
+            int hits = GlyphGeometryCache.getHitCount();
+            AWTGlyphGeometryCache.Value v2 =
+                AWTGVTFont.getGlyphGeometry(f2, gv, i, pos);
+            if ((v1 != v2) || (GlyphGeometryCache.getHitCount() != hits + 1))
+                return "glyph " + i + " not shared, "
+                    + GlyphGeometryCache.getStatistics();
+            AWTGlyphGeometryCache.Value v3 = AWTGVTFont.getGlyphGeometry
+                (other, otherGV, i, otherGV.getGlyphPosition(i));
+            if (v3 == v1)
+                return "glyph " + i + " shared with another font";
+        }
+        return null;
+    }
+
+    /**
+     * Two glyphs of the same outline, one even-odd and one non-zero:
+     * the second must share the outline of the first and keep its
+     * own winding rule.
+     */
+    protected String checkFillRule() {
+        Object font = new Object();
+        int [] rules = { Path2D.WIND_EVEN_ODD, Path2D.WIND_NON_ZERO,
+                         Path2D.WIND_EVEN_ODD };
+        for (int i = 0; i < rules.length; i++) {
+            GeneralPath path = new GeneralPath(rules[i]);
+            path.moveTo(0, 0);
+            path.lineTo(100, 0);
+            path.lineTo(50, 80);
+            path.closePath();
+            path.moveTo(20, 10);
+            path.lineTo(80, 10);
+            path.lineTo(50, 60);
+            path.closePath();
+
+            Glyph glyph = new Glyph
+                ("a", new ArrayList(), "", "", "", new Point2D.Float(),
+                 new Point2D.Float(), 100, 100, 1, null, path, null);
+            glyph.setGeometryKey(font, 20);
+            int hits = GlyphGeometryCache.getHitCount();
+            int rule = glyph.getOutline().getPathIterator(null)
+                .getWindingRule();
+            if (rule != rules[i])
+                return "glyph " + i + " has winding rule " + rule;
+            if ((i > 0) && (GlyphGeometryCache.getHitCount() != hits + 1))
+                return "glyph " + i + " not shared, "
+                    + GlyphGeometryCache.getStatistics();
+        }
+        return null;
+    }
+
+    /**
+     * Lays out text in an SVG font, changes the font and lays out new
+     * text: its outlines must be new entries, keyed on the new content
+     * of the font.  Once the document is dropped, the entries of both
+     * contents must be dropped with them.
+     */
+    protected String checkSVGFont() throws Exception {
+        WeakReference [] contents = new WeakReference[2];
+        String failure = changeSVGFont(contents);
+        if (failure != null)
+            return failure;
+
+        for (int i = 0; (i < NUM_GC) && !isCollected(contents); i++) {
+            System.gc();
+            Thread.sleep(20);
+            // Looking a glyph up drops the entries of collected fonts.
+            GlyphGeometryCache.get(contents, 0, 0);
+        }
+        if (!isCollected(contents))
+            return "font content not collected, "
+                + GlyphGeometryCache.getStatistics();
+        GlyphGeometryCache.get(contents, 0, 0);
+        if (GlyphGeometryCache.getByteCount() != 0)
+            return "entries of collected fonts kept, "
+                + GlyphGeometryCache.getStatistics();
+        return null;
+    }
+
+    /**
+     * Builds the document of <code>SVGFontModificationTest</code>,
+     * lays out its text in the SVG font, changes a glyph of the font
+     * and lays out a copy of the text.  The old and new contents of the
+     * font are returned in <code>contents</code>, the document and its
+     * bridge context are not kept.
+     */
+    protected String changeSVGFont(WeakReference [] contents)
+        throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument
+            ("file:///glyphGeometryCache.svg",
+             new StringReader(SVGFontModificationTest.DOCUMENT));
+        // Only glyphs of the SVG font, 'c' comes from another font.
+        Element text = doc.getElementById("text");
+        text.getFirstChild().setNodeValue("ab");
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamic(true);
+        new GVTBuilder().build(ctx, doc);
+        Element font = doc.getElementById("font");
+        ctx.getGraphicsNode(text).getOutline();
+        int oldMisses = GlyphGeometryCache.getMissCount();
+        if (oldMisses == 0)
+            return "no entries for the font";
+        contents[0] = new WeakReference(ctx.getElementData(font));
+
+        doc.getElementById("a").setAttributeNS
+            (null, "d", "M0 -200L300 -200L300 600Z");
+        Element newText = (Element)text.cloneNode(true);
+        newText.setAttributeNS(null, "id", "newText");
+        doc.getDocumentElement().appendChild(newText);
+        ctx.getGraphicsNode(newText).getOutline();
+        Object content = ctx.getElementData(font);
+        contents[1] = new WeakReference(content);
+        if ((content == null) || (content == contents[0].get()))
+            return "font content kept";
+        // Every outline of the old content is built again.
+        if (GlyphGeometryCache.getMissCount() < 2 * oldMisses)
+            return "entries of the old content reused, "
+                + GlyphGeometryCache.getStatistics();
+        ctx.dispose();
+        return null;
+    }
+
+    protected static boolean isCollected(WeakReference [] refs) {
+        for (int i = 0; i < refs.length; i++) {
+            if (refs[i].get() != null)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,305 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.StringReader;
+
+import org.w3c.dom.Document;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.gvt.PatternTileCache;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+/**
+ * Checks the <code>PatternTileCache</code> of a
+ * <code>BridgeContext</code>: a pattern painted again with a device
+ * transform it was painted with must reuse the cached tiles and draw
+ * as an uncached pattern does, the least recently used tiles must be
+ * dropped first when the byte budget is exceeded, and the tiles of a
+ * pattern must be dropped once its element has changed.
+ *
+ * <p>The rectangles of the document all use the same pattern.  Those
+ * that are rotated or flipped need tiles of their own, the one that is
+ * translated by whole pixels shares the tiles of the untransformed
+ * one.  A pattern paint reuses the context it created last, so a
+ * rectangle only goes to the cache when another transform was painted
+ * in between.</p>
+ *
+ * @version $Id$
+ */
+public class PatternTileCacheTest extends AbstractTest {
+
+    /**
+     * Error when the cache counters are not the expected ones.
+     * {0} = the step
+     * {1} = the counters
+     * {2} = the counters expected
+     */
+    public static final String ERROR_UNEXPECTED_COUNTS
+        = "PatternTileCacheTest.error.unexpected.counts";
+
+    /**
+     * Error when a pattern draws differently from the reference.
+     * {0} = the step
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_RENDERING_DIFFERS
+        = "PatternTileCacheTest.error.rendering.differs";
+
+    public static final String ENTRY_KEY_STEP
+        = "PatternTileCacheTest.entry.key.step";
+
+    public static final String ENTRY_KEY_COUNTS
+        = "PatternTileCacheTest.entry.key.counts";
+
+    public static final String ENTRY_KEY_EXPECTED_COUNTS
+        = "PatternTileCacheTest.entry.key.expected.counts";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "PatternTileCacheTest.entry.key.pixel";
+
+    public static final String CHECK_HIT          = "hit";
+    public static final String CHECK_EVICTION     = "eviction";
+    public static final String CHECK_INVALIDATION = "invalidation";
+
+    protected static final int SIZE = 200;
+
+    protected static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='200' height='200'>" +
+        "<defs>" +
+        "<pattern id='pattern' width='20' height='20'" +
+        " patternUnits='userSpaceOnUse'>" +
+        "<rect id='cell' width='10' height='10' fill='blue'/>" +
+        "<circle cx='15' cy='15' r='4' fill='green'/>" +
+        "</pattern>" +
+        "</defs>" +
+        "<rect id='plain' x='10' y='10' width='60' height='60'" +
+        " fill='url(#pattern)'/>" +
+        "<rect id='rotated90' x='10' y='10' width='60' height='60'" +
+        " fill='url(#pattern)' transform='rotate(90 100 100)'/>" +
+        "<rect id='rotated180' x='10' y='10' width='60' height='60'" +
+        " fill='url(#pattern)' transform='rotate(180 100 100)'/>" +
+        "<rect id='rotated270' x='10' y='10' width='60' height='60'" +
+        " fill='url(#pattern)' transform='rotate(270 100 100)'/>" +
+        "<rect id='flipped' x='10' y='10' width='60' height='60'" +
+        " fill='url(#pattern)' transform='matrix(-1 0 0 1 200 0)'/>" +
+        "<rect id='translated' x='10' y='10' width='60' height='60'" +
+        " fill='url(#pattern)' transform='translate(97 103)'/>" +
+        "</svg>";
+
+    /**
+     * The check to do.
+     */
+    protected String check;
+
+    public PatternTileCacheTest(String check) {
+        this.check = check;
+    }
+
+    public String getName() {
+        return super.getName() + "." + check;
+    }
+
+    public TestReport runImpl() throws Exception {
+        if (CHECK_HIT.equals(check))
+            return checkHit();
+        if (CHECK_EVICTION.equals(check))
+            return checkEviction();
+        if (CHECK_INVALIDATION.equals(check))
+            return checkInvalidation();
+        throw new IllegalArgumentException(check);
+    }
+
+    /**
+     * Paints the plain rectangle, a rotated one and the translated
+     * one: the last must be a cache hit, drawn as without a cache.
+     */
+    protected TestReport checkHit() throws Exception {
+        String [] ids = { "plain", "rotated90", "translated" };
+
+        BridgeContext ctx = createContext();
+        Document doc = build(ctx);
+        PatternTileCache cache = ctx.getPatternTileCache();
+        BufferedImage img = paint(ctx, doc, ids);
+        TestReport report = checkCounts("hit", cache, 1, 2, 0, 0);
+
+        BridgeContext refCtx = createContext();
+        refCtx.getPatternTileCache().setEnabled(false);
+        BufferedImage ref = paint(refCtx, build(refCtx), ids);
+
+        ctx.dispose();
+        refCtx.dispose();
+        if (report != null)
+            return report;
+        return checkRendering("hit", ref, img);
+    }
+
+    /**
+     * Fills a cache that holds four pattern tiles, uses the first
+     * again and adds a fifth: the second, least recently used, must
+     * be the one dropped.
+     */
+    protected TestReport checkEviction() throws Exception {
+        BridgeContext ctx = createContext();
+        Document doc = build(ctx);
+        PatternTileCache cache = ctx.getPatternTileCache();
+
+        paint(ctx, doc, new String[] { "plain" });
+        long sz = cache.getByteCount();
+        cache.setMaxBytes(4 * sz + sz / 2);
+
+        paint(ctx, doc, new String[] { "rotated90", "rotated180",
+                                       "rotated270", "plain" });
+        TestReport report = checkCounts("full", cache, 1, 4, 0, 0);
+        if (report == null) {
+            paint(ctx, doc, new String[] { "flipped" });
+            report = checkCounts("fifth", cache, 1, 5, 0, 1);
+        }
+        if (report == null) {
+            // The plain rectangle was kept, the first rotated one
+            // was dropped.
+            paint(ctx, doc, new String[] { "plain", "rotated90" });
+            report = checkCounts("after", cache, 2, 6, 0, 2);
+        }
+        ctx.dispose();
+        return report == null ? reportSuccess() : report;
+    }
+
+    /**
+     * Paints a rectangle, changes the content of the pattern and
+     * paints the rectangle again: the cached tiles must be dropped and
+     * the new content drawn.
+     */
+    protected TestReport checkInvalidation() throws Exception {
+        String [] ids = { "plain" };
+
+        BridgeContext ctx = createContext();
+        Document doc = build(ctx);
+        PatternTileCache cache = ctx.getPatternTileCache();
+        paint(ctx, doc, ids);
+        doc.getElementById("cell").setAttributeNS(null, "fill", "red");
+        BufferedImage img = paint(ctx, doc, ids);
+        TestReport report = checkCounts("changed", cache, 0, 2, 1, 0);
+
+        BridgeContext refCtx = createContext();
+        Document refDoc = build(refCtx);
+        refDoc.getElementById("cell").setAttributeNS(null, "fill", "red");
+        BufferedImage ref = paint(refCtx, refDoc, ids);
+
+        ctx.dispose();
+        refCtx.dispose();
+        if (report != null)
+            return report;
+        return checkRendering("changed", ref, img);
+    }
+
+    /**
+     * Returns a dynamic context, which binds the elements to their
+     * graphics nodes.
+     */
+    protected static BridgeContext createContext() {
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamic(true);
+        return ctx;
+    }
+
+    protected static Document build(BridgeContext ctx) throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("file:///patternTileCache.svg",
+                                        new StringReader(DOCUMENT));
+        new GVTBuilder().build(ctx, doc);
+        return doc;
+    }
+
+    /**
+     * Paints the graphics nodes of the elements of <code>doc</code>
+     * with the given ids, in order.
+     */
+    protected static BufferedImage paint(BridgeContext ctx, Document doc,
+                                         String [] ids) {
+        BufferedImage bi = new BufferedImage
+            (SIZE, SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = GraphicsUtil.createGraphics(bi);
+        for (int i = 0; i < ids.length; i++)
+            ctx.getGraphicsNode(doc.getElementById(ids[i])).paint(g);
+        g.dispose();
+        return bi;
+    }
+
+    /**
+     * Returns a report of failure if the counters of
+     * <code>cache</code> are not the given ones, or null.
+     */
+    protected TestReport checkCounts(String step, PatternTileCache cache,
+                                     int hits, int misses,
+                                     int invalidations, int evictions) {
+        String counts = "hits=" + cache.getHitCount()
+            + " misses=" + cache.getMissCount()
+            + " invalidations=" + cache.getInvalidationCount()
+            + " evictions=" + cache.getEvictionCount();
+        String expected = "hits=" + hits
+            + " misses=" + misses
+            + " invalidations=" + invalidations
+            + " evictions=" + evictions;
+        if (counts.equals(expected))
+            return null;
+
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_UNEXPECTED_COUNTS);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_STEP, step),
+            new TestReport.Entry(ENTRY_KEY_COUNTS, counts + ", "
+                                 + cache.getStatistics()),
+            new TestReport.Entry(ENTRY_KEY_EXPECTED_COUNTS, expected)
+        });
+        report.setPassed(false);
+        return report;
+    }
+
+    protected TestReport checkRendering(String step, BufferedImage ref,
+                                        BufferedImage img) {
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int a = ref.getRGB(x, y);
+                int b = img.getRGB(x, y);
+                if (a == b)
+                    continue;
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_RENDERING_DIFFERS);
+                report.setDescription(new TestReport.Entry[] {
+                    new TestReport.Entry(ENTRY_KEY_STEP, step),
+                    new TestReport.Entry
+                    (ENTRY_KEY_PIXEL, "(" + x + ", " + y + "): "
+                     + Integer.toHexString(a) + " != "
+                     + Integer.toHexString(b))
+                });
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return reportSuccess();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.geom.Rectangle2D;
+import java.io.StringReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.SVGConstants;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+/**
+ * Checks that text laid out with an SVG font in a dynamic document
+ * sees the changes made to the &lt;font&gt; element once it has been
+ * used.  The document is built, the font is modified and a new text
+ * element using it is added; its outline must be the one it has when
+ * it is added to a document built after the change.
+ *
+ * @version $Id$
+ */
+public class SVGFontModificationTest extends AbstractTest {
+
+    /**
+     * Error when the text does not use the modified font.
+     * {0} = the modification
+     * {1} = the bounds of the text outline
+     * {2} = the bounds expected
+     */
+    public static final String ERROR_FONT_NOT_UPDATED
+        = "SVGFontModificationTest.error.font.not.updated";
+
+    public static final String ENTRY_KEY_MODIFICATION
+        = "SVGFontModificationTest.entry.key.modification";
+
+    public static final String ENTRY_KEY_BOUNDS
+        = "SVGFontModificationTest.entry.key.bounds";
+
+    public static final String ENTRY_KEY_EXPECTED_BOUNDS
+        = "SVGFontModificationTest.entry.key.expected.bounds";
+
+    public static final String MODIFY_GLYPH_PATH = "glyphPath";
+    public static final String MODIFY_ADD_GLYPH  = "addGlyph";
+    public static final String MODIFY_ADD_HKERN  = "addHkern";
+
+    protected static final double TOLERANCE = 1e-3;
+
+    protected static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='400' height='200'>" +
+        "<defs>" +
+        "<font id='font' horiz-adv-x='500'>" +
+        "<font-face font-family='TestFont' units-per-em='1000'/>" +
+        "<missing-glyph d='M0 0L100 0L100 100Z'/>" +
+        "<glyph id='a' unicode='a' d='M0 0L400 0L400 400Z'/>" +
+        "<glyph unicode='b' d='M0 0L400 0L200 700Z'/>" +
+        "</font>" +
+        "</defs>" +
+        "<text id='text' x='10' y='100' font-family='TestFont'" +
+        " font-size='40'>abc</text>" +
+        "</svg>";
+
+    /**
+     * The modification to check.
+     */
+    protected String modification;
+
+    public SVGFontModificationTest(String modification) {
+        this.modification = modification;
+    }
+
+    public String getName() {
+        return "SVG font after " + modification;
+    }
+
+    public TestReport runImpl() throws Exception {
+        Document doc = createDocument();
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamic(true);
+        // lay out the text, which reads the glyphs it uses
+        new GVTBuilder().build(ctx, doc).getBounds();
+        modify(doc);
+        Rectangle2D bounds = getNewTextBounds(ctx, doc);
+
+        Document ref = createDocument();
+        modify(ref);
+        BridgeContext refCtx = new BridgeContext(new UserAgentAdapter());
+        refCtx.setDynamic(true);
+        new GVTBuilder().build(refCtx, ref);
+        Rectangle2D expected = getNewTextBounds(refCtx, ref);
+
+        ctx.dispose();
+        refCtx.dispose();
+
+        if ((Math.abs(bounds.getMinX() - expected.getMinX()) > TOLERANCE) ||
+            (Math.abs(bounds.getMinY() - expected.getMinY()) > TOLERANCE) ||
+            (Math.abs(bounds.getMaxX() - expected.getMaxX()) > TOLERANCE) ||
+            (Math.abs(bounds.getMaxY() - expected.getMaxY()) > TOLERANCE)) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_FONT_NOT_UPDATED);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_MODIFICATION, modification),
+                new TestReport.Entry(ENTRY_KEY_BOUNDS, bounds.toString()),
+                new TestReport.Entry(ENTRY_KEY_EXPECTED_BOUNDS,
+                                     expected.toString())
+            });
+            report.setPassed(false);
+            return report;
+        }
+        return reportSuccess();
+    }
+
+    protected Document createDocument() throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        return f.createDocument("file:///svgFont.svg",
+                                new StringReader(DOCUMENT));
+    }
+
+    /**
+     * Makes the modification on the font of <code>doc</code>.
+     */
+    protected void modify(Document doc) {
+        String ns = SVGConstants.SVG_NAMESPACE_URI;
+        Element font = doc.getElementById("font");
+        if (MODIFY_GLYPH_PATH.equals(modification)) {
+            doc.getElementById("a").setAttributeNS
+                (null, "d", "M0 -200L300 -200L300 600Z");
+        } else if (MODIFY_ADD_GLYPH.equals(modification)) {
+            Element glyph = doc.createElementNS(ns, "glyph");
+            glyph.setAttributeNS(null, "unicode", "c");
+            glyph.setAttributeNS(null, "d", "M0 0L450 0L450 900Z");
+            font.appendChild(glyph);
+        } else if (MODIFY_ADD_HKERN.equals(modification)) {
+            Element hkern = doc.createElementNS(ns, "hkern");
+            hkern.setAttributeNS(null, "u1", "a");
+            hkern.setAttributeNS(null, "u2", "b");
+            hkern.setAttributeNS(null, "k", "300");
+            font.appendChild(hkern);
+        } else {
+            throw new IllegalArgumentException(modification);
+        }
+    }
+
+    /**
+     * Adds a text element using the font to <code>doc</code> and
+     * returns the bounds of its outline.
+     */
+    protected static Rectangle2D getNewTextBounds(BridgeContext ctx,
+                                                  Document doc) {
+        Element text = (Element)doc.getElementById("text").cloneNode(true);
+        text.setAttributeNS(null, "id", "newText");
+        doc.getDocumentElement().appendChild(text);
+        GraphicsNode gn = ctx.getGraphicsNode(text);
+        return gn.getOutline().getBounds2D();
+    }
+}
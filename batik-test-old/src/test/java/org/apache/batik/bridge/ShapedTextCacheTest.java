@@ -0,0 +1,340 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.geom.Rectangle2D;
+import java.io.StringReader;
+import java.text.AttributedCharacterIterator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.font.GVTFont;
+import org.apache.batik.gvt.font.GVTGlyphVector;
+import org.apache.batik.gvt.text.BidiAttributedCharacterIterator;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+/**
+ * Checks that the text runs <code>StrokingTextPainter</code> builds
+ * from a shaping shared through the <code>ShapedTextCache</code> are
+ * those it builds from a fresh bidi reordering and font matching: the
+ * same characters with the same attributes, mapped to the same
+ * characters of the node and laid out as the same glyphs.  Each text
+ * is shaped once for a first element, stored in the cache, then for a
+ * second element of the same text and font found in the cache, which
+ * differs in its position, paint and text compound.
+ *
+ * @version $Id$
+ */
+public class ShapedTextCacheTest extends AbstractTest {
+
+    /**
+     * Error when the cache is not used as expected.
+     * {0} = the text
+     * {1} = the cache statistics
+     */
+    public static final String ERROR_CACHE_NOT_USED
+        = "ShapedTextCacheTest.error.cache.not.used";
+
+    /**
+     * Error when the shared shaping gives other runs than a fresh one.
+     * {0} = the text
+     * {1} = the element
+     * {2} = the difference
+     */
+    public static final String ERROR_RUNS_DIFFER
+        = "ShapedTextCacheTest.error.runs.differ";
+
+    public static final String ENTRY_KEY_TEXT
+        = "ShapedTextCacheTest.entry.key.text";
+
+    public static final String ENTRY_KEY_STATISTICS
+        = "ShapedTextCacheTest.entry.key.statistics";
+
+    public static final String ENTRY_KEY_ELEMENT
+        = "ShapedTextCacheTest.entry.key.element";
+
+    public static final String ENTRY_KEY_DIFFERENCE
+        = "ShapedTextCacheTest.entry.key.difference";
+
+    /**
+     * The texts checked: the font family, the text, and the position
+     * and paint of each of the two elements.  The Hebrew word that
+     * starts the bidi text, and its x and y, are moved to the end of
+     * the line: the position goes to the first visual character.
+     */
+    protected static final String [][] TEXTS = {
+        { "latin", "SansSerif", "Shared text, shaped once",
+          "x='10' y='30' fill='black'", "x='20' y='60' fill='red'" },
+        { "bidi", "SansSerif",
+          "\u05e9\u05dc\u05d5\u05dd abc 123 \u05d0\u05d1\u05d2",
+          "x='10' y='30'", "x='40' y='90' fill='blue' stroke='red'" },
+        { "arabic", "SansSerif",
+          "\u0645\u0631\u062d\u0628\u0627 (12) \u0639\u0627\u0644\u0645",
+          "x='10' y='30'", "x='15' y='120' fill='green'" },
+        { "fallback", "DejaVu Serif, SansSerif",
+          "Shalom \u05e9\u05dc\u05d5\u05dd and salaam "
+          + "\u0633\u0644\u0627\u0645",
+          "x='10' y='30'", "x='10' y='150' opacity='0.5'" }
+    };
+
+    /**
+     * The text checked, a key of <code>TEXTS</code>.
+     */
+    protected String text;
+
+    public ShapedTextCacheTest(String text) {
+        this.text = text;
+    }
+
+    public String getName() {
+        return super.getName() + "." + text;
+    }
+
+    public TestReport runImpl() throws Exception {
+        String [] entry = null;
+        for (int i = 0; i < TEXTS.length; i++) {
+            if (TEXTS[i][0].equals(text))
+                entry = TEXTS[i];
+        }
+        if (entry == null)
+            throw new IllegalArgumentException(text);
+
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamic(true);
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument
+            ("file:///shapedTextCache.svg",
+             new StringReader(createDocument(entry)));
+        new GVTBuilder().build(ctx, doc);
+        TextNode first  = (TextNode)ctx.getGraphicsNode
+            (doc.getElementById("first"));
+        TextNode second = (TextNode)ctx.getGraphicsNode
+            (doc.getElementById("second"));
+
+        StrokingTextPainter painter = new StrokingTextPainter();
+        boolean enabled = ShapedTextCache.isEnabled();
+        try {
+            ShapedTextCache.setEnabled(true);
+            ShapedTextCache.clear();
+
+            // A miss for the first element, a hit for the second.
+            int hits   = ShapedTextCache.getHitCount();
+            int misses = ShapedTextCache.getMissCount();
+            List firstRuns  = computeSharedTextRuns(painter, first);
+            List secondRuns = computeSharedTextRuns(painter, second);
+            if ((firstRuns == null) || (secondRuns == null) ||
+                (ShapedTextCache.getMissCount() != misses + 1) ||
+                (ShapedTextCache.getHitCount() != hits + 1)) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_CACHE_NOT_USED);
+                report.setDescription(new TestReport.Entry[] {
+                    new TestReport.Entry(ENTRY_KEY_TEXT, text),
+                    new TestReport.Entry(ENTRY_KEY_STATISTICS,
+                                         ShapedTextCache.getStatistics())
+                });
+                report.setPassed(false);
+                return report;
+            }
+
+            String diff = compare(computeTextRuns(painter, first),
+                                  firstRuns, first);
+            String element = "first";
+            if (diff == null) {
+                diff = compare(computeTextRuns(painter, second),
+                               secondRuns, second);
+                element = "second";
+            }
+            if (diff == null) {
+                diff = compareShaping(painter, second);
+                element = "second shaping";
+            }
+            if (diff != null) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_RUNS_DIFFER);
+                report.setDescription(new TestReport.Entry[] {
+                    new TestReport.Entry(ENTRY_KEY_TEXT, text),
+                    new TestReport.Entry(ENTRY_KEY_ELEMENT, element),
+                    new TestReport.Entry(ENTRY_KEY_DIFFERENCE, diff)
+                });
+                report.setPassed(false);
+                return report;
+            }
+        } finally {
+            ShapedTextCache.clear();
+            ShapedTextCache.setEnabled(enabled);
+            ctx.dispose();
+        }
+        return reportSuccess();
+    }
+
+    protected static String createDocument(String [] entry) {
+        return "<svg xmlns='http://www.w3.org/2000/svg'" +
+            " width='400' height='200' font-size='20'" +
+            " font-family='" + entry[1] + "'>" +
+            "<text id='first' " + entry[3] + ">" + entry[2] + "</text>" +
+            "<text id='second' " + entry[4] + ">" + entry[2] + "</text>" +
+            "</svg>";
+    }
+
+    protected static List computeSharedTextRuns(StrokingTextPainter painter,
+                                                TextNode node) {
+        AttributedCharacterIterator aci =
+            node.getAttributedCharacterIterator();
+        AttributedCharacterIterator [] chunkACIs =
+            painter.getTextChunkACIs(aci);
+        return painter.computeSharedTextRuns(node, aci, chunkACIs[0]);
+    }
+
+    protected static List computeTextRuns(StrokingTextPainter painter,
+                                          TextNode node) {
+        AttributedCharacterIterator aci =
+            node.getAttributedCharacterIterator();
+        return painter.computeTextRuns
+            (node, aci, painter.getTextChunkACIs(aci));
+    }
+
+    /**
+     * Compares the shaping of the chunk of <code>node</code> taken
+     * from the cache with a fresh one: the characters, their
+     * attributes and the map to the chars of the chunk.
+     */
+    protected static String compareShaping(StrokingTextPainter painter,
+                                           TextNode node) {
+        AttributedCharacterIterator aci =
+            node.getAttributedCharacterIterator();
+        AttributedCharacterIterator chunk = painter.getTextChunkACIs(aci)[0];
+        BidiAttributedCharacterIterator bidi =
+            new BidiAttributedCharacterIterator
+            (chunk, painter.fontRenderContext, chunk.getBeginIndex());
+        AttributedCharacterIterator ref =
+            painter.createModifiedACIForFontMatching(bidi);
+
+        int [][] charMaps = new int[1][];
+        chunk = painter.getTextChunkACIs(aci)[0];
+        AttributedCharacterIterator shaped =
+            painter.getSharedShaping(chunk, charMaps);
+        if (!Arrays.equals(bidi.getCharMap(), charMaps[0]))
+            return "char map " + Arrays.toString(charMaps[0]) + " != "
+                + Arrays.toString(bidi.getCharMap());
+        return compareChars(ref, shaped);
+    }
+
+    /**
+     * Compares two lists of text runs of <code>node</code>.
+     */
+    protected static String compare(List ref, List runs, TextNode node) {
+        if (ref.size() != runs.size())
+            return runs.size() + " runs != " + ref.size();
+        int n = node.getText().length();
+        for (int r = 0; r < ref.size(); r++) {
+            StrokingTextPainter.TextRun refRun =
+                (StrokingTextPainter.TextRun)ref.get(r);
+            StrokingTextPainter.TextRun run =
+                (StrokingTextPainter.TextRun)runs.get(r);
+            String diff = compareChars(refRun.getACI(), run.getACI());
+            if (diff != null)
+                return "run " + r + ": " + diff;
+
+            TextSpanLayout refLayout = refRun.getLayout();
+            TextSpanLayout layout = run.getLayout();
+            for (int c = 0; c < n; c++) {
+                if ((layout.hasCharacterIndex(c) !=
+                     refLayout.hasCharacterIndex(c)) ||
+                    (layout.getGlyphIndex(c) != refLayout.getGlyphIndex(c)))
+                    return "run " + r + ": char " + c + " mapped to glyph "
+                        + layout.getGlyphIndex(c) + " != "
+                        + refLayout.getGlyphIndex(c);
+            }
+            if (layout.isLeftToRight() != refLayout.isLeftToRight())
+                return "run " + r + ": direction";
+            GVTGlyphVector gv = layout.getGlyphVector();
+            GVTGlyphVector refGV = refLayout.getGlyphVector();
+            if (gv.getNumGlyphs() != refGV.getNumGlyphs())
+                return "run " + r + ": " + gv.getNumGlyphs() + " glyphs != "
+                    + refGV.getNumGlyphs();
+            for (int g = 0; g < gv.getNumGlyphs(); g++) {
+                if ((gv.getGlyphCode(g) != refGV.getGlyphCode(g)) ||
+                    !gv.getGlyphPosition(g).equals
+                    (refGV.getGlyphPosition(g)))
+                    return "run " + r + ": glyph " + g;
+            }
+            Rectangle2D b = layout.getBounds2D();
+            Rectangle2D rb = refLayout.getBounds2D();
+            if ((b == null) ? (rb != null) : !b.equals(rb))
+                return "run " + r + ": bounds " + b + " != " + rb;
+        }
+        return null;
+    }
+
+    /**
+     * Compares the characters of two iterators and their attributes,
+     * as returned by <code>normalize</code>.
+     */
+    protected static String compareChars(AttributedCharacterIterator ref,
+                                         AttributedCharacterIterator aci) {
+        int n = ref.getEndIndex() - ref.getBeginIndex();
+        if ((aci.getEndIndex() - aci.getBeginIndex()) != n)
+            return "length " + (aci.getEndIndex() - aci.getBeginIndex())
+                + " != " + n;
+        for (int i = 0; i < n; i++) {
+            char rc = ref.setIndex(ref.getBeginIndex() + i);
+            char c  = aci.setIndex(aci.getBeginIndex() + i);
+            if (c != rc)
+                return "char " + i + ": '" + c + "' != '" + rc + "'";
+            Map ra = normalize(ref.getAttributes());
+            Map a  = normalize(aci.getAttributes());
+            if (!a.equals(ra))
+                return "char " + i + ": " + a + " != " + ra;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the attributes with a value and a value other than NaN,
+     * fonts being replaced by their class, family and size.
+     */
+    protected static Map normalize(Map attrs) {
+        Map m = new HashMap();
+        Iterator i = attrs.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry e = (Map.Entry)i.next();
+            Object v = e.getValue();
+            if ((v == null) ||
+                ((v instanceof Float) && ((Float)v).isNaN()))
+                continue;
+            if (v instanceof GVTFont) {
+                GVTFont font = (GVTFont)v;
+                v = font.getClass().getName() + " "
+                    + font.getFamilyName() + " " + font.getSize();
+            }
+            m.put(e.getKey(), v);
+        }
+        return m;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.geom.Rectangle2D;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.List;
+
+import org.w3c.dom.Document;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+/**
+ * Checks that the <code>TextHitIndex</code> of a <code>TextNode</code>
+ * finds, on a grid of points over the node, the hit and the text run
+ * that testing every glyph of every run finds: the first run whose
+ * bounds contain the point and that has a glyph there.  The index of a
+ * node must be rebuilt when its text runs are set.
+ *
+ * @version $Id$
+ */
+public class TextHitIndexTest extends AbstractTest {
+
+    /**
+     * Error when the index finds another hit than the linear search.
+     * {0} = the text
+     * {1} = the point
+     * {2} = the hit of the index
+     * {3} = the hit of the linear search
+     */
+    public static final String ERROR_HITS_DIFFER
+        = "TextHitIndexTest.error.hits.differ";
+
+    /**
+     * Error when the index is not rebuilt for new text runs.
+     * {0} = the text
+     */
+    public static final String ERROR_INDEX_KEPT
+        = "TextHitIndexTest.error.index.kept";
+
+    public static final String ENTRY_KEY_TEXT
+        = "TextHitIndexTest.entry.key.text";
+
+    public static final String ENTRY_KEY_POINT
+        = "TextHitIndexTest.entry.key.point";
+
+    public static final String ENTRY_KEY_INDEX_HIT
+        = "TextHitIndexTest.entry.key.index.hit";
+
+    public static final String ENTRY_KEY_LINEAR_HIT
+        = "TextHitIndexTest.entry.key.linear.hit";
+
+    /**
+     * Text with glyphs rotated and moved one by one, in a rotated
+     * element.
+     */
+    public static final String TEXT_ROTATED     = "rotated";
+    public static final String TEXT_VERTICAL    = "vertical";
+    public static final String TEXT_TEXT_PATH   = "textPath";
+    public static final String TEXT_BIDI        = "bidi";
+    public static final String TEXT_SET_RUNS    = "setTextRuns";
+
+    /**
+     * The number of points of the grid along each axis.
+     */
+    protected static final int GRID = 120;
+
+    protected static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg'" +
+        " xmlns:xlink='http://www.w3.org/1999/xlink'" +
+        " width='400' height='400' font-family='SansSerif'" +
+        " font-size='18'>" +
+        "<defs><path id='curve' d='M20,200 C100,100 250,300 380,180'/>" +
+        "</defs>" +
+        "<text id='rotated' transform='rotate(25 100 50)'>" +
+        "<tspan x='10' y='30'>Line one</tspan>" +
+        "<tspan x='10' y='60' rotate='30 -20 45 90'>Rotated glyphs</tspan>" +
+        "<tspan x='10 40 25 90' y='90 85 100 92'>Moved</tspan>" +
+        "</text>" +
+        "<text id='vertical' x='200' y='20' writing-mode='tb'>" +
+        "Vertical <tspan glyph-orientation-vertical='90'>sideways</tspan>" +
+        " text<tspan x='240' y='20'>Column two</tspan>" +
+        "</text>" +
+        "<text id='textPath'>" +
+        "<textPath xlink:href='#curve'>Text along a curved path" +
+        " with some words</textPath>" +
+        "</text>" +
+        "<text id='bidi' x='10' y='300'>" +
+        "abc \u05e9\u05dc\u05d5\u05dd 123 \u0645\u0631\u062d\u0628\u0627" +
+        " def<tspan x='10' y='330'>\u05d0\u05d1\u05d2 (xyz) \u05d3" +
+        "</tspan>" +
+        "</text>" +
+        "</svg>";
+
+    /**
+     * The text checked, the id of its element.
+     */
+    protected String text;
+
+    public TextHitIndexTest(String text) {
+        this.text = text;
+    }
+
+    public String getName() {
+        return super.getName() + "." + text;
+    }
+
+    public TestReport runImpl() throws Exception {
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamic(true);
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("file:///textHitIndex.svg",
+                                        new StringReader(DOCUMENT));
+        new GVTBuilder().build(ctx, doc);
+
+        TestReport report;
+        if (TEXT_SET_RUNS.equals(text)) {
+            TextNode node = getTextNode(ctx, doc, TEXT_ROTATED);
+            TextNode other = getTextNode(ctx, doc, TEXT_BIDI);
+            report = compare(TEXT_ROTATED, node);
+            if (report == null) {
+                TextHitIndex old = node.getHitIndex();
+                // The runs of the bidi text, and their bounds, in the
+                // rotated text node.
+                node.setTextRuns(other.getTextRuns());
+                if (node.getHitIndex() == old) {
+                    DefaultTestReport r = new DefaultTestReport(this);
+                    r.setErrorCode(ERROR_INDEX_KEPT);
+                    r.setDescription(new TestReport.Entry[] {
+                        new TestReport.Entry(ENTRY_KEY_TEXT, text)
+                    });
+                    r.setPassed(false);
+                    report = r;
+                } else {
+                    report = compare(TEXT_SET_RUNS, node,
+                                     getBounds(other.getTextRuns()));
+                }
+            }
+        } else {
+            report = compare(text, getTextNode(ctx, doc, text));
+        }
+        ctx.dispose();
+        return (report == null) ? reportSuccess() : report;
+    }
+
+    /**
+     * Returns the text node of the element <code>id</code>, laid out.
+     */
+    protected static TextNode getTextNode(BridgeContext ctx, Document doc,
+                                          String id) {
+        TextNode node = (TextNode)ctx.getGraphicsNode
+            (doc.getElementById(id));
+        node.getPrimitiveBounds();
+        return node;
+    }
+
+    protected TestReport compare(String name, TextNode node) {
+        return compare(name, node, getBounds(node.getTextRuns()));
+    }
+
+    /**
+     * Compares the index of <code>node</code> with the linear search
+     * on a grid of points over <code>r</code>, grown by two units.
+     */
+    protected TestReport compare(String name, TextNode node,
+                                 Rectangle2D r) {
+        List runs = node.getTextRuns();
+        TextHitIndex index = node.getHitIndex();
+        double x0 = r.getMinX() - 2;
+        double y0 = r.getMinY() - 2;
+        double w  = r.getWidth()  + 4;
+        double h  = r.getHeight() + 4;
+        for (int j = 0; j <= GRID; j++) {
+            for (int i = 0; i <= GRID; i++) {
+                double x = x0 + w * i / GRID;
+                double y = y0 + h * j / GRID;
+
+                StrokingTextPainter.TextRun refRun = null;
+                TextHit ref = null;
+                Iterator it = runs.iterator();
+                while (it.hasNext()) {
+                    StrokingTextPainter.TextRun run =
+                        (StrokingTextPainter.TextRun)it.next();
+                    TextSpanLayout layout = run.getLayout();
+                    TextHit hit = layout.hitTestChar((float)x, (float)y);
+                    Rectangle2D b = layout.getBounds2D();
+                    if ((hit != null) && (b != null) && b.contains(x, y)) {
+                        ref = hit;
+                        refRun = run;
+                        break;
+                    }
+                }
+
+                TextHit got = index.hitTestChar(x, y);
+                if ((index.getTextRun(x, y) == refRun) &&
+                    toString(got).equals(toString(ref)))
+                    continue;
+
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_HITS_DIFFER);
+                report.setDescription(new TestReport.Entry[] {
+                    new TestReport.Entry(ENTRY_KEY_TEXT, name),
+                    new TestReport.Entry(ENTRY_KEY_POINT,
+                                         "(" + x + ", " + y + ")"),
+                    new TestReport.Entry(ENTRY_KEY_INDEX_HIT, toString(got)),
+                    new TestReport.Entry(ENTRY_KEY_LINEAR_HIT, toString(ref))
+                });
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the union of the bounds of the layouts of the runs.
+     */
+    protected static Rectangle2D getBounds(List runs) {
+        Rectangle2D r = null;
+        Iterator it = runs.iterator();
+        while (it.hasNext()) {
+            StrokingTextPainter.TextRun run =
+                (StrokingTextPainter.TextRun)it.next();
+            Rectangle2D b = run.getLayout().getBounds2D();
+            if (b == null)
+                continue;
+            if (r == null)
+                r = (Rectangle2D)b.clone();
+            else
+                r.add(b);
+        }
+        return r;
+    }
+
+    protected static String toString(TextHit hit) {
+        if (hit == null)
+            return "none";
+        return hit.getCharIndex() + (hit.isLeadingEdge() ? " leading"
+                                                         : " trailing");
+    }
+}
@@ -0,0 +1,269 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.font.TextAttribute;
+import java.awt.geom.Rectangle2D;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+/**
+ * Checks that the bounds given by a <code>TextMeasurer</code> are the
+ * geometry bounds of the <code>TextNode</code> of an unpositioned
+ * &lt;text&gt; element of the same text and font, that a batch gives
+ * the metrics of the strings measured one by one, and that threads
+ * measuring with the same measurer at once all get these metrics.
+ *
+ * @version $Id$
+ */
+public class TextMeasurerTest extends AbstractTest {
+
+    /**
+     * Error when the bounds differ from those of the text node.
+     * {0} = the text
+     * {1} = the bounds of the measurer
+     * {2} = the bounds of the text node
+     */
+    public static final String ERROR_BOUNDS_DIFFER
+        = "TextMeasurerTest.error.bounds.differ";
+
+    /**
+     * Error when the metrics of a batch, or of a thread, differ from
+     * those of a string measured alone.
+     * {0} = the text
+     * {1} = how it was measured
+     */
+    public static final String ERROR_METRICS_DIFFER
+        = "TextMeasurerTest.error.metrics.differ";
+
+    public static final String ENTRY_KEY_TEXT
+        = "TextMeasurerTest.entry.key.text";
+
+    public static final String ENTRY_KEY_BOUNDS
+        = "TextMeasurerTest.entry.key.bounds";
+
+    public static final String ENTRY_KEY_NODE_BOUNDS
+        = "TextMeasurerTest.entry.key.node.bounds";
+
+    public static final String ENTRY_KEY_MEASURED
+        = "TextMeasurerTest.entry.key.measured";
+
+    public static final String TEXTS_LATIN     = "latin";
+    public static final String TEXTS_BIDI      = "bidi";
+    public static final String TEXTS_MULTIFONT = "multiFont";
+
+    protected static final float FONT_SIZE = 17;
+
+    protected static final int THREADS = 8;
+
+    protected static final int REPEATS = 50;
+
+    /**
+     * The strings measured: the font families, whether the text is
+     * bold, and the strings.  The Hebrew and Arabic of the multi-font
+     * strings are not in DejaVu Serif and come from the next family.
+     */
+    protected static final Object [][] TEXTS = {
+        { TEXTS_LATIN, new String[] { "Serif" }, Boolean.TRUE,
+          new String[] {
+            "Hello", "Hello, World!", "x", "fi ffl AV To", "12.5%",
+            "The quick brown fox jumps over the lazy dog" } },
+        { TEXTS_BIDI, new String[] { "SansSerif" }, Boolean.FALSE,
+          new String[] {
+            "\u05e9\u05dc\u05d5\u05dd abc "
+            + "\u0645\u0631\u062d\u0628\u0627",
+            "abc \u05d0\u05d1\u05d2 123 def",
+            "\u0645\u0631\u062d\u0628\u0627 (12) "
+            + "\u0639\u0627\u0644\u0645" } },
+        { TEXTS_MULTIFONT, new String[] { "DejaVu Serif", "SansSerif" },
+          Boolean.FALSE, new String[] {
+            "Shalom \u05e9\u05dc\u05d5\u05dd and salaam "
+            + "\u0633\u0644\u0627\u0645",
+            "\u05d0 Ab \u05d1 Cd \u05d2",
+            "\u0416 Cyrillic \u0436 \u0645" } }
+    };
+
+    /**
+     * The strings measured, a key of <code>TEXTS</code>.
+     */
+    protected String texts;
+
+    public TextMeasurerTest(String texts) {
+        this.texts = texts;
+    }
+
+    public String getName() {
+        return super.getName() + "." + texts;
+    }
+
+    public TestReport runImpl() throws Exception {
+        Object [] entry = null;
+        for (int i = 0; i < TEXTS.length; i++) {
+            if (TEXTS[i][0].equals(texts))
+                entry = TEXTS[i];
+        }
+        if (entry == null)
+            throw new IllegalArgumentException(texts);
+
+        String [] families = (String[])entry[1];
+        boolean bold = ((Boolean)entry[2]).booleanValue();
+        final String [] strs = (String[])entry[3];
+
+        Map attrs = new HashMap();
+        if (bold)
+            attrs.put(TextAttribute.WEIGHT, TextAttribute.WEIGHT_BOLD);
+        final TextMeasurer tm = new TextMeasurer
+            (families, FONT_SIZE, attrs);
+
+        // Each string alone, against the text nodes.
+        TextMeasurer.Metrics [] ref = new TextMeasurer.Metrics[strs.length];
+        TextNode [] nodes = buildTextNodes(families, bold, strs);
+        for (int i = 0; i < strs.length; i++) {
+            ref[i] = tm.measure(strs[i]);
+            Rectangle2D b = ref[i].getBounds();
+            Rectangle2D nb = nodes[i].getGeometryBounds();
+            if ((b == null) ? (nb != null) : !b.equals(nb)) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_BOUNDS_DIFFER);
+                report.setDescription(new TestReport.Entry[] {
+                    new TestReport.Entry(ENTRY_KEY_TEXT, strs[i]),
+                    new TestReport.Entry(ENTRY_KEY_BOUNDS,
+                                         String.valueOf(b)),
+                    new TestReport.Entry(ENTRY_KEY_NODE_BOUNDS,
+                                         String.valueOf(nb))
+                });
+                report.setPassed(false);
+                return report;
+            }
+        }
+
+        // The same strings as a batch.
+        String diff = compare(ref, tm.measure(strs), strs);
+        if (diff != null)
+            return reportMetrics(diff, "batch");
+
+        // Batches measured by several threads at once.
+        final TextMeasurer.Metrics [][] results =
+            new TextMeasurer.Metrics[THREADS * REPEATS][];
+        Thread [] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int first = t * REPEATS;
+            threads[t] = new Thread() {
+                    public void run() {
+                        for (int r = 0; r < REPEATS; r++)
+                            results[first + r] = tm.measure(strs);
+                    }
+                };
+            threads[t].start();
+        }
+        for (int t = 0; t < THREADS; t++)
+            threads[t].join();
+        for (int i = 0; i < results.length; i++) {
+            diff = (results[i] == null)
+                ? strs[0] : compare(ref, results[i], strs);
+            if (diff != null)
+                return reportMetrics(diff, "thread " + (i / REPEATS));
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Returns the text of the first metrics that differ, or null.
+     */
+    protected static String compare(TextMeasurer.Metrics [] ref,
+                                    TextMeasurer.Metrics [] m,
+                                    String [] strs) {
+        for (int i = 0; i < strs.length; i++) {
+            Rectangle2D b = m[i].getBounds();
+            Rectangle2D rb = ref[i].getBounds();
+            if (((b == null) ? (rb != null) : !b.equals(rb)) ||
+                !m[i].getAdvance().equals(ref[i].getAdvance()) ||
+                (m[i].getAscent()  != ref[i].getAscent()) ||
+                (m[i].getDescent() != ref[i].getDescent()))
+                return strs[i];
+        }
+        return null;
+    }
+
+    /**
+     * Builds a document of one unpositioned &lt;text&gt; element per
+     * string and returns their text nodes.
+     */
+    protected static TextNode [] buildTextNodes(String [] families,
+                                                boolean bold,
+                                                String [] strs)
+        throws Exception {
+        StringBuffer sb = new StringBuffer();
+        StringBuffer family = new StringBuffer();
+        for (int i = 0; i < families.length; i++) {
+            if (i > 0)
+                family.append(", ");
+            family.append(families[i]);
+        }
+        sb.append("<svg xmlns='http://www.w3.org/2000/svg'"
+                  + " width='100' height='100'>");
+        for (int i = 0; i < strs.length; i++) {
+            sb.append("<text id='t").append(i)
+                .append("' font-family='").append(family)
+                .append("' font-size='").append(FONT_SIZE)
+                .append(bold ? "' font-weight='bold'>" : "'>")
+                .append(escape(strs[i]))
+                .append("</text>");
+        }
+        sb.append("</svg>");
+
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("file:///textMeasurer.svg",
+                                        new StringReader(sb.toString()));
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamic(true);
+        new GVTBuilder().build(ctx, doc);
+
+        TextNode [] nodes = new TextNode[strs.length];
+        for (int i = 0; i < strs.length; i++)
+            nodes[i] = (TextNode)ctx.getGraphicsNode
+                (doc.getElementById("t" + i));
+        return nodes;
+    }
+
+    protected static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;");
+    }
+
+    protected TestReport reportMetrics(String text, String measured) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_METRICS_DIFFER);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_TEXT, text),
+            new TestReport.Entry(ENTRY_KEY_MEASURED, measured)
+        });
+        report.setPassed(false);
+        return report;
+    }
+}
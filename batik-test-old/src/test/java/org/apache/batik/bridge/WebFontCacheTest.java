@@ -0,0 +1,308 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.Font;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+
+import org.w3c.dom.Document;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.font.GVTFontFamily;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.ParsedURL;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+/**
+ * Checks the <code>WebFontCache</code>: a font already cached must
+ * still be refused to a document that may not load it, whether it is
+ * referenced through the URL it was loaded from or through another
+ * one; identical fonts at two URLs must share one entry; and the
+ * fonts kept must stay within the byte budget, the least recently used
+ * being dropped first.
+ *
+ * @version $Id$
+ */
+public class WebFontCacheTest extends AbstractTest {
+
+    /**
+     * Error when a check fails.
+     * {0} = the step
+     * {1} = what was found
+     */
+    public static final String ERROR_CHECK_FAILED
+        = "WebFontCacheTest.error.check.failed";
+
+    public static final String ENTRY_KEY_STEP
+        = "WebFontCacheTest.entry.key.step";
+
+    public static final String ENTRY_KEY_FOUND
+        = "WebFontCacheTest.entry.key.found";
+
+    public static final String CHECK_SECURITY = "security";
+    public static final String CHECK_SHARED   = "sharedContent";
+    public static final String CHECK_EVICTION = "eviction";
+
+    protected static final String FONT_FILE =
+        "samples/tests/resources/ttf/glb12.ttf";
+
+    /**
+     * The number of different fonts loaded to check the eviction,
+     * twice the number the cache may keep.
+     */
+    protected static final int FONTS = 8;
+
+    protected static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg'" +
+        " width='100' height='100'/>";
+
+    /**
+     * The check to do.
+     */
+    protected String check;
+
+    /**
+     * The temporary font files written.
+     */
+    protected File [] files = new File[FONTS];
+
+    public WebFontCacheTest(String check) {
+        this.check = check;
+    }
+
+    public String getName() {
+        return super.getName() + "." + check;
+    }
+
+    public TestReport runImpl() throws Exception {
+        boolean enabled = WebFontCache.isEnabled();
+        long maxBytes = WebFontCache.getMaxBytes();
+        try {
+            WebFontCache.setEnabled(true);
+            WebFontCache.clear();
+            byte [] data = readFont();
+            String failure;
+            if (CHECK_SECURITY.equals(check))
+                failure = checkSecurity(data);
+            else if (CHECK_SHARED.equals(check))
+                failure = checkSharedContent(data);
+            else if (CHECK_EVICTION.equals(check))
+                failure = checkEviction(data);
+            else
+                throw new IllegalArgumentException(check);
+            if (failure == null)
+                return reportSuccess();
+
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_CHECK_FAILED);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_STEP, check),
+                new TestReport.Entry(ENTRY_KEY_FOUND, failure)
+            });
+            report.setPassed(false);
+            return report;
+        } finally {
+            WebFontCache.clear();
+            WebFontCache.setMaxBytes(maxBytes);
+            WebFontCache.setEnabled(enabled);
+            for (int i = 0; i < files.length; i++) {
+                if (files[i] != null)
+                    files[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Loads a font through a document allowed to load it, then through
+     * a document that may not load external resources, first from the
+     * same URL and then from another URL of the same content.
+     */
+    protected String checkSecurity(byte [] data) throws Exception {
+        ParsedURL url1 = writeFont(0, data, 0);
+        ParsedURL url2 = writeFont(1, data, 0);
+
+        TestUserAgent allowed = new TestUserAgent(true);
+        if (loadFont(allowed, url1) == null)
+            return "font not loaded, " + WebFontCache.getStatistics();
+
+        TestUserAgent denied = new TestUserAgent(false);
+        int urlHits = WebFontCache.getURLHitCount();
+        int contentHits = WebFontCache.getContentHitCount();
+        if (loadFont(denied, url1) != null)
+            return "cached font given for a refused URL";
+        if (loadFont(denied, url2) != null)
+            return "cached font given for a refused new URL";
+        if (denied.errors != 2)
+            return denied.errors + " security errors displayed";
+        if ((WebFontCache.getURLHitCount() != urlHits) ||
+            (WebFontCache.getContentHitCount() != contentHits))
+            return "cache looked up for refused URLs, "
+                + WebFontCache.getStatistics();
+
+        if (loadFont(allowed, url2) == null)
+            return "font not loaded from the new URL";
+        return null;
+    }
+
+    /**
+     * Loads the same font from two URLs: the second must be found by
+     * its content, and the two URLs must then both give the one font
+     * kept.
+     */
+    protected String checkSharedContent(byte [] data) throws Exception {
+        ParsedURL url1 = writeFont(0, data, 0);
+        ParsedURL url2 = writeFont(1, data, 0);
+
+        Font f1 = WebFontCache.getFont(url1);
+        int contentHits = WebFontCache.getContentHitCount();
+        Font f2 = WebFontCache.getFont(url2);
+        if ((f1 != f2) ||
+            (WebFontCache.getContentHitCount() != contentHits + 1))
+            return "content not shared, " + WebFontCache.getStatistics();
+        if (WebFontCache.getByteCount() != data.length)
+            return "content kept twice, " + WebFontCache.getStatistics();
+
+        int urlHits = WebFontCache.getURLHitCount();
+        if ((WebFontCache.getFont(url1) != f1) ||
+            (WebFontCache.getFont(url2) != f1) ||
+            (WebFontCache.getURLHitCount() != urlHits + 2))
+            return "URLs not remembered, " + WebFontCache.getStatistics();
+        return null;
+    }
+
+    /**
+     * Loads <code>FONTS</code> different fonts into a cache that may
+     * keep half of them: the byte budget must be met, the first fonts
+     * dropped and the last ones kept.
+     */
+    protected String checkEviction(byte [] data) throws Exception {
+        // A font may take at most a quarter of the budget to be cached.
+        long max = 4L * (data.length + FONTS);
+        WebFontCache.setMaxBytes(max);
+
+        ParsedURL [] urls = new ParsedURL[FONTS];
+        for (int i = 0; i < FONTS; i++) {
+            urls[i] = writeFont(i, data, i + 1);
+            WebFontCache.getFont(urls[i]);
+            if (WebFontCache.getByteCount() > max)
+                return "budget exceeded, " + WebFontCache.getStatistics();
+        }
+        if (WebFontCache.getEvictionCount() < FONTS / 2)
+            return "fonts not evicted, " + WebFontCache.getStatistics();
+
+        int urlHits = WebFontCache.getURLHitCount();
+        WebFontCache.getFont(urls[FONTS - 1]);
+        if (WebFontCache.getURLHitCount() != urlHits + 1)
+            return "last font dropped, " + WebFontCache.getStatistics();
+
+        int misses = WebFontCache.getMissCount();
+        WebFontCache.getFont(urls[0]);
+        if (WebFontCache.getMissCount() != misses + 1)
+            return "first font kept, " + WebFontCache.getStatistics();
+        if (WebFontCache.getByteCount() > max)
+            return "budget exceeded, " + WebFontCache.getStatistics();
+        return null;
+    }
+
+    /**
+     * Loads the font at <code>url</code> as a font-face source of a
+     * document rendered for <code>ua</code>.
+     */
+    protected GVTFontFamily loadFont(UserAgent ua, ParsedURL url)
+        throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("file:///webFontCache.svg",
+                                        new StringReader(DOCUMENT));
+        BridgeContext ctx = new BridgeContext(ua);
+        new GVTBuilder().build(ctx, doc);
+        GVTFontFamily family =
+            new CSSFontFace("WebFontCacheTest").getFontFamily(ctx, url);
+        ctx.dispose();
+        return family;
+    }
+
+    protected static byte [] readFont() throws Exception {
+        InputStream in = new FileInputStream(FONT_FILE);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte [] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1)
+                out.write(buf, 0, n);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes <code>data</code>, followed by <code>extra</code> bytes
+     * that make it another font file, to the temporary file
+     * <code>i</code> and returns its URL.
+     */
+    protected ParsedURL writeFont(int i, byte [] data, int extra)
+        throws Exception {
+        files[i] = File.createTempFile("webFontCache", ".ttf");
+        OutputStream out = new FileOutputStream(files[i]);
+        try {
+            out.write(data);
+            for (int j = 0; j < extra; j++)
+                out.write(j);
+        } finally {
+            out.close();
+        }
+        return new ParsedURL(files[i].toURI().toURL());
+    }
+
+    /**
+     * A user agent allowed, or not, to load external resources, which
+     * counts the errors displayed.
+     */
+    protected static class TestUserAgent extends UserAgentAdapter {
+
+        protected boolean allowed;
+
+        protected int errors;
+
+        public TestUserAgent(boolean allowed) {
+            this.allowed = allowed;
+        }
+
+        public ExternalResourceSecurity getExternalResourceSecurity
+            (ParsedURL resourceURL, ParsedURL docURL) {
+            if (allowed)
+                return super.getExternalResourceSecurity
+                    (resourceURL, docURL);
+            return new NoLoadExternalResourceSecurity();
+        }
+
+        public void displayError(Exception ex) {
+            errors++;
+        }
+    }
+}
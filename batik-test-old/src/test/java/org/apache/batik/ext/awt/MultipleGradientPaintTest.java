@@ -0,0 +1,460 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks the fills of <code>LinearGradientPaint</code> and
+ * <code>RadialGradientPaint</code> against the gradient computed for
+ * every pixel from its definition.  Each gradient is filled twice, the
+ * second time with the color tables the paint contexts share, and
+ * gradients that differ only in their colors are filled one after the
+ * other, so that tables shared wrongly are noticed.  The gradients
+ * include one that runs along the columns, for which the linear fills
+ * fill whole rows at once, and radial gradients extending past their
+ * circle, whose rows outside of it are filled with the end color.
+ *
+ * <p>The paint contexts step through the gradient from pixel to pixel
+ * in fixed point and look the colors up in tables, and the
+ * anti-aliased fills average the gradient over a pixel, so a pixel is
+ * accepted if it has, give or take a tolerance, a color the gradient
+ * takes within a pixel of it.  Colors interpolated in linear RGB are
+ * compared in linear RGB, where they are quantized.</p>
+ *
+ * @version $Id$
+ */
+public class MultipleGradientPaintTest extends AbstractTest {
+
+    /**
+     * Error when a fill differs from the exact gradient.
+     * {0} = the gradient
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_GRADIENT_DIFFERS
+        = "MultipleGradientPaintTest.error.gradient.differs";
+
+    /**
+     * Error when a fill differs from the first fill of the same
+     * gradient.
+     * {0} = the gradient
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_REFILL_DIFFERS
+        = "MultipleGradientPaintTest.error.refill.differs";
+
+    public static final String ENTRY_KEY_GRADIENT
+        = "MultipleGradientPaintTest.entry.key.gradient";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "MultipleGradientPaintTest.entry.key.pixel";
+
+    public static final String TYPE_LINEAR = "linear";
+    public static final String TYPE_RADIAL = "radial";
+
+    /**
+     * Largest difference allowed on a channel.
+     */
+    protected static final int TOLERANCE = 3;
+
+    protected static final int WIDTH  = 90;
+    protected static final int HEIGHT = 70;
+
+    /**
+     * The stop fractions of the gradients.  The second set has an
+     * interval small enough for the colors to be kept in one table per
+     * interval.
+     */
+    protected static final float [][] FRACTIONS = {
+        { 0f, 0.4f, 1f },
+        { 0.1f, 0.5f, 0.502f, 0.9f }
+    };
+
+    /**
+     * The transforms the gradients are filled with.
+     */
+    protected static final AffineTransform [] TRANSFORMS = {
+        new AffineTransform(),
+        new AffineTransform(0.8, 0.35, -0.25, 1.1, 12.5, -4)
+    };
+
+    protected String type;
+    protected MultipleGradientPaint.CycleMethodEnum cycleMethod;
+    protected MultipleGradientPaint.ColorSpaceEnum colorSpace;
+    protected boolean quality;
+
+    /**
+     * @param type "linear" or "radial"
+     * @param cycleMethod "pad", "reflect" or "repeat"
+     * @param colorSpace "sRGB" or "linearRGB"
+     * @param quality whether to fill with the anti-aliased fills
+     */
+    public MultipleGradientPaintTest(String type, String cycleMethod,
+                                     String colorSpace, Boolean quality) {
+        if (!TYPE_LINEAR.equals(type) && !TYPE_RADIAL.equals(type))
+            throw new IllegalArgumentException(type);
+        this.type = type;
+        if ("pad".equals(cycleMethod))
+            this.cycleMethod = MultipleGradientPaint.NO_CYCLE;
+        else if ("reflect".equals(cycleMethod))
+            this.cycleMethod = MultipleGradientPaint.REFLECT;
+        else if ("repeat".equals(cycleMethod))
+            this.cycleMethod = MultipleGradientPaint.REPEAT;
+        else
+            throw new IllegalArgumentException(cycleMethod);
+        if ("sRGB".equals(colorSpace))
+            this.colorSpace = MultipleGradientPaint.SRGB;
+        else if ("linearRGB".equals(colorSpace))
+            this.colorSpace = MultipleGradientPaint.LINEAR_RGB;
+        else
+            throw new IllegalArgumentException(colorSpace);
+        this.quality = quality.booleanValue();
+    }
+
+    public TestReport runImpl() throws Exception {
+        int geometries = TYPE_LINEAR.equals(type) ? 3 : 2;
+        for (int f = 0; f < FRACTIONS.length; f++) {
+            for (int c = 0; c < 2; c++) {
+                Color [] colors = createColors(FRACTIONS[f].length, c);
+                for (int g = 0; g < geometries; g++) {
+                    for (int t = 0; t < TRANSFORMS.length; t++) {
+                        String name = type + " " + g + ", stops " + f
+                            + ", colors " + c + ", transform " + t;
+                        Paint p = createPaint(g, FRACTIONS[f], colors,
+                                              TRANSFORMS[t]);
+                        BufferedImage img = fill(p);
+                        String diff = compare(p, img);
+                        if (diff != null)
+                            return reportDiff(ERROR_GRADIENT_DIFFERS,
+                                              name, diff);
+                        diff = compare(img, fill(p));
+                        if (diff != null)
+                            return reportDiff(ERROR_REFILL_DIFFERS,
+                                              name, diff);
+                    }
+                }
+            }
+        }
+        return reportSuccess();
+    }
+
+    protected TestReport reportDiff(String code, String name, String diff) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_GRADIENT, name),
+            new TestReport.Entry(ENTRY_KEY_PIXEL, diff)
+        });
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Returns the stop colors of a gradient.  Both sets have the same
+     * number of colors, so only the colors tell their tables apart.
+     * The colors are translucent only when interpolated in sRGB, as the
+     * interpolation in linear RGB converts alpha too.
+     */
+    protected Color [] createColors(int n, int set) {
+        int a = (colorSpace == MultipleGradientPaint.SRGB) ? 128 : 255;
+        Color [] base;
+        if (set == 0)
+            base = new Color [] { new Color(255, 0, 0),
+                                  new Color(20, 200, 60, a),
+                                  new Color(0, 0, 255),
+                                  new Color(250, 240, 10) };
+        else
+            base = new Color [] { new Color(0, 0, 0),
+                                  new Color(255, 255, 255),
+                                  new Color(90, 10, 160, a),
+                                  new Color(255, 128, 0) };
+        Color [] colors = new Color[n];
+        System.arraycopy(base, 0, colors, 0, n);
+        return colors;
+    }
+
+    /**
+     * Creates a paint.  The linear gradients go across the image, along
+     * its columns, or so short that most of the image is padded or
+     * cycled; the radial gradients have their focus at their center or
+     * away from it.
+     */
+    protected Paint createPaint(int geometry, float [] fractions,
+                                Color [] colors, AffineTransform at) {
+        if (TYPE_LINEAR.equals(type)) {
+            Point2D start, end;
+            switch (geometry) {
+            case 0:
+                start = new Point2D.Float(10, 5);
+                end   = new Point2D.Float(70, 50);
+                break;
+            case 1:
+                start = new Point2D.Float(20, 10);
+                end   = new Point2D.Float(20, 55);
+                break;
+            default:
+                start = new Point2D.Float(40, 30);
+                end   = new Point2D.Float(47, 41);
+            }
+            return new LinearGradientPaint(start, end, fractions, colors,
+                                           cycleMethod, colorSpace, at);
+        }
+        Point2D center = new Point2D.Float(40, 30);
+        Point2D focus = (geometry == 0) ? center
+                                        : new Point2D.Float(32, 36);
+        return new RadialGradientPaint(center, 22, focus, fractions, colors,
+                                       cycleMethod, colorSpace, at);
+    }
+
+    /**
+     * Fills the image with a paint, replacing its pixels.
+     */
+    protected BufferedImage fill(Paint p) {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT,
+                                              BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING,
+                           quality ? RenderingHints.VALUE_RENDER_QUALITY
+                                   : RenderingHints.VALUE_RENDER_SPEED);
+        g.setPaint(p);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * Returns a description of the first pixel of <code>img</code>
+     * whose color the gradient does not take within a pixel of it, or
+     * null.
+     */
+    protected String compare(Paint p, BufferedImage img)
+        throws NoninvertibleTransformException {
+        MultipleGradientPaint mgp = (MultipleGradientPaint)p;
+        AffineTransform inv = mgp.getTransform().createInverse();
+        double [] min = new double[4];
+        double [] max = new double[4];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double g  = getPosition(p, inv, x, y);
+                double d  = Math.max(Math.abs(getPosition(p, inv, x + 1, y) - g),
+                                     Math.abs(getPosition(p, inv, x, y + 1) - g));
+                getColorRange(mgp, g - d, g + d, min, max);
+
+                int rgb = img.getRGB(x, y);
+                for (int k = 0; k < 4; k++) {
+                    double v = fromSRGB((rgb >>> (24 - 8 * k)) & 0xff, k);
+                    if ((v < min[k] - TOLERANCE) || (v > max[k] + TOLERANCE))
+                        return "(" + x + ", " + y + ") band " + k + ": "
+                            + v + " not in [" + min[k] + ", " + max[k]
+                            + "]";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a description of the first pixel that differs, or null.
+     */
+    protected static String compare(BufferedImage ref, BufferedImage img) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = ref.getRGB(x, y);
+                int b = img.getRGB(x, y);
+                if (a != b)
+                    return "(" + x + ", " + y + "): "
+                        + Integer.toHexString(b) + " != "
+                        + Integer.toHexString(a);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the position along the gradient of a device pixel,
+     * before cycling.
+     */
+    protected static double getPosition(Paint p, AffineTransform inv,
+                                        int x, int y) {
+        Point2D pt = inv.transform(new Point2D.Double(x, y), null);
+        if (p instanceof LinearGradientPaint) {
+            LinearGradientPaint lgp = (LinearGradientPaint)p;
+            Point2D s = lgp.getStartPoint();
+            Point2D e = lgp.getEndPoint();
+            double vx = e.getX() - s.getX();
+            double vy = e.getY() - s.getY();
+            return ((pt.getX() - s.getX()) * vx + (pt.getY() - s.getY()) * vy)
+                / (vx * vx + vy * vy);
+        }
+        // The point is at g where it lies on the circle scaled by g
+        // about the focus: |F + (P - F) / g - C| = r.
+        RadialGradientPaint rgp = (RadialGradientPaint)p;
+        Point2D ctr = rgp.getCenterPoint();
+        Point2D f = rgp.getFocusPoint();
+        double r = rgp.getRadius();
+        double ex = f.getX() - ctr.getX();
+        double ey = f.getY() - ctr.getY();
+        double dx = pt.getX() - f.getX();
+        double dy = pt.getY() - f.getY();
+        double a = r * r - (ex * ex + ey * ey);
+        double b = ex * dx + ey * dy;
+        return (b + Math.sqrt(b * b + a * (dx * dx + dy * dy))) / a;
+    }
+
+    /**
+     * Stores in <code>min</code> and <code>max</code> the range of each
+     * color component over the positions from <code>lo</code> to
+     * <code>hi</code>, before cycling.
+     */
+    protected void getColorRange(MultipleGradientPaint p, double lo,
+                                 double hi, double [] min, double [] max) {
+        for (int k = 0; k < 4; k++) {
+            min[k] = Double.MAX_VALUE;
+            max[k] = -Double.MAX_VALUE;
+        }
+        // The positions cycled, as one or two ranges within [0, 1].
+        double a0, b0, a1 = 1, b1 = 0;
+        if (cycleMethod == MultipleGradientPaint.NO_CYCLE) {
+            a0 = Math.max(0, Math.min(1, lo));
+            b0 = Math.max(0, Math.min(1, hi));
+        } else if (cycleMethod == MultipleGradientPaint.REPEAT) {
+            double fl = Math.floor(lo);
+            if (hi - fl >= 2) {
+                a0 = 0;
+                b0 = 1;
+            } else if (hi - fl >= 1) {
+                a0 = lo - fl;
+                b0 = 1;
+                a1 = 0;
+                b1 = hi - fl - 1;
+            } else {
+                a0 = lo - fl;
+                b0 = hi - fl;
+            }
+        } else {
+            // Reflection is monotonic between integers.
+            a0 = Math.min(reflect(lo), reflect(hi));
+            b0 = Math.max(reflect(lo), reflect(hi));
+            for (double i = Math.ceil(lo); i <= hi; i++) {
+                a0 = Math.min(a0, reflect(i));
+                b0 = Math.max(b0, reflect(i));
+            }
+        }
+        addColorRange(p, a0, b0, min, max);
+        if (a1 <= b1)
+            addColorRange(p, a1, b1, min, max);
+    }
+
+    protected static double reflect(double g) {
+        g = Math.abs(g) % 2;
+        return (g > 1) ? 2 - g : g;
+    }
+
+    /**
+     * Widens <code>min</code> and <code>max</code> to the colors between
+     * <code>a</code> and <code>b</code>, which are found at these
+     * positions or at the stops between them.
+     */
+    protected void addColorRange(MultipleGradientPaint p, double a, double b,
+                                 double [] min, double [] max) {
+        float [] fractions = p.getFractions();
+        double [] c = new double[4];
+        for (int i = -2; i < fractions.length; i++) {
+            double g;
+            if (i == -2)
+                g = a;
+            else if (i == -1)
+                g = b;
+            else if ((fractions[i] > a) && (fractions[i] < b))
+                g = fractions[i];
+            else
+                continue;
+            getColor(p, g, c);
+            for (int k = 0; k < 4; k++) {
+                min[k] = Math.min(min[k], c[k]);
+                max[k] = Math.max(max[k], c[k]);
+            }
+        }
+    }
+
+    /**
+     * Stores in <code>c</code> the color of the gradient at a position,
+     * as alpha and the red, green and blue components in the
+     * interpolation color space, between 0 and 255.
+     */
+    protected void getColor(MultipleGradientPaint p, double g, double [] c) {
+        float [] fractions = p.getFractions();
+        Color [] colors = p.getColors();
+        int n = fractions.length;
+        if (g <= fractions[0]) {
+            getComponents(colors[0], c);
+            return;
+        }
+        if (g >= fractions[n - 1]) {
+            getComponents(colors[n - 1], c);
+            return;
+        }
+        int i = 1;
+        while (fractions[i] < g)
+            i++;
+        double t = (g - fractions[i - 1])
+            / (fractions[i] - fractions[i - 1]);
+        double [] lo = new double[4];
+        getComponents(colors[i - 1], lo);
+        getComponents(colors[i], c);
+        for (int k = 0; k < 4; k++)
+            c[k] = lo[k] + t * (c[k] - lo[k]);
+    }
+
+    protected void getComponents(Color col, double [] c) {
+        int rgb = col.getRGB();
+        for (int k = 0; k < 4; k++) {
+            c[k] = fromSRGB((rgb >>> (24 - 8 * k)) & 0xff, k);
+        }
+    }
+
+    /**
+     * Returns an sRGB component as a component of the interpolation
+     * color space.
+     */
+    protected double fromSRGB(int v, int k) {
+        if ((k == 0) || (colorSpace == MultipleGradientPaint.SRGB))
+            return v;
+        return toLinear(v);
+    }
+
+    protected static double toLinear(int v) {
+        double c = v / 255.0;
+        c = (c <= 0.04045) ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+        return c * 255;
+    }
+}
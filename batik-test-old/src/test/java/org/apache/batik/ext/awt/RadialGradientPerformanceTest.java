@@ -0,0 +1,105 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+
+import org.apache.batik.test.PerformanceTest;
+
+/**
+ * Checks that there is no performance degradation when filling with a
+ * <code>RadialGradientPaint</code>.  The reference operation fills the
+ * same area with a <code>LinearGradientPaint</code> using the same
+ * stops, so the score is the cost of the radial gradient relative to
+ * the linear one.
+ *
+ * @version $Id$
+ */
+public class RadialGradientPerformanceTest extends PerformanceTest {
+    static final int SIZE = 400;
+
+    static final float[] FRACTIONS = { 0f, .3f, .7f, 1f };
+    static final Color[] COLORS = { Color.white, Color.yellow,
+                                    Color.orange, Color.red };
+
+    protected BufferedImage image =
+        new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+
+    protected Paint radial;
+    protected Paint linear;
+    protected Object rendering;
+
+    /**
+     * @param cycleMethod one of "pad", "reflect" or "repeat"
+     * @param focal whether the focus is away from the center
+     * @param quality whether to render with the quality hint, which
+     *        selects the anti-aliased gradient lookup
+     */
+    public RadialGradientPerformanceTest(String cycleMethod,
+                                         Boolean focal,
+                                         Boolean quality) {
+        MultipleGradientPaint.CycleMethodEnum cycle;
+        if ("reflect".equals(cycleMethod))
+            cycle = MultipleGradientPaint.REFLECT;
+        else if ("repeat".equals(cycleMethod))
+            cycle = MultipleGradientPaint.REPEAT;
+        else
+            cycle = MultipleGradientPaint.NO_CYCLE;
+
+        float c = SIZE / 2f;
+        Point2D center = new Point2D.Float(c, c);
+        Point2D focus = focal.booleanValue()
+            ? new Point2D.Float(c * .6f, c * .7f) : center;
+
+        radial = new RadialGradientPaint
+            (center, SIZE / 3f, focus, FRACTIONS, COLORS, cycle,
+             MultipleGradientPaint.SRGB, new AffineTransform());
+        linear = new LinearGradientPaint
+            (new Point2D.Float(0, 0), new Point2D.Float(SIZE / 3f, SIZE / 4f),
+             FRACTIONS, COLORS, cycle, MultipleGradientPaint.SRGB,
+             new AffineTransform());
+        rendering = quality.booleanValue()
+            ? RenderingHints.VALUE_RENDER_QUALITY
+            : RenderingHints.VALUE_RENDER_DEFAULT;
+    }
+
+    protected void fill(Paint p) {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, rendering);
+        for (int i = 0; i < 10; i++) {
+            g.setPaint(p);
+            g.fillRect(0, 0, SIZE, SIZE);
+        }
+        g.dispose();
+    }
+
+    protected void runRef() {
+        fill(linear);
+    }
+
+    protected void runOp() {
+        fill(radial);
+    }
+}
@@ -0,0 +1,309 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.renderable;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.ext.awt.image.CompositeRule;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.FillShapePainter;
+import org.apache.batik.gvt.ShapeNode;
+import org.apache.batik.gvt.filter.GraphicsNodeRable8Bit;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that a rewrite of the <code>FilterOptimizer</code> is done on
+ * a filter graph built as the SVG bridges build it, and that the
+ * simplified graph renders exactly as the original one, under several
+ * transforms.
+ *
+ * @version $Id$
+ */
+public class FilterOptimizerTest extends AbstractTest {
+
+    /**
+     * Error when the rewrite is not done.
+     * {0} = the rewrite
+     * {1} = the rewrites done
+     */
+    public static final String ERROR_NOT_REWRITTEN
+        = "FilterOptimizerTest.error.not.rewritten";
+
+    /**
+     * Error when the simplified graph renders differently.
+     * {0} = the transform
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_RENDERING_DIFFERS
+        = "FilterOptimizerTest.error.rendering.differs";
+
+    public static final String ENTRY_KEY_REWRITE
+        = "FilterOptimizerTest.entry.key.rewrite";
+
+    public static final String ENTRY_KEY_CHANGES
+        = "FilterOptimizerTest.entry.key.changes";
+
+    public static final String ENTRY_KEY_TRANSFORM
+        = "FilterOptimizerTest.entry.key.transform";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "FilterOptimizerTest.entry.key.pixel";
+
+    public static final String REWRITE_COLOR_MATRIX  = "colorMatrix";
+    public static final String REWRITE_COMPOSITE     = "composite";
+    public static final String REWRITE_NESTED_PADS   = "nestedPads";
+    public static final String REWRITE_ZERO_OFFSET   = "zeroOffset";
+    public static final String REWRITE_OFFSETS       = "offsets";
+    public static final String REWRITE_BLUR_CROP     = "blurCrop";
+
+    /**
+     * The region every primitive is padded to.
+     */
+    protected static final Rectangle2D REGION
+        = new Rectangle2D.Double(-10, -10, 120, 100);
+
+    /**
+     * The transforms the graphs are rendered with.
+     */
+    protected static final AffineTransform [] TRANSFORMS = {
+        new AffineTransform(),
+        new AffineTransform(1.5, 0, 0, 1.5, 3.25, 7.5),
+        new AffineTransform(0.7, 0.3, -0.2, 0.9, 20, 10)
+    };
+
+    /**
+     * The rewrite to check.
+     */
+    protected String rewrite;
+
+    /**
+     * The source of the filter graphs.
+     */
+    protected Filter source;
+
+    public FilterOptimizerTest(String rewrite) {
+        this.rewrite = rewrite;
+    }
+
+    public TestReport runImpl() throws Exception {
+        source = createSource();
+
+        Filter original = buildGraph();
+        FilterOptimizer optimizer = new FilterOptimizer();
+        Filter optimized = optimizer.optimize(buildGraph());
+
+        List changes = optimizer.getChanges();
+        if (!hasChange(changes)) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_NOT_REWRITTEN);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_REWRITE, rewrite),
+                new TestReport.Entry(ENTRY_KEY_CHANGES, changes.toString())
+            });
+            report.setPassed(false);
+            return report;
+        }
+
+        for (int i = 0; i < TRANSFORMS.length; i++) {
+            BufferedImage ref = render(original,  TRANSFORMS[i]);
+            BufferedImage img = render(optimized, TRANSFORMS[i]);
+            String diff = compare(ref, img);
+            if (diff != null) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_RENDERING_DIFFERS);
+                report.setDescription(new TestReport.Entry[] {
+                    new TestReport.Entry(ENTRY_KEY_TRANSFORM,
+                                         TRANSFORMS[i].toString()),
+                    new TestReport.Entry(ENTRY_KEY_PIXEL, diff)
+                });
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Returns true if the changes hold a rewrite of the checked kind.
+     */
+    protected boolean hasChange(List changes) {
+        String prefix;
+        if (REWRITE_COLOR_MATRIX.equals(rewrite))
+            prefix = "Removed identity color matrix";
+        else if (REWRITE_COMPOSITE.equals(rewrite))
+            prefix = "Removed composite of a single source";
+        else if (REWRITE_NESTED_PADS.equals(rewrite))
+            prefix = "Merged nested pads";
+        else if (REWRITE_ZERO_OFFSET.equals(rewrite))
+            prefix = "Removed zero offset";
+        else if (REWRITE_OFFSETS.equals(rewrite))
+            prefix = "Merged offsets";
+        else if (REWRITE_BLUR_CROP.equals(rewrite))
+            prefix = "Reduced blur input region";
+        else
+            throw new IllegalArgumentException(rewrite);
+
+        for (int i = 0; i < changes.size(); i++) {
+            if (((String)changes.get(i)).startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds a new filter graph holding the redundancy the rewrite
+     * removes, the way the filter primitive bridges build it.
+     */
+    protected Filter buildGraph() {
+        // The source graphic is padded to the filter region.
+        Filter in = pad(source, REGION);
+
+        if (REWRITE_COLOR_MATRIX.equals(rewrite)) {
+            // The matrix is only removed when its input needs no
+            // colour space conversion, as the output of a blur does
+            // not.
+            in = pad(new GaussianBlurRable8Bit(in, 1.5, 1.5), REGION);
+            float [][] m = { { 1, 0, 0, 0, 0 },
+                             { 0, 1, 0, 0, 0 },
+                             { 0, 0, 1, 0, 0 },
+                             { 0, 0, 0, 1, 0 } };
+            ColorMatrixRable cm = ColorMatrixRable8Bit.buildMatrix(m);
+            cm.setSource(in);
+            return pad(cm, REGION);
+        }
+        if (REWRITE_COMPOSITE.equals(rewrite)) {
+            in = pad(new GaussianBlurRable8Bit(in, 1.5, 1.5), REGION);
+            List srcs = new ArrayList();
+            srcs.add(offset(in, 5, 3, REGION));
+            return pad(new CompositeRable8Bit(srcs, CompositeRule.OVER,
+                                              true), REGION);
+        }
+        if (REWRITE_NESTED_PADS.equals(rewrite)) {
+            Rectangle2D r = new Rectangle2D.Double(5, 0, 70, 60);
+            return pad(pad(in, REGION), r);
+        }
+        if (REWRITE_ZERO_OFFSET.equals(rewrite)) {
+            Rectangle2D r = new Rectangle2D.Double(10, 5, 60, 50);
+            return offset(in, 0, 0, r);
+        }
+        if (REWRITE_OFFSETS.equals(rewrite)) {
+            Rectangle2D r1 = new Rectangle2D.Double(0, 0, 80, 70);
+            Rectangle2D r2 = new Rectangle2D.Double(5, -5, 90, 70);
+            return offset(offset(in, 7.5, -4, r1), -12, 9.25, r2);
+        }
+        if (REWRITE_BLUR_CROP.equals(rewrite)) {
+            GaussianBlurRable8Bit blur
+                = new GaussianBlurRable8Bit(pad(in, REGION), 2.5, 1.5);
+            return pad(blur, new Rectangle2D.Double(30, 20, 25, 20));
+        }
+        throw new IllegalArgumentException(rewrite);
+    }
+
+    /**
+     * Builds an feOffset primitive as its bridge does.
+     */
+    protected static Filter offset(Filter in, double dx, double dy,
+                                   Rectangle2D region) {
+        Filter filter = new AffineRable8Bit
+            (pad(in, region), AffineTransform.getTranslateInstance(dx, dy));
+        return pad(filter, region);
+    }
+
+    protected static Filter pad(Filter in, Rectangle2D region) {
+        return new PadRable8Bit(in, region, PadMode.ZERO_PAD);
+    }
+
+    /**
+     * Creates a source graphic with sharp edges, gradients and
+     * translucency.  It is drawn in device space, as the source graphic
+     * of an SVG filter is, so its pixels do not depend on the area
+     * rendered.
+     */
+    protected static Filter createSource() {
+        CompositeGraphicsNode root = new CompositeGraphicsNode();
+        root.add(createShape(new Rectangle2D.Double(0, 0, 100, 80),
+                             new GradientPaint(0, 0, Color.red,
+                                               100, 80, Color.blue)));
+        root.add(createShape(new Ellipse2D.Double(20, 10, 60, 50),
+                             new Color(0, 128, 0, 160)));
+        root.add(createShape(new Rectangle2D.Double(45, 0, 3, 80),
+                             Color.white));
+        return new GraphicsNodeRable8Bit(root);
+    }
+
+    protected static ShapeNode createShape(Shape s, Paint p) {
+        ShapeNode node = new ShapeNode();
+        node.setShape(s);
+        FillShapePainter painter = new FillShapePainter(s);
+        painter.setPaint(p);
+        node.setShapePainter(painter);
+        return node;
+    }
+
+    /**
+     * Renders a filter into a fixed device area, converting the
+     * result to sRGB as a filtered node does.
+     */
+    protected static BufferedImage render(Filter f, AffineTransform at) {
+        BufferedImage bi = new BufferedImage(250, 200,
+                                             BufferedImage.TYPE_INT_ARGB_PRE);
+        RenderContext rc = new RenderContext
+            (at, new Rectangle2D.Double(-50, -50, 300, 300), null);
+        RenderedImage ri = f.createRendering(rc);
+        if (ri != null) {
+            Graphics2D g = GraphicsUtil.createGraphics(bi);
+            GraphicsUtil.drawImage(g, ri);
+            g.dispose();
+        }
+        return bi;
+    }
+
+    /**
+     * Returns a description of the first pixel that differs, or null.
+     */
+    protected static String compare(BufferedImage ref, BufferedImage img) {
+        for (int y = 0; y < ref.getHeight(); y++) {
+            for (int x = 0; x < ref.getWidth(); x++) {
+                int a = ref.getRGB(x, y);
+                int b = img.getRGB(x, y);
+                if (a != b)
+                    return "(" + x + ", " + y + "): "
+                        + Integer.toHexString(a) + " != "
+                        + Integer.toHexString(b);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,332 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.renderable;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.awt.image.renderable.RenderContext;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.rendered.AbstractRed;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks the <code>FilterResultCache</code>: a cached rendering must
+ * draw as a fresh rendering does, its tiles must only be computed
+ * when first asked for, and a cache must only serve the filters it
+ * was handed to.
+ *
+ * @version $Id$
+ */
+public class FilterResultCacheTest extends AbstractTest {
+
+    /**
+     * Error when a rendering is not found in, or wrongly found in,
+     * the cache.
+     * {0} = the step
+     * {1} = the hit count
+     */
+    public static final String ERROR_UNEXPECTED_HIT_COUNT
+        = "FilterResultCacheTest.error.unexpected.hit.count";
+
+    /**
+     * Error when a cached rendering draws differently.
+     * {0} = the step
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_RENDERING_DIFFERS
+        = "FilterResultCacheTest.error.rendering.differs";
+
+    /**
+     * Error when tiles are not computed on demand, or computed more
+     * than once.
+     * {0} = the step
+     * {1} = the number of tiles computed
+     */
+    public static final String ERROR_UNEXPECTED_TILE_COUNT
+        = "FilterResultCacheTest.error.unexpected.tile.count";
+
+    public static final String ENTRY_KEY_STEP
+        = "FilterResultCacheTest.entry.key.step";
+
+    public static final String ENTRY_KEY_COUNT
+        = "FilterResultCacheTest.entry.key.count";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "FilterResultCacheTest.entry.key.pixel";
+
+    public static final String CHECK_HIT   = "hit";
+    public static final String CHECK_TILES = "tiles";
+    public static final String CHECK_SCOPE = "scope";
+
+    /**
+     * The tile size of the renderings of <code>CountingRable</code>.
+     */
+    protected static final int TILE_SIZE = 16;
+
+    /**
+     * The check to do.
+     */
+    protected String check;
+
+    public FilterResultCacheTest(String check) {
+        this.check = check;
+    }
+
+    public String getName() {
+        return super.getName() + "." + check;
+    }
+
+    public TestReport runImpl() throws Exception {
+        if (CHECK_HIT.equals(check))
+            return checkHit();
+        if (CHECK_TILES.equals(check))
+            return checkTiles();
+        if (CHECK_SCOPE.equals(check))
+            return checkScope();
+        throw new IllegalArgumentException(check);
+    }
+
+    /**
+     * Renders a blur twice, and once more moved by whole pixels,
+     * through a cache, and compares the results with renderings of a
+     * blur that has no cache.
+     */
+    protected TestReport checkHit() {
+        Filter source = FilterOptimizerTest.createSource();
+        FilterResultCache cache = new FilterResultCache();
+        GaussianBlurRable8Bit blur = createBlur(source);
+        blur.setResultCache(cache);
+        Filter uncached = createBlur(source);
+
+        AffineTransform at = new AffineTransform(1.5, 0, 0, 1.5, 3.25, 7.5);
+        AffineTransform moved = AffineTransform.getTranslateInstance(3, -2);
+        moved.concatenate(at);
+
+        String [] steps = { "first", "second", "moved" };
+        AffineTransform [] xforms = { at, at, moved };
+        int [] hits = { 0, 1, 2 };
+        for (int i = 0; i < steps.length; i++) {
+            BufferedImage img = FilterOptimizerTest.render(blur, xforms[i]);
+            if (cache.getHitCount() != hits[i])
+                return reportHitCount(steps[i], cache);
+
+            BufferedImage ref
+                = FilterOptimizerTest.render(uncached, xforms[i]);
+            String diff = FilterOptimizerTest.compare(ref, img);
+            if (diff != null) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_RENDERING_DIFFERS);
+                report.setDescription(new TestReport.Entry[] {
+                    new TestReport.Entry(ENTRY_KEY_STEP, steps[i]),
+                    new TestReport.Entry(ENTRY_KEY_PIXEL, diff)
+                });
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Checks that caching a rendering computes none of its tiles, that
+     * a tile is computed when first asked for and only once, and that
+     * a cache hit computes nothing.
+     */
+    protected TestReport checkTiles() {
+        FilterResultCache cache = new FilterResultCache();
+        CountingRable f = new CountingRable();
+        f.setResultCache(cache);
+        RenderContext rc = new RenderContext(new AffineTransform());
+
+        RenderedImage ri = f.createRendering(rc);
+        if (f.computed != 0)
+            return reportTileCount("put", f.computed);
+
+        ri.getTile(1, 2);
+        ri.getTile(1, 2);
+        if (f.computed != 1)
+            return reportTileCount("getTile", f.computed);
+
+        BufferedImage img = draw(ri);
+        int tiles = f.computed;
+        if (tiles != f.tiles)
+            return reportTileCount("draw", tiles);
+
+        RenderedImage hit = f.createRendering(rc);
+        if (cache.getHitCount() != 1)
+            return reportHitCount("hit", cache);
+        BufferedImage hitImg = draw(hit);
+        if (f.computed != tiles)
+            return reportTileCount("hit", f.computed);
+
+        CountingRable ref = new CountingRable();
+        String diff = FilterOptimizerTest.compare
+            (draw(ref.createRendering(rc)), img);
+        if (diff == null)
+            diff = FilterOptimizerTest.compare(img, hitImg);
+        if (diff != null) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_RENDERING_DIFFERS);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_STEP, "tiles"),
+                new TestReport.Entry(ENTRY_KEY_PIXEL, diff)
+            });
+            report.setPassed(false);
+            return report;
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Checks that a cache only serves the filters it was handed to,
+     * and that clearing it drops its renderings.
+     */
+    protected TestReport checkScope() {
+        RenderContext rc = new RenderContext(new AffineTransform());
+
+        CountingRable f = new CountingRable();
+        f.createRendering(rc);
+        f.createRendering(rc);
+        if (f.rendered != 2)
+            return reportTileCount("no cache", f.rendered);
+
+        FilterResultCache a = new FilterResultCache();
+        FilterResultCache b = new FilterResultCache();
+        f.setResultCache(a);
+        f.createRendering(rc);
+        f.setResultCache(b);
+        f.createRendering(rc);
+        if ((a.getHitCount() != 0) || (b.getHitCount() != 0))
+            return reportHitCount("other cache", b);
+
+        f.setResultCache(a);
+        f.createRendering(rc);
+        if (a.getHitCount() != 1)
+            return reportHitCount("same cache", a);
+
+        a.clear();
+        f.createRendering(rc);
+        if (a.getHitCount() != 1)
+            return reportHitCount("cleared", a);
+        return reportSuccess();
+    }
+
+    protected TestReport reportHitCount(String step, FilterResultCache c) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_UNEXPECTED_HIT_COUNT);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_STEP, step),
+            new TestReport.Entry(ENTRY_KEY_COUNT,
+                                 Integer.toString(c.getHitCount()))
+        });
+        report.setPassed(false);
+        return report;
+    }
+
+    protected TestReport reportTileCount(String step, int count) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_UNEXPECTED_TILE_COUNT);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_STEP, step),
+            new TestReport.Entry(ENTRY_KEY_COUNT, Integer.toString(count))
+        });
+        report.setPassed(false);
+        return report;
+    }
+
+    protected static GaussianBlurRable8Bit createBlur(Filter source) {
+        return new GaussianBlurRable8Bit
+            (FilterOptimizerTest.pad(source, FilterOptimizerTest.REGION),
+             2.5, 1.5);
+    }
+
+    protected static BufferedImage draw(RenderedImage ri) {
+        BufferedImage bi = new BufferedImage(80, 80,
+                                             BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = GraphicsUtil.createGraphics(bi);
+        GraphicsUtil.drawImage(g, ri);
+        g.dispose();
+        return bi;
+    }
+
+    /**
+     * A filter whose renderings count the tiles they compute.  They
+     * are not tile aligned, so the edge tiles are partial.
+     */
+    protected static class CountingRable extends AbstractRable {
+        static final Rectangle BOUNDS = new Rectangle(3, 5, 60, 50);
+
+        int rendered;
+        int computed;
+        int tiles;
+
+        public Rectangle2D getBounds2D() {
+            return new Rectangle2D.Double(BOUNDS.x, BOUNDS.y,
+                                          BOUNDS.width, BOUNDS.height);
+        }
+
+        public RenderedImage createRendering(RenderContext rc) {
+            RenderedImage ri = getCachedRendering(rc);
+            if (ri != null)
+                return ri;
+            rendered++;
+            CountingRed red = new CountingRed();
+            tiles = red.getNumXTiles() * red.getNumYTiles();
+            return cacheRendering(rc, red);
+        }
+
+        class CountingRed extends AbstractRed {
+            CountingRed() {
+                super((CachableRed)null, BOUNDS, ColorModel.getRGBdefault(),
+                      ColorModel.getRGBdefault().createCompatibleSampleModel
+                      (TILE_SIZE, TILE_SIZE), 0, 0, null);
+            }
+
+            public Raster getTile(int tx, int ty) {
+                WritableRaster wr = makeTile(tx, ty);
+                return copyData(wr);
+            }
+
+            public WritableRaster copyData(WritableRaster wr) {
+                computed++;
+                Rectangle r = wr.getBounds().intersection(BOUNDS);
+                for (int y = r.y; y < r.y + r.height; y++) {
+                    for (int x = r.x; x < r.x + r.width; x++) {
+                        wr.setSample(x, y, 0, (x * 7) & 0xff);
+                        wr.setSample(x, y, 1, (y * 5) & 0xff);
+                        wr.setSample(x, y, 2, (x ^ y) & 0xff);
+                        wr.setSample(x, y, 3, 255);
+                    }
+                }
+                return wr;
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.awt.image.renderable.RenderContext;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import org.w3c.dom.Document;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.renderable.ColorMatrixRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.ComponentTransferRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.RedRable;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+/**
+ * Checks that the colour matrix and component transfer primitives of
+ * an SVG filter, as built by the bridges, are fused into a single
+ * <code>ColorOpRed</code>, and that the fused chain renders exactly as
+ * the primitives applied one after the other.
+ *
+ * @version $Id$
+ */
+public class ColorOpRedTest extends AbstractTest {
+
+    /**
+     * Error when the primitives are not fused.
+     * {0} = the number of primitives
+     * {1} = the most operations applied by one ColorOpRed
+     */
+    public static final String ERROR_NOT_FUSED
+        = "ColorOpRedTest.error.not.fused";
+
+    /**
+     * Error when the fused chain renders differently.
+     * {0} = the first differing pixel
+     */
+    public static final String ERROR_RENDERING_DIFFERS
+        = "ColorOpRedTest.error.rendering.differs";
+
+    public static final String ENTRY_KEY_PRIMITIVES
+        = "ColorOpRedTest.entry.key.primitives";
+
+    public static final String ENTRY_KEY_OPERATIONS
+        = "ColorOpRedTest.entry.key.operations";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "ColorOpRedTest.entry.key.pixel";
+
+    protected static final int WIDTH  = 120;
+    protected static final int HEIGHT = 100;
+
+    /**
+     * The chain of colour primitives, applied to a source graphic
+     * with flat colours and translucency.
+     */
+    protected static final String PRIMITIVES =
+        "<feColorMatrix type='saturate' values='0.3'/>" +
+        "<feComponentTransfer>" +
+        "<feFuncR type='gamma' amplitude='1.2' exponent='0.7'" +
+        " offset='0.05'/>" +
+        "<feFuncA type='table' tableValues='0 0.6 1'/>" +
+        "</feComponentTransfer>" +
+        "<feColorMatrix type='hueRotate' values='40'/>" +
+        "<feComponentTransfer>" +
+        "<feFuncG type='discrete' tableValues='0.1 0.5 0.9'/>" +
+        "</feComponentTransfer>" +
+        "<feColorMatrix type='matrix' values='0.9 0.1 0 0 0.02" +
+        " 0 0.8 0.2 0 0  0.1 0 0.9 0 0  0 0 0 0.9 0.05'/>";
+
+    protected static final int PRIMITIVE_COUNT = 5;
+
+    /**
+     * The value of the color-interpolation-filters property.
+     */
+    protected String colorInterpolation;
+
+    /**
+     * @param colorInterpolation "sRGB" or "linearRGB"
+     */
+    public ColorOpRedTest(String colorInterpolation) {
+        this.colorInterpolation = colorInterpolation;
+    }
+
+    public String getName() {
+        return "colour chain in " + colorInterpolation;
+    }
+
+    public TestReport runImpl() throws Exception {
+        Filter filter = buildFilter();
+        RenderContext rc = new RenderContext
+            (new AffineTransform(),
+             new Rectangle2D.Double(0, 0, WIDTH, HEIGHT), null);
+
+        RenderedImage ri = filter.createRendering(rc);
+        int ops = getMaxOperationCount(ri);
+        if (ops != PRIMITIVE_COUNT) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_NOT_FUSED);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_PRIMITIVES,
+                                     String.valueOf(PRIMITIVE_COUNT)),
+                new TestReport.Entry(ENTRY_KEY_OPERATIONS,
+                                     String.valueOf(ops))
+            });
+            report.setPassed(false);
+            return report;
+        }
+        BufferedImage img = draw(ri);
+
+        // Render each primitive on its own, on the stored output of
+        // the previous one, which stops any fusion.
+        List prims = new ArrayList();
+        findPrimitives(filter, prims);
+        for (int i = prims.size() - 1; i >= 0; i--) {
+            Filter prim = (Filter)prims.get(i);
+            Filter src = (Filter)prim.getSources().get(0);
+            Filter stored = new RedRable(store(src.createRendering(rc)));
+            if (prim instanceof ColorMatrixRable8Bit)
+                ((ColorMatrixRable8Bit)prim).setSource(stored);
+            else
+                ((ComponentTransferRable8Bit)prim).setSource(stored);
+        }
+        BufferedImage ref = draw(filter.createRendering(rc));
+
+        String diff = compare(ref, img);
+        if (diff != null) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_RENDERING_DIFFERS);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_PIXEL, diff)
+            });
+            report.setPassed(false);
+            return report;
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Builds the filter of the filtered group of the test document.
+     */
+    protected Filter buildFilter() throws Exception {
+        String svg =
+            "<svg xmlns='http://www.w3.org/2000/svg' width='" + WIDTH +
+            "' height='" + HEIGHT + "'>" +
+            "<filter id='f' filterUnits='userSpaceOnUse' x='0' y='0'" +
+            " width='" + WIDTH + "' height='" + HEIGHT + "'" +
+            " color-interpolation-filters='" + colorInterpolation + "'>" +
+            PRIMITIVES +
+            "</filter>" +
+            "<g filter='url(#f)'>" +
+            "<rect x='5' y='5' width='110' height='90' fill='#c03060'/>" +
+            "<circle cx='60' cy='50' r='35' fill='#20a040'" +
+            " fill-opacity='0.6'/>" +
+            "<rect x='40' y='0' width='8' height='100' fill='white'" +
+            " fill-opacity='0.3'/>" +
+            "</g>" +
+            "</svg>";
+
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("file:///colorOp.svg",
+                                        new StringReader(svg));
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        GraphicsNode root = new GVTBuilder().build(ctx, doc);
+        return findFilter(root);
+    }
+
+    protected static Filter findFilter(GraphicsNode node) {
+        if (node.getFilter() != null)
+            return node.getFilter();
+        if (node instanceof CompositeGraphicsNode) {
+            List children = ((CompositeGraphicsNode)node).getChildren();
+            for (int i = 0; i < children.size(); i++) {
+                Filter f = findFilter((GraphicsNode)children.get(i));
+                if (f != null)
+                    return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the colour primitives of a filter graph, outermost first.
+     */
+    protected static void findPrimitives(Filter f, List prims) {
+        if ((f instanceof ColorMatrixRable8Bit) ||
+            (f instanceof ComponentTransferRable8Bit))
+            prims.add(f);
+        Vector srcs = f.getSources();
+        if (srcs == null)
+            return;
+        for (int i = 0; i < srcs.size(); i++)
+            findPrimitives((Filter)srcs.get(i), prims);
+    }
+
+    /**
+     * Returns the most operations applied by a <code>ColorOpRed</code>
+     * of a rendering.
+     */
+    protected static int getMaxOperationCount(RenderedImage ri) {
+        int ret = 0;
+        if (ri instanceof ColorOpRed)
+            ret = ((ColorOpRed)ri).getOperationCount();
+        Vector srcs = ri.getSources();
+        if (srcs == null)
+            return ret;
+        for (int i = 0; i < srcs.size(); i++)
+            ret = Math.max(ret,
+                           getMaxOperationCount((RenderedImage)srcs.get(i)));
+        return ret;
+    }
+
+    /**
+     * Returns a copy of the pixels of a rendering, in its colour space
+     * and alpha state.
+     */
+    protected static CachableRed store(RenderedImage ri) {
+        CachableRed cr = GraphicsUtil.wrap(ri);
+        ColorModel cm = cr.getColorModel();
+        WritableRaster wr = cm.createCompatibleWritableRaster
+            (cr.getWidth(), cr.getHeight());
+        wr = wr.createWritableTranslatedChild(cr.getMinX(), cr.getMinY());
+        cr.copyData(wr);
+        wr = wr.createWritableTranslatedChild(0, 0);
+        BufferedImage bi = new BufferedImage
+            (cm, wr, cm.isAlphaPremultiplied(), null);
+        return new BufferedImageCachableRed(bi, cr.getMinX(),
+                                            cr.getMinY());
+    }
+
+    protected static BufferedImage draw(RenderedImage ri) {
+        BufferedImage bi = new BufferedImage
+            (WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = GraphicsUtil.createGraphics(bi);
+        GraphicsUtil.drawImage(g, ri);
+        g.dispose();
+        return bi;
+    }
+
+    /**
+     * Returns a description of the first pixel that differs, or null.
+     */
+    protected static String compare(BufferedImage ref, BufferedImage img) {
+        for (int y = 0; y < ref.getHeight(); y++) {
+            for (int x = 0; x < ref.getWidth(); x++) {
+                int a = ref.getRGB(x, y);
+                int b = img.getRGB(x, y);
+                if (a != b)
+                    return "(" + x + ", " + y + "): "
+                        + Integer.toHexString(a) + " != "
+                        + Integer.toHexString(b);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,413 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ConvolveOp;
+import java.awt.image.DataBuffer;
+import java.awt.image.Kernel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks <code>ConvolveMatrixRed</code> against a <code>ConvolveOp</code>,
+ * which <code>ConvolveMatrixRable8Bit</code> used before it, for every
+ * edge mode, with and without preserveAlpha and with several targets.
+ * The reference applies the edge mode and divides out alpha pixel by
+ * pixel before handing the rasters to the <code>ConvolveOp</code>, as
+ * the <code>PadRed</code> and colour model conversions the old code
+ * relied on got the duplicate and wrap modes and preserveAlpha wrong.
+ * The kernels are not symmetric, so that a kernel applied without
+ * being flipped, or at the wrong target, is noticed.  The results are
+ * compared premultiplied, and may differ by a level or two as
+ * <code>ConvolveOp</code> truncates rather than rounds.  The source
+ * is either packed integer data, or unpremultiplied byte interleaved
+ * data as the images of feImage are, in which case the result is also
+ * written to byte interleaved rasters.
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRedTest extends AbstractTest {
+
+    /**
+     * Error when the convolution differs from the reference one.
+     * {0} = the area rendered
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_PIXELS_DIFFER
+        = "ConvolveMatrixRedTest.error.pixels.differ";
+
+    public static final String ENTRY_KEY_AREA
+        = "ConvolveMatrixRedTest.entry.key.area";
+
+    public static final String ENTRY_KEY_LAYOUT
+        = "ConvolveMatrixRedTest.entry.key.layout";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "ConvolveMatrixRedTest.entry.key.pixel";
+
+    public static final String KERNEL_ASYMMETRIC = "asymmetric";
+    public static final String KERNEL_SEPARABLE  = "separable";
+    public static final String KERNEL_NEGATIVE   = "negative";
+
+    public static final String LAYOUT_INT  = "int";
+    public static final String LAYOUT_BYTE = "byte";
+
+    /**
+     * Largest difference allowed on a channel, and with preserveAlpha,
+     * where the truncated colour is multiplied by alpha again.
+     */
+    protected static final int TOLERANCE = 1;
+    protected static final int PRESERVE_ALPHA_TOLERANCE = 2;
+
+    /**
+     * The bounds of the source.
+     */
+    protected static final Rectangle SOURCE = new Rectangle(7, -5, 41, 33);
+
+    /**
+     * The areas rendered: the source, an area inside it and areas
+     * going past its edges.
+     */
+    protected static final Rectangle [] AREAS = {
+        SOURCE,
+        new Rectangle(12, 0, 20, 17),
+        new Rectangle(0, -12, 30, 25),
+        new Rectangle(30, 10, 26, 30)
+    };
+
+    protected String kernelName;
+    protected PadMode edgeMode;
+    protected Point target;
+    protected boolean preserveAlpha;
+    protected String layout;
+
+    /**
+     * @param kernelName one of "asymmetric", "separable" or "negative"
+     * @param edgeMode one of "none", "duplicate" or "wrap"
+     */
+    public ConvolveMatrixRedTest(String kernelName, String edgeMode,
+                                 Integer targetX, Integer targetY,
+                                 Boolean preserveAlpha) {
+        this(kernelName, edgeMode, targetX, targetY, preserveAlpha,
+             LAYOUT_INT);
+    }
+
+    /**
+     * @param kernelName one of "asymmetric", "separable" or "negative"
+     * @param edgeMode one of "none", "duplicate" or "wrap"
+     * @param layout the layout of the source data, "int" or "byte"
+     */
+    public ConvolveMatrixRedTest(String kernelName, String edgeMode,
+                                 Integer targetX, Integer targetY,
+                                 Boolean preserveAlpha, String layout) {
+        if (!LAYOUT_INT.equals(layout) && !LAYOUT_BYTE.equals(layout))
+            throw new IllegalArgumentException(layout);
+        this.layout = layout;
+        this.kernelName = kernelName;
+        if ("none".equals(edgeMode))
+            this.edgeMode = PadMode.ZERO_PAD;
+        else if ("duplicate".equals(edgeMode))
+            this.edgeMode = PadMode.REPLICATE;
+        else if ("wrap".equals(edgeMode))
+            this.edgeMode = PadMode.WRAP;
+        else
+            throw new IllegalArgumentException(edgeMode);
+        this.target = new Point(targetX.intValue(), targetY.intValue());
+        this.preserveAlpha = preserveAlpha.booleanValue();
+    }
+
+    public TestReport runImpl() throws Exception {
+        Kernel kernel = createKernel();
+        CachableRed src = createSource(new Random(kernelName.hashCode()));
+        if (LAYOUT_BYTE.equals(layout))
+            src = toByteData(src);
+        int tolerance = preserveAlpha ? PRESERVE_ALPHA_TOLERANCE
+                                      : TOLERANCE;
+
+        for (int i = 0; i < AREAS.length; i++) {
+            WritableRaster ref = convolve(src, kernel, AREAS[i]);
+            ConvolveMatrixRed cr  = new ConvolveMatrixRed
+                (src, kernel, target, edgeMode, preserveAlpha, AREAS[i]);
+            String diff = compare(ref, getPixels(cr, AREAS[i]), AREAS[i],
+                                  tolerance);
+            if ((diff == null) && LAYOUT_BYTE.equals(layout)) {
+                // Generated straight into a byte raster.
+                ColorModel cm = toByteData(cr.getColorModel(),
+                                           cr.getColorModel()
+                                           .isAlphaPremultiplied());
+                WritableRaster wr = cm.createCompatibleWritableRaster
+                    (AREAS[i].width, AREAS[i].height)
+                    .createWritableTranslatedChild(AREAS[i].x, AREAS[i].y);
+                cr.genRect(wr);
+                GraphicsUtil.coerceData(wr, cm, true);
+                diff = compare(ref, wr, AREAS[i], tolerance);
+            }
+            if (diff != null) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_PIXELS_DIFFER);
+                report.setDescription(new TestReport.Entry[] {
+                    new TestReport.Entry(ENTRY_KEY_AREA, AREAS[i].toString()),
+                    new TestReport.Entry(ENTRY_KEY_LAYOUT, layout),
+                    new TestReport.Entry(ENTRY_KEY_PIXEL, diff)
+                });
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Returns a byte interleaved colour model in the colour space of
+     * <code>cm</code>.
+     */
+    protected static ColorModel toByteData(ColorModel cm, boolean premult) {
+        return new ComponentColorModel
+            (cm.getColorSpace(), true, premult,
+             Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+    }
+
+    /**
+     * Returns the pixels of <code>src</code> as unpremultiplied byte
+     * interleaved data.
+     */
+    protected static CachableRed toByteData(CachableRed src) {
+        Rectangle r = src.getBounds();
+        WritableRaster wr = src.getColorModel().createCompatibleWritableRaster
+            (r.width, r.height).createWritableTranslatedChild(r.x, r.y);
+        src.copyData(wr);
+        GraphicsUtil.coerceData(wr, src.getColorModel(), false);
+
+        ColorModel cm = toByteData(src.getColorModel(), false);
+        WritableRaster bwr = cm.createCompatibleWritableRaster
+            (r.width, r.height);
+        bwr.setPixels(0, 0, r.width, r.height,
+                      wr.getPixels(r.x, r.y, r.width, r.height, (int[])null));
+        BufferedImage bi = new BufferedImage(cm, bwr, false, null);
+        return new BufferedImageCachableRed(bi, r.x, r.y);
+    }
+
+    /**
+     * Returns the kernel, already divided by its divisor as the bridge
+     * does.
+     */
+    protected Kernel createKernel() {
+        if (KERNEL_ASYMMETRIC.equals(kernelName)) {
+            return new Kernel(3, 3, new float[] { 0.05f, 0.3f, 0.1f,
+                                                  0.2f,  0.0f, 0.15f,
+                                                  0.0f,  0.0f, 0.2f });
+        }
+        if (KERNEL_SEPARABLE.equals(kernelName)) {
+            // The product of (1 2 0 0 1) / 4 and (1 3 1) / 5.
+            float [] row = { 0.25f, 0.5f, 0f, 0f, 0.25f };
+            float [] col = { 0.2f, 0.6f, 0.2f };
+            float [] k = new float[row.length * col.length];
+            for (int y = 0; y < col.length; y++)
+                for (int x = 0; x < row.length; x++)
+                    k[y * row.length + x] = row[x] * col[y];
+            return new Kernel(row.length, col.length, k);
+        }
+        if (KERNEL_NEGATIVE.equals(kernelName)) {
+            return new Kernel(3, 3, new float[] { 0f,    -0.5f, 0f,
+                                                  -0.25f, 2.5f, -0.5f,
+                                                  0f,    -0.25f, 0f });
+        }
+        throw new IllegalArgumentException(kernelName);
+    }
+
+    /**
+     * Creates a source of random premultiplied linear sRGB pixels,
+     * with transparent and opaque areas.
+     */
+    protected static CachableRed createSource(Random rand) {
+        ColorModel cm = GraphicsUtil.Linear_sRGB_Pre;
+        WritableRaster wr = cm.createCompatibleWritableRaster
+            (SOURCE.width, SOURCE.height);
+        int [] px = new int[SOURCE.width * SOURCE.height];
+        for (int i = 0; i < px.length; i++) {
+            int a;
+            switch (rand.nextInt(4)) {
+            case 0:  a = 0;   break;
+            case 1:  a = 255; break;
+            default: a = rand.nextInt(256);
+            }
+            int p = a << 24;
+            for (int c = 0; c < 3; c++)
+                p |= rand.nextInt(a + 1) << (8 * c);
+            px[i] = p;
+        }
+        wr.setDataElements(0, 0, SOURCE.width, SOURCE.height, px);
+        BufferedImage bi = new BufferedImage(cm, wr, true, null);
+        return new BufferedImageCachableRed(bi, SOURCE.x, SOURCE.y);
+    }
+
+    /**
+     * Convolves <code>src</code> over <code>area</code> with a
+     * <code>ConvolveOp</code>, returning premultiplied pixels.
+     */
+    protected WritableRaster convolve(CachableRed src, Kernel kernel,
+                                      Rectangle area) {
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+
+        // The source pixels the area depends on, the edge mode
+        // applied.
+        Rectangle r = new Rectangle(area.x - target.x, area.y - target.y,
+                                    area.width  + kw - 1,
+                                    area.height + kh - 1);
+        Rectangle sr = src.getBounds();
+        WritableRaster srcWR = src.getColorModel()
+            .createCompatibleWritableRaster(sr.width, sr.height)
+            .createWritableTranslatedChild(sr.x, sr.y);
+        src.copyData(srcWR);
+        // With preserveAlpha the colours are convolved unpremultiplied,
+        // they are only divided out of premultiplied sources.
+        boolean premult = src.getColorModel().isAlphaPremultiplied();
+        if (!preserveAlpha)
+            GraphicsUtil.coerceData(srcWR, src.getColorModel(), true);
+
+        // ConvolveOp is only done natively on byte rasters, which
+        // also clamp its results.
+        int bands = preserveAlpha ? 3 : 4;
+        WritableRaster in = Raster.createInterleavedRaster
+            (DataBuffer.TYPE_BYTE, r.width, r.height, bands, null);
+        int [] alpha = new int[r.width * r.height];
+        int [] px = new int[4];
+        for (int y = 0; y < r.height; y++) {
+            int sy = mapCoord(r.y + y, sr.y, sr.height);
+            for (int x = 0; x < r.width; x++) {
+                int sx = mapCoord(r.x + x, sr.x, sr.width);
+                if ((sx == Integer.MIN_VALUE) || (sy == Integer.MIN_VALUE))
+                    continue;
+                srcWR.getPixel(sx, sy, px);
+                int a = px[3];
+                alpha[y * r.width + x] = a;
+                if (preserveAlpha) {
+                    for (int c = 0; c < 3; c++) {
+                        if (a == 0)
+                            px[c] = 0;
+                        else if (premult)
+                            px[c] = (px[c] * 255 + a / 2) / a;
+                    }
+                }
+                in.setPixel(x, y, px);
+            }
+        }
+
+        // ConvolveOp flips the kernel about its origin, so the result
+        // for a pixel of the area is found at an offset depending on
+        // the origin.
+        WritableRaster out = in.createCompatibleWritableRaster();
+        new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null).filter(in, out);
+        int dx = kw - 1 - kernel.getXOrigin();
+        int dy = kh - 1 - kernel.getYOrigin();
+
+        WritableRaster ret = GraphicsUtil.Linear_sRGB_Pre
+            .createCompatibleWritableRaster(area.width, area.height)
+            .createWritableTranslatedChild(area.x, area.y);
+        int [] v = new int[bands];
+        for (int y = 0; y < area.height; y++) {
+            for (int x = 0; x < area.width; x++) {
+                out.getPixel(x + dx, y + dy, v);
+                if (preserveAlpha) {
+                    // The alpha of the pixel itself, its colour
+                    // premultiplied again.
+                    int a = alpha[(y + target.y) * r.width + x + target.x];
+                    for (int c = 0; c < 3; c++)
+                        px[c] = (v[c] * a + 127) / 255;
+                    px[3] = a;
+                } else {
+                    System.arraycopy(v, 0, px, 0, 4);
+                    // Premultiplied colour can not exceed alpha.
+                    for (int c = 0; c < 3; c++)
+                        if (px[c] > px[3]) px[3] = px[c];
+                }
+                ret.setPixel(area.x + x, area.y + y, px);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the source coordinate <code>c</code> is taken from
+     * according to the edge mode, or Integer.MIN_VALUE for a
+     * transparent black pixel.
+     */
+    protected int mapCoord(int c, int min, int size) {
+        int i = c - min;
+        if ((i >= 0) && (i < size))
+            return c;
+        if (edgeMode == PadMode.REPLICATE)
+            return (i < 0) ? min : min + size - 1;
+        if (edgeMode == PadMode.WRAP) {
+            i %= size;
+            return min + ((i < 0) ? i + size : i);
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Returns a description of the first pixel of <code>area</code>
+     * that differs by more than <code>tolerance</code>, or null.
+     */
+    protected static String compare(Raster ref, Raster wr, Rectangle area,
+                                    int tolerance) {
+        int [] a = null;
+        int [] b = null;
+        for (int y = area.y; y < area.y + area.height; y++) {
+            a = ref.getPixels(area.x, y, area.width, 1, a);
+            b = wr.getPixels (area.x, y, area.width, 1, b);
+            for (int i = 0; i < a.length; i++) {
+                if (Math.abs(a[i] - b[i]) > tolerance) {
+                    int x = area.x + i / 4;
+                    return "(" + x + ", " + y + ") band " + (i % 4)
+                        + ": " + a[i] + " != " + b[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the premultiplied pixels of <code>cr</code> over
+     * <code>area</code>.
+     */
+    protected static WritableRaster getPixels(CachableRed cr,
+                                              Rectangle area) {
+        WritableRaster wr = cr.getColorModel().createCompatibleWritableRaster
+            (area.width, area.height);
+        wr = wr.createWritableTranslatedChild(area.x, area.y);
+        cr.copyData(wr);
+        GraphicsUtil.coerceData(wr, cr.getColorModel(), true);
+        return wr;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.ARGBChannel;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks <code>DisplacementMapRed</code> against a straightforward
+ * displacement: each pixel is the source sampled, with bilinear
+ * interpolation in double precision, at the pixel moved by
+ * scale * (C / 255 - 0.5) along each axis, C being the selected
+ * channel of the unpremultiplied map.  Pixels outside the source are
+ * transparent black.  The results are compared premultiplied, for
+ * premultiplied and unpremultiplied sources, on whole tiles and on
+ * areas that are not tile aligned and go past the source edges.
+ *
+ * @version $Id$
+ */
+public class DisplacementMapRedTest extends AbstractTest {
+
+    /**
+     * Error when the displacement differs from the reference one.
+     * {0} = the area rendered
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_PIXELS_DIFFER
+        = "DisplacementMapRedTest.error.pixels.differ";
+
+    public static final String ENTRY_KEY_AREA
+        = "DisplacementMapRedTest.entry.key.area";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "DisplacementMapRedTest.entry.key.pixel";
+
+    /**
+     * Largest difference allowed on a channel.  The fixed point scale,
+     * fractions and premultiplication cost up to a level or two.
+     */
+    protected static final int TOLERANCE = 2;
+
+    /**
+     * The bounds of the source and of the map, larger than the
+     * default tile size so the result has several tiles.
+     */
+    protected static final Rectangle SOURCE = new Rectangle(5, -3, 200, 150);
+
+    /**
+     * Areas that are not tile aligned, inside the source, across tile
+     * edges and going past the source edges.
+     */
+    protected static final Rectangle [] AREAS = {
+        new Rectangle(17, 4, 23, 19),
+        new Rectangle(120, 100, 30, 40),
+        new Rectangle(0, -10, 30, 25),
+        new Rectangle(180, 130, 40, 30)
+    };
+
+    protected boolean premultiplied;
+    protected float scaleX;
+    protected float scaleY;
+
+    /**
+     * @param source "premultiplied" or "unpremultiplied"
+     * @param scaleX the scale along the x axis
+     * @param scaleY the scale along the y axis
+     */
+    public DisplacementMapRedTest(String source, String scaleX,
+                                  String scaleY) {
+        if ("premultiplied".equals(source))
+            premultiplied = true;
+        else if ("unpremultiplied".equals(source))
+            premultiplied = false;
+        else
+            throw new IllegalArgumentException(source);
+        this.scaleX = Float.parseFloat(scaleX);
+        this.scaleY = Float.parseFloat(scaleY);
+    }
+
+    public String getName() {
+        return (premultiplied ? "premultiplied" : "unpremultiplied")
+            + " " + scaleX + "x" + scaleY;
+    }
+
+    public TestReport runImpl() throws Exception {
+        Random rand = new Random(Float.floatToIntBits(scaleX) * 31
+                                 + Float.floatToIntBits(scaleY)
+                                 + (premultiplied ? 1 : 0));
+        CachableRed src = createImage(rand, premultiplied);
+        CachableRed map = createImage(rand, false);
+
+        DisplacementMapRed red = new DisplacementMapRed
+            (src, map, ARGBChannel.R, ARGBChannel.A, scaleX, scaleY, null);
+        // The source is sampled as it is, an unpremultiplied one is
+        // premultiplied exactly by the reference.
+        WritableRaster srcWR = getPixels(src, premultiplied);
+        WritableRaster mapWR = getPixels(map, false);
+
+        // Whole tiles.
+        for (int ty = red.getMinTileY();
+             ty < red.getMinTileY() + red.getNumYTiles(); ty++) {
+            for (int tx = red.getMinTileX();
+                 tx < red.getMinTileX() + red.getNumXTiles(); tx++) {
+                Raster tile = red.getTile(tx, ty);
+                String diff = check(srcWR, mapWR, tile, red.getColorModel());
+                if (diff != null)
+                    return reportDiff(tile.getBounds(), diff);
+            }
+        }
+
+        // Areas computed directly, not tile aligned.
+        for (int i = 0; i < AREAS.length; i++) {
+            Rectangle r = AREAS[i].intersection(red.getBounds());
+            WritableRaster wr = red.getColorModel()
+                .createCompatibleWritableRaster(r.width, r.height)
+                .createWritableTranslatedChild(r.x, r.y);
+            red.genRect(wr);
+            String diff = check(srcWR, mapWR, wr, red.getColorModel());
+            if (diff != null)
+                return reportDiff(r, diff);
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Returns a description of the first pixel of <code>ras</code>
+     * that differs from the reference displacement, or null.
+     *
+     * @param srcWR the source pixels
+     * @param mapWR the unpremultiplied map pixels
+     */
+    protected String check(Raster srcWR, Raster mapWR, Raster ras,
+                           ColorModel cm) {
+        WritableRaster wr = ras.createCompatibleWritableRaster
+            (ras.getMinX(), ras.getMinY(), ras.getWidth(), ras.getHeight());
+        wr.setRect(ras);
+        GraphicsUtil.coerceData(wr, cm, true);
+
+        // The map bands are R, G, B, A.
+        int xBand = 0;
+        int yBand = 3;
+        Rectangle r = wr.getBounds();
+        int [] m = new int[4];
+        int [] px = new int[4];
+        double [] ref = new double[4];
+        for (int y = r.y; y < r.y + r.height; y++) {
+            for (int x = r.x; x < r.x + r.width; x++) {
+                mapWR.getPixel(x, y, m);
+                double sx = x + scaleX * (m[xBand] / 255.0 - 0.5);
+                double sy = y + scaleY * (m[yBand] / 255.0 - 0.5);
+                sample(srcWR, premultiplied, sx, sy, ref);
+                wr.getPixel(x, y, px);
+                for (int b = 0; b < 4; b++) {
+                    if (Math.abs(ref[b] - px[b]) > TOLERANCE)
+                        return "(" + x + ", " + y + ") band " + b + ": "
+                            + ref[b] + " != " + px[b];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Samples the raster <code>wr</code> at (x, y) with bilinear
+     * interpolation of its premultiplied pixels, pixels outside it
+     * being transparent black.
+     */
+    protected static void sample(Raster wr, boolean premult,
+                                 double x, double y, double [] ret) {
+        int x0 = (int)Math.floor(x);
+        int y0 = (int)Math.floor(y);
+        double fx = x - x0;
+        double fy = y - y0;
+        int [] px = new int[4];
+        for (int b = 0; b < 4; b++)
+            ret[b] = 0;
+        for (int j = 0; j < 2; j++) {
+            for (int i = 0; i < 2; i++) {
+                double wgt = ((i == 0) ? 1 - fx : fx)
+                    * ((j == 0) ? 1 - fy : fy);
+                if (!wr.getBounds().contains(x0 + i, y0 + j))
+                    continue;
+                wr.getPixel(x0 + i, y0 + j, px);
+                double a = premult ? 1 : px[3] / 255.0;
+                for (int b = 0; b < 3; b++)
+                    ret[b] += wgt * a * px[b];
+                ret[3] += wgt * px[3];
+            }
+        }
+    }
+
+    /**
+     * Returns the pixels of <code>cr</code>, premultiplied or not.
+     */
+    protected static WritableRaster getPixels(CachableRed cr,
+                                              boolean premult) {
+        Rectangle r = cr.getBounds();
+        WritableRaster wr = cr.getColorModel().createCompatibleWritableRaster
+            (r.width, r.height).createWritableTranslatedChild(r.x, r.y);
+        cr.copyData(wr);
+        GraphicsUtil.coerceData(wr, cr.getColorModel(), premult);
+        return wr;
+    }
+
+    /**
+     * Creates an image of random pixels with transparent and opaque
+     * areas.
+     */
+    protected static CachableRed createImage(Random rand, boolean premult) {
+        ColorModel cm = premult ? GraphicsUtil.sRGB_Pre
+                                : GraphicsUtil.sRGB_Unpre;
+        WritableRaster wr = cm.createCompatibleWritableRaster
+            (SOURCE.width, SOURCE.height);
+        int [] px = new int[SOURCE.width * SOURCE.height];
+        for (int i = 0; i < px.length; i++) {
+            int a;
+            switch (rand.nextInt(4)) {
+            case 0:  a = 0;   break;
+            case 1:  a = 255; break;
+            default: a = rand.nextInt(256);
+            }
+            int p = a << 24;
+            for (int c = 0; c < 3; c++)
+                p |= rand.nextInt(premult ? a + 1 : 256) << (8 * c);
+            px[i] = p;
+        }
+        wr.setDataElements(0, 0, SOURCE.width, SOURCE.height, px);
+        BufferedImage bi = new BufferedImage(cm, wr, premult, null);
+        return new BufferedImageCachableRed(bi, SOURCE.x, SOURCE.y);
+    }
+
+    protected TestReport reportDiff(Rectangle area, String diff) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_PIXELS_DIFFER);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_AREA,
+                                 getName() + ", " + area),
+            new TestReport.Entry(ENTRY_KEY_PIXEL, diff)
+        });
+        report.setPassed(false);
+        return report;
+    }
+}
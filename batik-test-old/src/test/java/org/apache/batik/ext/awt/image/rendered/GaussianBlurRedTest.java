@@ -0,0 +1,191 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that the pixels computed by <code>GaussianBlurRed8Bit</code>
+ * do not depend on the area asked for: every pixel of a small area,
+ * and of areas split as tiles are, must be the pixel computed when the
+ * whole blurred image is asked for at once.
+ *
+ * @version $Id$
+ */
+public class GaussianBlurRedTest extends AbstractTest {
+
+    /**
+     * Error when a pixel differs from the one of the whole image.
+     * {0} = the case
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_PIXELS_DIFFER
+        = "GaussianBlurRedTest.error.pixels.differ";
+
+    public static final String ENTRY_KEY_CASE
+        = "GaussianBlurRedTest.entry.key.case";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "GaussianBlurRedTest.entry.key.pixel";
+
+    protected static final int WIDTH  = 120;
+    protected static final int HEIGHT = 90;
+
+    /**
+     * The zero padding around the source, more than the surround of
+     * the blurs checked.
+     */
+    protected static final int PAD = 40;
+
+    /**
+     * The tile sizes the image is split with.
+     */
+    protected static final int [][] TILES = {
+        { 31, 23 }, { 16, 16 }, { 7, 40 }
+    };
+
+    protected double stdDevX;
+    protected double stdDevY;
+
+    public GaussianBlurRedTest(String stdDevX, String stdDevY) {
+        this.stdDevX = Double.parseDouble(stdDevX);
+        this.stdDevY = Double.parseDouble(stdDevY);
+    }
+
+    public String getName() {
+        return "blur " + stdDevX + "x" + stdDevY;
+    }
+
+    public TestReport runImpl() throws Exception {
+        // The source is padded as the blur filter pads it, so the
+        // blurred image covers the whole source and its edges.
+        Rectangle padded = new Rectangle(-PAD, -PAD,
+                                         WIDTH + 2*PAD, HEIGHT + 2*PAD);
+        CachableRed src = new PadRed(GraphicsUtil.wrap(createSource()),
+                                     padded, PadMode.ZERO_PAD, null);
+        CachableRed whole = new GaussianBlurRed8Bit
+            (src, stdDevX, stdDevY, null);
+        ColorModel cm = whole.getColorModel();
+        Rectangle bounds = whole.getBounds();
+        WritableRaster ref = blur(src, cm, bounds);
+
+        Rectangle area = new Rectangle(WIDTH / 3, HEIGHT / 4,
+                                       WIDTH / 3, HEIGHT / 3);
+        String diff = compare(ref, blur(src, cm, area));
+        if (diff != null)
+            return reportDiff("area " + area, diff);
+
+        for (int i = 0; i < TILES.length; i++) {
+            int tw = TILES[i][0];
+            int th = TILES[i][1];
+            WritableRaster wr = cm.createCompatibleWritableRaster
+                (bounds.width, bounds.height);
+            wr = wr.createWritableTranslatedChild(bounds.x, bounds.y);
+            for (int y = bounds.y; y < bounds.y + bounds.height; y += th) {
+                for (int x = bounds.x; x < bounds.x + bounds.width; x += tw) {
+                    Rectangle r = new Rectangle(x, y, tw, th)
+                        .intersection(bounds);
+                    // A new blur for each tile, so nothing is reused
+                    // from one tile to the next.
+                    new GaussianBlurRed8Bit(src, stdDevX, stdDevY, null)
+                        .copyData(wr.createWritableChild
+                                  (r.x, r.y, r.width, r.height,
+                                   r.x, r.y, null));
+                }
+            }
+            diff = compare(ref, wr);
+            if (diff != null)
+                return reportDiff("tiles " + tw + "x" + th, diff);
+        }
+        return reportSuccess();
+    }
+
+    protected WritableRaster blur(CachableRed src, ColorModel cm,
+                                  Rectangle r) {
+        WritableRaster wr = cm.createCompatibleWritableRaster
+            (r.width, r.height);
+        wr = wr.createWritableTranslatedChild(r.x, r.y);
+        new GaussianBlurRed8Bit(src, stdDevX, stdDevY, null).copyData(wr);
+        return wr;
+    }
+
+    /**
+     * Creates a premultiplied image of random pixels.
+     */
+    protected BufferedImage createSource() {
+        Random rand = new Random(WIDTH * 31 + HEIGHT);
+        BufferedImage bi = new BufferedImage
+            (WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        WritableRaster wr = bi.getRaster();
+        int [] px = new int[4];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = rand.nextInt(256);
+                for (int b = 0; b < 3; b++)
+                    px[b] = rand.nextInt(a + 1);
+                px[3] = a;
+                wr.setPixel(x, y, px);
+            }
+        }
+        return bi;
+    }
+
+    /**
+     * Returns a description of the first pixel of <code>wr</code>
+     * that differs from <code>ref</code>, or null.
+     */
+    protected static String compare(WritableRaster ref, WritableRaster wr) {
+        Rectangle r = wr.getBounds();
+        int [] a = new int[4];
+        int [] b = new int[4];
+        for (int y = r.y; y < r.y + r.height; y++) {
+            for (int x = r.x; x < r.x + r.width; x++) {
+                ref.getPixel(x, y, a);
+                wr.getPixel(x, y, b);
+                for (int i = 0; i < 4; i++) {
+                    if (a[i] != b[i])
+                        return "(" + x + ", " + y + ") band " + i + ": "
+                            + a[i] + " != " + b[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    protected TestReport reportDiff(String c, String diff) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_PIXELS_DIFFER);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_CASE, getName() + ", " + c),
+            new TestReport.Entry(ENTRY_KEY_PIXEL, diff)
+        });
+        report.setPassed(false);
+        return report;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks <code>MorphologyOp</code> against a brute force dilation or
+ * erosion of random premultiplied rasters: each channel of a pixel is
+ * the maximum, or minimum, of that channel over the window around the
+ * pixel, clipped to the raster.  The operation is checked into a new
+ * raster, in place, and on child rasters that do not start at the
+ * origin of their data.
+ *
+ * @version $Id$
+ */
+public class MorphologyOpTest extends AbstractTest {
+
+    /**
+     * Error when the operation differs from the brute force one.
+     * {0} = the case
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_PIXELS_DIFFER
+        = "MorphologyOpTest.error.pixels.differ";
+
+    public static final String ENTRY_KEY_CASE
+        = "MorphologyOpTest.entry.key.case";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "MorphologyOpTest.entry.key.pixel";
+
+    /**
+     * Number of random rasters checked.
+     */
+    protected static final int RUNS = 4;
+
+    protected static final ColorModel CM = new DirectColorModel
+        (ColorModel.getRGBdefault().getColorSpace(), 32,
+         0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000, true,
+         DataBuffer.TYPE_INT);
+
+    protected boolean doDilation;
+    protected int radiusX;
+    protected int radiusY;
+    protected int width;
+    protected int height;
+
+    /**
+     * @param op "dilate" or "erode"
+     */
+    public MorphologyOpTest(String op, Integer radiusX, Integer radiusY,
+                            Integer width, Integer height) {
+        if ("dilate".equals(op))
+            doDilation = true;
+        else if ("erode".equals(op))
+            doDilation = false;
+        else
+            throw new IllegalArgumentException(op);
+        this.radiusX = radiusX.intValue();
+        this.radiusY = radiusY.intValue();
+        this.width   = width.intValue();
+        this.height  = height.intValue();
+    }
+
+    public String getName() {
+        return (doDilation ? "dilate " : "erode ") + radiusX + "x" + radiusY
+            + " on " + width + "x" + height;
+    }
+
+    public TestReport runImpl() throws Exception {
+        Random rand = new Random(radiusX * 31 + radiusY * 17
+                                 + width * 7 + height);
+        MorphologyOp op = new MorphologyOp(radiusX, radiusY, doDilation);
+
+        for (int run = 0; run < RUNS; run++) {
+            WritableRaster src = createRaster(rand, run);
+            int [] ref = bruteForce(src);
+
+            WritableRaster dst = op.filter(src, null);
+            String diff = compare(ref, dst);
+            if (diff != null)
+                return reportDiff("new raster", diff);
+
+            // Child rasters, with data before and after them.
+            WritableRaster big = CM.createCompatibleWritableRaster
+                (width + 5, height + 3);
+            WritableRaster child = big.createWritableChild
+                (3, 2, width, height, 0, 0, null);
+            child.setDataElements(0, 0, src);
+            WritableRaster bigDst = CM.createCompatibleWritableRaster
+                (width + 4, height + 6);
+            WritableRaster childDst = bigDst.createWritableChild
+                (1, 4, width, height, 0, 0, null);
+            op.filter(child, childDst);
+            diff = compare(ref, childDst);
+            if (diff != null)
+                return reportDiff("child raster", diff);
+
+            // In place.
+            op.filter(src, src);
+            diff = compare(ref, src);
+            if (diff != null)
+                return reportDiff("in place", diff);
+        }
+        return reportSuccess();
+    }
+
+    protected TestReport reportDiff(String c, String diff) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_PIXELS_DIFFER);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_CASE, getName() + ", " + c),
+            new TestReport.Entry(ENTRY_KEY_PIXEL, diff)
+        });
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Creates a raster of random premultiplied pixels.  Some runs use
+     * few distinct values, so that equal values are common, some have
+     * fully transparent and fully opaque areas.
+     */
+    protected WritableRaster createRaster(Random rand, int run) {
+        WritableRaster wr = CM.createCompatibleWritableRaster(width, height);
+        int [] px = new int[width * height];
+        for (int i = 0; i < px.length; i++) {
+            int a;
+            switch (run % 3) {
+            case 0:
+                a = rand.nextInt(256);
+                break;
+            case 1:
+                a = rand.nextInt(3) * 127;
+                break;
+            default:
+                a = (rand.nextInt(4) == 0) ? 0 : 255;
+            }
+            int p = a << 24;
+            for (int c = 0; c < 3; c++) {
+                int v = (a == 0) ? 0 : rand.nextInt(a + 1);
+                p |= v << (8 * c);
+            }
+            px[i] = p;
+        }
+        wr.setDataElements(0, 0, width, height, px);
+        return wr;
+    }
+
+    /**
+     * Returns the pixels of the dilation or erosion of
+     * <code>src</code>, computed from the definition.
+     */
+    protected int [] bruteForce(Raster src) {
+        int [] px = (int [])src.getDataElements(src.getMinX(), src.getMinY(),
+                                                width, height, null);
+        int [] ret = new int[px.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int p = 0;
+                for (int c = 0; c < 4; c++) {
+                    int s = 8 * c;
+                    int v = doDilation ? 0 : 255;
+                    int y0 = Math.max(0, y - radiusY);
+                    int y1 = Math.min(height - 1, y + radiusY);
+                    int x0 = Math.max(0, x - radiusX);
+                    int x1 = Math.min(width - 1, x + radiusX);
+                    for (int j = y0; j <= y1; j++) {
+                        for (int i = x0; i <= x1; i++) {
+                            int cv = (px[j * width + i] >>> s) & 0xff;
+                            v = doDilation ? Math.max(v, cv)
+                                           : Math.min(v, cv);
+                        }
+                    }
+                    p |= v << s;
+                }
+                ret[y * width + x] = p;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a description of the first pixel of <code>wr</code>
+     * that differs from <code>ref</code>, or null.
+     */
+    protected String compare(int [] ref, Raster wr) {
+        int [] px = (int [])wr.getDataElements(wr.getMinX(), wr.getMinY(),
+                                               width, height, null);
+        for (int i = 0; i < ref.length; i++) {
+            if (px[i] != ref[i])
+                return "(" + (i % width) + ", " + (i / width) + "): "
+                    + Integer.toHexString(px[i]) + " != "
+                    + Integer.toHexString(ref[i]);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that storage recycled by <code>RasterPool</code> does not
+ * leak earlier pixels: a cleared raster must be zero, and a
+ * <code>FormatRed</code> asked for an area larger than its source
+ * must leave the area outside the source transparent.  Before each
+ * check, storage of the same size class is filled and released.
+ *
+ * @version $Id$
+ */
+public class RasterPoolTest extends AbstractTest {
+
+    /**
+     * Error when stale pixels show through.
+     * {0} = the case
+     * {1} = the first stale pixel
+     */
+    public static final String ERROR_STALE_PIXELS
+        = "RasterPoolTest.error.stale.pixels";
+
+    public static final String ENTRY_KEY_CASE
+        = "RasterPoolTest.entry.key.case";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "RasterPoolTest.entry.key.pixel";
+
+    protected static final int SIZE = 40;
+
+    public TestReport runImpl() throws Exception {
+        boolean enabled = RasterPool.isEnabled();
+        RasterPool.setEnabled(true);
+        try {
+            String pixel = checkClearedRaster();
+            if (pixel != null)
+                return reportStale("getClearedRaster", pixel);
+            pixel = checkFormatRed();
+            if (pixel != null)
+                return reportStale("FormatRed", pixel);
+        } finally {
+            RasterPool.setEnabled(enabled);
+        }
+        return reportSuccess();
+    }
+
+    protected String checkClearedRaster() {
+        ColorModel cm = GraphicsUtil.sRGB_Unpre;
+        dirty(cm.createCompatibleSampleModel(SIZE, SIZE));
+        WritableRaster wr = RasterPool.getClearedRaster(cm, SIZE, SIZE);
+        try {
+            return findNonZero(wr, 0, 0, SIZE, SIZE);
+        } finally {
+            RasterPool.releaseRaster(wr);
+        }
+    }
+
+    protected String checkFormatRed() {
+        // A 20x20 source, asked for 40x40 pixels around it.
+        BufferedImage bi = new BufferedImage
+            (SIZE/2, SIZE/2, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < bi.getHeight(); y++)
+            for (int x = 0; x < bi.getWidth(); x++)
+                bi.setRGB(x, y, 0x80406080);
+        CachableRed src = new BufferedImageCachableRed(bi);
+        dirty(src.getSampleModel().createCompatibleSampleModel(SIZE, SIZE));
+
+        FormatRed fr = new FormatRed(src, GraphicsUtil.sRGB_Pre);
+        SampleModel sm =
+            fr.getSampleModel().createCompatibleSampleModel(SIZE, SIZE);
+        WritableRaster wr = Raster.createWritableRaster
+            (sm, new Point(-SIZE/4, -SIZE/4));
+        fr.copyData(wr);
+
+        // Zero the area the source covers; what is left must be zero.
+        int [] zeros = new int[(SIZE/2) * 4];
+        for (int y = 0; y < SIZE/2; y++)
+            wr.setPixels(0, y, SIZE/2, 1, zeros);
+        return findNonZero(wr, -SIZE/4, -SIZE/4, SIZE, SIZE);
+    }
+
+    /**
+     * Takes storage for <code>sm</code> from the pool, fills it and
+     * hands it back.
+     */
+    protected static void dirty(SampleModel sm) {
+        WritableRaster wr = RasterPool.getRaster
+            (sm, 0, 0, sm.getWidth(), sm.getHeight());
+        int [] pixel = new int[sm.getNumBands()];
+        for (int b = 0; b < pixel.length; b++)
+            pixel[b] = 0xff;
+        for (int y = 0; y < wr.getHeight(); y++)
+            for (int x = 0; x < wr.getWidth(); x++)
+                wr.setPixel(x, y, pixel);
+        RasterPool.releaseRaster(wr);
+    }
+
+    protected static String findNonZero(WritableRaster wr,
+                                        int x0, int y0, int w, int h) {
+        int [] pixel = new int[wr.getNumBands()];
+        for (int y = y0; y < y0 + h; y++) {
+            for (int x = x0; x < x0 + w; x++) {
+                wr.getPixel(x, y, pixel);
+                for (int b = 0; b < pixel.length; b++)
+                    if (pixel[b] != 0)
+                        return "(" + x + ", " + y + ") band " + b
+                            + " = " + pixel[b];
+            }
+        }
+        return null;
+    }
+
+    protected TestReport reportStale(String c, String pixel) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_STALE_PIXELS);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_CASE, c),
+            new TestReport.Entry(ENTRY_KEY_PIXEL, pixel)
+        });
+        report.setPassed(false);
+        return report;
+    }
+}
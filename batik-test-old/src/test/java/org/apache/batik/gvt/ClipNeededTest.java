@@ -0,0 +1,215 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.renderable.ClipRable8Bit;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks <code>AbstractGraphicsNode.isClipNeeded</code>: the clip of a
+ * node may only be skipped when its path contains the bounds of the
+ * node grown by a device pixel, and the result kept for the path and
+ * transform must be dropped when the geometry of the node or of one of
+ * its children changes.  A node whose clip is skipped must paint as it
+ * does when clipped.
+ *
+ * @version $Id$
+ */
+public class ClipNeededTest extends AbstractTest {
+
+    /**
+     * Error when a clip is found needed, or not, wrongly.
+     * {0} = the step
+     * {1} = the result expected
+     */
+    public static final String ERROR_WRONG_RESULT
+        = "ClipNeededTest.error.wrong.result";
+
+    /**
+     * Error when a node whose clip is skipped paints differently.
+     * {0} = the step
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_RENDERING_DIFFERS
+        = "ClipNeededTest.error.rendering.differs";
+
+    public static final String ENTRY_KEY_STEP
+        = "ClipNeededTest.entry.key.step";
+
+    public static final String ENTRY_KEY_EXPECTED
+        = "ClipNeededTest.entry.key.expected";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "ClipNeededTest.entry.key.pixel";
+
+    protected static final Rectangle2D BOUNDS =
+        new Rectangle2D.Double(10, 10, 50, 40);
+
+    protected static final int SIZE = 100;
+
+    public TestReport runImpl() throws Exception {
+        AffineTransform identity = new AffineTransform();
+        AffineTransform scaled = AffineTransform.getScaleInstance(4, 4);
+        scaled.rotate(0.3);
+
+        // A device pixel is a user unit without a transform, a quarter
+        // of one when scaled by four.
+        ShapeNode node = createNode(BOUNDS);
+        Object [][] steps = {
+            { "exact",          Double.valueOf(0),   identity, Boolean.TRUE },
+            { "half pixel",     Double.valueOf(0.5), identity, Boolean.TRUE },
+            { "pixel and half", Double.valueOf(1.5), identity, Boolean.FALSE },
+            { "scaled",         Double.valueOf(0.5), scaled,   Boolean.FALSE },
+            { "scaled exact",   Double.valueOf(0),   scaled,   Boolean.TRUE }
+        };
+        for (int i = 0; i < steps.length; i++) {
+            double m = ((Double)steps[i][1]).doubleValue();
+            node.setClip(createClip(m));
+            TestReport report = check
+                ((String)steps[i][0], node, (AffineTransform)steps[i][2],
+                 ((Boolean)steps[i][3]).booleanValue());
+            if (report != null)
+                return report;
+        }
+
+        // The result is kept for the path and transform, it must be
+        // dropped when the shape grows past the clip.
+        node.setClip(createClip(1.5));
+        TestReport report = check("before growing", node, identity, false);
+        if (report == null) {
+            node.setShape(new Rectangle2D.Double
+                          (BOUNDS.getX(), BOUNDS.getY(),
+                           BOUNDS.getWidth() + 5, BOUNDS.getHeight()));
+            report = check("grown", node, identity, true);
+        }
+        if (report != null)
+            return report;
+
+        // The same for a group whose child changes.
+        ShapeNode child = createNode(BOUNDS);
+        CompositeGraphicsNode group = new CompositeGraphicsNode();
+        group.getChildren().add(child);
+        group.setClip(createClip(1.5));
+        report = check("group", group, identity, false);
+        if (report == null) {
+            child.setShape(new Rectangle2D.Double
+                           (BOUNDS.getX() - 5, BOUNDS.getY(),
+                            BOUNDS.getWidth(), BOUNDS.getHeight()));
+            report = check("child moved", group, identity, true);
+        }
+        if (report != null)
+            return report;
+
+        // A clip that is skipped must not change the rendering.
+        node = createNode(BOUNDS);
+        node.setClip(createClip(1.5));
+        CompositeGraphicsNode unclipped = new CompositeGraphicsNode();
+        unclipped.getChildren().add(createNode(BOUNDS));
+        String [] names = { "identity rendering", "scaled rendering" };
+        AffineTransform [] xforms = { identity, new AffineTransform
+                                      (1.3, 0.2, -0.1, 1.2, 3.5, 1.25) };
+        for (int i = 0; i < xforms.length; i++) {
+            report = checkRendering(names[i], paint(node, xforms[i]),
+                                    paint(unclipped, xforms[i]));
+            if (report != null)
+                return report;
+        }
+        return reportSuccess();
+    }
+
+    protected static ShapeNode createNode(Rectangle2D r) {
+        ShapeNode node = new ShapeNode();
+        node.setShape(r);
+        FillShapePainter fsp = new FillShapePainter(r);
+        fsp.setPaint(Color.blue);
+        node.setShapePainter(fsp);
+        return node;
+    }
+
+    /**
+     * Returns a clip to <code>BOUNDS</code> grown by <code>margin</code>
+     * on each side.
+     */
+    protected static ClipRable8Bit createClip(double margin) {
+        return new ClipRable8Bit
+            (null, new Rectangle2D.Double
+             (BOUNDS.getX() - margin, BOUNDS.getY() - margin,
+              BOUNDS.getWidth()  + 2 * margin,
+              BOUNDS.getHeight() + 2 * margin), true);
+    }
+
+    protected TestReport check(String step, AbstractGraphicsNode node,
+                               AffineTransform at, boolean expected) {
+        if (node.isClipNeeded(at) == expected)
+            return null;
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_WRONG_RESULT);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_STEP, step),
+            new TestReport.Entry(ENTRY_KEY_EXPECTED, expected ? "needed"
+                                                              : "skipped")
+        });
+        report.setPassed(false);
+        return report;
+    }
+
+    protected static BufferedImage paint(GraphicsNode node,
+                                         AffineTransform at) {
+        BufferedImage bi = new BufferedImage
+            (SIZE, SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = GraphicsUtil.createGraphics(bi);
+        g.transform(at);
+        node.paint(g);
+        g.dispose();
+        return bi;
+    }
+
+    protected TestReport checkRendering(String step, BufferedImage img,
+                                        BufferedImage ref) {
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int a = ref.getRGB(x, y);
+                int b = img.getRGB(x, y);
+                if (a == b)
+                    continue;
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_RENDERING_DIFFERS);
+                report.setDescription(new TestReport.Entry[] {
+                    new TestReport.Entry(ENTRY_KEY_STEP, step),
+                    new TestReport.Entry
+                    (ENTRY_KEY_PIXEL, "(" + x + ", " + y + "): "
+                     + Integer.toHexString(a) + " != "
+                     + Integer.toHexString(b))
+                });
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.filter;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.awt.image.renderable.RenderContext;
+
+import org.apache.batik.ext.awt.LinearGradientPaint;
+import org.apache.batik.ext.awt.MultipleGradientPaint;
+import org.apache.batik.ext.awt.RadialGradientPaint;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.FillShapePainter;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.ShapeNode;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that a mask whose content is a plain filled shape, drawn
+ * directly as alpha by <code>MaskRable8Bit.createShapeMask</code>,
+ * gives the mask values of the general path, which renders the mask
+ * content and converts it to alpha.  The values must be equal inside
+ * and outside a shape of a solid colour; the grey stops of a gradient
+ * are rounded before they are interpolated, which costs a level.  On
+ * the edges of the shape the two paths round the coverage
+ * differently, so a value there need only be within the values around
+ * the same pixel of the other mask.  A gradient interpolated in linear
+ * RGB must be left to the general path.
+ *
+ * @version $Id$
+ */
+public class MaskRable8BitTest extends AbstractTest {
+
+    /**
+     * Error when the shape mask is not used for the content.
+     * {0} = the content
+     */
+    public static final String ERROR_NO_SHAPE_MASK
+        = "MaskRable8BitTest.error.no.shape.mask";
+
+    /**
+     * Error when the shape mask is used for content it does not draw
+     * as the general path does.
+     * {0} = the content
+     */
+    public static final String ERROR_SHAPE_MASK
+        = "MaskRable8BitTest.error.shape.mask";
+
+    /**
+     * Error when the two paths give different mask values.
+     * {0} = the content
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_MASKS_DIFFER
+        = "MaskRable8BitTest.error.masks.differ";
+
+    public static final String ENTRY_KEY_CONTENT
+        = "MaskRable8BitTest.entry.key.content";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "MaskRable8BitTest.entry.key.pixel";
+
+    public static final String CONTENT_SOLID  = "solid";
+    public static final String CONTENT_GROUP  = "group";
+    public static final String CONTENT_LINEAR = "linear";
+    public static final String CONTENT_RADIAL = "radial";
+    public static final String CONTENT_LINEAR_RGB = "linearRGB";
+
+    /**
+     * Largest difference allowed inside a gradient.
+     */
+    protected static final int GRADIENT_TOLERANCE = 1;
+
+    protected static final Rectangle2D REGION =
+        new Rectangle2D.Double(-5, -5, 110, 90);
+
+    protected static final Color COLOR = new Color(200, 120, 40);
+
+    /**
+     * The content of the mask.
+     */
+    protected String content;
+
+    /**
+     * Whether to render with anti-aliasing.
+     */
+    protected boolean antialias;
+
+    public MaskRable8BitTest(String content, Boolean antialias) {
+        this.content = content;
+        this.antialias = antialias.booleanValue();
+    }
+
+    public String getName() {
+        return content + (antialias ? " antialiased" : "");
+    }
+
+    public TestReport runImpl() throws Exception {
+        MaskRable8Bit mask = new MaskRable8Bit
+            (null, createMaskNode(), REGION);
+
+        AffineTransform at = new AffineTransform(1.7, 0.2, -0.3, 1.4,
+                                                 12.25, 7.5);
+        RenderingHints hints = new RenderingHints
+            (RenderingHints.KEY_ANTIALIASING,
+             antialias ? RenderingHints.VALUE_ANTIALIAS_ON
+                       : RenderingHints.VALUE_ANTIALIAS_OFF);
+        RenderContext rc = new RenderContext(at, hints);
+
+        CachableRed shapeMask = mask.createShapeMask(rc);
+        if (CONTENT_LINEAR_RGB.equals(content)) {
+            if (shapeMask == null)
+                return reportSuccess();
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_SHAPE_MASK);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_CONTENT, getName())
+            });
+            report.setPassed(false);
+            return report;
+        }
+        if (shapeMask == null) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_NO_SHAPE_MASK);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_CONTENT, getName())
+            });
+            report.setPassed(false);
+            return report;
+        }
+        RenderedImage general = mask.getMaskAlpha().createRendering
+            ((RenderContext)rc.clone());
+
+        int tolerance = (createPaint() instanceof Color)
+            ? 0 : GRADIENT_TOLERANCE;
+        String diff = compare(shapeMask, GraphicsUtil.wrap(general),
+                              tolerance);
+        if (diff != null) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_MASKS_DIFFER);
+            report.setDescription(new TestReport.Entry[] {
+                new TestReport.Entry(ENTRY_KEY_CONTENT, getName()),
+                new TestReport.Entry(ENTRY_KEY_PIXEL, diff)
+            });
+            report.setPassed(false);
+            return report;
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Builds the mask content: an ellipse, through groups as the
+     * bridge builds it.
+     */
+    protected GraphicsNode createMaskNode() {
+        ShapeNode shape = new ShapeNode();
+        shape.setShape(new Ellipse2D.Double(10, 5, 80, 60));
+        FillShapePainter fsp = new FillShapePainter(shape.getShape());
+        fsp.setPaint(createPaint());
+        shape.setShapePainter(fsp);
+
+        GraphicsNode gn = shape;
+        if (CONTENT_GROUP.equals(content)) {
+            shape.setComposite(AlphaComposite.getInstance
+                               (AlphaComposite.SRC_OVER, 0.6f));
+            CompositeGraphicsNode g = new CompositeGraphicsNode();
+            g.getChildren().add(shape);
+            g.setTransform(new AffineTransform(0.9, 0, 0, 1.1, 3, -2));
+            g.setComposite(AlphaComposite.getInstance
+                           (AlphaComposite.SRC_OVER, 0.7f));
+            gn = g;
+        }
+        CompositeGraphicsNode root = new CompositeGraphicsNode();
+        root.getChildren().add(gn);
+        return root;
+    }
+
+    protected Paint createPaint() {
+        Color transparent = new Color(COLOR.getRed(), COLOR.getGreen(),
+                                      COLOR.getBlue(), 30);
+        float [] fractions = { 0f, 0.4f, 1f };
+        Color [] colors = { COLOR, new Color(COLOR.getRGB() & 0x80ffffff,
+                                             true), transparent };
+        if (CONTENT_LINEAR.equals(content) ||
+            CONTENT_LINEAR_RGB.equals(content))
+            return new LinearGradientPaint
+                (new Point2D.Double(10, 5), new Point2D.Double(90, 65),
+                 fractions, colors, MultipleGradientPaint.REFLECT,
+                 CONTENT_LINEAR.equals(content)
+                 ? MultipleGradientPaint.SRGB
+                 : MultipleGradientPaint.LINEAR_RGB,
+                 new AffineTransform());
+        if (CONTENT_RADIAL.equals(content))
+            return new RadialGradientPaint
+                (new Point2D.Double(50, 35), 30,
+                 new Point2D.Double(40, 30), fractions, colors,
+                 MultipleGradientPaint.NO_CYCLE,
+                 MultipleGradientPaint.SRGB, new AffineTransform());
+        return COLOR;
+    }
+
+    /**
+     * Returns a description of the first pixel where the masks differ
+     * by more than allowed, or null.  Pixels next to a pixel of
+     * another value, in either mask, are on an edge.
+     */
+    protected static String compare(CachableRed shapeMask,
+                                    CachableRed general, int tolerance) {
+        Rectangle r = shapeMask.getBounds();
+        Raster a = shapeMask.getData(r);
+        WritableRaster b = general.getColorModel()
+            .createCompatibleWritableRaster(r.width, r.height)
+            .createWritableTranslatedChild(r.x, r.y);
+        general.copyData(b);
+        int alpha = b.getNumBands() - 1;
+
+        for (int y = r.y; y < r.y + r.height; y++) {
+            for (int x = r.x; x < r.x + r.width; x++) {
+                int va = a.getSample(x, y, 0);
+                int vb = b.getSample(x, y, alpha);
+                if (Math.abs(va - vb) <= tolerance)
+                    continue;
+                if (isEdge(a, 0, x, y) || isEdge(b, alpha, x, y)) {
+                    if (isAround(b, alpha, x, y, va, tolerance) &&
+                        isAround(a, 0, x, y, vb, tolerance))
+                        continue;
+                }
+                return "(" + x + ", " + y + "): " + va + " != " + vb;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if a neighbour of (x, y) has another value than
+     * (x, y) in the band <code>b</code> of <code>ras</code>.
+     */
+    protected static boolean isEdge(Raster ras, int b, int x, int y) {
+        Rectangle r = ras.getBounds();
+        int v = ras.getSample(x, y, b);
+        for (int j = -1; j <= 1; j++) {
+            for (int i = -1; i <= 1; i++) {
+                if (r.contains(x + i, y + j) &&
+                    (ras.getSample(x + i, y + j, b) != v))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if <code>v</code> is, give or take
+     * <code>tolerance</code>, between the smallest and the largest
+     * values around (x, y) in the band <code>b</code> of
+     * <code>ras</code>.
+     */
+    protected static boolean isAround(Raster ras, int b, int x, int y,
+                                      int v, int tolerance) {
+        Rectangle r = ras.getBounds();
+        int min = 255;
+        int max = 0;
+        for (int j = -1; j <= 1; j++) {
+            for (int i = -1; i <= 1; i++) {
+                if (!r.contains(x + i, y + j))
+                    continue;
+                int s = ras.getSample(x + i, y + j, b);
+                min = Math.min(min, s);
+                max = Math.max(max, s);
+            }
+        }
+        return (v >= min - tolerance) && (v <= max + tolerance);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.flow;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that <code>TextLineBreaks.getCharCharClass</code> gives, for
+ * every character, the line break class the original lookup gave: a
+ * table for the first 256 characters, filled by walking the ranges of
+ * <code>raw_data</code>, and a binary search of the ranges for the
+ * others.
+ *
+ * @version $Id$
+ */
+public class TextLineBreaksTest extends AbstractTest {
+
+    /**
+     * Error when a character has a different line break class.
+     * {0} = the character
+     * {1} = the class expected
+     * {2} = the class found
+     */
+    public static final String ERROR_WRONG_CLASS
+        = "TextLineBreaksTest.error.wrong.class";
+
+    public static final String ENTRY_KEY_CHAR
+        = "TextLineBreaksTest.entry.key.char";
+
+    public static final String ENTRY_KEY_EXPECTED_CLASS
+        = "TextLineBreaksTest.entry.key.expected.class";
+
+    public static final String ENTRY_KEY_FOUND_CLASS
+        = "TextLineBreaksTest.entry.key.found.class";
+
+    public String getName() {
+        return "line break class of every character";
+    }
+
+    public TestReport runImpl() throws Exception {
+        byte [] quickLut = createQuickLut();
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            char ch = (char)c;
+            byte expected = (c < 256) ? quickLut[c] : searchCharClass(ch);
+            byte found = TextLineBreaks.getCharCharClass(ch);
+            if (found != expected) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_WRONG_CLASS);
+                report.setDescription(new TestReport.Entry[] {
+                    new TestReport.Entry(ENTRY_KEY_CHAR,
+                                         "U+" + Integer.toHexString(c)),
+                    new TestReport.Entry(ENTRY_KEY_EXPECTED_CLASS,
+                                         String.valueOf(expected)),
+                    new TestReport.Entry(ENTRY_KEY_FOUND_CLASS,
+                                         String.valueOf(found))
+                });
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Builds the table of the classes of the first 256 characters as
+     * the original lookup did.
+     */
+    protected static byte [] createQuickLut() {
+        char [] rawData = TextLineBreaks.raw_data;
+        byte [] rawClasses = TextLineBreaks.raw_classes;
+        byte [] quickLut = new byte[256];
+        int entry = 0;
+        int i = 0;
+        while (i < 256) {
+            int max = rawData[2*entry+1];
+            byte cls = rawClasses[entry];
+            while (i <= max) {
+                quickLut[i] = cls;
+                i++;
+                if (i >= 256)
+                    break;
+            }
+            entry++;
+        }
+        return quickLut;
+    }
+
+    /**
+     * The original binary search of the ranges of <code>raw_data</code>.
+     */
+    protected static byte searchCharClass(char ch) {
+        char [] rawData = TextLineBreaks.raw_data;
+        int len = rawData.length;
+        int l = 0, r = (len/2)-1;
+        int entry = (l+r)/2;
+        while (l <= r) {
+            char min = rawData[2*entry];
+            char max = rawData[2*entry+1];
+            if (ch < min)
+                r = entry-1;
+            else if (ch > max)
+                l = entry+1;
+            else
+                break;
+            entry = (l+r)/2;
+        }
+        return TextLineBreaks.raw_classes[entry];
+    }
+}
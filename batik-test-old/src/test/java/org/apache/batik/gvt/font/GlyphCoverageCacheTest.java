@@ -0,0 +1,287 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.font;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+
+import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
+import org.apache.batik.gvt.text.TextPaintInfo;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks the drawing of small text from the glyphs rasterized by the
+ * <code>GlyphCoverageCache</code>: it must be within
+ * <code>MAX_DIFFERENCE</code> of filling the glyph outlines, and text
+ * that is transformed, painted, stroked or composited otherwise than
+ * the cache allows, or too large, must be drawn from its outlines.
+ *
+ * @version $Id$
+ */
+public class GlyphCoverageCacheTest extends AbstractTest {
+
+    /**
+     * Error when text is drawn from the cache, or not, wrongly.
+     * {0} = the step
+     * {1} = the path expected
+     */
+    public static final String ERROR_WRONG_PATH
+        = "GlyphCoverageCacheTest.error.wrong.path";
+
+    /**
+     * Error when the text drawn from the cache differs too much from
+     * the text filled.
+     * {0} = the step
+     * {1} = the first differing pixel
+     */
+    public static final String ERROR_RENDERING_DIFFERS
+        = "GlyphCoverageCacheTest.error.rendering.differs";
+
+    public static final String ENTRY_KEY_STEP
+        = "GlyphCoverageCacheTest.entry.key.step";
+
+    public static final String ENTRY_KEY_EXPECTED
+        = "GlyphCoverageCacheTest.entry.key.expected";
+
+    public static final String ENTRY_KEY_PIXEL
+        = "GlyphCoverageCacheTest.entry.key.pixel";
+
+    /**
+     * Largest difference allowed in a channel between text drawn from
+     * the cache and text filled, as glyph origins are rounded
+     * horizontally to an eighth of a pixel.
+     */
+    protected static final int MAX_DIFFERENCE = 22;
+
+    protected static final String TEXT = "Hello, World! fig. 1234 ~AVW@";
+
+    protected static final int WIDTH  = 320;
+    protected static final int HEIGHT = 60;
+
+    public TestReport runImpl() throws Exception {
+        boolean enabled = GlyphCoverageCache.isEnabled();
+        try {
+            GlyphCoverageCache.setEnabled(true);
+            GlyphCoverageCache.clear();
+            TestReport report = checkCached();
+            if (report == null)
+                report = checkNotCached();
+            return (report == null) ? reportSuccess() : report;
+        } finally {
+            GlyphCoverageCache.clear();
+            GlyphCoverageCache.setEnabled(enabled);
+        }
+    }
+
+    /**
+     * Small, axis aligned text filled with a colour is drawn from the
+     * cache, close to the filled outlines.
+     */
+    protected TestReport checkCached() {
+        Object [][] steps = {
+            { "plain", AffineTransform.getTranslateInstance(0, 0),
+              new Color(20, 40, 160) },
+            { "sub pixel", AffineTransform.getTranslateInstance(0.3, 0.6),
+              Color.black },
+            { "scaled", new AffineTransform(1.5, 0, 0, 1.5, 0.25, 0.1),
+              new Color(200, 30, 30) },
+            { "translucent", AffineTransform.getTranslateInstance(0.5, 0),
+              new Color(0, 120, 0, 128) }
+        };
+        for (int i = 0; i < steps.length; i++) {
+            String step = (String)steps[i][0];
+            AffineTransform at = (AffineTransform)steps[i][1];
+            TextPaintInfo tpi = createPaintInfo((Paint)steps[i][2]);
+
+            int lookups = getLookupCount();
+            BufferedImage img = draw(11, tpi, at, null);
+            if (getLookupCount() == lookups)
+                return reportPath(step, "cache");
+
+            GlyphCoverageCache.setEnabled(false);
+            BufferedImage ref = draw(11, tpi, at, null);
+            GlyphCoverageCache.setEnabled(true);
+            TestReport report = compare(step, img, ref, MAX_DIFFERENCE);
+            if (report != null)
+                return report;
+        }
+        return null;
+    }
+
+    /**
+     * Text the cache can not draw is drawn from its outlines, as it is
+     * when the cache is disabled.
+     */
+    protected TestReport checkNotCached() {
+        AffineTransform identity = new AffineTransform();
+        AffineTransform rotated = AffineTransform.getRotateInstance(0.2);
+        AffineTransform stretched = AffineTransform.getScaleInstance(2, 1);
+        AffineTransform flipped = AffineTransform.getScaleInstance(-1, 1);
+        flipped.translate(-WIDTH, 0);
+        Paint gradient = new GradientPaint(0, 0, Color.red,
+                                           WIDTH, 0, Color.blue);
+        TextPaintInfo stroked = createPaintInfo(Color.black);
+        stroked.strokePaint = Color.red;
+        stroked.strokeStroke = new BasicStroke(0.5f);
+
+        Object [][] steps = {
+            { "rotated", Integer.valueOf(11), createPaintInfo(Color.black),
+              rotated, null },
+            { "stretched", Integer.valueOf(11), createPaintInfo(Color.black),
+              stretched, null },
+            { "flipped", Integer.valueOf(11), createPaintInfo(Color.black),
+              flipped, null },
+            { "gradient", Integer.valueOf(11), createPaintInfo(gradient),
+              identity, null },
+            { "stroked", Integer.valueOf(11), stroked, identity, null },
+            { "src composite", Integer.valueOf(11),
+              createPaintInfo(new Color(0, 0, 255, 128)), identity,
+              AlphaComposite.Src },
+            { "xor composite", Integer.valueOf(11),
+              createPaintInfo(Color.black), identity, AlphaComposite.Xor },
+            { "large", Integer.valueOf(40), createPaintInfo(Color.black),
+              identity, null }
+        };
+        for (int i = 0; i < steps.length; i++) {
+            String step = (String)steps[i][0];
+            int size = ((Integer)steps[i][1]).intValue();
+            TextPaintInfo tpi = (TextPaintInfo)steps[i][2];
+            AffineTransform at = (AffineTransform)steps[i][3];
+            Composite comp = (Composite)steps[i][4];
+
+            int lookups = getLookupCount();
+            BufferedImage img = draw(size, tpi, at, comp);
+            if (getLookupCount() != lookups)
+                return reportPath(step, "outline");
+
+            GlyphCoverageCache.setEnabled(false);
+            BufferedImage ref = draw(size, tpi, at, comp);
+            GlyphCoverageCache.setEnabled(true);
+            TestReport report = compare(step, img, ref, 0);
+            if (report != null)
+                return report;
+        }
+        return null;
+    }
+
+    protected static int getLookupCount() {
+        return GlyphCoverageCache.getHitCount()
+            + GlyphCoverageCache.getMissCount();
+    }
+
+    protected static TextPaintInfo createPaintInfo(Paint fill) {
+        TextPaintInfo tpi = new TextPaintInfo();
+        tpi.visible = true;
+        tpi.fillPaint = fill;
+        return tpi;
+    }
+
+    /**
+     * Draws <code>TEXT</code> at <code>size</code> on a light
+     * background, through <code>at</code> and with <code>comp</code>
+     * if not null.
+     */
+    protected static BufferedImage draw(int size, TextPaintInfo tpi,
+                                        AffineTransform at,
+                                        Composite comp) {
+        AttributedString as = new AttributedString(TEXT);
+        as.addAttribute
+            (GVTAttributedCharacterIterator.TextAttribute.PAINT_INFO, tpi);
+        AttributedCharacterIterator aci = as.getIterator();
+
+        AWTGVTFont font = new AWTGVTFont("SansSerif", Font.PLAIN, size);
+        GVTGlyphVector gv = font.createGlyphVector
+            (new FontRenderContext(null, true, true), aci);
+        gv.performDefaultLayout();
+
+        BufferedImage bi = new BufferedImage
+            (WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = bi.createGraphics();
+        g.setPaint(new Color(240, 230, 200));
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                           RenderingHints.VALUE_ANTIALIAS_ON);
+        g.transform(at);
+        g.translate(5, 20);
+        if (comp != null)
+            g.setComposite(comp);
+        gv.draw(g, aci);
+        g.dispose();
+        return bi;
+    }
+
+    protected TestReport reportPath(String step, String expected) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_WRONG_PATH);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_STEP, step),
+            new TestReport.Entry(ENTRY_KEY_EXPECTED, expected)
+        });
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Returns a report of the first pixel where a channel of
+     * <code>img</code> and <code>ref</code> differ by more than
+     * <code>tolerance</code>, or null.
+     */
+    protected TestReport compare(String step, BufferedImage img,
+                                 BufferedImage ref, int tolerance) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = ref.getRGB(x, y);
+                int b = img.getRGB(x, y);
+                int diff = 0;
+                for (int s = 0; s < 32; s += 8) {
+                    diff = Math.max(diff, Math.abs(((a >>> s) & 0xff) -
+                                                   ((b >>> s) & 0xff)));
+                }
+                if (diff <= tolerance)
+                    continue;
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_RENDERING_DIFFERS);
+                report.setDescription(new TestReport.Entry[] {
+                    new TestReport.Entry(ENTRY_KEY_STEP, step),
+                    new TestReport.Entry
+                    (ENTRY_KEY_PIXEL, "(" + x + ", " + y + "): "
+                     + Integer.toHexString(a) + " != "
+                     + Integer.toHexString(b))
+                });
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.text;
+
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextAttribute;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.text.Bidi;
+import java.util.Map;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks the text <code>BidiAttributedCharacterIterator</code> leaves
+ * in logical order without reordering it: every code point it takes
+ * as left to right must be at level 0 for <code>java.text.Bidi</code>,
+ * alone and among left to right text, and the view it then gives of
+ * a chunk must be at <code>BIDI_LEVEL</code> 0, without null attribute
+ * values, and with the identity char map offset by the chunk start.
+ *
+ * @version $Id$
+ */
+public class BidiAttributedCharacterIteratorTest extends AbstractTest {
+
+    /**
+     * Error when a check fails.
+     * {0} = the step
+     * {1} = what was found
+     */
+    public static final String ERROR_CHECK_FAILED
+        = "BidiAttributedCharacterIteratorTest.error.check.failed";
+
+    public static final String ENTRY_KEY_STEP
+        = "BidiAttributedCharacterIteratorTest.entry.key.step";
+
+    public static final String ENTRY_KEY_FOUND
+        = "BidiAttributedCharacterIteratorTest.entry.key.found";
+
+    public static final String CHECK_CLASSES       = "leftToRightClasses";
+    public static final String CHECK_LEFT_TO_RIGHT = "leftToRightIterator";
+
+    /**
+     * The text around each code point taken as left to right, which
+     * is checked in each of them.
+     */
+    protected static final String [][] CONTEXTS = {
+        { "",   ""   },
+        { "a",  "b"  },
+        { "1",  "2"  },
+        { "a ", ".1" }
+    };
+
+    protected static final String TEXT = "Left to right: 1,234.5 (ok)";
+
+    /**
+     * The text before the chunk, and the index of the chunk in its
+     * text element.
+     */
+    protected static final String PREFIX = "xyz";
+    protected static final int CHUNK_START = 7;
+
+    /**
+     * An attribute set to null on part of the chunk.
+     */
+    protected static final AttributedCharacterIterator.Attribute
+        NULL_ATTRIBUTE = new TestAttribute("null");
+
+    protected static final AttributedCharacterIterator.Attribute
+        BIDI_LEVEL = GVTAttributedCharacterIterator.TextAttribute.BIDI_LEVEL;
+
+    /**
+     * The check to do.
+     */
+    protected String check;
+
+    public BidiAttributedCharacterIteratorTest(String check) {
+        this.check = check;
+    }
+
+    public String getName() {
+        return super.getName() + "." + check;
+    }
+
+    public TestReport runImpl() throws Exception {
+        String failure;
+        if (CHECK_CLASSES.equals(check))
+            failure = checkClasses();
+        else if (CHECK_LEFT_TO_RIGHT.equals(check))
+            failure = checkLeftToRight();
+        else
+            throw new IllegalArgumentException(check);
+        if (failure == null)
+            return reportSuccess();
+
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_CHECK_FAILED);
+        report.setDescription(new TestReport.Entry[] {
+            new TestReport.Entry(ENTRY_KEY_STEP, check),
+            new TestReport.Entry(ENTRY_KEY_FOUND, failure)
+        });
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Checks every code point <code>isLeftToRight</code> accepts, in
+     * each of <code>CONTEXTS</code>, against <code>java.text.Bidi</code>
+     * with a default left to right base direction, as a
+     * <code>TextLayout</code> lays it out.
+     */
+    protected String checkClasses() {
+        int accepted = 0;
+        for (int cp = 0; cp <= Character.MAX_CODE_POINT; cp++) {
+            String s = new String(Character.toChars(cp));
+            AttributedString as = new AttributedString(s);
+            if (!BidiAttributedCharacterIterator.isLeftToRight
+                (as.getIterator()))
+                continue;
+            accepted++;
+            for (int i = 0; i < CONTEXTS.length; i++) {
+                String text = CONTEXTS[i][0] + s + CONTEXTS[i][1];
+                Bidi bidi = new Bidi
+                    (text, Bidi.DIRECTION_DEFAULT_LEFT_TO_RIGHT);
+                if (!bidi.isLeftToRight())
+                    return "U+" + Integer.toHexString(cp)
+                        + " not left to right in \"" + CONTEXTS[i][0]
+                        + "_" + CONTEXTS[i][1] + "\"";
+            }
+        }
+        // Latin letters at least must not take the reordering path.
+        if (accepted < 128)
+            return accepted + " code points taken as left to right";
+        return null;
+    }
+
+    /**
+     * Builds the iterator of a left to right chunk that does not start
+     * its text, as <code>StrokingTextPainter</code> does, and checks
+     * its characters, attributes and char map.
+     */
+    protected String checkLeftToRight() {
+        int len = TEXT.length();
+        int begin = PREFIX.length();
+        AttributedString as = new AttributedString(PREFIX + TEXT + "...");
+        as.addAttribute(TextAttribute.SIZE, 12f);
+        as.addAttribute(NULL_ATTRIBUTE, null, begin + 2, begin + 8);
+        AttributedCharacterIterator chunk =
+            new AttributedCharacterSpanIterator
+            (as.getIterator(), begin, begin + len);
+
+        BidiAttributedCharacterIterator bidi =
+            new BidiAttributedCharacterIterator
+            (chunk, new FontRenderContext(null, true, true), CHUNK_START);
+        // The copy made for reordering starts at 0, the view keeps the
+        // indices of the chunk.
+        if (bidi.getBeginIndex() != begin)
+            return "chunk reordered, begins at " + bidi.getBeginIndex();
+
+        int [] charMap = bidi.getCharMap();
+        if (charMap.length != len)
+            return "char map of " + charMap.length + " chars";
+        for (int i = 0; i < len; i++) {
+            if (charMap[i] != CHUNK_START + i)
+                return "char " + i + " mapped to " + charMap[i];
+        }
+
+        if (!bidi.getAllAttributeKeys().contains(BIDI_LEVEL))
+            return "no BIDI_LEVEL key";
+
+        AttributedCharacterIterator [] its = {
+            bidi, (AttributedCharacterIterator)bidi.clone()
+        };
+        for (int k = 0; k < its.length; k++) {
+            AttributedCharacterIterator it = its[k];
+            int i = 0;
+            for (char c = it.first();
+                 c != AttributedCharacterIterator.DONE;
+                 c = it.next(), i++) {
+                if (c != TEXT.charAt(i))
+                    return "char " + i + " is '" + c + "'";
+                String failure = checkAttributes(i, it);
+                if (failure != null)
+                    return failure;
+            }
+            if (i != len)
+                return i + " chars iterated";
+        }
+        return null;
+    }
+
+    /**
+     * Checks the attributes of the char <code>i</code> of the chunk,
+     * at the current index of <code>it</code>.
+     */
+    protected static String checkAttributes(int i,
+                                            AttributedCharacterIterator it) {
+        Object level = it.getAttribute(BIDI_LEVEL);
+        if (!Integer.valueOf(0).equals(level))
+            return "char " + i + " at level " + level;
+
+        Map attrs = it.getAttributes();
+        if (!Integer.valueOf(0).equals(attrs.get(BIDI_LEVEL)))
+            return "char " + i + " without BIDI_LEVEL 0 in " + attrs;
+        if (attrs.containsKey(NULL_ATTRIBUTE) || attrs.containsValue(null))
+            return "char " + i + " with a null value in " + attrs;
+        if (!Float.valueOf(12f).equals(attrs.get(TextAttribute.SIZE)))
+            return "char " + i + " without its size in " + attrs;
+        return null;
+    }
+
+    protected static class TestAttribute
+        extends AttributedCharacterIterator.Attribute {
+
+        protected TestAttribute(String name) {
+            super(name);
+        }
+    }
+}
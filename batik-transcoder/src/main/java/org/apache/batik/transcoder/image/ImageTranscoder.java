@@ -111,7 +111,6 @@ public abstract class ImageTranscoder extends SVGAbstractTranscoder {
             renderer.repaint(curTxf.createInverse().
                              createTransformedShape(raoi));
             BufferedImage rend = renderer.getOffScreen();
-            renderer = null; // We're done with it...
 
             BufferedImage dest = createImage(w, h);
 
@@ -127,6 +126,10 @@ public abstract class ImageTranscoder extends SVGAbstractTranscoder {
             }
             g2d.dispose();
             rend = null; // We're done with it...
+            // Hands the offscreen buffers back to the raster pool
+            // for the next transcode.
+            renderer.dispose();
+            renderer = null;
             writeImage(dest, output);
         } catch (Exception ex) {
             throw new TranscoderException(ex);